@@ -2,6 +2,7 @@ package cloud.nndi.labs.kapenta;
 
 import cloud.nndi.labs.kapenta.command.GenerateCommand;
 import cloud.nndi.labs.kapenta.command.KapentaCommand;
+import cloud.nndi.labs.kapenta.command.RenderCommand;
 import cloud.nndi.labs.kapenta.command.ServerCommand;
 import picocli.CommandLine;
 
@@ -22,6 +23,7 @@ public class Main {
         int exitCode = new CommandLine(new KapentaCommand())
                 .addSubcommand("server", new ServerCommand())
                 .addSubcommand("generate", new GenerateCommand())
+                .addSubcommand("render", new RenderCommand())
                 .execute(args);
         System.exit(exitCode);
     }
@@ -7,7 +7,10 @@ public enum OutputType {
     NONE("none"),
     PDF("application/pdf"),
     HTML("text/html"),
-    TXT("text/plain");
+    TXT("text/plain"),
+    CSV("text/csv"),
+    NDJSON("application/x-ndjson"),
+    XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
 
     final String contentType;
 
@@ -23,6 +26,14 @@ public enum OutputType {
         return getContentType("utf-8");
     }
 
+    /**
+     * The content type of responses of this type. Text is UTF-8 encoded, a workbook is a
+     * zip archive and has no charset.
+     */
+    public String getResponseContentType() {
+        return this == XLSX ? contentType : getContentTypeUtf8();
+    }
+
     public String getContentType(String charset) {
         return String.format("%s;charset=%s", contentType, charset);
     }
@@ -4,19 +4,27 @@ import cloud.nndi.labs.kapenta.config.*;
 import cloud.nndi.labs.kapenta.http.*;
 import cloud.nndi.labs.kapenta.http.filter.BasicAuthenticationFilter;
 import cloud.nndi.labs.kapenta.http.filter.CorsFilter;
+import cloud.nndi.labs.kapenta.io.FileWatcher;
+import cloud.nndi.labs.kapenta.jobs.ReportJobs;
 import cloud.nndi.labs.kapenta.openapi.OpenAPISchemaGenerator;
+import cloud.nndi.labs.kapenta.pentaho.Generator;
+import cloud.nndi.labs.kapenta.pentaho.sql.ConnectionPools;
+import cloud.nndi.labs.kapenta.reportdefinition.StartupSnapshot;
+import cloud.nndi.labs.kapenta.schedule.ReportScheduler;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import io.javalin.Javalin;
+import io.micrometer.core.instrument.Metrics;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
-import org.openapi4j.parser.model.v3.OpenApi3;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -36,6 +44,12 @@ public class Server {
     public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private ApiConfiguration configuration;
     private final Path yamlFileDir;
+    private final Path yamlFile;
+    private OpenAPIRoute openAPIRoute;
+    private ReportsRoute reportsRoute;
+    private Path snapshotFile;
+    private Optional<StartupSnapshot> snapshot = Optional.empty();
+    private FileWatcher fileWatcher;
     private final Reports reports;
     private Javalin httpServer;
     private PrometheusMeterRegistry prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
@@ -71,15 +85,19 @@ public class Server {
         Objects.requireNonNull(apiRoot);
         Objects.requireNonNull(availableReports);
         this.yamlFileDir = Paths.get("."); // For unspecified path, default to cwd
+        this.yamlFile = null;
         this.reports = new Reports(apiRoot, availableReports);
     }
 
     private Server(String ipAddress, int port, String resourceDefinitionYaml) {
         this.yamlFileDir = Objects.requireNonNull(Paths.get(resourceDefinitionYaml).getParent(), "Failed to find directory YAML is in");
+        this.yamlFile = Paths.get(resourceDefinitionYaml);
         this.configuration = createFromYaml(resourceDefinitionYaml);
         this.configureLogging(configuration);
         this.httpServer = createHttpServer(ipAddress, port);
+        this.loadSnapshot();
         this.configureOpenAPIEndpoint();
+        this.configureTemplateCache(configuration);
         this.configurePrometheusMetricsEndpoint();
         this.reports = createReportsFromConfiguration(configuration);
     }
@@ -102,14 +120,22 @@ public class Server {
 
         final String rootPath = configuration.getApiRoot();
         // Registers the `/reports.json` endpoint
-        httpServer.get(rootPath.concat(REPORTS_JSON_ENDPOINT),
-                new ReportsRoute(reports));
+        reportsRoute = snapshot
+            .map(s -> new ReportsRoute(reports, s.getReports().toString()))
+            .orElseGet(() -> new ReportsRoute(reports));
+        httpServer.get(rootPath.concat(REPORTS_JSON_ENDPOINT), reportsRoute);
 
         reports.setHttpServer(httpServer);
 
         // Registers Spark Routes for the Reports
         reports.registerResources();
 
+        if (Objects.nonNull(snapshotFile) && snapshot.isEmpty()) {
+            writeSnapshot(StartupSnapshot.sources(yamlFile, reportFiles(configuration)));
+        }
+
+        configureHotReload();
+
         try {
             var host = configuration.getHost();
             var port = configuration.getPort();
@@ -126,7 +152,12 @@ public class Server {
      * Stop the server
      */
     public void stop() {
+        if (Objects.nonNull(fileWatcher)) {
+            fileWatcher.close();
+        }
         httpServer.stop();
+        reports.shutdown();
+        ConnectionPools.closeAll();
         countDownLatch.countDown();
     }
 
@@ -135,7 +166,7 @@ public class Server {
      * @param yamlFile path to the yaml configuration file
      * @return api configuration instance
      */
-    private static ApiConfiguration createFromYaml(String yamlFile) {
+    public static ApiConfiguration createFromYaml(String yamlFile) {
         ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
         ApiConfiguration configuration = null;
 
@@ -168,12 +199,7 @@ public class Server {
         Objects.requireNonNull(httpServer, "Server.httpServer");
         Objects.requireNonNull(yamlFileDir, "YAML directory cannot be null");
 
-        List<ReportResource> reportResources = configuration.getReports()
-            .stream()
-            .map(this::mapReportResourceFromConfiguration)
-            .filter(Optional::isPresent)
-            .map(Optional::get)
-            .collect(Collectors.toList());
+        List<ReportResource> reportResources = reportResourcesFrom(configuration);
 
         if (Optional.ofNullable(configuration.getBasicAuth()).isPresent()) {
             LOGGER.info("Configuring HTTP Basic Auth from configuration file");
@@ -183,10 +209,37 @@ public class Server {
             throw new RuntimeException("Server cannot boot without Reports correctly configured. Please review the configuration");
         }
         LOGGER.info("Registered {} Report Resource endpoints", reportResources.size());
-        return new Reports(configuration.getApiRoot(),
+        Reports reports = new Reports(configuration.getApiRoot(),
             reportResources,
             configuration.getBackup(),
             configuration.getDatabase());
+        Optional.ofNullable(configuration.getConcurrency())
+            .ifPresent(reports::setConcurrency);
+        reports.setRequestThreads(Math.max(1, execution().getRequestThreads()));
+        Optional.ofNullable(configuration.getJobs())
+            .filter(Jobs::isEnabled)
+            .ifPresent(jobs -> reports.setReportJobs(createReportJobs(jobs)));
+        // The scheduler's thread is only started once a report is scheduled, so schedules added on reload are picked up
+        reports.setScheduler(new ReportScheduler());
+        return reports;
+    }
+
+    private List<ReportResource> reportResourcesFrom(ApiConfiguration apiConfiguration) {
+        return apiConfiguration.getReports()
+            .stream()
+            .map(this::mapReportResourceFromConfiguration)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .collect(Collectors.toList());
+    }
+
+    private static ReportJobs createReportJobs(Jobs jobs) {
+        try {
+            LOGGER.info("Configuring report jobs with the {} store", jobs.getStore());
+            return ReportJobs.create(jobs);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create the report jobs directory", e);
+        }
     }
 
     private Optional<ReportResource> mapReportResourceFromConfiguration(ReportConfiguration reportConfiguration) {
@@ -210,7 +263,8 @@ public class Server {
             reportResourcePath,
             methods.toArray().length < 1 ? DEFAULT_METHODS : methods.toArray(),
             reportConfiguration.outputTypes(),
-            reportConfiguration.toReportDefinition(yamlFileDir)));
+            reportConfiguration.toReportDefinition(yamlFileDir),
+            reportConfiguration));
     }
 
     /**
@@ -221,6 +275,11 @@ public class Server {
         String host = Optional.ofNullable(ipAddress).orElse(configuration.getHost());
         httpServer = Javalin.create(config -> {
             config.staticFiles.add("public");
+            // Sized explicitly as the reports limit how many of these threads may wait for renders
+            final int requestThreads = Math.max(1, execution().getRequestThreads());
+            final QueuedThreadPool threadPool = new QueuedThreadPool(requestThreads, Math.min(8, requestThreads), 60_000);
+            threadPool.setName("JettyServerThreadPool");
+            config.jetty.threadPool = threadPool;
         });
 
         httpServer.after(new CorsFilter());
@@ -229,12 +288,130 @@ public class Server {
     }
 
     private void configurePrometheusMetricsEndpoint() {
+        Metrics.addRegistry(prometheusRegistry);
+        Generator.templateCache().bindTo(prometheusRegistry);
         httpServer.get("/metrics", (ctx) -> prometheusRegistry.scrape());
     }
 
+    /**
+     * Configures the cache of parsed report templates if provided in the configuration
+     * @param configuration the API configuration object
+     */
+    private void configureTemplateCache(ApiConfiguration configuration) {
+        Optional.ofNullable(configuration.getTemplateCache())
+            .ifPresent(Generator::configureTemplateCache);
+    }
+
     private void configureOpenAPIEndpoint() {
-        OpenApi3 openApi3 = new OpenAPISchemaGenerator(configuration).getGeneratedSchema();
-        httpServer.get("/openapi",  new OpenAPIRoute(objectMapper, openApi3));
+        // The schema is generated on first use unless the snapshot has it
+        openAPIRoute = new OpenAPIRoute(objectMapper,
+            () -> new OpenAPISchemaGenerator(configuration).getGeneratedSchema(),
+            snapshot.map(StartupSnapshot::getOpenApi).orElse(null));
+        httpServer.get("/openapi", openAPIRoute);
+    }
+
+    /**
+     * Loads the startup snapshot if it is enabled and the configuration file and report files
+     * have not changed since it was written
+     */
+    private void loadSnapshot() {
+        final Snapshot snapshotConfiguration = configuration.getSnapshot();
+        if (Objects.isNull(snapshotConfiguration) || !snapshotConfiguration.isEnabled() || Objects.isNull(yamlFile)) {
+            return;
+        }
+        snapshotFile = yamlFileDir.resolve(snapshotConfiguration.getFile());
+        final List<StartupSnapshot.Source> sources = StartupSnapshot.sources(yamlFile, reportFiles(configuration));
+        snapshot = StartupSnapshot.load(snapshotFile).filter(s -> s.isCurrent(sources));
+        if (snapshot.isPresent()) {
+            LOGGER.info("Using startup snapshot {}", snapshotFile);
+        } else {
+            LOGGER.info("Startup snapshot {} is missing or out of date, it will be written once the server has started", snapshotFile);
+        }
+    }
+
+    /**
+     * Writes the startup snapshot in the background, building the documents that are not built yet
+     *
+     * @param sources the state of the sources the current reports were read from
+     */
+    private void writeSnapshot(List<StartupSnapshot.Source> sources) {
+        Thread.ofVirtual().name("kapenta-snapshot").start(() -> {
+            try {
+                StartupSnapshot.write(snapshotFile, sources, objectMapper.readTree(reportsRoute.json()), openAPIRoute.json());
+                LOGGER.debug("Wrote startup snapshot {}", snapshotFile);
+            } catch (Exception e) {
+                LOGGER.warn("Failed to write startup snapshot {}", snapshotFile, e);
+            }
+        });
+    }
+
+    private List<Path> reportFiles(ApiConfiguration apiConfiguration) {
+        return apiConfiguration.getReports()
+            .stream()
+            .map(r -> Paths.get(r.toReportDefinition(yamlFileDir).getReportFilePath()))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Watches the configuration file and the report files for changes if hot reload is enabled
+     */
+    private void configureHotReload() {
+        final HotReload hotReload = configuration.getHotReload();
+        if (Objects.isNull(hotReload) || !hotReload.isEnabled() || Objects.isNull(yamlFile)) {
+            return;
+        }
+        try {
+            fileWatcher = new FileWatcher(hotReload.getDebounceMillis(), changed -> reload());
+            fileWatcher.watch(watchedFiles());
+            LOGGER.info("Reloading reports when {} or the report files change", yamlFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to watch the configuration for changes", e);
+        }
+    }
+
+    private List<Path> watchedFiles() {
+        final List<Path> files = new ArrayList<>();
+        files.add(yamlFile);
+        reports.resources().forEach(r -> files.add(Paths.get(r.reportDefinition().getReportFilePath())));
+        return files;
+    }
+
+    /**
+     * Reads the configuration file again and replaces the reports. Only the reports are
+     * reloaded, changes to other settings take effect after a restart. If the configuration
+     * is invalid the current reports are kept.
+     */
+    synchronized void reload() {
+        try {
+            final ApiConfiguration updated = createFromYaml(yamlFile.toString());
+            warnAboutSettingsRequiringRestart(updated);
+
+            reports.reload(reportResourcesFrom(updated));
+            configuration.setReports(updated.getReports());
+            openAPIRoute.update(new OpenAPISchemaGenerator(configuration).getGeneratedSchema());
+            fileWatcher.watch(watchedFiles());
+            if (Objects.nonNull(snapshotFile)) {
+                writeSnapshot(StartupSnapshot.sources(yamlFile, reportFiles(updated)));
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed to reload the configuration from {}, keeping the current reports", yamlFile, e);
+        }
+    }
+
+    private void warnAboutSettingsRequiringRestart(ApiConfiguration updated) {
+        final List<String> changed = new ArrayList<>();
+        final List<String> sections = List.of("apiRoot", "host", "port", "basicAuth", "logging", "backup",
+            "database", "templateCache", "concurrency", "jobs", "execution", "hotReload", "snapshot");
+        final var current = objectMapper.valueToTree(configuration);
+        final var next = objectMapper.valueToTree(updated);
+        for (String section: sections) {
+            if (!Objects.equals(current.get(section), next.get(section))) {
+                changed.add(section);
+            }
+        }
+        if (!changed.isEmpty()) {
+            LOGGER.warn("Changes to {} take effect after a restart, only the reports were reloaded", changed);
+        }
     }
 
     /**
@@ -257,6 +434,10 @@ public class Server {
         }
     }
 
+    private Execution execution() {
+        return Optional.ofNullable(configuration.getExecution()).orElse(new Execution());
+    }
+
     /**
      * Configure logging
      * @param apiConfiguration the API configuration object
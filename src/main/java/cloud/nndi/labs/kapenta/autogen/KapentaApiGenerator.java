@@ -43,6 +43,19 @@ public class KapentaApiGenerator {
      * @param outputFile The file to write the YAML configuration to
      */
     public KapentaApiGenerator(Path sourceDir, Path outputFile) {
+        this(sourceDir, outputFile, -1, null);
+    }
+
+    /**
+     * Creates an ApiConfiguration generator
+     *
+     * @param sourceDir The directory to search for generator from
+     * @param outputFile The file to write the YAML configuration to
+     * @param maximumDepth How many levels of subdirectories to search, negative for no limit
+     * @param indexFile File to keep an index of the parsed reports in so that unchanged reports
+     *                  are not parsed again on the next run, null for no index
+     */
+    public KapentaApiGenerator(Path sourceDir, Path outputFile, int maximumDepth, Path indexFile) {
         this.sourceDir = sourceDir;
         this.outputFile = outputFile;
         ClassicEngineBoot.getInstance().start();
@@ -50,8 +63,10 @@ public class KapentaApiGenerator {
         resourceManager.registerDefaults();
         this.directoryWalker = new ReportDefinitionDirectoryWalker(
             this.sourceDir,
-            -1,
-            this.resourceManager
+            maximumDepth,
+            this.resourceManager,
+            indexFile,
+            Runtime.getRuntime().availableProcessors()
         );
     }
 
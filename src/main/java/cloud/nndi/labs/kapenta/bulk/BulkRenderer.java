@@ -0,0 +1,213 @@
+package cloud.nndi.labs.kapenta.bulk;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.parameters.ParameterBinder;
+import cloud.nndi.labs.kapenta.parameters.ParameterSets;
+import cloud.nndi.labs.kapenta.pentaho.GeneratorException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static cloud.nndi.labs.kapenta.Server.OBJECT_MAPPER;
+
+/**
+ * Renders a report for each set of parameters in a newline delimited JSON file and
+ * writes the reports to a directory, without going through the HTTP server.
+ *
+ * Reports are rendered on a pool of <code>threads</code> workers and written as
+ * <code>000001.pdf</code>, <code>000002.pdf</code>, ... in the order of the parameter
+ * sets. The outcome of each report is written to <code>results.ndjson</code> in the
+ * output directory as it completes.
+ */
+public final class BulkRenderer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkRenderer.class);
+
+    public static final String RESULTS_FILE = "results.ndjson";
+
+    /**
+     * Renders a report
+     */
+    @FunctionalInterface
+    public interface Renderer {
+        void render(Map<String, Object> parameters, OutputStream outputStream) throws Exception;
+    }
+
+    private final Renderer renderer;
+
+    private final ParameterBinder parameterBinder;
+
+    private final OutputType outputType;
+
+    private final Path outputDirectory;
+
+    private final int threads;
+
+    /**
+     * @param renderer renders a report
+     * @param parameterBinder maps the parameter sets to report parameters
+     * @param outputType output type of the reports, used for the file extension
+     * @param outputDirectory directory to write the reports to
+     * @param threads number of reports rendered at the same time
+     */
+    public BulkRenderer(Renderer renderer, ParameterBinder parameterBinder, OutputType outputType, Path outputDirectory, int threads) {
+        this.renderer = Objects.requireNonNull(renderer, "renderer");
+        this.parameterBinder = Objects.requireNonNull(parameterBinder, "parameterBinder");
+        this.outputType = Objects.requireNonNull(outputType, "outputType");
+        this.outputDirectory = Objects.requireNonNull(outputDirectory, "outputDirectory");
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Render a report for each line of the parameter sets
+     *
+     * @param parameterSets a JSON object of parameter names and values on each line
+     * @return throughput and latency of the renders
+     * @throws IOException if the parameter sets cannot be read or the results cannot be written
+     * @throws InterruptedException if interrupted while waiting for the reports to be rendered
+     */
+    public RenderStatistics render(BufferedReader parameterSets) throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+        final Recorder recorder = new Recorder();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+            .setNameFormat("kapenta-render-%d")
+            .setDaemon(true)
+            .build());
+        // Parameter sets are read as workers become free instead of all up front
+        final Semaphore pending = new Semaphore(threads * 2);
+        final long start = System.nanoTime();
+        try (BufferedWriter results = Files.newBufferedWriter(outputDirectory.resolve(RESULTS_FILE))) {
+            String line;
+            int number = 0;
+            while (Objects.nonNull(line = parameterSets.readLine())) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                final int item = ++number;
+                final String parameterSet = line;
+                pending.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            renderItem(item, parameterSet, results, recorder);
+                        } finally {
+                            pending.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    pending.release();
+                    throw e;
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        return recorder.statistics(System.nanoTime() - start);
+    }
+
+    private void renderItem(int item, String parameterSet, BufferedWriter results, Recorder recorder) {
+        final long start = System.nanoTime();
+        final String fileName = String.format("%06d.%s", item, outputType.name().toLowerCase());
+        final Path file = outputDirectory.resolve(fileName);
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("item", item);
+        long size = -1;
+        try {
+            final JsonNode json = OBJECT_MAPPER.readTree(parameterSet);
+            result.put("parameters", json);
+
+            final ParameterBinder.Binding binding = parameterBinder.bind(ParameterSets.toQueryParams(json));
+            if (binding.missingRequired().isPresent()) {
+                throw new IllegalArgumentException("Please provide all required parameters. " + binding.missingRequired().get());
+            }
+            if (binding.invalid().isPresent()) {
+                throw new IllegalArgumentException("Invalid parameters. " + binding.invalid().get());
+            }
+
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+                renderer.render(binding.getParameters(), os);
+            }
+            size = Files.size(file);
+            result.put("status", "SUCCEEDED");
+            result.put("file", fileName);
+            result.put("size", size);
+        } catch (Exception e) {
+            final Throwable cause = e instanceof GeneratorException && Objects.nonNull(e.getCause()) ? e.getCause() : e;
+            LOGGER.error("Failed to render report {}. Error: {}", item, cause.getMessage(), cause);
+            deleteQuietly(file);
+            result.put("status", "FAILED");
+            result.put("error", Objects.toString(cause.getMessage(), cause.getClass().getName()));
+        }
+
+        final long elapsedNanos = System.nanoTime() - start;
+        result.put("millis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        recorder.record(elapsedNanos, size);
+        try {
+            final String json = OBJECT_MAPPER.writeValueAsString(result);
+            synchronized (results) {
+                results.write(json);
+                results.newLine();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to write the result of report {}", item, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete {}", file, e);
+        }
+    }
+
+    /**
+     * Collects the outcome and latency of the renders
+     */
+    private static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int count = 0;
+        private int succeeded = 0;
+        private int failed = 0;
+        private long bytes = 0;
+
+        /**
+         * @param size size of the report, negative if it failed
+         */
+        synchronized void record(long elapsedNanos, long size) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = elapsedNanos;
+            if (size < 0) {
+                failed++;
+            } else {
+                succeeded++;
+                bytes += size;
+            }
+        }
+
+        synchronized RenderStatistics statistics(long elapsedNanos) {
+            return new RenderStatistics(succeeded, failed, bytes, elapsedNanos, Arrays.copyOf(latencies, count));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cloud.nndi.labs.kapenta.bulk;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of rendering a set of reports
+ */
+public final class RenderStatistics {
+
+    private final int succeeded;
+
+    private final int failed;
+
+    private final long bytes;
+
+    private final long elapsedNanos;
+
+    /**
+     * Time taken by each report, sorted
+     */
+    private final long[] latencyNanos;
+
+    RenderStatistics(int succeeded, int failed, long bytes, long elapsedNanos, long[] latencyNanos) {
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.latencyNanos = latencyNanos.clone();
+        Arrays.sort(this.latencyNanos);
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Total size of the reports written
+     *
+     * @return
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Reports rendered per second, including those that failed
+     *
+     * @return
+     */
+    public double throughput() {
+        final double seconds = elapsedNanos / 1e9;
+        return seconds > 0 ? (succeeded + failed) / seconds : 0;
+    }
+
+    /**
+     * Time within which the given percentage of the reports were rendered
+     *
+     * @param percentile between 0 and 100
+     * @return the latency in milliseconds
+     */
+    public double latencyMillis(double percentile) {
+        if (latencyNanos.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile / 100 * latencyNanos.length) - 1;
+        return latencyNanos[Math.max(0, Math.min(latencyNanos.length - 1, index))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Rendered %,d reports (%,d failed, %,d bytes) in %,d ms%n" +
+                "Throughput: %.1f reports/s%n" +
+                "Latency (ms): p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+            succeeded + failed, failed, bytes, getElapsedMillis(),
+            throughput(),
+            latencyMillis(50), latencyMillis(90), latencyMillis(99), latencyMillis(100));
+    }
+}
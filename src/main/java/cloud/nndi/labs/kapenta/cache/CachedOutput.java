@@ -0,0 +1,176 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import cloud.nndi.labs.kapenta.io.SpoolingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A generated report kept in the {@link ReportOutputCache}, either in memory or in a file.
+ * Reports that are not cached but are shared between requests use the same representation,
+ * see {@link #of(SpoolingOutputStream)}.
+ *
+ * The file of an output that is removed from the cache is deleted once the last stream
+ * reading it is closed, so a request that got the output from the cache can still send it.
+ */
+public final class CachedOutput {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedOutput.class);
+
+    private final String etag;
+    private final long length;
+    private final byte[] bytes;
+    private final Path file;
+
+    /**
+     * Number of open streams reading the file, -1 once the file is deleted
+     */
+    private final AtomicInteger readers = new AtomicInteger();
+
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private CachedOutput(String etag, long length, byte[] bytes, Path file) {
+        this.etag = etag;
+        this.length = length;
+        this.bytes = bytes;
+        this.file = file;
+    }
+
+    static CachedOutput inMemory(String etag, byte[] bytes) {
+        return new CachedOutput(etag, bytes.length, bytes, null);
+    }
+
+    static CachedOutput onDisk(String etag, long length, Path file) {
+        return new CachedOutput(etag, length, null, file);
+    }
+
+    /**
+     * A generated report held in the given spool, which is not added to a cache.
+     * The spool remains responsible for the file the report may have been spooled to.
+     *
+     * @param spool closed spool the report was rendered into
+     * @return the output
+     */
+    public static CachedOutput of(SpoolingOutputStream spool) {
+        final String etag = "\"" + spool.digestHex() + "\"";
+        if (spool.isInMemory()) {
+            return inMemory(etag, spool.toByteArray());
+        }
+        return onDisk(etag, spool.size(), spool.getFile());
+    }
+
+    /**
+     * Strong entity tag of the content, including the surrounding quotes
+     *
+     * @return
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Checks an If-None-Match header value against the entity tag of this output
+     *
+     * @param ifNoneMatch value of the If-None-Match header, may be null
+     * @return true if the client already has this output
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        for (String tag: ifNoneMatch.split(",")) {
+            // If-None-Match uses the weak comparison so W/"..." matches too
+            String t = tag.trim().replaceFirst("^W/", "");
+            if (t.equals("*") || t.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Open a stream to read the output
+     *
+     * @return the content of the output
+     * @throws NoSuchFileException if the output was removed from the cache and its file deleted
+     * @throws IOException if the file cannot be opened
+     */
+    public InputStream openStream() throws IOException {
+        if (isInMemory()) {
+            return new ByteArrayInputStream(bytes);
+        }
+        int count;
+        do {
+            count = readers.get();
+            if (count < 0) {
+                throw new NoSuchFileException(file.toString());
+            }
+        } while (!readers.compareAndSet(count, count + 1));
+
+        try {
+            return new FilterInputStream(Files.newInputStream(file)) {
+                private final AtomicBoolean closed = new AtomicBoolean(false);
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (closed.compareAndSet(false, true)) {
+                            closeReader();
+                        }
+                    }
+                }
+            };
+        } catch (IOException e) {
+            closeReader();
+            throw e;
+        }
+    }
+
+    /**
+     * The output is no longer in the cache, its file is deleted once no stream is reading it
+     */
+    void release() {
+        if (isInMemory() || !released.compareAndSet(false, true)) {
+            return;
+        }
+        deleteIfUnread();
+    }
+
+    private void closeReader() {
+        if (readers.decrementAndGet() == 0 && released.get()) {
+            deleteIfUnread();
+        }
+    }
+
+    private void deleteIfUnread() {
+        if (readers.compareAndSet(0, -1)) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete cached report output {}", file, e);
+            }
+        }
+    }
+}
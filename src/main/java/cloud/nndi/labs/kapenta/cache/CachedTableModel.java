@@ -0,0 +1,124 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * An immutable copy of the result of a query that can be shared by renders.
+ *
+ * The size of the copy is estimated when it is made so the cache can limit the
+ * memory held by query results.
+ */
+public final class CachedTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private final String[] columnNames;
+
+    private final Class<?>[] columnClasses;
+
+    private final Object[][] rows;
+
+    private final long estimatedBytes;
+
+    private CachedTableModel(String[] columnNames, Class<?>[] columnClasses, Object[][] rows, long estimatedBytes) {
+        this.columnNames = columnNames;
+        this.columnClasses = columnClasses;
+        this.rows = rows;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    /**
+     * Copy the contents of a table model
+     *
+     * @param tableModel the table model
+     * @return the copy
+     */
+    public static CachedTableModel copyOf(TableModel tableModel) {
+        Objects.requireNonNull(tableModel, "tableModel");
+        final int columnCount = tableModel.getColumnCount();
+        final int rowCount = tableModel.getRowCount();
+
+        final String[] columnNames = new String[columnCount];
+        final Class<?>[] columnClasses = new Class<?>[columnCount];
+        long estimatedBytes = 64;
+        for (int column = 0; column < columnCount; column++) {
+            columnNames[column] = tableModel.getColumnName(column);
+            columnClasses[column] = tableModel.getColumnClass(column);
+            estimatedBytes += estimateBytes(columnNames[column]);
+        }
+
+        final Object[][] rows = new Object[rowCount][];
+        for (int row = 0; row < rowCount; row++) {
+            final Object[] values = new Object[columnCount];
+            estimatedBytes += 16 + 8L * columnCount;
+            for (int column = 0; column < columnCount; column++) {
+                values[column] = tableModel.getValueAt(row, column);
+                estimatedBytes += estimateBytes(values[column]);
+            }
+            rows[row] = values;
+        }
+        return new CachedTableModel(columnNames, columnClasses, rows, estimatedBytes);
+    }
+
+    private static long estimateBytes(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Date) {
+            return 24;
+        }
+        return 64;
+    }
+
+    /**
+     * Rough estimate of the memory held by the copy
+     *
+     * @return the number of bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return columnClasses[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return rows[row][column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        throw new UnsupportedOperationException("Cached query results cannot be modified");
+    }
+}
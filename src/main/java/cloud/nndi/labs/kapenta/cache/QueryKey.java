@@ -0,0 +1,85 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Identifies the result of a query of a report by the data source it was run on, the
+ * query and the values of the parameters it references.
+ *
+ * Parameters are sorted by name and array values are compared by their contents.
+ */
+public final class QueryKey {
+    private final String source;
+    private final String query;
+    private final Map<String, Object> parameters;
+
+    private QueryKey(String source, String query, Map<String, Object> parameters) {
+        this.source = source;
+        this.query = query;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Create a key for a query
+     *
+     * @param source identifies the report and the data source within the report
+     * @param query name of the query
+     * @param parameters values of the parameters referenced by the query
+     * @return the key
+     */
+    public static QueryKey of(String source, String query, Map<String, ?> parameters) {
+        Objects.requireNonNull(source, "source");
+        Objects.requireNonNull(query, "query");
+        Objects.requireNonNull(parameters, "parameters");
+
+        final Map<String, Object> canonical = new TreeMap<>();
+        parameters.forEach((name, value) -> canonical.put(name, canonicalize(value)));
+        return new QueryKey(source, query, canonical);
+    }
+
+    private static Object canonicalize(Object value) {
+        if (value instanceof Object[]) {
+            return canonicalize(Arrays.asList((Object[]) value));
+        }
+        if (value instanceof Collection) {
+            final List<Object> values = new ArrayList<>();
+            ((Collection<?>) value).forEach(v -> values.add(canonicalize(v)));
+            return values;
+        }
+        return value;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QueryKey that = (QueryKey) o;
+        return source.equals(that.source) &&
+            query.equals(that.query) &&
+            parameters.equals(that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(source, query, parameters);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%s%s", source, query, parameters);
+    }
+}
@@ -0,0 +1,115 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import cloud.nndi.labs.kapenta.config.QueryCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+import javax.swing.table.TableModel;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the results of the queries of a report.
+ *
+ * Renders of the same report with the same parameters, e.g. the HTML and then the PDF
+ * output, reuse the query results instead of running the queries again. Results expire
+ * after the configured time to live and the least recently used results are evicted when
+ * their estimated size exceeds the configured maximum number of bytes. Results with more
+ * rows than the configured maximum are not cached.
+ */
+public final class QueryResultCache {
+
+    private final String name;
+
+    private final QueryCache configuration;
+
+    private final Cache<QueryKey, CachedTableModel> cache;
+
+    public QueryResultCache(String name, QueryCache configuration) {
+        this.name = Objects.requireNonNull(name, "name");
+        this.configuration = Objects.requireNonNull(configuration, "configuration");
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(configuration.getMaxBytes())
+            .weigher((QueryKey key, CachedTableModel result) -> (int) Math.min(Integer.MAX_VALUE, result.getEstimatedBytes()))
+            .expireAfterWrite(configuration.getTtlSeconds(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+        registerMetrics();
+    }
+
+    /**
+     * Report the metrics of this cache, in place of those of a cache with the same name
+     * that were removed with {@link #removeMetrics()}
+     */
+    public void registerMetrics() {
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, cache, "kapenta.report.queries", Tags.of("report", name));
+    }
+
+    /**
+     * Stop reporting the metrics of the caches with the name of this cache
+     */
+    public void removeMetrics() {
+        Metrics.globalRegistry.getMeters().stream()
+            // The cache meters are named cache.* and tagged with the name of the cache
+            .filter(meter -> "kapenta.report.queries".equals(meter.getId().getTag("cache")))
+            .filter(meter -> name.equals(meter.getId().getTag("report")))
+            .forEach(Metrics.globalRegistry::remove);
+    }
+
+    /**
+     * Get the cached result of a query
+     *
+     * @param key query key
+     * @return the cached result if present
+     */
+    public Optional<TableModel> get(QueryKey key) {
+        return Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    /**
+     * Add the result of a query to the cache. The result is copied, the copy is returned
+     * to be used in place of the result which may be closed afterwards.
+     *
+     * @param key query key
+     * @param result the result of the query
+     * @return the copy of the result, or the result itself if it is too large to cache
+     */
+    public TableModel put(QueryKey key, TableModel result) {
+        if (result.getRowCount() > configuration.getMaxRows()) {
+            return result;
+        }
+        final CachedTableModel copy = CachedTableModel.copyOf(result);
+        if (copy.getEstimatedBytes() <= configuration.getMaxBytes()) {
+            cache.put(key, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Remove all entries from the cache
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Remove all entries and stop reporting metrics for the cache, it must not be used afterwards
+     */
+    public void close() {
+        cache.invalidateAll();
+        removeMetrics();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+}
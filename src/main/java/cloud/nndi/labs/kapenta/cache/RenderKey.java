@@ -0,0 +1,94 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import cloud.nndi.labs.kapenta.OutputType;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+/**
+ * Identifies a rendered report by the report path, its parameters and the output type.
+ *
+ * Parameters are canonicalized by sorting them by name so that the order in which
+ * they appear in the request does not matter. Dates are compared by their time in
+ * milliseconds.
+ */
+public final class RenderKey {
+    private final String reportPath;
+    private final String parameters;
+    private final OutputType outputType;
+
+    private RenderKey(String reportPath, String parameters, OutputType outputType) {
+        this.reportPath = reportPath;
+        this.parameters = parameters;
+        this.outputType = outputType;
+    }
+
+    /**
+     * Create a key from the parameters of a report
+     *
+     * @param reportPath path of the report resource
+     * @param parameters parameter values, multi-valued parameters may be given as a Collection
+     * @param outputType output type of the report
+     * @return the key
+     */
+    public static RenderKey of(String reportPath, Map<String, ?> parameters, OutputType outputType) {
+        Objects.requireNonNull(reportPath, "reportPath");
+        Objects.requireNonNull(parameters, "parameters");
+        Objects.requireNonNull(outputType, "outputType");
+
+        final StringJoiner sj = new StringJoiner("&");
+        new TreeMap<>(parameters).forEach((name, value) -> {
+            if (value instanceof Collection) {
+                ((Collection<?>) value).forEach(v -> sj.add(encode(name) + "=" + encode(canonical(v))));
+            } else {
+                sj.add(encode(name) + "=" + encode(canonical(value)));
+            }
+        });
+        return new RenderKey(reportPath, sj.toString(), outputType);
+    }
+
+    private static String canonical(Object value) {
+        // Date.toString() drops the milliseconds and depends on the default time zone
+        return value instanceof Date ? String.valueOf(((Date) value).getTime()) : String.valueOf(value);
+    }
+
+    private static String encode(String value) {
+        return value.replace("%", "%25").replace("&", "%26").replace("=", "%3D");
+    }
+
+    public String getReportPath() {
+        return reportPath;
+    }
+
+    public String getParameters() {
+        return parameters;
+    }
+
+    public OutputType getOutputType() {
+        return outputType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RenderKey that = (RenderKey) o;
+        return reportPath.equals(that.reportPath) &&
+            parameters.equals(that.parameters) &&
+            outputType == that.outputType;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(reportPath, parameters, outputType);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s.%s?%s", reportPath, outputType.name().toLowerCase(), parameters);
+    }
+}
@@ -0,0 +1,255 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import cloud.nndi.labs.kapenta.config.OutputCache;
+import cloud.nndi.labs.kapenta.io.SpoolingOutputStream;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of generated reports.
+ *
+ * Small outputs are kept in memory and larger outputs in files in the configured
+ * directory. Entries expire after the configured time to live and the least
+ * recently used entries are evicted when the total size exceeds the configured
+ * maximum number of bytes.
+ *
+ * Reports rendered ahead of requests, e.g. on a schedule, are kept apart from the
+ * entries added by requests until their own time to live expires, so they are not
+ * evicted to make space before the requests they were rendered for arrive. They have
+ * a maximum number of bytes of their own, the same as the cache's.
+ *
+ * Expired entries are removed every {@link #SWEEP_INTERVAL_SECONDS} seconds so their
+ * files are deleted even if the report is not requested again.
+ */
+public final class ReportOutputCache {
+    static final long SWEEP_INTERVAL_SECONDS = 30;
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("kapenta-cache-sweeper-%d")
+        .setDaemon(true)
+        .build());
+
+    private final String name;
+
+    private final OutputCache configuration;
+
+    private final Path directory;
+
+    private final Cache<RenderKey, CachedOutput> cache;
+
+    private final Cache<RenderKey, Prerendered> prerendered;
+
+    private final ScheduledFuture<?> sweep;
+
+    public ReportOutputCache(String name, OutputCache configuration) throws IOException {
+        this.name = Objects.requireNonNull(name, "name");
+        this.configuration = Objects.requireNonNull(configuration, "configuration");
+        this.directory = Objects.isNull(configuration.getDirectory())
+            ? Files.createTempDirectory("kapenta-cache")
+            : Files.createDirectories(Paths.get(configuration.getDirectory()));
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(configuration.getMaxBytes())
+            .weigher((RenderKey key, CachedOutput output) -> (int) Math.min(Integer.MAX_VALUE, output.getLength()))
+            .expireAfterWrite(configuration.getTtlSeconds(), TimeUnit.SECONDS)
+            .removalListener(this::onRemoval)
+            .recordStats()
+            .build();
+        this.prerendered = CacheBuilder.newBuilder()
+            .maximumWeight(configuration.getMaxBytes())
+            .weigher((RenderKey key, Prerendered entry) -> (int) Math.min(Integer.MAX_VALUE, entry.output.getLength()))
+            .removalListener((RemovalNotification<RenderKey, Prerendered> notification) ->
+                release(Objects.isNull(notification.getValue()) ? null : notification.getValue().output))
+            .recordStats()
+            .build();
+
+        registerMetrics();
+        this.sweep = SWEEPER.scheduleWithFixedDelay(this::removeExpired, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Report the metrics of this cache, in place of those of a cache with the same name
+     * that were removed with {@link #removeMetrics()}
+     */
+    public void registerMetrics() {
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, cache, "kapenta.report.outputs", Tags.of("report", name));
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, prerendered, "kapenta.report.prerendered", Tags.of("report", name));
+    }
+
+    /**
+     * Stop reporting the metrics of the caches with the name of this cache
+     */
+    public void removeMetrics() {
+        Metrics.globalRegistry.getMeters().stream()
+            // The cache meters are named cache.* and tagged with the name of the cache
+            .filter(meter -> "kapenta.report.outputs".equals(meter.getId().getTag("cache"))
+                || "kapenta.report.prerendered".equals(meter.getId().getTag("cache")))
+            .filter(meter -> name.equals(meter.getId().getTag("report")))
+            .forEach(Metrics.globalRegistry::remove);
+    }
+
+    /**
+     * Get the cached output for the given key
+     *
+     * @param key render key
+     * @return the cached output if present
+     */
+    public Optional<CachedOutput> get(RenderKey key) {
+        final CachedOutput output = cache.getIfPresent(key);
+        if (Objects.nonNull(output)) {
+            return Optional.of(output);
+        }
+
+        final Prerendered entry = prerendered.getIfPresent(key);
+        if (Objects.isNull(entry)) {
+            return Optional.empty();
+        }
+        if (entry.isExpired()) {
+            prerendered.asMap().remove(key, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry.output);
+    }
+
+    /**
+     * Create a stream to render a report into before adding it to the cache with {@link #put(RenderKey, SpoolingOutputStream)}
+     *
+     * @return a new spooling output stream
+     */
+    public SpoolingOutputStream newSpool() {
+        return new SpoolingOutputStream(configuration.getMaxInMemoryBytes(), directory);
+    }
+
+    /**
+     * Add the rendered output in the spool to the cache. Outputs larger than the
+     * cache can hold are not cached and are left in the spool.
+     *
+     * @param key render key
+     * @param spool the spool the report was rendered into
+     * @return the cached output, empty if the output was too large to cache
+     * @throws IOException if the spooled file cannot be moved into the cache directory
+     */
+    public Optional<CachedOutput> put(RenderKey key, SpoolingOutputStream spool) throws IOException {
+        spool.close();
+        if (spool.size() > configuration.getMaxBytes()) {
+            return Optional.empty();
+        }
+
+        final CachedOutput output = toCachedOutput(spool);
+        cache.put(key, output);
+        return Optional.of(output);
+    }
+
+    /**
+     * Add a report rendered ahead of the requests for it. It is served until the time to
+     * live expires, it is replaced, or it is evicted because the pre-rendered reports take
+     * more than the maximum number of bytes. Outputs larger than the cache can hold are not
+     * cached and are left in the spool.
+     *
+     * @param key render key
+     * @param spool the spool the report was rendered into
+     * @param ttl how long the report is served from the cache
+     * @return the cached output, empty if the output was too large to cache
+     * @throws IOException if the spooled file cannot be moved into the cache directory
+     */
+    public Optional<CachedOutput> putPrerendered(RenderKey key, SpoolingOutputStream spool, Duration ttl) throws IOException {
+        spool.close();
+        if (spool.size() > configuration.getMaxBytes()) {
+            return Optional.empty();
+        }
+
+        final CachedOutput output = toCachedOutput(spool);
+        // A version cached by a request would be served first
+        cache.invalidate(key);
+        prerendered.put(key, new Prerendered(output, System.nanoTime() + ttl.toNanos()));
+        return Optional.of(output);
+    }
+
+    /**
+     * Remove the entries whose time to live has passed, deleting their files once the requests
+     * sending them are done
+     */
+    void removeExpired() {
+        cache.cleanUp();
+        prerendered.asMap().values().removeIf(Prerendered::isExpired);
+    }
+
+    private CachedOutput toCachedOutput(SpoolingOutputStream spool) throws IOException {
+        final String etag = "\"" + spool.digestHex() + "\"";
+        if (spool.isInMemory()) {
+            return CachedOutput.inMemory(etag, spool.toByteArray());
+        }
+        Path target = directory.resolve(spool.digestHex() + "-" + System.nanoTime());
+        Files.move(spool.getFile(), target, StandardCopyOption.ATOMIC_MOVE);
+        return CachedOutput.onDisk(etag, spool.size(), target);
+    }
+
+    /**
+     * Remove all entries from the cache
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        prerendered.invalidateAll();
+    }
+
+    /**
+     * Remove all entries and stop reporting metrics for the cache, it must not be used afterwards
+     */
+    public void close() {
+        sweep.cancel(false);
+        cache.invalidateAll();
+        prerendered.invalidateAll();
+        removeMetrics();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void onRemoval(RemovalNotification<RenderKey, CachedOutput> notification) {
+        release(notification.getValue());
+    }
+
+    /**
+     * The file of the output is deleted once the requests sending it are done
+     */
+    private static void release(CachedOutput output) {
+        if (Objects.nonNull(output)) {
+            output.release();
+        }
+    }
+
+    /**
+     * A report rendered ahead of the requests for it
+     */
+    private static final class Prerendered {
+        final CachedOutput output;
+        final long expiresAtNanos;
+
+        Prerendered(CachedOutput output, long expiresAtNanos) {
+            this.output = output;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAtNanos > 0;
+        }
+    }
+}
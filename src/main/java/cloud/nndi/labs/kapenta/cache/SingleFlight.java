@@ -0,0 +1,166 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces concurrent calls for the same key into a single call.
+ *
+ * The first caller for a key (the leader) runs the call while callers that arrive
+ * before it completes (the followers) wait for and share its result. Every caller
+ * gets a {@link Ticket} that must be closed once the value is no longer used; when
+ * the last ticket for a value is closed the value is released. Followers can be given
+ * a timeout so a leader that never completes doesn't hold them forever.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Run the call for the key, or wait for the call already running for the key.
+     *
+     * @param key key identifying the call
+     * @param call produces the value, only run by the leader
+     * @param release invoked with the value once all callers have closed their tickets
+     * @return a ticket holding the value
+     * @throws Exception the exception thrown by the call
+     */
+    public Ticket<V> execute(K key, Callable<V> call, Consumer<V> release) throws Exception {
+        return execute(key, call, release, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Run the call for the key, or wait at most the timeout for the call already running for the key.
+     *
+     * @param key key identifying the call
+     * @param call produces the value, only run by the leader
+     * @param release invoked with the value once all callers have closed their tickets
+     * @param timeout how long a follower waits for the leader, {@link Long#MAX_VALUE} to wait for as long as it takes
+     * @param unit unit of the timeout
+     * @return a ticket holding the value
+     * @throws TimeoutException if the caller is a follower and the leader did not complete in time
+     * @throws Exception the exception thrown by the call
+     */
+    public Ticket<V> execute(K key, Callable<V> call, Consumer<V> release, long timeout, TimeUnit unit) throws Exception {
+        Objects.requireNonNull(key, "key");
+        final Flight<V> mine = new Flight<>(release);
+        final Flight<V> flight = flights.compute(key, (k, existing) -> {
+            if (existing == null) {
+                return mine;
+            }
+            existing.participants.incrementAndGet();
+            return existing;
+        });
+
+        if (flight != mine) {
+            return new Ticket<>(flight, flight.await(timeout, unit), false);
+        }
+
+        final V value;
+        try {
+            value = call.call();
+        } catch (Exception e) {
+            flights.remove(key, mine);
+            mine.future.completeExceptionally(e);
+            throw e;
+        }
+        // No more callers can join once the flight is removed
+        flights.remove(key, mine);
+        mine.future.complete(value);
+        return new Ticket<>(mine, value, true);
+    }
+
+    /**
+     * Number of keys with a call in progress
+     *
+     * @return
+     */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private final AtomicInteger participants = new AtomicInteger(1);
+        private final Consumer<V> release;
+
+        Flight(Consumer<V> release) {
+            this.release = release;
+        }
+
+        V await(long timeout, TimeUnit unit) throws Exception {
+            try {
+                return timeout == Long.MAX_VALUE ? future.get() : future.get(Math.max(0, timeout), unit);
+            } catch (InterruptedException e) {
+                // We still hold a share of the value so give it up once it is available
+                future.thenAccept(this::leave);
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (TimeoutException e) {
+                future.thenAccept(this::leave);
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+
+        void leave(V value) {
+            if (participants.decrementAndGet() == 0 && value != null && release != null) {
+                release.accept(value);
+            }
+        }
+    }
+
+    /**
+     * A caller's share of the value produced by a call
+     *
+     * @param <V> value type
+     */
+    public static final class Ticket<V> implements AutoCloseable {
+        private final Flight<V> flight;
+        private final V value;
+        private final boolean leader;
+        private boolean closed = false;
+
+        private Ticket(Flight<V> flight, V value, boolean leader) {
+            this.flight = flight;
+            this.value = value;
+            this.leader = leader;
+        }
+
+        public V value() {
+            return value;
+        }
+
+        /**
+         * Whether this caller produced the value or shared the value produced by another caller
+         *
+         * @return
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            flight.leave(value);
+        }
+    }
+}
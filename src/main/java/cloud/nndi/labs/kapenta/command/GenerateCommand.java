@@ -4,6 +4,7 @@ import cloud.nndi.labs.kapenta.autogen.KapentaApiGenerator;
 import org.apache.commons.io.FilenameUtils;
 
 import java.nio.file.Paths;
+import java.util.Objects;
 
 import static picocli.CommandLine.Option;
 
@@ -15,11 +16,19 @@ public class GenerateCommand implements Runnable {
     @Option(names = {"-o", "--output"}, required = true)
     private String outputFile;
 
+    @Option(names = {"--max-depth"}, description = "Levels of subdirectories to search for reports, negative for no limit")
+    private int maximumDepth = -1;
+
+    @Option(names = {"--index"}, description = "File to keep an index of parsed reports in, unchanged reports are not parsed again")
+    private String indexFile;
+
     @Override
     public void run() {
         KapentaApiGenerator generator = new KapentaApiGenerator(
             Paths.get(FilenameUtils.getName(directory)),
-            Paths.get(FilenameUtils.getName(outputFile))
+            Paths.get(FilenameUtils.getName(outputFile)),
+            maximumDepth,
+            Objects.isNull(indexFile) ? null : Paths.get(indexFile)
         );
         try {
             generator.generate();
@@ -0,0 +1,132 @@
+package cloud.nndi.labs.kapenta.command;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.Server;
+import cloud.nndi.labs.kapenta.bulk.BulkRenderer;
+import cloud.nndi.labs.kapenta.bulk.RenderStatistics;
+import cloud.nndi.labs.kapenta.cache.QueryResultCache;
+import cloud.nndi.labs.kapenta.config.ApiConfiguration;
+import cloud.nndi.labs.kapenta.config.QueryCache;
+import cloud.nndi.labs.kapenta.config.ReportConfiguration;
+import cloud.nndi.labs.kapenta.parameters.ParameterBinder;
+import cloud.nndi.labs.kapenta.pentaho.Generator;
+import cloud.nndi.labs.kapenta.pentaho.PreparedReport;
+import cloud.nndi.labs.kapenta.pentaho.RenderOptions;
+import cloud.nndi.labs.kapenta.pentaho.sql.ConnectionPools;
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import static picocli.CommandLine.Command;
+import static picocli.CommandLine.Option;
+
+/**
+ * Renders a report from a YAML configuration file for each set of parameters in a file,
+ * without starting the server
+ *
+ */
+@Command(name = "render", version = "0.3.1-SNAPSHOT")
+public class RenderCommand implements Callable<Integer> {
+
+    @Option(names = { "-c", "--config" }, required = true, description = "Configuration file")
+    private String configurationFile;
+
+    @Option(names = { "-r", "--report" }, required = true, description = "Name or path of the report in the configuration file")
+    private String report;
+
+    @Option(names = { "-p", "--parameters" }, required = true, description = "File with a JSON object of parameters on each line, - for standard input")
+    private String parametersFile;
+
+    @Option(names = { "-o", "--output" }, required = true, description = "Directory to write the reports to")
+    private String outputDirectory;
+
+    @Option(names = { "-t", "--type" }, description = "Output type of the reports")
+    private OutputType outputType = OutputType.PDF;
+
+    @Option(names = { "--threads" }, description = "Number of reports rendered at the same time")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @return 0 if all the reports were rendered, 1 otherwise
+     */
+    @Override
+    public Integer call() {
+        final Path yamlFile = Paths.get(configurationFile).toAbsolutePath();
+        if (!Files.exists(yamlFile)) {
+            System.err.println(String.format("File %s does not exist. Kapenta requires path to yaml configuration file to render reports!", yamlFile));
+            return 1;
+        }
+
+        final ApiConfiguration configuration = Server.createFromYaml(yamlFile.toString());
+        final Optional<ReportConfiguration> reportConfiguration = findReport(configuration);
+        if (reportConfiguration.isEmpty()) {
+            System.err.println(String.format("Report %s is not in the configuration file", report));
+            return 1;
+        }
+        if (!reportConfiguration.get().outputTypes().contains(outputType)) {
+            System.err.println(String.format("Report %s does not support the %s output type", report, outputType));
+            return 1;
+        }
+
+        ClassicEngineBoot.getInstance().start();
+        Optional.ofNullable(configuration.getTemplateCache())
+            .ifPresent(Generator::configureTemplateCache);
+
+        final ReportDefinition reportDefinition = reportConfiguration.get().toReportDefinition(yamlFile.getParent());
+        final Optional<QueryResultCache> queryCache = Optional.ofNullable(reportConfiguration.get().getQueryCache())
+            .filter(QueryCache::isEnabled)
+            .map(cacheConfig -> new QueryResultCache(report, cacheConfig));
+        final RenderOptions renderOptions = RenderOptions.defaults()
+            .withDatabase(configuration.getDatabase())
+            .withQueryCache(queryCache.orElse(null))
+            .withPrefetch(reportConfiguration.get().getPrefetch())
+            .withTimeouts(reportConfiguration.get().getTimeouts());
+        try {
+            // The template is loaded and its data sources pointed at the database once for all the reports
+            final PreparedReport preparedReport = Generator.prepare(reportDefinition.getReportFilePath(), renderOptions);
+            final BulkRenderer bulkRenderer = new BulkRenderer(
+                (parameters, os) -> preparedReport.generate(parameters, outputType, os),
+                ParameterBinder.compile(reportDefinition, ZoneId.of(reportConfiguration.get().getTimeZone())),
+                outputType,
+                Paths.get(outputDirectory),
+                threads);
+
+            final RenderStatistics statistics;
+            try (BufferedReader reader = "-".equals(parametersFile)
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(parametersFile), StandardCharsets.UTF_8)) {
+                statistics = bulkRenderer.render(reader);
+            }
+            System.out.println(statistics);
+            return statistics.getFailed() == 0 ? 0 : 1;
+        } catch (Exception e) {
+            System.err.println("Failed to render reports. Got: " + e.getMessage());
+            return 1;
+        } finally {
+            queryCache.ifPresent(QueryResultCache::close);
+            ConnectionPools.closeAll();
+        }
+    }
+
+    /**
+     * Find the report by its path, with or without the leading slash, or its name
+     */
+    private Optional<ReportConfiguration> findReport(ApiConfiguration configuration) {
+        final String path = report.startsWith("/") ? report : "/".concat(report);
+        return configuration.getReports()
+            .stream()
+            .filter(cfg -> Objects.nonNull(cfg.getPath()) && path.equals(cfg.getPath().startsWith("/") ? cfg.getPath() : "/".concat(cfg.getPath()))
+                || report.equalsIgnoreCase(cfg.getReportName()))
+            .findFirst();
+    }
+}
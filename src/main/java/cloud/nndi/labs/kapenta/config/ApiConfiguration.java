@@ -30,6 +30,24 @@ public class ApiConfiguration {
     @JsonProperty
     Database database;
 
+    @JsonProperty
+    TemplateCache templateCache;
+
+    @JsonProperty
+    Concurrency concurrency;
+
+    @JsonProperty
+    Jobs jobs;
+
+    @JsonProperty
+    Execution execution;
+
+    @JsonProperty
+    HotReload hotReload;
+
+    @JsonProperty
+    Snapshot snapshot;
+
     @JsonProperty
     private List<ReportConfiguration> reports;
 
@@ -99,4 +117,52 @@ public class ApiConfiguration {
     public void setDatabase(Database database) {
         this.database = database;
     }
+
+    public TemplateCache getTemplateCache() {
+        return templateCache;
+    }
+
+    public void setTemplateCache(TemplateCache templateCache) {
+        this.templateCache = templateCache;
+    }
+
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Concurrency concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public Jobs getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(Jobs jobs) {
+        this.jobs = jobs;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public void setExecution(Execution execution) {
+        this.execution = execution;
+    }
+
+    public HotReload getHotReload() {
+        return hotReload;
+    }
+
+    public void setHotReload(HotReload hotReload) {
+        this.hotReload = hotReload;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
 }
@@ -20,6 +20,30 @@ public class Backup {
     @JsonProperty(defaultValue = "false")
     private boolean rollingBackup = false;
 
+    /**
+     * Write backups on a background thread instead of while sending the response
+     */
+    @JsonProperty(defaultValue = "false")
+    private boolean async = false;
+
+    /**
+     * Maximum number of bytes of backups waiting to be written to disk
+     */
+    @JsonProperty(defaultValue = "8388608")
+    private int bufferSize = 8 * 1024 * 1024;
+
+    /**
+     * What to do when the buffer is full, either <code>drop</code> the backup or <code>block</code> until there is space
+     */
+    @JsonProperty(defaultValue = "block")
+    private String overflowPolicy = "block";
+
+    /**
+     * Backups written within this interval are synced to disk together, 0 leaves syncing to the operating system
+     */
+    @JsonProperty(defaultValue = "1000")
+    private long fsyncIntervalMillis = 1000;
+
     public String getDirectory() {
         return directory;
     }
@@ -36,6 +60,38 @@ public class Backup {
         this.rollingBackup = rollingBackup;
     }
 
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
     public Path makeBackupPath(String fileName) {
         var directoryName = FilenameUtils.getName(directory);
         if (isRollingBackup()) {
@@ -0,0 +1,87 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for rendering a report for many sets of parameters in one request
+ */
+public class Batch {
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Number of items of a batch rendered at the same time
+     */
+    @JsonProperty(defaultValue = "4")
+    private int maxParallelRenders = 4;
+
+    /**
+     * Largest number of items accepted in a batch, items beyond it are reported as failed
+     */
+    @JsonProperty(defaultValue = "100000")
+    private int maxItems = 100000;
+
+    /**
+     * Rendered items larger than this are held in a temporary file until they are sent
+     */
+    @JsonProperty(defaultValue = "1048576")
+    private long maxInMemoryBytes = 1024 * 1024;
+
+    /**
+     * Directory to hold the larger rendered items in, defaults to the temporary directory
+     */
+    @JsonProperty
+    private String directory;
+
+    public Batch() {
+    }
+
+    public Batch(boolean enabled, int maxParallelRenders, int maxItems, long maxInMemoryBytes, String directory) {
+        this.enabled = enabled;
+        this.maxParallelRenders = maxParallelRenders;
+        this.maxItems = maxItems;
+        this.maxInMemoryBytes = maxInMemoryBytes;
+        this.directory = directory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxParallelRenders() {
+        return maxParallelRenders;
+    }
+
+    public void setMaxParallelRenders(int maxParallelRenders) {
+        this.maxParallelRenders = maxParallelRenders;
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    public void setMaxItems(int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    public long getMaxInMemoryBytes() {
+        return maxInMemoryBytes;
+    }
+
+    public void setMaxInMemoryBytes(long maxInMemoryBytes) {
+        this.maxInMemoryBytes = maxInMemoryBytes;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+}
@@ -0,0 +1,60 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for limiting the number of reports rendered at the same time
+ */
+public class Concurrency {
+
+    /**
+     * Maximum number of reports rendered at the same time
+     */
+    @JsonProperty
+    private int maxConcurrentRenders = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of requests waiting for a render slot, further requests are rejected
+     */
+    @JsonProperty(defaultValue = "50")
+    private int queueSize = 50;
+
+    /**
+     * Value of the Retry-After header sent on rejected requests
+     */
+    @JsonProperty(defaultValue = "5")
+    private int retryAfterSeconds = 5;
+
+    public Concurrency() {
+    }
+
+    public Concurrency(int maxConcurrentRenders, int queueSize, int retryAfterSeconds) {
+        this.maxConcurrentRenders = maxConcurrentRenders;
+        this.queueSize = queueSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getMaxConcurrentRenders() {
+        return maxConcurrentRenders;
+    }
+
+    public void setMaxConcurrentRenders(int maxConcurrentRenders) {
+        this.maxConcurrentRenders = maxConcurrentRenders;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -16,6 +16,24 @@ public class Database {
     @JsonProperty
     private String uri;
 
+    @JsonProperty(defaultValue = "10")
+    private int maximumPoolSize = 10;
+
+    @JsonProperty(defaultValue = "2")
+    private int minimumIdle = 2;
+
+    /**
+     * Maximum time in milliseconds to wait for a connection from the pool
+     */
+    @JsonProperty(defaultValue = "30000")
+    private long connectionTimeout = 30_000;
+
+    /**
+     * Maximum lifetime in milliseconds of a connection in the pool
+     */
+    @JsonProperty(defaultValue = "1800000")
+    private long maxLifetime = 1_800_000;
+
     public String getUser() {
         return user;
     }
@@ -39,4 +57,55 @@ public class Database {
     public void setUri(String uri) {
         this.uri = uri;
     }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    public int getMinimumIdle() {
+        return minimumIdle;
+    }
+
+    public void setMinimumIdle(int minimumIdle) {
+        this.minimumIdle = minimumIdle;
+    }
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * Copy of this configuration that connects with the given credentials
+     *
+     * @param user database user
+     * @param password database password
+     * @return a copy of the database configuration
+     */
+    public Database withCredentials(String user, String password) {
+        Database database = new Database();
+        database.uri = this.uri;
+        database.user = user;
+        database.password = password;
+        database.maximumPoolSize = this.maximumPoolSize;
+        database.minimumIdle = this.minimumIdle;
+        database.connectionTimeout = this.connectionTimeout;
+        database.maxLifetime = this.maxLifetime;
+        return database;
+    }
 }
@@ -0,0 +1,32 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for the threads requests are handled on
+ */
+public class Execution {
+
+    /**
+     * Maximum number of threads requests are handled on. A request holds its thread
+     * while its report waits for a render slot and renders, so this also caps how many
+     * requests can wait for reports at the same time.
+     */
+    @JsonProperty(defaultValue = "250")
+    private int requestThreads = 250;
+
+    public Execution() {
+    }
+
+    public Execution(int requestThreads) {
+        this.requestThreads = requestThreads;
+    }
+
+    public int getRequestThreads() {
+        return requestThreads;
+    }
+
+    public void setRequestThreads(int requestThreads) {
+        this.requestThreads = requestThreads;
+    }
+}
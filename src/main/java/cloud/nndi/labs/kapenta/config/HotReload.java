@@ -0,0 +1,42 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for reloading the reports when the configuration file or the report files change
+ */
+public class HotReload {
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Time to wait for changes to settle before reloading, editors often write a file in several steps
+     */
+    @JsonProperty(defaultValue = "500")
+    private long debounceMillis = 500;
+
+    public HotReload() {
+    }
+
+    public HotReload(boolean enabled, long debounceMillis) {
+        this.enabled = enabled;
+        this.debounceMillis = debounceMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+}
@@ -0,0 +1,125 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for rendering reports asynchronously as jobs
+ */
+public class Jobs {
+
+    public static final String MEMORY_STORE = "memory";
+
+    public static final String SQLITE_STORE = "sqlite";
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Where job state is kept, either <code>memory</code> or <code>sqlite</code>
+     */
+    @JsonProperty(defaultValue = MEMORY_STORE)
+    private String store = MEMORY_STORE;
+
+    /**
+     * Path of the SQLite database file used by the <code>sqlite</code> store
+     */
+    @JsonProperty(defaultValue = "kapenta-jobs.db")
+    private String databaseFile = "kapenta-jobs.db";
+
+    /**
+     * Directory the rendered reports are written to, defaults to a temporary directory
+     */
+    @JsonProperty
+    private String directory;
+
+    /**
+     * Number of jobs rendered at the same time
+     */
+    @JsonProperty(defaultValue = "2")
+    private int threads = 2;
+
+    /**
+     * Number of jobs that may wait to be rendered, jobs submitted beyond that are rejected
+     */
+    @JsonProperty(defaultValue = "100")
+    private int maxQueuedJobs = 100;
+
+    /**
+     * Number of seconds clients are asked to wait before submitting a rejected job again
+     */
+    @JsonProperty(defaultValue = "30")
+    private int retryAfterSeconds = 30;
+
+    /**
+     * Number of seconds a finished job and its output are kept
+     */
+    @JsonProperty(defaultValue = "86400")
+    private long retentionSeconds = 86400;
+
+    public Jobs() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getStore() {
+        return store;
+    }
+
+    public void setStore(String store) {
+        this.store = store;
+    }
+
+    public String getDatabaseFile() {
+        return databaseFile;
+    }
+
+    public void setDatabaseFile(String databaseFile) {
+        this.databaseFile = databaseFile;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getMaxQueuedJobs() {
+        return maxQueuedJobs;
+    }
+
+    public void setMaxQueuedJobs(int maxQueuedJobs) {
+        this.maxQueuedJobs = maxQueuedJobs;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetentionSeconds() {
+        return retentionSeconds;
+    }
+
+    public void setRetentionSeconds(long retentionSeconds) {
+        this.retentionSeconds = retentionSeconds;
+    }
+}
@@ -0,0 +1,79 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for caching generated reports
+ */
+public class OutputCache {
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Number of seconds a generated report is served from the cache
+     */
+    @JsonProperty(defaultValue = "300")
+    private long ttlSeconds = 300;
+
+    /**
+     * Maximum number of bytes of generated reports kept in the cache
+     */
+    @JsonProperty(defaultValue = "67108864")
+    private long maxBytes = 64 * 1024 * 1024;
+
+    /**
+     * Generated reports larger than this are kept on disk instead of in memory
+     */
+    @JsonProperty(defaultValue = "262144")
+    private int maxInMemoryBytes = 256 * 1024;
+
+    /**
+     * Directory to keep the larger generated reports in, defaults to a temporary directory
+     */
+    @JsonProperty
+    private String directory;
+
+    public OutputCache() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxInMemoryBytes() {
+        return maxInMemoryBytes;
+    }
+
+    public void setMaxInMemoryBytes(int maxInMemoryBytes) {
+        this.maxInMemoryBytes = maxInMemoryBytes;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+}
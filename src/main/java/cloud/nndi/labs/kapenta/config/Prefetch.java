@@ -0,0 +1,42 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for running the independent queries of a report concurrently before it is laid out
+ */
+public class Prefetch {
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Maximum number of queries of a single render that run at the same time
+     */
+    @JsonProperty(defaultValue = "4")
+    private int maxParallelQueries = 4;
+
+    public Prefetch() {
+    }
+
+    public Prefetch(boolean enabled, int maxParallelQueries) {
+        this.enabled = enabled;
+        this.maxParallelQueries = maxParallelQueries;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxParallelQueries() {
+        return maxParallelQueries;
+    }
+
+    public void setMaxParallelQueries(int maxParallelQueries) {
+        this.maxParallelQueries = maxParallelQueries;
+    }
+}
@@ -0,0 +1,72 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for caching the results of the queries of a report
+ */
+public class QueryCache {
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Number of seconds a query result is reused
+     */
+    @JsonProperty(defaultValue = "60")
+    private long ttlSeconds = 60;
+
+    /**
+     * Maximum (estimated) number of bytes of query results kept in the cache
+     */
+    @JsonProperty(defaultValue = "33554432")
+    private long maxBytes = 32 * 1024 * 1024;
+
+    /**
+     * Query results with more rows than this are not cached
+     */
+    @JsonProperty(defaultValue = "10000")
+    private int maxRows = 10000;
+
+    public QueryCache() {
+    }
+
+    public QueryCache(boolean enabled, long ttlSeconds, long maxBytes, int maxRows) {
+        this.enabled = enabled;
+        this.ttlSeconds = ttlSeconds;
+        this.maxBytes = maxBytes;
+        this.maxRows = maxRows;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+}
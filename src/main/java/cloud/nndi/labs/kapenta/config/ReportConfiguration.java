@@ -12,6 +12,8 @@ import java.util.Optional;
 
 public class ReportConfiguration {
 
+    public static final String DEFAULT_TIME_ZONE = "UTC";
+
     @JsonProperty("path")
     private String path;
 
@@ -36,6 +38,39 @@ public class ReportConfiguration {
     @JsonProperty("parameters")
     private List<ParameterDefinition> parameters;
 
+    @JsonProperty("concurrency")
+    private Concurrency concurrency;
+
+    @JsonProperty("outputCache")
+    private OutputCache outputCache;
+
+    @JsonProperty("queryCache")
+    private QueryCache queryCache;
+
+    @JsonProperty("prefetch")
+    private Prefetch prefetch;
+
+    @JsonProperty("spooling")
+    private Spooling spooling;
+
+    @JsonProperty("batch")
+    private Batch batch;
+
+    @JsonProperty("schedule")
+    private List<Schedule> schedules;
+
+    @JsonProperty("timeouts")
+    private Timeouts timeouts;
+
+    /**
+     * Time zone that date parameters are converted in
+     */
+    @JsonProperty(value = "timeZone", defaultValue = DEFAULT_TIME_ZONE)
+    private String timeZone = DEFAULT_TIME_ZONE;
+
+    @JsonProperty(value = "coalesceRequests", defaultValue = "false")
+    private boolean coalesceRequests = false;
+
     public ReportConfiguration() {
     }
 
@@ -104,6 +139,86 @@ public class ReportConfiguration {
     }
 
 
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Concurrency concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public OutputCache getOutputCache() {
+        return outputCache;
+    }
+
+    public void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public Prefetch getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(Prefetch prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public Spooling getSpooling() {
+        return spooling;
+    }
+
+    public void setSpooling(Spooling spooling) {
+        this.spooling = spooling;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public void setBatch(Batch batch) {
+        this.batch = batch;
+    }
+
+    public List<Schedule> getSchedules() {
+        return schedules;
+    }
+
+    public void setSchedules(List<Schedule> schedules) {
+        this.schedules = schedules;
+    }
+
+    public Timeouts getTimeouts() {
+        return timeouts;
+    }
+
+    public void setTimeouts(Timeouts timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    public boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
+
     public EnumSet<OutputType> outputTypes() {
         final EnumSet<OutputType> set = EnumSet.noneOf(OutputType.class);
 
@@ -117,6 +232,15 @@ public class ReportConfiguration {
             if (ext.toLowerCase().equalsIgnoreCase("txt")) {
                 set.add(OutputType.TXT);
             }
+            if (ext.toLowerCase().equalsIgnoreCase("csv")) {
+                set.add(OutputType.CSV);
+            }
+            if (ext.toLowerCase().equalsIgnoreCase("ndjson")) {
+                set.add(OutputType.NDJSON);
+            }
+            if (ext.toLowerCase().equalsIgnoreCase("xlsx")) {
+                set.add(OutputType.XLSX);
+            }
         });
         return set;
     }
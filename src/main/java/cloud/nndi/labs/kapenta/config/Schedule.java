@@ -0,0 +1,111 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration for rendering a report ahead of the requests for it, e.g. early in the
+ * morning for the daily reports everyone asks for when they start work
+ */
+public class Schedule {
+
+    /**
+     * When to render, as a cron expression of minute, hour, day of month, month and day of week
+     */
+    @JsonProperty("cron")
+    private String cron;
+
+    /**
+     * Output types to render
+     */
+    @JsonProperty("ext")
+    private List<String> extensions = new ArrayList<>(Collections.singletonList("html"));
+
+    /**
+     * Sets of parameters to render the report with, values may use templates like <code>${yesterday}</code>
+     */
+    @JsonProperty("parameters")
+    private List<Map<String, String>> parameters = new ArrayList<>(Collections.singletonList(Collections.emptyMap()));
+
+    /**
+     * Number of reports rendered at the same time by the schedule
+     */
+    @JsonProperty(defaultValue = "1")
+    private int maxConcurrentRenders = 1;
+
+    /**
+     * Number of seconds the rendered reports are served from the output cache
+     */
+    @JsonProperty(defaultValue = "86400")
+    private long ttlSeconds = 86400;
+
+    /**
+     * Render the reports when the server starts as well
+     */
+    @JsonProperty(defaultValue = "false")
+    private boolean runOnStartup = false;
+
+    public Schedule() {
+    }
+
+    public Schedule(String cron, List<String> extensions, List<Map<String, String>> parameters, int maxConcurrentRenders, long ttlSeconds, boolean runOnStartup) {
+        this.cron = cron;
+        this.extensions = extensions;
+        this.parameters = parameters;
+        this.maxConcurrentRenders = maxConcurrentRenders;
+        this.ttlSeconds = ttlSeconds;
+        this.runOnStartup = runOnStartup;
+    }
+
+    public String getCron() {
+        return cron;
+    }
+
+    public void setCron(String cron) {
+        this.cron = cron;
+    }
+
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    public void setExtensions(List<String> extensions) {
+        this.extensions = extensions;
+    }
+
+    public List<Map<String, String>> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(List<Map<String, String>> parameters) {
+        this.parameters = parameters;
+    }
+
+    public int getMaxConcurrentRenders() {
+        return maxConcurrentRenders;
+    }
+
+    public void setMaxConcurrentRenders(int maxConcurrentRenders) {
+        this.maxConcurrentRenders = maxConcurrentRenders;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public boolean isRunOnStartup() {
+        return runOnStartup;
+    }
+
+    public void setRunOnStartup(boolean runOnStartup) {
+        this.runOnStartup = runOnStartup;
+    }
+}
@@ -0,0 +1,43 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for the snapshot of the report metadata and OpenAPI document that is
+ * used at startup when the configuration file and the report files have not changed
+ */
+public class Snapshot {
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Snapshot file, relative paths are resolved against the directory of the configuration file
+     */
+    @JsonProperty(defaultValue = ".kapenta-snapshot.json")
+    private String file = ".kapenta-snapshot.json";
+
+    public Snapshot() {
+    }
+
+    public Snapshot(boolean enabled, String file) {
+        this.enabled = enabled;
+        this.file = file;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+}
@@ -0,0 +1,58 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for holding a generated report until it is complete before sending it,
+ * so failures return a clean error and the response has a Content-Length
+ */
+public class Spooling {
+
+    @JsonProperty(defaultValue = "false")
+    private boolean enabled = false;
+
+    /**
+     * Generated reports larger than this are spooled to a temporary file instead of kept in memory
+     */
+    @JsonProperty(defaultValue = "1048576")
+    private long maxInMemoryBytes = 1024 * 1024;
+
+    /**
+     * Directory to spool the larger generated reports to, defaults to the temporary directory
+     */
+    @JsonProperty
+    private String directory;
+
+    public Spooling() {
+    }
+
+    public Spooling(boolean enabled, long maxInMemoryBytes, String directory) {
+        this.enabled = enabled;
+        this.maxInMemoryBytes = maxInMemoryBytes;
+        this.directory = directory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxInMemoryBytes() {
+        return maxInMemoryBytes;
+    }
+
+    public void setMaxInMemoryBytes(long maxInMemoryBytes) {
+        this.maxInMemoryBytes = maxInMemoryBytes;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+}
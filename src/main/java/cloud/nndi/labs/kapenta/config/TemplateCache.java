@@ -0,0 +1,51 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for the cache of parsed report templates (.prpt files)
+ */
+public class TemplateCache {
+
+    @JsonProperty(defaultValue = "true")
+    private boolean enabled = true;
+
+    @JsonProperty(defaultValue = "100")
+    private long maximumSize = 100;
+
+    @JsonProperty(defaultValue = "3600")
+    private long expireAfterSeconds = 3600;
+
+    public TemplateCache() {
+    }
+
+    public TemplateCache(boolean enabled, long maximumSize, long expireAfterSeconds) {
+        this.enabled = enabled;
+        this.maximumSize = maximumSize;
+        this.expireAfterSeconds = expireAfterSeconds;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public long getExpireAfterSeconds() {
+        return expireAfterSeconds;
+    }
+
+    public void setExpireAfterSeconds(long expireAfterSeconds) {
+        this.expireAfterSeconds = expireAfterSeconds;
+    }
+}
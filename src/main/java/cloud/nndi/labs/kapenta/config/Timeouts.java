@@ -0,0 +1,45 @@
+package cloud.nndi.labs.kapenta.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configuration for how long a report may take to render
+ */
+public class Timeouts {
+
+    /**
+     * Maximum number of seconds a single query of the report may run, 0 for no limit
+     */
+    @JsonProperty(defaultValue = "0")
+    private int queryTimeoutSeconds = 0;
+
+    /**
+     * Maximum number of seconds a render may take including the time waiting for a render slot, 0 for no limit
+     */
+    @JsonProperty(defaultValue = "0")
+    private int renderTimeoutSeconds = 0;
+
+    public Timeouts() {
+    }
+
+    public Timeouts(int queryTimeoutSeconds, int renderTimeoutSeconds) {
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.renderTimeoutSeconds = renderTimeoutSeconds;
+    }
+
+    public int getQueryTimeoutSeconds() {
+        return queryTimeoutSeconds;
+    }
+
+    public void setQueryTimeoutSeconds(int queryTimeoutSeconds) {
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+    }
+
+    public int getRenderTimeoutSeconds() {
+        return renderTimeoutSeconds;
+    }
+
+    public void setRenderTimeoutSeconds(int renderTimeoutSeconds) {
+        this.renderTimeoutSeconds = renderTimeoutSeconds;
+    }
+}
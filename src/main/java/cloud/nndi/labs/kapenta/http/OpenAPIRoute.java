@@ -1,26 +1,65 @@
 package cloud.nndi.labs.kapenta.http;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Suppliers;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import org.jetbrains.annotations.NotNull;
 import org.openapi4j.parser.model.v3.OpenApi3;
 
+import java.util.function.Supplier;
+
 public class OpenAPIRoute implements Handler {
-    private final OpenApi3 openApiSchema;
-    private volatile Object cachedJson;
+    private volatile Supplier<OpenApi3> openApiSchema;
+    private volatile JsonNode cachedJson;
     private final ObjectMapper objectMapper;
 
     public OpenAPIRoute(final ObjectMapper objectMapper, final OpenApi3 schema) {
         this.objectMapper = objectMapper;
-        this.openApiSchema = schema;
+        this.openApiSchema = () -> schema;
+    }
+
+    /**
+     * Creates a route whose schema is only generated when it is first needed
+     *
+     * @param objectMapper the object mapper
+     * @param schema generates the schema
+     * @param json the schema as JSON if it is already known, e.g. from a snapshot, otherwise null
+     */
+    public OpenAPIRoute(final ObjectMapper objectMapper, final Supplier<OpenApi3> schema, final JsonNode json) {
+        this.objectMapper = objectMapper;
+        this.openApiSchema = Suppliers.memoize(schema::get);
+        this.cachedJson = json;
+    }
+
+    /**
+     * Replace the schema, e.g. after the reports are reloaded
+     *
+     * @param schema the new schema
+     */
+    public void update(final OpenApi3 schema) {
+        this.openApiSchema = () -> schema;
+        this.cachedJson = null;
+    }
+
+    /**
+     * The schema as JSON, generating it if necessary
+     *
+     * @return the schema
+     * @throws Exception if the schema cannot be converted to JSON
+     */
+    public JsonNode json() throws Exception {
+        JsonNode json = cachedJson;
+        if (json == null) {
+            json = openApiSchema.get().toNode();
+            cachedJson = json;
+        }
+        return json;
     }
 
     @Override
     public void handle(@NotNull Context context) throws Exception {
-        if (cachedJson == null) {
-            cachedJson = openApiSchema.toNode();
-        }
-        context.json(cachedJson);
+        context.json(json());
     }
 }
@@ -0,0 +1,294 @@
+package cloud.nndi.labs.kapenta.http;
+
+import cloud.nndi.labs.kapenta.config.Concurrency;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs report renders on a bounded pool of threads.
+ *
+ * At most <code>maxConcurrentRenders</code> reports are rendered at a time and
+ * at most <code>queueSize</code> requests wait for a free slot. Requests beyond
+ * that are rejected straight away with a {@link RejectedExecutionException} so
+ * the caller can tell the client to come back later instead of piling up
+ * threads and memory.
+ *
+ * The calling thread waits while the render is queued and runs. These are request
+ * threads, executors can share a limit on how many of them wait at a time so requests
+ * beyond it are rejected while there are request threads left to say so.
+ */
+public final class RenderExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenderExecutor.class);
+
+    /**
+     * A unit of rendering work
+     */
+    @FunctionalInterface
+    public interface RenderTask {
+        void render() throws Exception;
+    }
+
+    private final String name;
+
+    private final int maxConcurrentRenders;
+
+    private final int queueSize;
+
+    private final int retryAfterSeconds;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Calling threads that may wait on the pool, shared between executors, null for no limit
+     */
+    private final Semaphore callers;
+
+    private volatile boolean shutdown = false;
+
+    private volatile Gauge queueDepthGauge;
+
+    private volatile Gauge activeGauge;
+
+    private volatile Timer waitTimer;
+
+    private volatile Counter rejectedCounter;
+
+    private RenderExecutor(String name, Concurrency concurrency, Semaphore callers) {
+        this.name = name;
+        this.callers = callers;
+        this.retryAfterSeconds = concurrency.getRetryAfterSeconds();
+        this.maxConcurrentRenders = Math.max(1, concurrency.getMaxConcurrentRenders());
+        this.queueSize = Math.max(0, concurrency.getQueueSize());
+
+        final BlockingQueue<Runnable> queue = queueSize > 0
+            ? new ArrayBlockingQueue<>(queueSize)
+            : new SynchronousQueue<>();
+
+        this.executor = new ThreadPoolExecutor(
+            maxConcurrentRenders,
+            maxConcurrentRenders,
+            60L, TimeUnit.SECONDS,
+            queue,
+            new ThreadFactoryBuilder()
+                .setNameFormat("kapenta-render-" + name + "-%d")
+                .setDaemon(true)
+                .build(),
+            new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        registerMetrics();
+    }
+
+    /**
+     * Register the metrics of the executor, replacing those of an executor with the same name
+     * that were removed with {@link #removeMetrics()}
+     */
+    void registerMetrics() {
+        this.queueDepthGauge = Gauge.builder("kapenta.render.queue.depth", this, RenderExecutor::queueDepth)
+            .description("Number of renders waiting for a free slot")
+            .tag("executor", name)
+            .register(Metrics.globalRegistry);
+        this.activeGauge = Gauge.builder("kapenta.render.active", this, RenderExecutor::activeRenders)
+            .description("Number of renders in progress")
+            .tag("executor", name)
+            .register(Metrics.globalRegistry);
+        this.waitTimer = Timer.builder("kapenta.render.queue.wait")
+            .description("Time spent waiting for a free render slot")
+            .tag("executor", name)
+            .register(Metrics.globalRegistry);
+        this.rejectedCounter = Counter.builder("kapenta.render.rejected")
+            .description("Number of renders rejected because the queue was full")
+            .tag("executor", name)
+            .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Create a RenderExecutor
+     *
+     * @param name name of the executor used for thread names and metric tags
+     * @param concurrency concurrency limits
+     * @return a new RenderExecutor
+     */
+    public static RenderExecutor create(String name, Concurrency concurrency) {
+        return create(name, concurrency, null);
+    }
+
+    /**
+     * Create a RenderExecutor whose calling threads count against a limit shared with other executors
+     *
+     * @param name name of the executor, used in thread names and metrics
+     * @param concurrency the concurrency limits
+     * @param callers permits for the calling threads that wait on the pool, null for no limit
+     * @return a new RenderExecutor
+     */
+    public static RenderExecutor create(String name, Concurrency concurrency, Semaphore callers) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(concurrency, "concurrency");
+        return new RenderExecutor(name, concurrency, callers);
+    }
+
+    /**
+     * Runs the task on the render pool and waits for it to complete.
+     *
+     * @param task the render task
+     * @throws RejectedExecutionException if there is no space left in the queue, or no
+     * calling thread may wait for it
+     * @throws Exception the exception thrown by the task
+     */
+    public void run(RenderTask task) throws Exception {
+        try (Caller caller = enter()) {
+            caller.run(task);
+        }
+    }
+
+    /**
+     * Counts the calling thread against the limit shared by the callers of the executors until
+     * the returned caller is closed. Used by a thread that may wait for a render started by
+     * another request, e.g. an identical one whose output it shares, as well as run its own.
+     *
+     * @return the caller, renders run through it don't count against the limit again
+     * @throws RejectedExecutionException if no more calling threads may wait
+     */
+    public Caller enter() {
+        if (Objects.nonNull(callers) && !callers.tryAcquire()) {
+            throw reject(new RejectedExecutionException("Too many requests are waiting for renders"));
+        }
+        return new Caller();
+    }
+
+    /**
+     * A calling thread admitted by {@link #enter()}
+     */
+    public final class Caller implements AutoCloseable {
+        private boolean closed = false;
+
+        private Caller() {
+        }
+
+        /**
+         * Runs the task on the render pool and waits for it to complete.
+         *
+         * @param task the render task
+         * @throws RejectedExecutionException if there is no space left in the queue
+         * @throws Exception the exception thrown by the task
+         */
+        public void run(RenderTask task) throws Exception {
+            runOnPool(task);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            if (Objects.nonNull(callers)) {
+                callers.release();
+            }
+        }
+    }
+
+    private void runOnPool(RenderTask task) throws Exception {
+        final long submittedAt = System.nanoTime();
+        final Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                task.render();
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            throw reject(e);
+        }
+
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private RejectedExecutionException reject(RejectedExecutionException e) {
+        rejectedCounter.increment();
+        LOGGER.warn("Render queue for {} is full, rejecting render", name);
+        return e;
+    }
+
+    private int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    private int activeRenders() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Whether a render submitted now would be rejected because all slots are busy and the queue
+     * is full, or no more calling threads may wait
+     *
+     * @return true if the executor is saturated or shut down
+     */
+    public boolean isSaturated() {
+        return shutdown
+            || (activeRenders() >= maxConcurrentRenders && queueDepth() >= queueSize)
+            || (Objects.nonNull(callers) && callers.availablePermits() == 0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Stop accepting renders, renders in progress are allowed to complete.
+     * The metrics of the executor are removed so an executor with the same name can replace it.
+     */
+    public void shutdown() {
+        stop();
+        removeMetrics();
+    }
+
+    /**
+     * Stop accepting renders, renders in progress are allowed to complete. The metrics are left
+     * as they are, they may have been handed over to an executor with the same name.
+     */
+    void stop() {
+        shutdown = true;
+        executor.shutdown();
+    }
+
+    /**
+     * Remove the metrics of the executor, they are shared with any executor with the same name
+     */
+    void removeMetrics() {
+        for (Meter meter: new Meter[] { queueDepthGauge, activeGauge, waitTimer, rejectedCounter }) {
+            Metrics.globalRegistry.remove(meter);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package cloud.nndi.labs.kapenta.http;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.Batch;
+import cloud.nndi.labs.kapenta.io.DirectBufferPool;
+import cloud.nndi.labs.kapenta.io.ResponseSpool;
+import cloud.nndi.labs.kapenta.parameters.ParameterBinder;
+import cloud.nndi.labs.kapenta.parameters.ParameterSets;
+import cloud.nndi.labs.kapenta.pentaho.GeneratorException;
+import cloud.nndi.labs.kapenta.pentaho.PreparedReport;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.apache.commons.io.FilenameUtils;
+import org.eclipse.jetty.http.HttpStatus;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static cloud.nndi.labs.kapenta.Server.OBJECT_MAPPER;
+import static cloud.nndi.labs.kapenta.http.ReportRoute.errorJson;
+import static cloud.nndi.labs.kapenta.http.ReportRoute.toJson;
+
+/**
+ * Route Handler for rendering a single report resource for many sets of parameters.
+ *
+ * The request body is newline delimited JSON with an object of parameter names and
+ * values on each line. The report is loaded and its data sources configured once, the
+ * items are rendered a few at a time on the report's {@link RenderExecutor}, so they count
+ * against the same concurrency limits as the other requests for the report, and the response
+ * is a ZIP archive that is written while the items are rendered. A batch is refused with a 503
+ * when the executor has no room, an item the executor rejects later on fails. Each item is added in the order of the request as
+ * <code>000001.pdf</code>, or <code>000001.error.json</code> if it failed, and the
+ * archive ends with <code>results.ndjson</code> listing the outcome of every item.
+ */
+final class ReportBatchRoute implements Handler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportBatchRoute.class);
+
+    public static final String APPLICATION_ZIP = "application/zip";
+
+    static final String RESULTS_ENTRY = "results.ndjson";
+
+    /**
+     * Renders an item of a batch
+     */
+    @FunctionalInterface
+    interface ItemRenderer {
+        void render(Map<String, Object> parameters, OutputStream outputStream) throws Exception;
+    }
+
+    private final ReportResource reportResource;
+
+    private final ReportRoute reportRoute;
+
+    private final Batch batch;
+
+    private final Counter succeededCounter;
+
+    private final Counter failedCounter;
+
+    /**
+     * @param reportResource the report resource
+     * @param reportRoute route of the report resource, parameters are validated and the report loaded the same way
+     * @param batch batch limits
+     */
+    ReportBatchRoute(ReportResource reportResource, ReportRoute reportRoute, Batch batch) {
+        this.reportResource = Objects.requireNonNull(reportResource);
+        this.reportRoute = Objects.requireNonNull(reportRoute);
+        this.batch = Objects.requireNonNull(batch);
+        this.succeededCounter = itemCounter("succeeded");
+        this.failedCounter = itemCounter("failed");
+    }
+
+    private Counter itemCounter(String outcome) {
+        return Counter.builder("kapenta.batch.items")
+            .description("Number of batch items rendered")
+            .tag("report", reportResource.path())
+            .tag("outcome", outcome)
+            .register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public void handle(@NotNull Context context) throws Exception {
+        final OutputType outputType = ReportRoute.determineOutputTypeAndContentType(context);
+        if (!reportResource.outputTypes().contains(outputType)) {
+            final StringJoiner sj = new StringJoiner(",", "[", "]");
+            reportResource.outputTypes().forEach(val -> sj.add(val.name()));
+            LOGGER.error("Failed to render batch. Unsupported output type: " + context.header("Accept"));
+            context.status(HttpStatus.BAD_REQUEST_400);
+            context.json(errorJson("Unsupported output type. This report only supports: " + sj.toString()));
+            return;
+        }
+
+        final PreparedReport preparedReport;
+        try {
+            preparedReport = reportRoute.prepare();
+        } catch (GeneratorException e) {
+            LOGGER.error("Failed to render batch. Error: " + e.getMessage(), e.getCause());
+            context.status(HttpStatus.INTERNAL_SERVER_ERROR_500);
+            context.json(errorJson("Failed to generate report. Please contact the System Administrator."));
+            return;
+        }
+
+        final RenderExecutor renderExecutor = reportRoute.getRenderExecutor();
+        if (renderExecutor.isSaturated()) {
+            LOGGER.error("Failed to render batch for {}. Too many reports being generated", reportResource.path());
+            context.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+            context.header("Retry-After", String.valueOf(renderExecutor.getRetryAfterSeconds()));
+            context.json(errorJson("Too many reports are being generated. Please try again later."));
+            return;
+        }
+
+        final String fileName = String.format("%s-batch.zip",
+            FilenameUtils.getName(reportResource.reportDefinition().getReportName().replace(" ", ""))).toLowerCase();
+        context.contentType(APPLICATION_ZIP);
+        context.header("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+
+        // Written to the servlet response so Javalin doesn't buffer or compress the archive
+        final BatchResult result = writeBatch(
+            context.req().getInputStream(),
+            context.res().getOutputStream(),
+            outputType,
+            (parameters, os) -> renderExecutor.run(() -> preparedReport.generate(parameters, outputType, os)));
+        LOGGER.info("Generated batch of {} reports ({} failed) for {}", result.items, result.failed, reportResource.path());
+    }
+
+    /**
+     * Renders the items read from the input and writes them to the output as a ZIP archive.
+     * At most <code>maxParallelRenders</code> items are rendered, or held rendered, at a time.
+     * The items wait for the renderer on virtual threads, the renderer bounds the renders.
+     *
+     * @param input the parameter sets as newline delimited JSON
+     * @param output where to write the archive to
+     * @param outputType output type of the items
+     * @param renderer renders an item
+     * @return number of items and failed items
+     * @throws IOException if reading the request or writing the archive fails
+     * @throws InterruptedException if interrupted while waiting for an item to be rendered
+     */
+    BatchResult writeBatch(InputStream input, OutputStream output, OutputType outputType, ItemRenderer renderer) throws IOException, InterruptedException {
+        final int parallelism = Math.max(1, batch.getMaxParallelRenders());
+        final Path directory = Paths.get(Optional.ofNullable(batch.getDirectory())
+            .orElseGet(() -> System.getProperty("java.io.tmpdir")));
+        final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+            .name("kapenta-batch-", 0)
+            .factory());
+        final Deque<Item> inFlight = new ArrayDeque<>(parallelism);
+        final StringBuilder results = new StringBuilder();
+        final BatchResult batchResult = new BatchResult();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+             ZipOutputStream zip = new ZipOutputStream(output)) {
+            String line;
+            while (Objects.nonNull(line = reader.readLine())) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                final Item item = new Item(batchResult.items + 1);
+                batchResult.items++;
+                if (item.number > batch.getMaxItems()) {
+                    item.error = String.format("The batch has more than %d items", batch.getMaxItems());
+                    inFlight.add(item);
+                    break;
+                }
+
+                final Map<String, Object> parameters = bind(item, line);
+                if (Objects.isNull(item.error)) {
+                    item.render = executor.submit(() -> renderItem(item, parameters, renderer, directory));
+                }
+                inFlight.add(item);
+                while (inFlight.size() >= parallelism) {
+                    writeItem(zip, inFlight.peek(), outputType, results, batchResult);
+                    inFlight.poll();
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                writeItem(zip, inFlight.peek(), outputType, results, batchResult);
+                inFlight.poll();
+            }
+
+            zip.putNextEntry(new ZipEntry(RESULTS_ENTRY));
+            zip.write(results.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        } finally {
+            // Renders that won't be sent, e.g. because the client went away, are discarded
+            executor.shutdownNow();
+            inFlight.forEach(Item::abandon);
+        }
+        return batchResult;
+    }
+
+    /**
+     * Maps a line of the request to report parameters, the item fails if they are not valid
+     */
+    private Map<String, Object> bind(Item item, String line) {
+        final JsonNode json;
+        try {
+            json = OBJECT_MAPPER.readTree(line);
+        } catch (IOException e) {
+            item.error = "Item is not valid JSON";
+            return Collections.emptyMap();
+        }
+        final Map<String, List<String>> queryParams;
+        try {
+            queryParams = ParameterSets.toQueryParams(json);
+        } catch (IllegalArgumentException e) {
+            item.error = e.getMessage();
+            return Collections.emptyMap();
+        }
+        item.parameters = json;
+
+        final ParameterBinder.Binding binding = reportRoute.bindParameters(queryParams);
+        if (binding.missingRequired().isPresent()) {
+            item.error = "Please provide all required parameters. " + binding.missingRequired().get();
+        } else if (binding.invalid().isPresent()) {
+            item.error = "Invalid parameters. " + binding.invalid().get();
+        }
+        return binding.getParameters();
+    }
+
+    private Void renderItem(Item item, Map<String, Object> parameters, ItemRenderer renderer, Path directory) throws Exception {
+        final ResponseSpool spool = new ResponseSpool(DirectBufferPool.DEFAULT, batch.getMaxInMemoryBytes(), directory);
+        try (OutputStream os = spool) {
+            renderer.render(parameters, os);
+        } catch (Exception e) {
+            discard(spool);
+            throw e;
+        }
+        if (!item.complete(spool)) {
+            discard(spool);
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the item to be rendered and adds it, or its error, to the archive
+     */
+    private void writeItem(ZipOutputStream zip, Item item, OutputType outputType, StringBuilder results, BatchResult batchResult) throws IOException, InterruptedException {
+        if (Objects.nonNull(item.render)) {
+            try {
+                item.render.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    LOGGER.error("Failed to generate batch item {} of {}. Too many reports being generated", item.number, reportResource.path());
+                    item.error = "Too many reports are being generated. Please try again later.";
+                } else {
+                    LOGGER.error("Failed to generate batch item {} of {}. Error: {}", item.number, reportResource.path(), e.getCause().getMessage(), e.getCause());
+                    item.error = "Failed to generate report. Please contact the System Administrator.";
+                }
+            }
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("item", item.number);
+        result.put("parameters", item.parameters);
+        final ResponseSpool spool = item.take();
+        if (Objects.nonNull(spool)) {
+            final String entryName = String.format("%06d.%s", item.number, outputType.name().toLowerCase());
+            try {
+                zip.putNextEntry(new ZipEntry(entryName));
+                spool.transferTo(Channels.newChannel(zip));
+                zip.closeEntry();
+            } finally {
+                discard(spool);
+            }
+            result.put("status", "SUCCEEDED");
+            result.put("file", entryName);
+            result.put("size", spool.size());
+            succeededCounter.increment();
+        } else {
+            final String entryName = String.format("%06d.error.json", item.number);
+            zip.putNextEntry(new ZipEntry(entryName));
+            zip.write(errorJson(item.error).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            result.put("status", "FAILED");
+            result.put("file", entryName);
+            result.put("error", item.error);
+            batchResult.failed++;
+            failedCounter.increment();
+        }
+        results.append(toJson(result)).append('\n');
+        zip.flush();
+    }
+
+    private static void discard(ResponseSpool spool) {
+        try {
+            spool.delete();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete spooled batch item {}", spool.getFile(), e);
+        }
+    }
+
+    /**
+     * Number of items in a batch and how many of them failed
+     */
+    static final class BatchResult {
+        int items;
+        int failed;
+    }
+
+    /**
+     * An item of a batch, the rendered item is held until it is written to the archive
+     */
+    private static final class Item {
+        final int number;
+        JsonNode parameters;
+        String error;
+        Future<Void> render;
+        private ResponseSpool spool;
+        private boolean abandoned = false;
+
+        Item(int number) {
+            this.number = number;
+        }
+
+        /**
+         * @return false if the item was abandoned and the caller should discard the spool
+         */
+        synchronized boolean complete(ResponseSpool spool) {
+            if (abandoned) {
+                return false;
+            }
+            this.spool = spool;
+            return true;
+        }
+
+        synchronized ResponseSpool take() {
+            final ResponseSpool taken = spool;
+            spool = null;
+            return taken;
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            if (Objects.nonNull(render)) {
+                render.cancel(true);
+            }
+            if (Objects.nonNull(spool)) {
+                discard(spool);
+                spool = null;
+            }
+        }
+    }
+}
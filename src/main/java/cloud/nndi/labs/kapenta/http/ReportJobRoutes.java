@@ -0,0 +1,194 @@
+package cloud.nndi.labs.kapenta.http;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.jobs.ReportJob;
+import cloud.nndi.labs.kapenta.jobs.ReportJobs;
+import cloud.nndi.labs.kapenta.parameters.ParameterBinder;
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import org.apache.commons.io.FilenameUtils;
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.RejectedExecutionException;
+
+import static cloud.nndi.labs.kapenta.http.ReportRoute.errorJson;
+
+/**
+ * Route Handlers for rendering a single report resource asynchronously.
+ *
+ * A job is submitted with <code>POST /path/jobs</code> (or <code>/path.ext/jobs</code>),
+ * its status is available at <code>GET /path/jobs/{id}</code> and the generated report
+ * at <code>GET /path/jobs/{id}/download</code> once the job has succeeded.
+ */
+final class ReportJobRoutes {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportJobRoutes.class);
+
+    private final String jobsPath;
+
+    private final ReportResource reportResource;
+
+    private final ReportRoute reportRoute;
+
+    private final ReportJobs reportJobs;
+
+    /**
+     * @param jobsPath full path of the jobs endpoint, used to link to the status and download endpoints
+     * @param reportResource the report resource
+     * @param reportRoute route of the report resource, reports are validated and generated the same way
+     * @param reportJobs renders the jobs
+     */
+    ReportJobRoutes(String jobsPath, ReportResource reportResource, ReportRoute reportRoute, ReportJobs reportJobs) {
+        this.jobsPath = Objects.requireNonNull(jobsPath);
+        this.reportResource = Objects.requireNonNull(reportResource);
+        this.reportRoute = Objects.requireNonNull(reportRoute);
+        this.reportJobs = Objects.requireNonNull(reportJobs);
+    }
+
+    Handler submit() {
+        return context -> {
+            final ReportDefinition reportDefinition = reportResource.reportDefinition();
+            final OutputType outputType = ReportRoute.determineOutputTypeAndContentType(context);
+
+            if (!reportResource.outputTypes().contains(outputType)) {
+                final StringJoiner sj = new StringJoiner(",", "[", "]");
+                reportResource.outputTypes().forEach(val -> sj.add(val.name()));
+                LOGGER.error("Failed to submit job. Unsupported output type: " + context.header("Accept"));
+                context.status(HttpStatus.BAD_REQUEST_400);
+                context.json(errorJson("Unsupported output type. This report only supports: " + sj.toString()));
+                return;
+            }
+
+            final ParameterBinder.Binding binding = reportRoute.bindParameters(context);
+            final Optional<String> missingRequireds = binding.missingRequired();
+            if (missingRequireds.isPresent()) {
+                LOGGER.error("Failed to submit job. {}", missingRequireds.get());
+                context.status(HttpStatus.BAD_REQUEST_400);
+                context.json(errorJson("Please provide all required parameters. " + missingRequireds.get()));
+                return;
+            }
+            if (binding.invalid().isPresent()) {
+                LOGGER.error("Failed to submit job. Invalid parameters: {}", binding.invalid().get());
+                context.status(HttpStatus.BAD_REQUEST_400);
+                context.json(errorJson("Invalid parameters. " + binding.invalid().get()));
+                return;
+            }
+
+            final Map<String, Object> parameters = binding.getParameters();
+            final ReportJob job;
+            try {
+                job = reportJobs.submit(
+                    reportResource.path(),
+                    outputType,
+                    os -> reportRoute.generate(reportDefinition, outputType, parameters, os));
+            } catch (RejectedExecutionException e) {
+                LOGGER.error("Failed to submit job for {}. Too many jobs queued", reportResource.path());
+                context.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+                context.header("Retry-After", String.valueOf(reportJobs.getRetryAfterSeconds()));
+                context.json(errorJson("Too many report jobs are queued. Please try again later."));
+                return;
+            }
+
+            context.status(HttpStatus.ACCEPTED_202);
+            context.header("Location", statusUrl(job));
+            context.json(toJson(job));
+        };
+    }
+
+    Handler status() {
+        return context -> {
+            Optional<ReportJob> job = findJob(context);
+            if (job.isEmpty()) {
+                sendNotFound(context);
+                return;
+            }
+            context.json(toJson(job.get()));
+        };
+    }
+
+    Handler download() {
+        return context -> {
+            Optional<ReportJob> job = findJob(context);
+            if (job.isEmpty()) {
+                sendNotFound(context);
+                return;
+            }
+
+            if (job.get().getStatus() != ReportJob.Status.SUCCEEDED) {
+                context.status(HttpStatus.CONFLICT_409);
+                context.json(toJson(job.get()));
+                return;
+            }
+
+            final Path outputFile = Paths.get(job.get().getOutputFile());
+            if (!Files.exists(outputFile)) {
+                context.status(HttpStatus.GONE_410);
+                context.json(errorJson("The generated report is no longer available. Please submit the job again."));
+                return;
+            }
+
+            final OutputType outputType = job.get().getOutputType();
+            final String fileName = String.format("%s-%s.%s",
+                FilenameUtils.getName(reportResource.reportDefinition().getReportName().replace(" ", "")),
+                job.get().getId(),
+                outputType.name()).toLowerCase();
+
+            context.contentType(outputType.getResponseContentType());
+            context.header("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+            try (InputStream is = Files.newInputStream(outputFile)) {
+                // Written to the servlet response so Javalin doesn't compress it and change its length
+                context.res().setContentLengthLong(Files.size(outputFile));
+                is.transferTo(context.res().getOutputStream());
+            }
+        };
+    }
+
+    /**
+     * Find the job in the request path, jobs of other reports are not visible
+     */
+    private Optional<ReportJob> findJob(Context context) {
+        return reportJobs.find(RouteTable.pathParam(context, "id"))
+            .filter(job -> job.getReportPath().equals(reportResource.path()));
+    }
+
+    private static void sendNotFound(Context context) {
+        context.status(HttpStatus.NOT_FOUND_404);
+        context.json(errorJson("Job not found"));
+    }
+
+    private String statusUrl(ReportJob job) {
+        return jobsPath.concat("/").concat(job.getId());
+    }
+
+    /**
+     * We send the job without the path of the output file to avoid
+     * exposing where generated reports are stored on the server
+     */
+    private Map<String, Object> toJson(ReportJob job) {
+        final Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", job.getId());
+        json.put("status", job.getStatus());
+        json.put("outputType", job.getOutputType());
+        json.put("submittedAt", job.getSubmittedAt().toString());
+        json.put("startedAt", Objects.toString(job.getStartedAt(), null));
+        json.put("completedAt", Objects.toString(job.getCompletedAt(), null));
+        json.put("size", job.getSize());
+        json.put("error", job.getError());
+        json.put("statusUrl", statusUrl(job));
+        if (job.getStatus() == ReportJob.Status.SUCCEEDED) {
+            json.put("downloadUrl", statusUrl(job).concat("/download"));
+        }
+        return json;
+    }
+}
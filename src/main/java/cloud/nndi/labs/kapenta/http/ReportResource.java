@@ -1,9 +1,11 @@
 package cloud.nndi.labs.kapenta.http;
 
 import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.ReportConfiguration;
 import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
 
 import java.util.EnumSet;
+import java.util.Optional;
 
 /**
  * Report Resource represents an API route that users can hit up to
@@ -39,4 +41,14 @@ public interface ReportResource {
      * @return
      */
     EnumSet<OutputType> outputTypes();
+
+    /**
+     * Configuration the resource was created from, if any. Used for per report
+     * settings that override the API wide settings.
+     *
+     * @return
+     */
+    default Optional<ReportConfiguration> configuration() {
+        return Optional.empty();
+    }
 }
@@ -1,9 +1,11 @@
 package cloud.nndi.labs.kapenta.http;
 
 import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.ReportConfiguration;
 import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
 
 import java.util.EnumSet;
+import java.util.Optional;
 
 
 public class ReportResourceImpl implements ReportResource {
@@ -16,11 +18,22 @@ public class ReportResourceImpl implements ReportResource {
 
     public final EnumSet<OutputType> outputTypes;
 
+    private final ReportConfiguration configuration;
+
     public ReportResourceImpl(String routePath, String[] methods, EnumSet<OutputType> outputTypes, ReportDefinition reportDefinition) {
+        this(routePath, methods, outputTypes, reportDefinition, null);
+    }
+
+    public ReportResourceImpl(String routePath,
+                              String[] methods,
+                              EnumSet<OutputType> outputTypes,
+                              ReportDefinition reportDefinition,
+                              ReportConfiguration configuration) {
         this.routePath = routePath;
         this.reportDefinition = reportDefinition;
         this.methods = methods.clone();
         this.outputTypes = outputTypes;
+        this.configuration = configuration;
     }
 
     @Override
@@ -42,4 +55,9 @@ public class ReportResourceImpl implements ReportResource {
     public EnumSet<OutputType> outputTypes() {
         return outputTypes.clone();
     }
+
+    @Override
+    public Optional<ReportConfiguration> configuration() {
+        return Optional.ofNullable(configuration);
+    }
 }
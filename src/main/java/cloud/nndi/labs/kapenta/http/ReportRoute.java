@@ -1,30 +1,62 @@
 package cloud.nndi.labs.kapenta.http;
 
 import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.cache.CachedOutput;
+import cloud.nndi.labs.kapenta.cache.RenderKey;
+import cloud.nndi.labs.kapenta.cache.ReportOutputCache;
+import cloud.nndi.labs.kapenta.cache.SingleFlight;
 import cloud.nndi.labs.kapenta.config.Backup;
 import cloud.nndi.labs.kapenta.config.Database;
-import cloud.nndi.labs.kapenta.io.MultiplexOutputStream;
+import cloud.nndi.labs.kapenta.config.ReportConfiguration;
+import cloud.nndi.labs.kapenta.config.Spooling;
+import cloud.nndi.labs.kapenta.io.AsyncBackupWriter;
+import cloud.nndi.labs.kapenta.io.BufferedTeeOutputStream;
+import cloud.nndi.labs.kapenta.io.DirectBufferPool;
+import cloud.nndi.labs.kapenta.io.ResponseSpool;
+import cloud.nndi.labs.kapenta.io.SpoolingOutputStream;
+import cloud.nndi.labs.kapenta.parameters.ParameterBinder;
+import cloud.nndi.labs.kapenta.parameters.ParameterDefinition;
 import cloud.nndi.labs.kapenta.pentaho.Generator;
 import cloud.nndi.labs.kapenta.pentaho.GeneratorException;
+import cloud.nndi.labs.kapenta.pentaho.PreparedReport;
+import cloud.nndi.labs.kapenta.pentaho.RenderCancellation;
+import cloud.nndi.labs.kapenta.pentaho.RenderCancelledException;
+import cloud.nndi.labs.kapenta.pentaho.RenderOptions;
+import cloud.nndi.labs.kapenta.pentaho.RenderPhases;
 import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.commons.io.FilenameUtils;
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.sql.Timestamp;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.Duration;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 
 import static cloud.nndi.labs.kapenta.Server.OBJECT_MAPPER;
 
@@ -37,41 +69,101 @@ final class ReportRoute implements Handler {
 
     public static final String APPLICATION_JSON = "application/json;charset=utf-8";
 
+    /**
+     * Reports rendered for sharing between requests that are larger than this are spooled to a temporary file
+     */
+    private static final int SPOOL_MEMORY_THRESHOLD = 256 * 1024;
+
     private final ReportResource reportResource;
 
     private final Optional<Backup> backup;
 
-    private final Optional<Database> database;
+    private final RenderOptions renderOptions;
 
-    public ReportRoute(ReportResource reportResource) {
-        Objects.requireNonNull(reportResource);
-        this.reportResource = reportResource;
-        this.backup = Optional.empty();
-        this.database = Optional.empty();
+    private final RenderExecutor renderExecutor;
+
+    private final Optional<ReportOutputCache> outputCache;
+
+    private final Optional<SingleFlight<RenderKey, CachedOutput>> coalescer;
+
+    private final Counter coalescedCounter;
+
+    private final Optional<AsyncBackupWriter> backupWriter;
+
+    private final Optional<Spooling> spooling;
+
+    private final ParameterBinder parameterBinder;
+
+    /**
+     * Names of the parameters the report declares, only these identify a rendered report
+     */
+    private final Set<String> declaredParameters;
+
+    public ReportRoute(ReportResource reportResource, RenderExecutor renderExecutor) {
+        this(reportResource, renderExecutor, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
     }
 
-    public ReportRoute(ReportResource reportResource, Backup backup) {
-        Objects.requireNonNull(reportResource);
-        Objects.requireNonNull(backup);
-        this.reportResource = reportResource;
-        this.backup = Optional.of(backup);
-        this.database = Optional.empty();
+    public ReportRoute(ReportResource reportResource, RenderExecutor renderExecutor, Backup backup) {
+        this(reportResource, renderExecutor, Optional.of(backup), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    public ReportRoute(ReportResource reportResource, RenderExecutor renderExecutor, Backup backup, Optional<Database> database) {
+        this(reportResource, renderExecutor, Optional.of(backup), database, Optional.empty(), Optional.empty(), Optional.empty());
     }
 
-    public ReportRoute(ReportResource reportResource, Backup backup, Optional<Database> database) {
+    public ReportRoute(ReportResource reportResource,
+                       RenderExecutor renderExecutor,
+                       Optional<Backup> backup,
+                       Optional<Database> database,
+                       Optional<ReportOutputCache> outputCache,
+                       Optional<SingleFlight<RenderKey, CachedOutput>> coalescer,
+                       Optional<AsyncBackupWriter> backupWriter) {
+        this(reportResource, renderExecutor, backup, RenderOptions.defaults().withDatabase(database.orElse(null)),
+            outputCache, coalescer, backupWriter);
+    }
+
+    public ReportRoute(ReportResource reportResource,
+                       RenderExecutor renderExecutor,
+                       Optional<Backup> backup,
+                       RenderOptions renderOptions,
+                       Optional<ReportOutputCache> outputCache,
+                       Optional<SingleFlight<RenderKey, CachedOutput>> coalescer,
+                       Optional<AsyncBackupWriter> backupWriter) {
         Objects.requireNonNull(reportResource);
+        Objects.requireNonNull(renderExecutor);
         Objects.requireNonNull(backup);
-        Objects.requireNonNull(database);
+        Objects.requireNonNull(renderOptions);
+        Objects.requireNonNull(outputCache);
+        Objects.requireNonNull(coalescer);
+        Objects.requireNonNull(backupWriter);
         this.reportResource = reportResource;
-        this.backup = Optional.of(backup);
-        this.database = database;
+        this.renderExecutor = renderExecutor;
+        this.backup = backup;
+        this.renderOptions = renderOptions;
+        this.outputCache = outputCache;
+        this.coalescer = coalescer;
+        this.backupWriter = backupWriter;
+        this.parameterBinder = ParameterBinder.compile(
+            reportResource.reportDefinition(),
+            ZoneId.of(reportResource.configuration().map(cfg -> cfg.getTimeZone()).orElse(ReportConfiguration.DEFAULT_TIME_ZONE)));
+        this.declaredParameters = reportResource.reportDefinition().getParameters().stream()
+            .map(ParameterDefinition::getName)
+            .collect(Collectors.toSet());
+        this.spooling = reportResource.configuration()
+            .map(cfg -> cfg.getSpooling())
+            .filter(Spooling::isEnabled);
+        this.coalescedCounter = Counter.builder("kapenta.render.coalesced")
+            .description("Number of requests served by sharing a render already in progress for identical parameters")
+            .tag("report", reportResource.path())
+            .register(Metrics.globalRegistry);
     }
 
-
     @Override
     public void handle(@NotNull Context context) throws Exception {
         final ReportDefinition reportDefinition = reportResource.reportDefinition();
         final OutputType outputType = determineOutputTypeAndContentType(context);
+        // The output type may be negotiated from the Accept header so shared caches must key on it
+        context.header("Vary", "Accept");
         final StringJoiner sj = new StringJoiner(",", "[", "]");
 
         reportResource.outputTypes().forEach(val -> sj.add(val.name()));
@@ -82,67 +174,434 @@ final class ReportRoute implements Handler {
             return;
         }
 
-        final Map<String, Object> reportParameters = new HashMap<>();;
-        if (reportDefinition.hasParameters()) {
-
-            if (reportDefinition.hasRequiredParameters() &&
-                !reportDefinition.hasRequiredParameterNamesIn(context.queryParamMap().keySet())) {
+        final ParameterBinder.Binding binding = bindParameters(context);
+        final Optional<String> missingRequireds = binding.missingRequired();
+        if (missingRequireds.isPresent()) {
+            LOGGER.error("Failed to generate report. {}", missingRequireds.get());
+            context.json(errorJson("Please provide all required parameters. " + missingRequireds.get()));
+            return;
+        }
+        if (binding.invalid().isPresent()) {
+            LOGGER.error("Failed to generate report. Invalid parameters: {}", binding.invalid().get());
+            context.status(HttpStatus.BAD_REQUEST_400);
+            context.json(errorJson("Invalid parameters. " + binding.invalid().get()));
+            return;
+        }
 
-                String missingRequireds = String.format(
-                    "The following required parameters not provided: %s",
-                    reportDefinition.extractMissingRequiredParams(context.queryParamMap().keySet()));
+        final Map<String, Object> parameters = binding.getParameters();
+        final RenderCancellation cancellation = RenderCancellation.start(
+            FilenameUtils.getBaseName(reportDefinition.getReportFilePath()),
+            renderOptions.getTimeouts());
+        try {
+            if (outputCache.isPresent() || coalescer.isPresent()) {
+                final RenderKey renderKey = renderKey(parameters, outputType);
+
+                Optional<CachedOutput> cachedOutput = outputCache.flatMap(cache -> cache.get(renderKey));
+                if (cachedOutput.isPresent()) {
+                    try {
+                        sendCachedOutput(context, cachedOutput.get());
+                        LOGGER.debug("Served cached report: {}", renderKey);
+                        return;
+                    } catch (NoSuchFileException e) {
+                        // Evicted and deleted after it was looked up, it is rendered again
+                        LOGGER.debug("Cached report was evicted before it could be sent: {}", renderKey);
+                    }
+                }
+
+                // Requests that wait for the render of an identical request count against the
+                // limit on waiting request threads just like those that render
+                try (RenderExecutor.Caller caller = renderExecutor.enter()) {
+                    final SpoolingOutputStream spool = newSpool();
+                    final Callable<CachedOutput> render = () -> renderToSpool(renderKey, reportDefinition, outputType, parameters, spool, caller, cancellation);
+                    if (coalescer.isPresent()) {
+                        // Identical requests that arrive while the report is rendering share the rendered output
+                        // until their own deadline, the spool is deleted once the last of them is done with it
+                        try (SingleFlight.Ticket<CachedOutput> ticket = coalescer.get().execute(renderKey, render,
+                            output -> discard(spool), cancellation.remainingNanos(), TimeUnit.NANOSECONDS)) {
+                            if (!ticket.isLeader()) {
+                                coalescedCounter.increment();
+                                LOGGER.debug("Sharing report rendered for an identical request: {}", renderKey);
+                            }
+                            sendCachedOutput(context, ticket.value());
+                        }
+                    } else {
+                        try {
+                            sendCachedOutput(context, render.call());
+                        } finally {
+                            spool.delete();
+                        }
+                    }
+                }
+            } else if (spooling.isPresent()) {
+                cancellation.watchConnection(connectionOf(context));
+                renderSpooled(context, reportDefinition, outputType, parameters, cancellation);
+            } else {
+                // Streamed to the client, a client that has disconnected is noticed when writing to it fails
+                cancellation.watchConnection(connectionOf(context));
+                renderExecutor.run(() -> generate(reportDefinition, outputType, parameters,
+                    cancellation.cancelOnWriteFailure(context.outputStream()), cancellation));
+            }
 
-                LOGGER.error("Failed to generate report. {}", missingRequireds);
-                context.json(errorJson("Please provide all required parameters. " + missingRequireds));
+            LOGGER.info("Generated report: {} for {}", reportDefinition.getReportName(), reportResource.path());
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("Failed to generate report: {}. Too many reports being generated", reportDefinition.getReportName());
+            context.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+            context.header("Retry-After", String.valueOf(renderExecutor.getRetryAfterSeconds()));
+            context.json(errorJson("Too many reports are being generated. Please try again later."));
+        } catch (TimeoutException e) {
+            // The identical request whose render this one shares did not finish before this one's deadline
+            cancellation.cancel(RenderCancellation.Reason.DEADLINE_EXCEEDED);
+            sendCancelled(context, reportDefinition, RenderCancellation.Reason.DEADLINE_EXCEEDED);
+        } catch (GeneratorException | IOException e) {
+            if (cancellation.isCancelled()) {
+                sendCancelled(context, reportDefinition, cancellation.reason().get());
+                return;
+            }
+            // The render shared with an identical request was cancelled, this request gets the same response
+            final Optional<RenderCancellation.Reason> sharedReason = cancellationReason(e);
+            if (sharedReason.isPresent()) {
+                sendCancelled(context, reportDefinition, sharedReason.get());
                 return;
             }
-            // Map query string key=values to report parameters
-            context.queryParamMap().keySet()
-                .forEach(queryParam ->
-                    reportParameters.put(
-                        queryParam,
-                        parseQueryParamToReportParamValue(context, reportDefinition, queryParam))
-                );
+            LOGGER.error("Failed to generate report. Error: " + e.getMessage(), e.getCause());
+            context.status(HttpStatus.INTERNAL_SERVER_ERROR_500);
+            context.json(errorJson("Failed to generate report. Please contact the System Administrator."));
+        } finally {
+            cancellation.close();
         }
 
-        try {
-            // A MultiplexOutputStream allows us to write to more than one output stream at a time
-            MultiplexOutputStream outputStream = new MultiplexOutputStream(context.outputStream());
-
-            // We will write to the backup output stream if the backup configuration is present
-            if (backup.isPresent()) {
-                outputStream = new MultiplexOutputStream(
-                        context.outputStream(),
-                        getBackupOutput(reportDefinition.getReportName(), outputType)
-                );
+    }
+
+    /**
+     * Why the render that failed with the exception was cancelled
+     *
+     * @return the reason, empty if the render wasn't cancelled
+     */
+    private static Optional<RenderCancellation.Reason> cancellationReason(Throwable e) {
+        for (Throwable cause = e; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (cause instanceof RenderCancelledException) {
+                return Optional.of(((RenderCancelledException) cause).getReason());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Responds to a request whose render was cancelled, there is no one to respond to if the client disconnected
+     */
+    private static void sendCancelled(Context context, ReportDefinition reportDefinition, RenderCancellation.Reason reason) {
+        if (reason == RenderCancellation.Reason.CLIENT_DISCONNECTED) {
+            LOGGER.info("Stopped generating report: {}. The client disconnected", reportDefinition.getReportName());
+            return;
+        }
+        LOGGER.error("Stopped generating report: {}. It took too long ({})", reportDefinition.getReportName(), reason.tag());
+        if (context.res().isCommitted()) {
+            return;
+        }
+        context.status(HttpStatus.GATEWAY_TIMEOUT_504);
+        context.json(errorJson("The report took too long to generate. Please try again later or contact the System Administrator."));
+    }
+
+    /**
+     * @return the executor the renders of the report run on
+     */
+    RenderExecutor getRenderExecutor() {
+        return renderExecutor;
+    }
+
+    /**
+     * Maps the query string key=values of the request to report parameters and
+     * checks that the required parameters are present
+     *
+     * @param context the request
+     * @return report parameters and any errors
+     */
+    ParameterBinder.Binding bindParameters(Context context) {
+        return bindParameters(context.queryParamMap());
+    }
+
+    /**
+     * Maps the given key=values to report parameters and checks that the required parameters are present
+     *
+     * @param queryParams the parameter names and their values
+     * @return report parameters and any errors
+     */
+    ParameterBinder.Binding bindParameters(Map<String, List<String>> queryParams) {
+        return parameterBinder.bind(queryParams);
+    }
+
+    /**
+     * Loads the report and configures its data sources once, for rendering it with many sets of parameters
+     *
+     * @return the prepared report
+     * @throws GeneratorException if the report cannot be loaded
+     */
+    PreparedReport prepare() throws GeneratorException {
+        return Generator.prepare(reportResource.reportDefinition().getReportFilePath(), renderOptions);
+    }
+
+    /**
+     * Generates the report to the given output stream and to the backup if the backup configuration is present
+     */
+    void generate(ReportDefinition reportDefinition,
+                          OutputType outputType,
+                          Map<String, Object> parameters,
+                          OutputStream target) throws IOException {
+        // We will write to the backup output stream if the backup configuration is present
+        OutputStream backupOutput = null;
+        if (backup.isPresent()) {
+            try {
+                backupOutput = RenderPhases.timed(
+                    getBackupOutput(reportDefinition.getReportName(), outputType),
+                    RenderPhases.Phase.BACKUP_WRITE);
+            } catch (IOException e) {
+                LOGGER.error("Failed to create backup for report: {}", reportDefinition.getReportName(), e);
             }
+        }
+
+        // Report processors make lots of small writes, the tee collects them into chunks for the target
+        // and the backup. A failing backup is skipped without failing the report.
+        final BufferedTeeOutputStream outputStream = Objects.isNull(backupOutput)
+            ? new BufferedTeeOutputStream(target)
+            : new BufferedTeeOutputStream(target, backupOutput);
 
+        try {
             // Some generator may require that a database configuration is present
             // To enable them to point to another database configuration (e.g. DEV, QA, PROD)
-            if (database.isPresent()) {
-                Generator.generateReport(
-                        reportDefinition.getReportFilePath(),
-                        reportDefinition.hasParameters() ? reportParameters : Collections.emptyMap(),
-                        outputType,
-                        outputStream,
-                        database.get()
-                );
-            } else {
-                Generator.generateReport(
-                        reportDefinition.getReportFilePath(),
-                        reportDefinition.hasParameters() ? reportParameters : Collections.emptyMap(),
-                        outputType,
-                        outputStream
-                );
+            Generator.generateReport(
+                    reportDefinition.getReportFilePath(),
+                    parameters,
+                    outputType,
+                    outputStream,
+                    renderOptions
+            );
+        } finally {
+            // Writes out what is buffered and closes the backup
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Generates the report with the cancellation bound to the current thread so that its
+     * queries and writes stop once it is cancelled
+     */
+    private void generate(ReportDefinition reportDefinition,
+                          OutputType outputType,
+                          Map<String, Object> parameters,
+                          OutputStream target,
+                          RenderCancellation cancellation) throws IOException {
+        try (RenderCancellation.Scope scope = cancellation.bind()) {
+            // The client may have gone away or the deadline passed while waiting for a render slot
+            cancellation.check();
+            generate(reportDefinition, outputType, parameters, target);
+        }
+    }
+
+    /**
+     * Renders the report into the output cache, and the backup if it is configured, ahead of
+     * the requests for it. Requests with the same parameters are then served from the
+     * cache without rendering the report. The render runs on the report's render pool with
+     * the report's timeouts, like the renders of requests.
+     *
+     * @param outputType output type of the report
+     * @param queryParams the parameters as they would be given in the query string of a request
+     * @param ttl how long the rendered report is served from the cache
+     * @throws IllegalArgumentException if the parameters are not valid
+     * @throws RejectedExecutionException if the render pool is saturated
+     * @throws Exception if the report cannot be rendered
+     */
+    void prerender(OutputType outputType, Map<String, List<String>> queryParams, Duration ttl) throws Exception {
+        final ParameterBinder.Binding binding = bindParameters(queryParams);
+        if (binding.missingRequired().isPresent()) {
+            throw new IllegalArgumentException(binding.missingRequired().get());
+        }
+        if (binding.invalid().isPresent()) {
+            throw new IllegalArgumentException("Invalid parameters. " + binding.invalid().get());
+        }
+
+        final ReportDefinition reportDefinition = reportResource.reportDefinition();
+        try (RenderCancellation cancellation = RenderCancellation.start(
+            FilenameUtils.getBaseName(reportDefinition.getReportFilePath()),
+            renderOptions.getTimeouts())) {
+            if (outputCache.isEmpty()) {
+                renderExecutor.run(() -> generate(reportDefinition, outputType, binding.getParameters(),
+                    OutputStream.nullOutputStream(), cancellation));
+                return;
             }
 
-            LOGGER.info("Generated report: {} for {}", reportDefinition.getReportName(), reportResource.path());
-        } catch (GeneratorException | IOException e) {
-            LOGGER.error("Failed to generate report. Error: " + e.getMessage(), e.getCause());
-            context.status(HttpStatus.INTERNAL_SERVER_ERROR_500);
-            context.json(errorJson("Failed to generate report. Please contact the System Administrator."));
+            final RenderKey renderKey = renderKey(binding.getParameters(), outputType);
+            final SpoolingOutputStream spool = outputCache.get().newSpool();
+            try {
+                renderExecutor.run(() -> {
+                    try (OutputStream os = spool) {
+                        generate(reportDefinition, outputType, binding.getParameters(), os, cancellation);
+                    }
+                });
+                if (outputCache.get().putPrerendered(renderKey, spool, ttl).isEmpty()) {
+                    LOGGER.warn("Pre-rendered report {} is larger than the output cache", renderKey);
+                    discard(spool);
+                }
+            } catch (Exception e) {
+                discard(spool);
+                throw e;
+            }
+            LOGGER.debug("Pre-rendered report: {}", renderKey);
         }
+    }
 
+    /**
+     * Identifies the report rendered with the bound parameters. Query parameters the report doesn't
+     * declare, such as cache-busters, are left out and values are compared after they are converted,
+     * so differently formatted values of the same parameter share the rendered report.
+     */
+    private RenderKey renderKey(Map<String, Object> parameters, OutputType outputType) {
+        final Map<String, Object> declared = new HashMap<>();
+        parameters.forEach((name, value) -> {
+            if (declaredParameters.contains(name)) {
+                declared.put(name, value);
+            }
+        });
+        return RenderKey.of(reportResource.path(), declared, outputType);
+    }
+
+    /**
+     * Renders the report into the spool and adds it to the output cache if caching is enabled.
+     * The spool is deleted if rendering fails.
+     */
+    private CachedOutput renderToSpool(RenderKey renderKey,
+                                       ReportDefinition reportDefinition,
+                                       OutputType outputType,
+                                       Map<String, Object> parameters,
+                                       SpoolingOutputStream spool,
+                                       RenderExecutor.Caller caller,
+                                       RenderCancellation cancellation) throws Exception {
+        try {
+            caller.run(() -> {
+                try (OutputStream os = spool) {
+                    generate(reportDefinition, outputType, parameters, os, cancellation);
+                }
+            });
+
+            if (outputCache.isPresent()) {
+                Optional<CachedOutput> cachedOutput = outputCache.get().put(renderKey, spool);
+                if (cachedOutput.isPresent()) {
+                    return cachedOutput.get();
+                }
+            }
+            spool.close();
+            return CachedOutput.of(spool);
+        } catch (Exception e) {
+            discard(spool);
+            throw e;
+        }
+    }
+
+    /**
+     * Renders the report into a spool and sends it with its Content-Length once it is complete.
+     * Nothing is sent if rendering fails so the client gets a clean error response.
+     */
+    private void renderSpooled(Context context,
+                               ReportDefinition reportDefinition,
+                               OutputType outputType,
+                               Map<String, Object> parameters,
+                               RenderCancellation cancellation) throws Exception {
+        final Path directory = Paths.get(Optional.ofNullable(spooling.get().getDirectory())
+            .orElseGet(() -> System.getProperty("java.io.tmpdir")));
+        final ResponseSpool spool = new ResponseSpool(DirectBufferPool.DEFAULT, spooling.get().getMaxInMemoryBytes(), directory);
+        try {
+            renderExecutor.run(() -> {
+                try (OutputStream os = spool) {
+                    generate(reportDefinition, outputType, parameters, os, cancellation);
+                }
+            });
+
+            // Written to the servlet response so Javalin doesn't compress it and change its length
+            final OutputStream responseStream = context.res().getOutputStream();
+            context.res().setContentLengthLong(spool.size());
+            spool.transferTo(channelOf(responseStream));
+        } finally {
+            try {
+                spool.delete();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete spooled report {}", spool.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Whether the connection of the request is still open. Jetty only notices that a client
+     * has closed an HTTP/1.1 connection when it reads from or writes to it, so until the
+     * response is written this sees connections Jetty has closed, e.g. when it stops.
+     */
+    private static BooleanSupplier connectionOf(Context context) {
+        final Request request = Request.getBaseRequest(context.req());
+        if (Objects.isNull(request) || Objects.isNull(request.getHttpChannel())) {
+            return () -> true;
+        }
+        final EndPoint endPoint = request.getHttpChannel().getEndPoint();
+        return endPoint::isOpen;
+    }
+
+    /**
+     * A channel writing to the response. Jetty's output writes the buffers it is given
+     * as they are, other streams get a copy of them.
+     */
+    private static WritableByteChannel channelOf(OutputStream outputStream) {
+        if (!(outputStream instanceof HttpOutput)) {
+            return Channels.newChannel(outputStream);
+        }
+        final HttpOutput httpOutput = (HttpOutput) outputStream;
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                final int length = src.remaining();
+                httpOutput.write(src);
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return !httpOutput.isClosed();
+            }
+
+            @Override
+            public void close() {
+                // The response is closed by Javalin
+            }
+        };
+    }
+
+    private SpoolingOutputStream newSpool() {
+        return outputCache.map(ReportOutputCache::newSpool)
+            .orElseGet(() -> new SpoolingOutputStream(SPOOL_MEMORY_THRESHOLD, Paths.get(System.getProperty("java.io.tmpdir"))));
+    }
+
+    private static void discard(SpoolingOutputStream spool) {
+        try {
+            spool.delete();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete spooled report {}", spool.getFile(), e);
+        }
+    }
+
+    /**
+     * Sends a cached report with its Content-Length, or 304 Not Modified if the client already has it
+     *
+     * @throws NoSuchFileException if the report was removed from the cache and deleted, nothing is sent
+     */
+    private static void sendCachedOutput(Context context, CachedOutput cachedOutput) throws IOException {
+        if (cachedOutput.matches(context.header("If-None-Match"))) {
+            context.header("ETag", cachedOutput.getEtag());
+            context.status(HttpStatus.NOT_MODIFIED_304);
+            return;
+        }
+        try (InputStream is = cachedOutput.openStream()) {
+            context.header("ETag", cachedOutput.getEtag());
+            // Written to the servlet response so Javalin doesn't compress it and change its length
+            context.res().setContentLengthLong(cachedOutput.getLength());
+            is.transferTo(context.res().getOutputStream());
+        }
     }
 
     private OutputStream getBackupOutput(String reportName, OutputType outputType) throws IOException {
@@ -152,6 +611,10 @@ final class ReportRoute implements Handler {
         Backup backupConfig = backup.get();
         Path outputPath = backupConfig.makeBackupPath(backupFileName.toLowerCase());
 
+        // The backup is written on a background thread so a slow or failing disk doesn't hold up the response
+        if (backupWriter.isPresent()) {
+            return backupWriter.get().open(outputPath);
+        }
         return Files.newOutputStream(outputPath, StandardOpenOption.CREATE_NEW);
     }
 
@@ -161,7 +624,7 @@ final class ReportRoute implements Handler {
      *
      * @param context
      */
-    private static OutputType determineOutputTypeAndContentType(Context context) {
+    static OutputType determineOutputTypeAndContentType(Context context) {
         // Yea, I know a method shouldn't do too much but a foolish consistency ...
         String accept = Objects.isNull(context.header("Accept")) ? "" : context.header("Accept");
         String requestUri = Objects.isNull(context.url()) ?  "" : context.url().toLowerCase();
@@ -172,6 +635,15 @@ final class ReportRoute implements Handler {
         } else if (accept.toLowerCase().contains("text/plain") || requestUri.contains(".txt")) {
             context.contentType(OutputType.TXT.getContentTypeUtf8());
             return OutputType.TXT;
+        } else if (accept.toLowerCase().contains("text/csv") || requestUri.contains(".csv")) {
+            context.contentType(OutputType.CSV.getContentTypeUtf8());
+            return OutputType.CSV;
+        } else if (accept.toLowerCase().contains("ndjson") || requestUri.contains(".ndjson")) {
+            context.contentType(OutputType.NDJSON.getContentTypeUtf8());
+            return OutputType.NDJSON;
+        } else if (accept.toLowerCase().contains("spreadsheetml") || requestUri.contains(".xlsx")) {
+            context.contentType(OutputType.XLSX.getResponseContentType());
+            return OutputType.XLSX;
         } else if (accept.toLowerCase().contains("html") || requestUri.contains(".html")) {
             // Check for html last since most browsers will send accept with html  or */* ...
             context.contentType(OutputType.HTML.getContentTypeUtf8());
@@ -186,40 +658,6 @@ final class ReportRoute implements Handler {
         return OutputType.NONE;
     }
 
-    /**
-     * Parse a query parameter from the request to a report parameter required in the report
-     * @param request
-     * @param reportDefinition
-     * @param queryParam
-     * @return
-     */
-    public Object parseQueryParamToReportParamValue(final Context request,
-                                                     final ReportDefinition reportDefinition,
-                                                     String queryParam) {
-
-        Object val = request.queryParam(queryParam);
-        if (reportDefinition.parameterType(queryParam) == Long.class) {
-            val = request.queryParamAsClass(queryParam, Long.class);
-        } else if (reportDefinition.parameterType(queryParam) == Integer.class) {
-            val = request.queryParamAsClass(queryParam, Integer.class);
-        } else if (reportDefinition.parameterType(queryParam) == Number.class) {
-            val = request.queryParamAsClass(queryParam, Integer.class);
-        } else if (reportDefinition.parameterType(queryParam) == Boolean.class) {
-            val = request.queryParamAsClass(queryParam, Boolean.class);
-        } else if (reportDefinition.parameterType(queryParam) == Date.class) {
-            LocalDate d = LocalDate.parse(request.queryParam(queryParam));
-            LocalDateTime dt = d.atStartOfDay();
-            // TODO: enabled configuration of zone offset via parameter
-            val = Date.from(dt.toInstant(ZoneOffset.UTC));
-        } else if (reportDefinition.parameterType(queryParam) == Timestamp.class) {
-            LocalDate d = LocalDate.parse(request.queryParam(queryParam));
-            LocalDateTime dt = d.atStartOfDay();
-            // TODO: enabled configuration of zone offset via parameter
-            val = Timestamp.from(dt.toInstant(ZoneOffset.UTC));
-        }
-        return val;
-    }
-
     public static String toJson(Object object) {
         try {
             return OBJECT_MAPPER.writeValueAsString(object);
@@ -1,16 +1,54 @@
 package cloud.nndi.labs.kapenta.http;
 
+import cloud.nndi.labs.kapenta.cache.CachedOutput;
+import cloud.nndi.labs.kapenta.cache.QueryResultCache;
+import cloud.nndi.labs.kapenta.cache.RenderKey;
+import cloud.nndi.labs.kapenta.cache.ReportOutputCache;
+import cloud.nndi.labs.kapenta.cache.SingleFlight;
 import cloud.nndi.labs.kapenta.config.Backup;
+import cloud.nndi.labs.kapenta.config.Batch;
+import cloud.nndi.labs.kapenta.config.Concurrency;
 import cloud.nndi.labs.kapenta.config.Database;
+import cloud.nndi.labs.kapenta.config.OutputCache;
+import cloud.nndi.labs.kapenta.config.QueryCache;
+import cloud.nndi.labs.kapenta.io.AsyncBackupWriter;
+import cloud.nndi.labs.kapenta.jobs.ReportJobs;
+import cloud.nndi.labs.kapenta.pentaho.Generator;
+import cloud.nndi.labs.kapenta.pentaho.RenderOptions;
+import cloud.nndi.labs.kapenta.pentaho.sql.ConnectionPools;
 import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import cloud.nndi.labs.kapenta.schedule.ReportScheduler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.stream.Collectors.toList;
 
@@ -23,7 +61,17 @@ public class Reports {
 
     private final String rootPath;
 
-    private final List<ReportResource> resources;
+    private volatile List<ReportResource> resources;
+
+    /**
+     * Endpoints of the reports, replaced as a whole when the reports are reloaded
+     */
+    private final AtomicReference<RouteTable> routeTable = new AtomicReference<>(RouteTable.EMPTY);
+
+    /**
+     * Routes and resources created for each report, keyed on the path of the report
+     */
+    private final Map<String, Registration> registrations = new LinkedHashMap<>();
 
     private Javalin httpServer;
     
@@ -31,6 +79,40 @@ public class Reports {
 
     private Database database;
 
+    private Concurrency concurrency = new Concurrency();
+
+    private RenderExecutor defaultRenderExecutor;
+
+    /**
+     * Request threads that may wait for renders on the render pools, null for no limit
+     */
+    private Semaphore renderCallers;
+
+    /**
+     * Least number of request threads kept free to answer requests while the others wait for renders
+     */
+    static final int MIN_FREE_REQUEST_THREADS = 8;
+
+    private final Map<String, ReportOutputCache> outputCaches = new ConcurrentHashMap<>();
+
+    private ReportJobs reportJobs;
+
+    private AsyncBackupWriter backupWriter;
+
+    private ReportScheduler scheduler;
+
+    /**
+     * How long the caches and executors of a replaced report are kept for the requests in progress on it
+     */
+    static final Duration RETIRE_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final long RETIRE_POLL_MILLIS = 250;
+
+    private final ScheduledExecutorService retirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("kapenta-reload-%d")
+        .setDaemon(true)
+        .build());
+
     public Reports(String rootPath, List<ReportResource> resourceList) {
         Objects.requireNonNull(rootPath);
         Objects.requireNonNull(resourceList);
@@ -61,11 +143,303 @@ public class Reports {
         this.httpServer = httpServer;
     }
 
+    /**
+     * Sets the default concurrency limits for rendering reports. Reports may
+     * override these in their own configuration.
+     *
+     * @param concurrency the concurrency limits
+     */
+    public void setConcurrency(Concurrency concurrency) {
+        this.concurrency = Objects.requireNonNull(concurrency, "concurrency");
+    }
+
+    /**
+     * Limits how many request threads may wait for reports to render on the render pools.
+     * A quarter of them, and at least {@link #MIN_FREE_REQUEST_THREADS}, are kept free to answer
+     * other requests, including the 503 responses for renders beyond the limit.
+     *
+     * @param requestThreads number of threads requests are handled on
+     */
+    public void setRequestThreads(int requestThreads) {
+        final int free = Math.max(MIN_FREE_REQUEST_THREADS, requestThreads / 4);
+        this.renderCallers = new Semaphore(Math.max(1, requestThreads - free));
+    }
+
+    /**
+     * Enables the job endpoints for rendering reports asynchronously
+     *
+     * @param reportJobs renders the jobs
+     */
+    public void setReportJobs(ReportJobs reportJobs) {
+        this.reportJobs = Objects.requireNonNull(reportJobs, "reportJobs");
+    }
+
+    /**
+     * Enables rendering reports ahead of the requests for them on the schedules in their configuration
+     *
+     * @param scheduler runs the schedules
+     */
+    public void setScheduler(ReportScheduler scheduler) {
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+    }
+
+    /**
+     * Stops the scheduler, render executors, report jobs and backup writer, renders in progress are allowed to complete
+     */
+    public synchronized void shutdown() {
+        retirer.shutdownNow();
+        if (Objects.nonNull(scheduler)) {
+            scheduler.shutdown();
+        }
+        registrations.values().forEach(registration -> {
+            registration.renderExecutor.ifPresent(RenderExecutor::shutdown);
+            registration.queryCache.ifPresent(QueryResultCache::close);
+        });
+        if (Objects.nonNull(defaultRenderExecutor)) {
+            defaultRenderExecutor.shutdown();
+        }
+        if (Objects.nonNull(reportJobs)) {
+            reportJobs.shutdown();
+        }
+        if (Objects.nonNull(backupWriter)) {
+            backupWriter.close();
+        }
+    }
+
+    /**
+     * Output cache of the report at the given path, if caching is enabled for the report
+     *
+     * @param reportPath path of the report resource
+     * @return the output cache
+     */
+    public Optional<ReportOutputCache> outputCache(String reportPath) {
+        return Optional.ofNullable(outputCaches.get(reportPath));
+    }
+
+    private Optional<QueryResultCache> queryCacheFor(ReportResource reportResource) {
+        return reportResource.configuration()
+            .map(cfg -> cfg.getQueryCache())
+            .filter(QueryCache::isEnabled)
+            .map(cacheConfig -> new QueryResultCache(reportResource.path(), cacheConfig));
+    }
+
+    private Optional<ReportOutputCache> outputCacheFor(ReportResource reportResource) {
+        Optional<OutputCache> cacheConfig = reportResource.configuration()
+            .map(cfg -> cfg.getOutputCache())
+            .filter(OutputCache::isEnabled);
+
+        if (cacheConfig.isEmpty()) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(new ReportOutputCache(reportResource.path(), cacheConfig.get()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create output cache for " + reportResource.path(), e);
+        }
+    }
+
+    /**
+     * The writer shared by all reports for writing backups in the background, if backups are asynchronous
+     */
+    private Optional<AsyncBackupWriter> backupWriter() {
+        if (Objects.isNull(backup) || !backup.isAsync()) {
+            return Optional.empty();
+        }
+        if (Objects.isNull(backupWriter)) {
+            backupWriter = new AsyncBackupWriter(
+                backup.getBufferSize(),
+                AsyncBackupWriter.OverflowPolicy.of(backup.getOverflowPolicy()),
+                backup.getFsyncIntervalMillis());
+        }
+        return Optional.of(backupWriter);
+    }
+
+    private Optional<SingleFlight<RenderKey, CachedOutput>> coalescerFor(ReportResource reportResource) {
+        boolean coalesceRequests = reportResource.configuration()
+            .map(cfg -> cfg.isCoalesceRequests())
+            .orElse(false);
+
+        return coalesceRequests ? Optional.of(new SingleFlight<>()) : Optional.empty();
+    }
+
+    /**
+     * Executor for reports that have their own concurrency limits
+     */
+    private Optional<RenderExecutor> dedicatedRenderExecutorFor(ReportResource reportResource) {
+        return reportResource.configuration()
+            .map(cfg -> cfg.getConcurrency())
+            .map(override -> renderExecutor(reportResource.path().replaceFirst("/", ""), override));
+    }
+
+    private RenderExecutor defaultRenderExecutor() {
+        if (Objects.isNull(defaultRenderExecutor)) {
+            defaultRenderExecutor = renderExecutor("default", concurrency);
+        }
+        return defaultRenderExecutor;
+    }
+
+    private RenderExecutor renderExecutor(String name, Concurrency limits) {
+        if (Objects.nonNull(renderCallers)
+            && limits.getMaxConcurrentRenders() + limits.getQueueSize() > renderCallers.availablePermits()) {
+            LOGGER.warn("Render executor {} can hold {} requests but only {} request threads may wait for renders, requests beyond that are rejected",
+                name, limits.getMaxConcurrentRenders() + limits.getQueueSize(), renderCallers.availablePermits());
+        }
+        return RenderExecutor.create(name, limits, renderCallers);
+    }
+
+    /**
+     * Registers the endpoints of the reports. All requests under the root path are
+     * handled by looking up the endpoint in the current {@link RouteTable}.
+     */
     public void registerResources() {
         validateResources();
-        resources.stream()
-            .peek(this::registerParameterRoute)
-            .forEach(this::registerRoute);
+        synchronized (this) {
+            resources.forEach(reportResource -> registrations.put(reportResource.path(), register(reportResource)));
+            registrations.values().forEach(registration -> registration.outputCache
+                .ifPresent(outputCache -> outputCaches.put(registration.reportResource.path(), outputCache)));
+            routeTable.set(buildRouteTable());
+            registrations.values().forEach(this::schedule);
+        }
+        httpServer.get(withRootPath("/<path>"), this::dispatch);
+        httpServer.post(withRootPath("/<path>"), this::dispatch);
+    }
+
+    /**
+     * Replaces the reports with the given reports. Reports whose configuration and
+     * report file are unchanged keep their routes, caches and executors. Changed and
+     * new reports are validated and set up before anything is replaced, if any of them
+     * fails the current reports are left as they are.
+     *
+     * Requests in progress finish on the routes, caches and executors they started with.
+     * Those of changed and removed reports are closed once their requests have finished,
+     * or after {@link #RETIRE_TIMEOUT} if some are still in progress.
+     *
+     * @param reportResources the reports
+     * @throws RuntimeException if a changed or new report is invalid or can't be set up
+     */
+    public synchronized void reload(List<ReportResource> reportResources) {
+        Objects.requireNonNull(reportResources, "reportResources");
+
+        final Map<String, String> fingerprints = new LinkedHashMap<>();
+        for (ReportResource reportResource: reportResources) {
+            final String fingerprint = fingerprint(reportResource);
+            final Registration current = registrations.get(reportResource.path());
+            if (Objects.isNull(current) || !current.fingerprint.equals(fingerprint)) {
+                reportResource.reportDefinition().validate();
+            }
+            fingerprints.put(reportResource.path(), fingerprint);
+        }
+
+        final Map<String, Registration> next = new LinkedHashMap<>();
+        final List<Registration> registered = new ArrayList<>();
+        try {
+            for (ReportResource reportResource: reportResources) {
+                final Registration current = registrations.get(reportResource.path());
+                if (Objects.nonNull(current) && current.fingerprint.equals(fingerprints.get(reportResource.path()))) {
+                    next.put(reportResource.path(), current);
+                } else {
+                    final Registration registration = register(reportResource);
+                    next.put(reportResource.path(), registration);
+                    registered.add(registration);
+                }
+            }
+        } catch (RuntimeException e) {
+            // The metrics of a replacement are still those of the report it replaces, they are only removed for new reports
+            registered.forEach(registration -> registration.close(!registrations.containsKey(registration.reportResource.path())));
+            throw e;
+        }
+
+        final List<Registration> retired = registrations.values().stream()
+            .filter(registration -> next.get(registration.reportResource.path()) != registration)
+            .collect(toList());
+        final long added = registered.stream()
+            .filter(registration -> !registrations.containsKey(registration.reportResource.path()))
+            .count();
+        final long updated = registered.size() - added;
+
+        registrations.clear();
+        registrations.putAll(next);
+        routeTable.set(buildRouteTable());
+        resources = new ArrayList<>(reportResources);
+
+        retired.forEach(registration -> {
+            registration.removeMetrics();
+            outputCaches.remove(registration.reportResource.path());
+            if (Objects.nonNull(scheduler)) {
+                scheduler.unschedule(registration.reportResource.path());
+            }
+            Generator.templateCache().invalidate(Paths.get(registration.reportResource.reportDefinition().getReportFilePath()));
+        });
+        registered.forEach(registration -> {
+            registration.registerMetrics();
+            registration.outputCache.ifPresent(outputCache -> outputCaches.put(registration.reportResource.path(), outputCache));
+            // An invalid schedule doesn't keep the report from being served
+            try {
+                schedule(registration);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Report {} is not pre-rendered. {}", registration.reportResource.path(), e.getMessage());
+            }
+        });
+        retireWhenIdle(retired, System.nanoTime() + RETIRE_TIMEOUT.toNanos());
+
+        LOGGER.info("Reloaded reports: {} added, {} updated, {} removed, {} unchanged",
+            added, updated, retired.size() - updated, next.size() - added - updated);
+    }
+
+    /**
+     * Closes the caches and executors of replaced reports once they have no requests in progress
+     */
+    private void retireWhenIdle(List<Registration> retired, long deadlineNanos) {
+        if (retired.isEmpty()) {
+            return;
+        }
+        final boolean idle = retired.stream().allMatch(Registration::isIdle);
+        if (idle || System.nanoTime() - deadlineNanos >= 0) {
+            if (!idle) {
+                LOGGER.warn("Closing replaced reports with requests still in progress after {}", RETIRE_TIMEOUT);
+            }
+            retired.forEach(registration -> registration.close(false));
+            return;
+        }
+        try {
+            retirer.schedule(() -> retireWhenIdle(retired, deadlineNanos), RETIRE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            retired.forEach(registration -> registration.close(false));
+        }
+    }
+
+    /**
+     * Identifies the configuration of a report and the version of its report file
+     */
+    private static String fingerprint(ReportResource reportResource) {
+        final String resourceJson = ReportRoute.toJson(reportResource);
+        final String configurationJson = ReportRoute.toJson(reportResource.configuration().orElse(null));
+        if (Objects.isNull(resourceJson) || Objects.isNull(configurationJson)) {
+            // Can't tell whether it changed so it is always reloaded
+            return String.valueOf(System.nanoTime());
+        }
+
+        String fileVersion;
+        try {
+            final Path reportFile = Paths.get(reportResource.reportDefinition().getReportFilePath());
+            fileVersion = Files.size(reportFile) + ":" + Files.getLastModifiedTime(reportFile).toMillis();
+        } catch (IOException e) {
+            fileVersion = "missing";
+        }
+        return String.join("|", resourceJson, configurationJson, fileVersion);
+    }
+
+    private void dispatch(Context context) throws Exception {
+        final String path = "/".concat(context.pathParam("path"));
+        final Optional<Handler> handler = routeTable.get().match(context.method(), path);
+        if (handler.isEmpty()) {
+            context.status(HttpStatus.NOT_FOUND_404);
+            context.json(ReportRoute.errorJson("Not found: " + context.path()));
+            return;
+        }
+        handler.get().handle(context);
     }
 
     private String withRootPath(String path) {
@@ -73,32 +447,75 @@ public class Reports {
     }
 
     /**
-     * Returns the Report definition
+     * Creates the route, caches and executor of a report
+     */
+    private Registration register(ReportResource reportResource) {
+        final Optional<RenderExecutor> dedicatedExecutor = dedicatedRenderExecutorFor(reportResource);
+        final Optional<ReportOutputCache> outputCache = outputCacheFor(reportResource);
+        final Optional<QueryResultCache> queryCache = queryCacheFor(reportResource);
+        final RenderOptions renderOptions = RenderOptions.defaults()
+            .withDatabase(database)
+            .withQueryCache(queryCache.orElse(null))
+            .withPrefetch(reportResource.configuration().map(cfg -> cfg.getPrefetch()).orElse(null))
+            .withTimeouts(reportResource.configuration().map(cfg -> cfg.getTimeouts()).orElse(null));
+        final ReportRoute reportRoute = new ReportRoute(
+            reportResource,
+            dedicatedExecutor.orElseGet(this::defaultRenderExecutor),
+            Optional.ofNullable(backup),
+            renderOptions,
+            outputCache,
+            coalescerFor(reportResource),
+            backupWriter());
+        LOGGER.debug("Registered Route: {}", withRootPath(reportResource.path()));
+        return new Registration(reportResource, reportRoute, renderOptions, fingerprint(reportResource), outputCache, queryCache, dedicatedExecutor);
+    }
+
+    /**
+     * Schedules the pre-rendering of a report if its configuration has schedules
      *
-     * @param reportResource
+     * @throws IllegalArgumentException if a schedule is not valid
      */
-    private void registerParameterRoute(ReportResource reportResource) {
-        String reportInfoPath = withRootPath(reportResource.path().concat("/info"));
-        httpServer.get(reportInfoPath, new ReportDefinitionRoute(reportResource));
+    private void schedule(Registration registration) {
+        if (Objects.isNull(scheduler)) {
+            return;
+        }
+        final ReportResource reportResource = registration.reportResource;
+        reportResource.configuration()
+            .filter(cfg -> Objects.nonNull(cfg.getSchedules()) && !cfg.getSchedules().isEmpty())
+            .ifPresent(cfg -> {
+                if (registration.outputCache.isEmpty()) {
+                    LOGGER.warn("Report {} has schedules but no output cache, pre-rendered reports are only backed up", reportResource.path());
+                }
+                scheduler.schedule(reportResource.path(),
+                    cfg.getSchedules(),
+                    reportResource.outputTypes(),
+                    ZoneId.of(cfg.getTimeZone()),
+                    registration.reportRoute::prerender);
+            });
+    }
+
+    private RouteTable buildRouteTable() {
+        final RouteTable.Builder builder = RouteTable.builder();
+        registrations.values().forEach(registration -> addRoutes(builder, registration));
+        return builder.build();
     }
 
     /**
-     * Registers a reportResource to the spark application.
+     * Adds the endpoints of a report to the route table.
      * The report is mapped to the {@linkplain ReportResource#path()} of the resource
      * as <code>/path</code> and depending on the output types the resource
      * is mapped to routes with extensions e.g. <code>/path.html</code>
      *
      * If the report resource has a GET or POST defined as {@linkplain ReportResource#methods()}
-     * the routes are mapped to those HTTP methods
-     *
-     * @param reportResource
+     * the routes are mapped to those HTTP methods. The report definition is available at
+     * <code>/path/info</code>.
      */
-    private void registerRoute(ReportResource reportResource) {
-        final ReportRoute reportRoute = Objects.isNull(backup)
-                                        ? new ReportRoute(reportResource)
-                                        : new ReportRoute(reportResource, backup, Optional.ofNullable(database));
+    private void addRoutes(RouteTable.Builder builder, Registration registration) {
+        final ReportResource reportResource = registration.reportResource;
+        final Handler reportRoute = registration.tracked(registration.reportRoute);
+        final String reportPath = reportResource.path();
 
-        final String reportPath = withRootPath(reportResource.path());
+        builder.add(HandlerType.GET, reportPath.concat("/info"), new ReportDefinitionRoute(reportResource));
 
         List<String> extensionList = reportResource.outputTypes()
             .stream()
@@ -107,22 +524,136 @@ public class Reports {
 
         for(String method: reportResource.methods()) {
             if (method.equalsIgnoreCase("GET")) {
-                httpServer.get(reportPath, reportRoute);
+                builder.add(HandlerType.GET, reportPath, reportRoute);
                 // We want to map the path to the route /path and /path.ext for each output in the resource
-                extensionList.forEach(extension -> httpServer.get(reportPath.concat(extension), reportRoute));
+                extensionList.forEach(extension -> builder.add(HandlerType.GET, reportPath.concat(extension), reportRoute));
             }
 
             if (method.equalsIgnoreCase("POST")) {
-                httpServer.post(withRootPath(reportResource.path()),reportRoute);
+                builder.add(HandlerType.POST, reportPath, reportRoute);
                 // We want to map the path to the route /path and /path.ext for each output in the resource
-                extensionList.forEach(extension -> httpServer.post(reportPath.concat(extension), reportRoute));
+                extensionList.forEach(extension -> builder.add(HandlerType.POST, reportPath.concat(extension), reportRoute));
             }
         }
-        LoggerFactory.getLogger(getClass()).debug("Registered Route: {}", withRootPath(reportResource.path()));
+        if (Objects.nonNull(reportJobs)) {
+            addJobRoutes(builder, reportResource, registration.reportRoute, extensionList);
+        }
+        reportResource.configuration()
+            .map(cfg -> cfg.getBatch())
+            .filter(Batch::isEnabled)
+            .ifPresent(batch -> addBatchRoutes(builder, registration, batch, extensionList));
+    }
+
+    /**
+     * Adds the endpoint for rendering the report for many sets of parameters in one request.
+     * Batches are submitted with a POST to <code>/path/batch</code> or <code>/path.ext/batch</code>
+     */
+    private void addBatchRoutes(RouteTable.Builder builder, Registration registration, Batch batch, List<String> extensionList) {
+        final String reportPath = registration.reportResource.path();
+        final Handler batchRoute = registration.tracked(new ReportBatchRoute(registration.reportResource, registration.reportRoute, batch));
+
+        builder.add(HandlerType.POST, reportPath.concat("/batch"), batchRoute);
+        extensionList.forEach(extension -> builder.add(HandlerType.POST, reportPath.concat(extension).concat("/batch"), batchRoute));
+    }
+
+    /**
+     * Adds the endpoints for rendering the report asynchronously.
+     * Jobs are submitted with a POST to <code>/path/jobs</code> or <code>/path.ext/jobs</code>
+     * and their status and output are available at <code>/path/jobs/{id}</code> and
+     * <code>/path/jobs/{id}/download</code>
+     */
+    private void addJobRoutes(RouteTable.Builder builder, ReportResource reportResource, ReportRoute reportRoute, List<String> extensionList) {
+        final String reportPath = reportResource.path();
+        final String jobsPath = reportPath.concat("/jobs");
+        final ReportJobRoutes jobRoutes = new ReportJobRoutes(withRootPath(jobsPath), reportResource, reportRoute, reportJobs);
+
+        builder.add(HandlerType.POST, jobsPath, jobRoutes.submit());
+        extensionList.forEach(extension -> builder.add(HandlerType.POST, reportPath.concat(extension).concat("/jobs"), jobRoutes.submit()));
+        builder.add(HandlerType.GET, jobsPath.concat("/{id}"), jobRoutes.status());
+        builder.add(HandlerType.GET, jobsPath.concat("/{id}/download"), jobRoutes.download());
     }
 
     public List<ReportResource> resources() {
         return Collections.unmodifiableList(resources);
     }
 
+    /**
+     * The route, caches and executor created for a report
+     */
+    private static final class Registration {
+        final ReportResource reportResource;
+        final ReportRoute reportRoute;
+        final RenderOptions renderOptions;
+        final String fingerprint;
+        final Optional<ReportOutputCache> outputCache;
+        final Optional<QueryResultCache> queryCache;
+        final Optional<RenderExecutor> renderExecutor;
+
+        /**
+         * Number of requests in progress on the routes of the report
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        Registration(ReportResource reportResource,
+                     ReportRoute reportRoute,
+                     RenderOptions renderOptions,
+                     String fingerprint,
+                     Optional<ReportOutputCache> outputCache,
+                     Optional<QueryResultCache> queryCache,
+                     Optional<RenderExecutor> renderExecutor) {
+            this.reportResource = reportResource;
+            this.reportRoute = reportRoute;
+            this.renderOptions = renderOptions;
+            this.fingerprint = fingerprint;
+            this.outputCache = outputCache;
+            this.queryCache = queryCache;
+            this.renderExecutor = renderExecutor;
+        }
+
+        /**
+         * Counts the requests in progress on a route of the report
+         */
+        Handler tracked(Handler handler) {
+            return context -> {
+                inFlight.incrementAndGet();
+                try {
+                    handler.handle(context);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            };
+        }
+
+        boolean isIdle() {
+            return inFlight.get() == 0;
+        }
+
+        void registerMetrics() {
+            outputCache.ifPresent(ReportOutputCache::registerMetrics);
+            queryCache.ifPresent(QueryResultCache::registerMetrics);
+            renderExecutor.ifPresent(RenderExecutor::registerMetrics);
+        }
+
+        void removeMetrics() {
+            outputCache.ifPresent(ReportOutputCache::removeMetrics);
+            queryCache.ifPresent(QueryResultCache::removeMetrics);
+            renderExecutor.ifPresent(RenderExecutor::removeMetrics);
+        }
+
+        /**
+         * Empties the caches, stops the executor and releases the connection pools of the report
+         *
+         * @param removeMetrics false if the metrics are shared with the report that replaces or is replaced by this one
+         */
+        void close(boolean removeMetrics) {
+            outputCache.ifPresent(ReportOutputCache::invalidateAll);
+            queryCache.ifPresent(QueryResultCache::invalidateAll);
+            renderExecutor.ifPresent(RenderExecutor::stop);
+            ConnectionPools.release(renderOptions);
+            if (removeMetrics) {
+                removeMetrics();
+            }
+        }
+    }
+
 }
@@ -12,15 +12,46 @@ import java.util.stream.Collectors;
 import static cloud.nndi.labs.kapenta.http.ReportRoute.toJson;
 
 public class ReportsRoute implements Handler {
-    private final String reportResources;
+    private final Reports reports;
+
+    // The JSON is kept until the reports are reloaded
+    private volatile List<ReportResource> resources;
+    private volatile String reportResources;
+
     public ReportsRoute(final Reports reports) {
-        this.reportResources = toJson(removePaths(reports.resources()));
+        this.reports = reports;
+    }
+
+    /**
+     * Creates a route that serves the given JSON until the reports are reloaded
+     *
+     * @param reports the reports
+     * @param json the JSON for the current reports, e.g. from a snapshot
+     */
+    public ReportsRoute(final Reports reports, final String json) {
+        this.reports = reports;
+        this.resources = reports.resources();
+        this.reportResources = json;
+    }
+
+    /**
+     * The reports as JSON
+     *
+     * @return the JSON for the current reports
+     */
+    public String json() {
+        final List<ReportResource> current = reports.resources();
+        if (!current.equals(resources)) {
+            reportResources = toJson(removePaths(current));
+            resources = current;
+        }
+        return reportResources;
     }
 
     @Override
     public void handle(@NotNull Context context) throws Exception {
         LoggerFactory.getLogger(getClass()).debug("Processing ReportsRoute request");
-        context.json(reportResources);
+        context.json(json());
     }
 
     private List<ReportResource> removePaths(List<ReportResource> reports) {
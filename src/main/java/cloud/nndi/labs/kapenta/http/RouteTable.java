@@ -0,0 +1,150 @@
+package cloud.nndi.labs.kapenta.http;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Immutable table of the endpoints of the reports, keyed on the HTTP method and the
+ * path relative to the API root.
+ *
+ * Javalin cannot remove routes once they are added, so {@link Reports} registers a
+ * single route for everything under the API root and looks the endpoint up in the
+ * current table. Reloading the configuration builds a new table and swaps it in,
+ * requests that already found their endpoint finish on the table they started with.
+ *
+ * A path may have a single <code>{name}</code> segment, e.g. <code>/report/jobs/{id}/download</code>,
+ * its value is available to the endpoint with {@link #pathParam(Context, String)}.
+ */
+final class RouteTable {
+
+    private static final String PATH_PARAMS_ATTRIBUTE = "kapenta.pathParams";
+
+    static final RouteTable EMPTY = new Builder().build();
+
+    private final Map<String, Handler> routes;
+
+    private final List<Template> templates;
+
+    private RouteTable(Map<String, Handler> routes, List<Template> templates) {
+        this.routes = routes;
+        this.templates = templates;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Find the endpoint for the request
+     *
+     * @param method HTTP method of the request
+     * @param path path of the request relative to the API root
+     * @return the endpoint, empty if there is none
+     */
+    Optional<Handler> match(HandlerType method, String path) {
+        final Handler handler = routes.get(key(method, path));
+        if (Objects.nonNull(handler)) {
+            return Optional.of(handler);
+        }
+
+        for (Template template: templates) {
+            if (template.method == method && template.matches(path)) {
+                final String value = path.substring(template.prefix.length(), path.length() - template.suffix.length());
+                final Map<String, String> pathParams = Collections.singletonMap(template.param, value);
+                return Optional.of(context -> {
+                    context.attribute(PATH_PARAMS_ATTRIBUTE, pathParams);
+                    template.handler.handle(context);
+                });
+            }
+        }
+        return Optional.empty();
+    }
+
+    int size() {
+        return routes.size() + templates.size();
+    }
+
+    /**
+     * Value of a <code>{name}</code> segment of the path of the endpoint that is handling the request
+     *
+     * @param context the request
+     * @param name name of the segment
+     * @return value of the segment
+     * @throws IllegalArgumentException if the path of the endpoint has no such segment
+     */
+    static String pathParam(Context context, String name) {
+        final Map<String, String> pathParams = context.attribute(PATH_PARAMS_ATTRIBUTE);
+        if (Objects.isNull(pathParams) || !pathParams.containsKey(name)) {
+            throw new IllegalArgumentException("No path parameter " + name + " for " + context.path());
+        }
+        return pathParams.get(name);
+    }
+
+    private static String key(HandlerType method, String path) {
+        return method.name().concat(" ").concat(path);
+    }
+
+    static final class Builder {
+        private final Map<String, Handler> routes = new HashMap<>();
+
+        private final List<Template> templates = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        Builder add(HandlerType method, String path, Handler handler) {
+            Objects.requireNonNull(handler, "handler");
+            final int start = path.indexOf('{');
+            if (start < 0) {
+                routes.put(key(method, path), handler);
+                return this;
+            }
+
+            final int end = path.indexOf('}', start);
+            if (end < 0 || path.indexOf('{', end) >= 0) {
+                throw new IllegalArgumentException("Paths may only have one {name} segment: " + path);
+            }
+            templates.add(new Template(method, path.substring(0, start), path.substring(start + 1, end), path.substring(end + 1), handler));
+            return this;
+        }
+
+        RouteTable build() {
+            return new RouteTable(Collections.unmodifiableMap(new HashMap<>(routes)), Collections.unmodifiableList(new ArrayList<>(templates)));
+        }
+    }
+
+    private static final class Template {
+        final HandlerType method;
+        final String prefix;
+        final String param;
+        final String suffix;
+        final Handler handler;
+
+        Template(HandlerType method, String prefix, String param, String suffix, Handler handler) {
+            this.method = method;
+            this.prefix = prefix;
+            this.param = param;
+            this.suffix = suffix;
+            this.handler = handler;
+        }
+
+        boolean matches(String path) {
+            if (path.length() <= prefix.length() + suffix.length()
+                || !path.startsWith(prefix)
+                || !path.endsWith(suffix)) {
+                return false;
+            }
+            // The value of the segment cannot span segments
+            return path.substring(prefix.length(), path.length() - suffix.length()).indexOf('/') < 0;
+        }
+    }
+}
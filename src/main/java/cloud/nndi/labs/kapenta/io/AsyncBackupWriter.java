@@ -0,0 +1,378 @@
+package cloud.nndi.labs.kapenta.io;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * AsyncBackupWriter writes backups of generated reports to disk on a background thread.
+ * </p>
+ * Streams returned by {@link #open(Path)} copy what is written to them into chunks that
+ * are queued in a bounded ring buffer, a single writer thread drains the buffer to the
+ * backup files. When the buffer is full the backup is either dropped or the caller blocks
+ * until there is space, depending on the {@link OverflowPolicy}. Files are synced to disk
+ * in batches every <code>fsyncIntervalMillis</code> rather than one at a time.
+ * Chunks written out are handed back to the streams for reuse, at most as many as the
+ * buffer holds are kept.
+ * A backup that cannot be written is deleted and counted, it never fails the caller.
+ */
+public final class AsyncBackupWriter implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncBackupWriter.class);
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    public enum OverflowPolicy {
+        DROP,
+        BLOCK;
+
+        public static OverflowPolicy of(String name) {
+            return OverflowPolicy.valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private final ArrayBlockingQueue<Chunk> buffer;
+
+    /**
+     * Chunks that have been written out and can be reused
+     */
+    private final ArrayBlockingQueue<byte[]> freeChunks;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long fsyncIntervalMillis;
+
+    private final Queue<Sink> closing = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    private final Thread writerThread;
+
+    private final Timer lagTimer;
+
+    private final Counter droppedCounter;
+
+    private final Counter failedCounter;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param bufferSize maximum number of bytes waiting to be written
+     * @param overflowPolicy what to do when the buffer is full
+     * @param fsyncIntervalMillis interval for syncing written files to disk, 0 to leave it to the operating system
+     */
+    public AsyncBackupWriter(int bufferSize, OverflowPolicy overflowPolicy, long fsyncIntervalMillis) {
+        this.buffer = new ArrayBlockingQueue<>(Math.max(4, bufferSize / CHUNK_SIZE));
+        this.freeChunks = new ArrayBlockingQueue<>(buffer.remainingCapacity());
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+
+        Gauge.builder("kapenta.backup.pending", pendingBytes, AtomicLong::get)
+            .description("Number of bytes of backups waiting to be written to disk")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+        this.lagTimer = Timer.builder("kapenta.backup.lag")
+            .description("Time between a chunk of a backup being queued and written to disk")
+            .register(Metrics.globalRegistry);
+        this.droppedCounter = Counter.builder("kapenta.backup.dropped")
+            .description("Number of backups dropped because the backup buffer was full")
+            .register(Metrics.globalRegistry);
+        this.failedCounter = Counter.builder("kapenta.backup.failed")
+            .description("Number of backups that could not be written")
+            .register(Metrics.globalRegistry);
+
+        this.writerThread = new Thread(this::drain, "kapenta-backup-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Open a stream for writing a backup to the given file. The file is created by the
+     * writer thread, closing the stream marks the end of the backup.
+     *
+     * @param file the backup file
+     * @return stream for the backup
+     */
+    public OutputStream open(Path file) {
+        return new BackupOutputStream(new Sink(Objects.requireNonNull(file, "file")));
+    }
+
+    /**
+     * Write out all queued backups and stop the writer thread
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a chunk, returns false if the chunk was not queued and the backup must be dropped
+     */
+    private boolean enqueue(Chunk chunk) {
+        chunk.sink.pendingChunks.incrementAndGet();
+        pendingBytes.addAndGet(chunk.length);
+        boolean queued;
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                buffer.put(chunk);
+                queued = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        } else {
+            queued = buffer.offer(chunk);
+        }
+
+        if (!queued) {
+            chunk.sink.pendingChunks.decrementAndGet();
+            pendingBytes.addAndGet(-chunk.length);
+            recycle(chunk.data);
+        }
+        return queued;
+    }
+
+    private byte[] takeChunk() {
+        final byte[] chunk = freeChunks.poll();
+        return Objects.isNull(chunk) ? new byte[CHUNK_SIZE] : chunk;
+    }
+
+    private void recycle(byte[] chunk) {
+        freeChunks.offer(chunk);
+    }
+
+    private void drain() {
+        final List<Sink> dirty = new ArrayList<>();
+        final List<Sink> finished = new ArrayList<>();
+        long lastSync = System.currentTimeMillis();
+        final long pollMillis = fsyncIntervalMillis > 0 ? Math.min(fsyncIntervalMillis, 100) : 100;
+
+        while (running || !buffer.isEmpty() || !closing.isEmpty()) {
+            try {
+                Chunk chunk = buffer.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    write(chunk);
+                    if (!dirty.contains(chunk.sink)) {
+                        dirty.add(chunk.sink);
+                    }
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+
+            // Backups whose chunks have all been written are closed after the next sync
+            for (int i = closing.size(); i > 0; i--) {
+                Sink sink = closing.poll();
+                if (sink == null) break;
+                if (sink.pendingChunks.get() > 0) {
+                    closing.add(sink);
+                } else {
+                    finished.add(sink);
+                }
+            }
+
+            final long now = System.currentTimeMillis();
+            final boolean syncDue = fsyncIntervalMillis <= 0
+                || now - lastSync >= fsyncIntervalMillis
+                || (!running && buffer.isEmpty());
+            if (syncDue && (!dirty.isEmpty() || !finished.isEmpty())) {
+                if (fsyncIntervalMillis > 0) {
+                    dirty.forEach(this::sync);
+                }
+                dirty.clear();
+                finished.forEach(this::finish);
+                finished.clear();
+                lastSync = now;
+            }
+        }
+    }
+
+    private void write(Chunk chunk) {
+        final Sink sink = chunk.sink;
+        try {
+            if (sink.dropped || sink.failed) {
+                return;
+            }
+            if (sink.channel == null) {
+                Path parent = sink.file.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                sink.channel = FileChannel.open(sink.file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            ByteBuffer bb = ByteBuffer.wrap(chunk.data, 0, chunk.length);
+            while (bb.hasRemaining()) {
+                sink.channel.write(bb);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to write backup {}", sink.file, e);
+            sink.failed = true;
+        } finally {
+            lagTimer.record(System.nanoTime() - chunk.queuedAt, TimeUnit.NANOSECONDS);
+            pendingBytes.addAndGet(-chunk.length);
+            recycle(chunk.data);
+            sink.pendingChunks.decrementAndGet();
+        }
+    }
+
+    private void sync(Sink sink) {
+        if (sink.channel == null || sink.failed || sink.dropped) return;
+        try {
+            sink.channel.force(false);
+        } catch (IOException e) {
+            LOGGER.error("Failed to sync backup {}", sink.file, e);
+            sink.failed = true;
+        }
+    }
+
+    private void finish(Sink sink) {
+        try {
+            if (sink.channel != null) {
+                sink.channel.close();
+            }
+            if (sink.dropped || sink.failed) {
+                Files.deleteIfExists(sink.file);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to close backup {}", sink.file, e);
+            sink.failed = true;
+        }
+
+        if (sink.dropped) {
+            droppedCounter.increment();
+            LOGGER.warn("Dropped backup {}, the backup buffer is full", sink.file);
+        } else if (sink.failed) {
+            failedCounter.increment();
+        } else {
+            LOGGER.debug("Wrote backup {}", sink.file);
+        }
+    }
+
+    /**
+     * A backup file, the channel is only used by the writer thread
+     */
+    private static final class Sink {
+        final Path file;
+        final AtomicInteger pendingChunks = new AtomicInteger();
+        volatile boolean dropped = false;
+        volatile boolean failed = false;
+        FileChannel channel;
+
+        Sink(Path file) {
+            this.file = file;
+        }
+    }
+
+    private static final class Chunk {
+        final Sink sink;
+        final byte[] data;
+        final int length;
+        final long queuedAt = System.nanoTime();
+
+        Chunk(Sink sink, byte[] data, int length) {
+            this.sink = sink;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Collects writes into chunks and queues them for the writer thread
+     */
+    private final class BackupOutputStream extends OutputStream {
+        private final Sink sink;
+        private byte[] chunk;
+        private int count = 0;
+        private boolean closed = false;
+
+        BackupOutputStream(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (sink.dropped) {
+                return;
+            }
+            if (Objects.isNull(chunk)) {
+                chunk = takeChunk();
+            }
+            chunk[count++] = (byte) b;
+            if (count == chunk.length) {
+                queueChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (sink.dropped) {
+                return;
+            }
+            while (len > 0) {
+                if (Objects.isNull(chunk)) {
+                    chunk = takeChunk();
+                }
+                int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == chunk.length) {
+                    queueChunk();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (count > 0 && !sink.dropped) {
+                queueChunk();
+            } else if (Objects.nonNull(chunk)) {
+                recycle(chunk);
+            }
+            chunk = null;
+            closing.add(sink);
+        }
+
+        private void queueChunk() {
+            if (!enqueue(new Chunk(sink, chunk, count))) {
+                sink.dropped = true;
+            }
+            chunk = null;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package cloud.nndi.labs.kapenta.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of fixed size byte arrays so that streams on the response path don't
+ * allocate a new buffer for every request.
+ *
+ * At most <code>maxPooled</code> arrays are kept, arrays released to a full pool
+ * are left to the garbage collector.
+ */
+public final class BufferPool {
+
+    /**
+     * Pool shared by the streams in this package
+     */
+    public static final BufferPool DEFAULT = new BufferPool(16 * 1024, 256);
+
+    private final int bufferSize;
+
+    private final ArrayBlockingQueue<byte[]> pool;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate one if the pool is empty
+     *
+     * @return a buffer of {@link #getBufferSize()} bytes
+     */
+    public byte[] acquire() {
+        byte[] buffer = pool.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Return a buffer to the pool, the caller must not use it afterwards
+     *
+     * @param buffer a buffer acquired from this pool
+     */
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            pool.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Number of buffers available in the pool
+     *
+     * @return
+     */
+    public int available() {
+        return pool.size();
+    }
+}
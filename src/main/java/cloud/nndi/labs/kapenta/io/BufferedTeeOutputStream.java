@@ -0,0 +1,155 @@
+package cloud.nndi.labs.kapenta.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * <p>
+ * BufferedTeeOutputStream writes to a primary output stream and any number of secondary
+ * output streams, like {@link MultiplexOutputStream}, but collects small writes into a
+ * pooled buffer and hands each stream whole chunks instead of every byte.
+ * </p>
+ * <p>
+ * Failures are isolated per stream: a failure writing to the primary stream (e.g. the
+ * client response) is thrown to the caller, a failure writing to a secondary stream
+ * (e.g. a backup file) is logged and that stream is skipped from then on.
+ * </p>
+ * {@link #close()} writes out the buffered bytes, returns the buffer to the pool and
+ * closes the secondary streams. The primary stream is left open for its owner to close.
+ */
+public class BufferedTeeOutputStream extends OutputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BufferedTeeOutputStream.class);
+
+    private final BufferPool bufferPool;
+
+    private final OutputStream primary;
+
+    private final OutputStream[] secondaries;
+
+    private final boolean[] failed;
+
+    private byte[] buffer;
+
+    private int count = 0;
+
+    private boolean closed = false;
+
+    public BufferedTeeOutputStream(OutputStream primary, OutputStream... secondaries) {
+        this(BufferPool.DEFAULT, primary, secondaries);
+    }
+
+    public BufferedTeeOutputStream(BufferPool bufferPool, OutputStream primary, OutputStream... secondaries) {
+        this.bufferPool = Objects.requireNonNull(bufferPool, "bufferPool");
+        this.primary = Objects.requireNonNull(primary, "primary");
+        this.secondaries = Objects.requireNonNull(secondaries, "secondaries");
+        for (OutputStream os: secondaries) {
+            Objects.requireNonNull(os);
+        }
+        this.failed = new boolean[secondaries.length];
+        this.buffer = bufferPool.acquire();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len >= buffer.length) {
+            // Large writes are passed straight through after what is already buffered
+            drain();
+            writeToAll(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            drain();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+        primary.flush();
+        for (int i = 0; i < secondaries.length; i++) {
+            if (failed[i]) continue;
+            try {
+                secondaries[i].flush();
+            } catch (IOException e) {
+                fail(i, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            drain();
+        } finally {
+            closed = true;
+            bufferPool.release(buffer);
+            buffer = null;
+            for (int i = 0; i < secondaries.length; i++) {
+                try {
+                    secondaries[i].close();
+                } catch (IOException e) {
+                    if (!failed[i]) fail(i, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether writing to the secondary stream at the given index has failed
+     *
+     * @param index index of the secondary stream
+     * @return
+     */
+    public boolean hasFailed(int index) {
+        return failed[index];
+    }
+
+    private void drain() throws IOException {
+        if (count == 0) return;
+        final int n = count;
+        count = 0;
+        writeToAll(buffer, 0, n);
+    }
+
+    private void writeToAll(byte[] b, int off, int len) throws IOException {
+        primary.write(b, off, len);
+        for (int i = 0; i < secondaries.length; i++) {
+            if (failed[i]) continue;
+            try {
+                secondaries[i].write(b, off, len);
+            } catch (IOException | RuntimeException e) {
+                fail(i, e);
+            }
+        }
+    }
+
+    private void fail(int index, Exception e) {
+        failed[index] = true;
+        LOGGER.warn("Failed to write to secondary output, skipping it for the rest of the report", e);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
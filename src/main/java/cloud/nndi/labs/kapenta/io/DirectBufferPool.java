@@ -0,0 +1,81 @@
+package cloud.nndi.labs.kapenta.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed size direct (off-heap) buffers so that responses held in memory
+ * don't allocate new buffers for every request or add to the heap.
+ *
+ * At most <code>maxPooled</code> direct buffers are allocated, when they are all in use
+ * heap buffers are handed out instead, which are left to the garbage collector when
+ * released. This bounds the direct memory taken by the pool however many responses
+ * are held at once.
+ */
+public final class DirectBufferPool {
+
+    /**
+     * Pool shared by the response spools
+     */
+    public static final DirectBufferPool DEFAULT = new DirectBufferPool(64 * 1024, 256);
+
+    private final int bufferSize;
+
+    private final int maxPooled;
+
+    private final ArrayBlockingQueue<ByteBuffer> pool;
+
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = Math.max(1, maxPooled);
+        this.pool = new ArrayBlockingQueue<>(this.maxPooled);
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate one if the pool is empty. A heap buffer
+     * is allocated once <code>maxPooled</code> direct buffers are in use.
+     *
+     * @return an empty buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocated.getAndUpdate(n -> n < maxPooled ? n + 1 : n) < maxPooled) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Return a buffer to the pool, the caller must not use it afterwards
+     *
+     * @param buffer a buffer acquired from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            buffer.clear();
+            pool.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Number of buffers available in the pool
+     *
+     * @return
+     */
+    public int available() {
+        return pool.size();
+    }
+}
@@ -0,0 +1,160 @@
+package cloud.nndi.labs.kapenta.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a set of files for changes with a {@link WatchService} on their directories.
+ *
+ * Changes are collected until no file has changed for <code>debounceMillis</code> and
+ * then passed to the listener at once, on the watcher thread, so that a file written in
+ * several steps or a batch of files copied together cause a single notification.
+ */
+public final class FileWatcher implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileWatcher.class);
+
+    private final WatchService watchService;
+
+    private final long debounceMillis;
+
+    private final Consumer<Set<Path>> listener;
+
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+
+    private volatile Set<Path> files = new HashSet<>();
+
+    private final Thread thread;
+
+    /**
+     * @param debounceMillis time without changes to wait for before notifying the listener
+     * @param listener called with the files that changed
+     * @throws IOException if the watch service cannot be created
+     */
+    public FileWatcher(long debounceMillis, Consumer<Set<Path>> listener) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = Math.max(0, debounceMillis);
+        this.listener = Objects.requireNonNull(listener, "listener");
+        this.thread = new Thread(this::run, "kapenta-file-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Replace the files being watched
+     *
+     * @param watchedFiles the files to watch
+     * @throws IOException if a directory cannot be watched
+     */
+    public synchronized void watch(Collection<Path> watchedFiles) throws IOException {
+        final Set<Path> normalized = new HashSet<>();
+        watchedFiles.forEach(file -> normalized.add(file.toAbsolutePath().normalize()));
+
+        final Set<Path> parents = new HashSet<>();
+        normalized.forEach(file -> parents.add(file.getParent()));
+
+        for (Path directory: parents) {
+            if (!directories.containsKey(directory)) {
+                directories.put(directory, directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE));
+                LOGGER.debug("Watching {}", directory);
+            }
+        }
+        final Iterator<Map.Entry<Path, WatchKey>> it = directories.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = it.next();
+            if (!parents.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+        files = normalized;
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the watch service", e);
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        final Set<Path> changed = new HashSet<>();
+        long lastChange = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final WatchKey key = watchService.poll(Math.max(10, Math.min(debounceMillis, 100)), TimeUnit.MILLISECONDS);
+                if (Objects.nonNull(key)) {
+                    if (collect(key, changed)) {
+                        lastChange = System.nanoTime();
+                    }
+                    key.reset();
+                }
+
+                if (!changed.isEmpty() && System.nanoTime() - lastChange >= TimeUnit.MILLISECONDS.toNanos(debounceMillis)) {
+                    notifyListener(new HashSet<>(changed));
+                    changed.clear();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Adds the watched files the key has events for, returns true if there were any
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        final Path directory = (Path) key.watchable();
+        final Set<Path> watched = files;
+        boolean found = false;
+        for (WatchEvent<?> event: key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, anything in the directory may have changed
+                for (Path file: watched) {
+                    if (file.getParent().equals(directory)) {
+                        changed.add(file);
+                        found = true;
+                    }
+                }
+                continue;
+            }
+            final Path file = directory.resolve((Path) event.context()).normalize();
+            if (watched.contains(file)) {
+                changed.add(file);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private void notifyListener(Set<Path> changed) {
+        try {
+            listener.accept(changed);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to handle changes to {}", changed, e);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package cloud.nndi.labs.kapenta.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>
+ * ResponseSpool holds a response until it is complete so it can be sent with its
+ * length, or not sent at all if producing it fails.
+ * </p>
+ * Written bytes are kept in direct buffers taken from a {@link DirectBufferPool} until
+ * they exceed a threshold, after which everything written so far, and everything
+ * written after, goes to a temporary file. The buffers go back to the pool when the
+ * spool is deleted.
+ */
+public class ResponseSpool extends OutputStream {
+
+    private final DirectBufferPool bufferPool;
+
+    private final long memoryThreshold;
+
+    private final Path directory;
+
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+
+    private final ByteBuffer singleByte = ByteBuffer.allocate(1);
+
+    private FileChannel fileChannel;
+
+    private Path file;
+
+    private long size = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param bufferPool pool to take the in-memory buffers from
+     * @param memoryThreshold number of bytes kept in memory before spilling to a file
+     * @param directory directory to create the temporary file in
+     */
+    public ResponseSpool(DirectBufferPool bufferPool, long memoryThreshold, Path directory) {
+        this.bufferPool = Objects.requireNonNull(bufferPool, "bufferPool");
+        this.memoryThreshold = memoryThreshold;
+        this.directory = Objects.requireNonNull(directory, "directory");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (fileChannel == null && size + 1 > memoryThreshold) {
+            spill();
+        }
+        if (fileChannel != null) {
+            writeFully(fileChannel, singleByte.clear().put((byte) b).flip());
+        } else {
+            currentBuffer().put((byte) b);
+        }
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (fileChannel == null && size + len > memoryThreshold) {
+            spill();
+        }
+        if (fileChannel != null) {
+            writeFully(fileChannel, ByteBuffer.wrap(b, off, len));
+        } else {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                final ByteBuffer buffer = currentBuffer();
+                final int n = Math.min(remaining, buffer.remaining());
+                buffer.put(b, offset, n);
+                offset += n;
+                remaining -= n;
+            }
+        }
+        size += len;
+    }
+
+    /**
+     * The buffer to write to, a new one is taken from the pool when the last one is full
+     */
+    private ByteBuffer currentBuffer() {
+        ByteBuffer buffer = buffers.isEmpty() ? null : buffers.get(buffers.size() - 1);
+        if (buffer == null || !buffer.hasRemaining()) {
+            buffer = bufferPool.acquire();
+            buffers.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Stop writing to the spool, the content remains available until the spool is deleted
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void spill() throws IOException {
+        Files.createDirectories(directory);
+        file = Files.createTempFile(directory, "kapenta-", ".spool");
+        fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        for (ByteBuffer buffer: buffers) {
+            buffer.flip();
+            writeFully(fileChannel, buffer);
+            bufferPool.release(buffer);
+        }
+        buffers.clear();
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Number of bytes written
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * The file the bytes were spooled to, if they were not kept in memory
+     *
+     * @return
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Write the bytes written to the spool to the target. A spooled file is sent with
+     * {@link FileChannel#transferTo} to files and sockets, so the kernel copies it without
+     * it passing through the JVM, and through a buffer taken from the pool to other channels.
+     *
+     * @param target the channel to write to
+     * @throws IOException if writing to the target fails
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        if (isInMemory()) {
+            for (ByteBuffer buffer: buffers) {
+                writeFully(target, buffer.duplicate().flip());
+            }
+            return;
+        }
+
+        if (target instanceof FileChannel || target instanceof SelectableChannel) {
+            long position = 0;
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, target);
+            }
+            return;
+        }
+
+        final ByteBuffer buffer = bufferPool.acquire();
+        try {
+            long position = 0;
+            while (position < size) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+                while (buffer.hasRemaining()) {
+                    if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("Spooled file is shorter than " + size + " bytes: " + file);
+                    }
+                }
+                buffer.flip();
+                position += buffer.remaining();
+                writeFully(target, buffer);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Return the buffers to the pool and delete the file the bytes were spooled to, if any
+     *
+     * @throws IOException
+     */
+    public void delete() throws IOException {
+        close();
+        buffers.forEach(bufferPool::release);
+        buffers.clear();
+        if (fileChannel != null) {
+            fileChannel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package cloud.nndi.labs.kapenta.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+/**
+ * <p>
+ * SpoolingOutputStream keeps written bytes in memory until they exceed a threshold
+ * after which everything written so far, and everything written after, goes to
+ * a temporary file.
+ * </p>
+ * A SHA-256 digest of the written bytes is computed along the way so the content
+ * can be identified (e.g. for an ETag) without reading it again.
+ */
+public class SpoolingOutputStream extends OutputStream {
+
+    private final int memoryThreshold;
+
+    private final Path directory;
+
+    private final MessageDigest digest;
+
+    private ByteArrayOutputStream memory;
+
+    private OutputStream fileStream;
+
+    private Path file;
+
+    private long size = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param memoryThreshold number of bytes kept in memory before spilling to a file
+     * @param directory directory to create the temporary file in
+     */
+    public SpoolingOutputStream(int memoryThreshold, Path directory) {
+        this.memoryThreshold = memoryThreshold;
+        this.directory = Objects.requireNonNull(directory, "directory");
+        this.memory = new ByteArrayOutputStream(Math.min(memoryThreshold, 8192));
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (fileStream == null && size + len > memoryThreshold) {
+            spill();
+        }
+        if (fileStream != null) {
+            fileStream.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+        digest.update(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileStream != null) {
+            fileStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (fileStream != null) {
+            fileStream.close();
+        }
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile(directory, "kapenta-", ".spool");
+        fileStream = Files.newOutputStream(file);
+        memory.writeTo(fileStream);
+        memory = null;
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Number of bytes written
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * The bytes written if they were kept in memory
+     *
+     * @return
+     */
+    public byte[] toByteArray() {
+        if (!isInMemory()) {
+            throw new IllegalStateException("Content was spooled to " + file);
+        }
+        return memory.toByteArray();
+    }
+
+    /**
+     * The file the bytes were spooled to, if they were not kept in memory
+     *
+     * @return
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Hex encoded SHA-256 digest of the bytes written. Only valid once the stream is closed.
+     *
+     * @return
+     */
+    public String digestHex() {
+        final byte[] hash;
+        try {
+            hash = ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte h: hash) {
+            sb.append(Character.forDigit((h >> 4) & 0xF, 16))
+              .append(Character.forDigit(h & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read back the bytes written
+     *
+     * @return
+     * @throws IOException
+     */
+    public InputStream openInputStream() throws IOException {
+        if (isInMemory()) {
+            return new ByteArrayInputStream(memory.toByteArray());
+        }
+        return Files.newInputStream(file);
+    }
+
+    /**
+     * Delete the file the bytes were spooled to, if any
+     *
+     * @throws IOException
+     */
+    public void delete() throws IOException {
+        close();
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
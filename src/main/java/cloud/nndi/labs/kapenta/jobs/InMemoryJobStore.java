@@ -0,0 +1,50 @@
+package cloud.nndi.labs.kapenta.jobs;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * JobStore that keeps jobs in memory, jobs are lost when the server stops
+ */
+public final class InMemoryJobStore implements JobStore {
+
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(ReportJob job) {
+        jobs.put(job.getId(), job.copy());
+    }
+
+    @Override
+    public Optional<ReportJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(ReportJob::copy);
+    }
+
+    @Override
+    public List<ReportJob> findUnfinished() {
+        return jobs.values()
+            .stream()
+            .filter(job -> !job.getStatus().isFinished())
+            .map(ReportJob::copy)
+            .collect(toList());
+    }
+
+    @Override
+    public List<ReportJob> findFinishedBefore(Instant time) {
+        return jobs.values()
+            .stream()
+            .filter(job -> job.getStatus().isFinished() && job.getCompletedAt().isBefore(time))
+            .map(ReportJob::copy)
+            .collect(toList());
+    }
+
+    @Override
+    public void delete(String id) {
+        jobs.remove(id);
+    }
+}
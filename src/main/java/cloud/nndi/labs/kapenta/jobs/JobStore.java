@@ -0,0 +1,41 @@
+package cloud.nndi.labs.kapenta.jobs;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keeps the state of report jobs
+ */
+public interface JobStore extends AutoCloseable {
+
+    /**
+     * Insert or update the job
+     *
+     * @param job the job
+     */
+    void save(ReportJob job);
+
+    Optional<ReportJob> find(String id);
+
+    /**
+     * Jobs that have not finished, e.g. jobs that were running when the server stopped
+     *
+     * @return unfinished jobs
+     */
+    List<ReportJob> findUnfinished();
+
+    /**
+     * Jobs that finished before the given time
+     *
+     * @param time the time
+     * @return finished jobs
+     */
+    List<ReportJob> findFinishedBefore(Instant time);
+
+    void delete(String id);
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,7 @@
+package cloud.nndi.labs.kapenta.jobs;
+
+public class JobStoreException extends RuntimeException {
+    public JobStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
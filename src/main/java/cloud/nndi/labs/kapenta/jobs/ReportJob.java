@@ -0,0 +1,126 @@
+package cloud.nndi.labs.kapenta.jobs;
+
+import cloud.nndi.labs.kapenta.OutputType;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * State of a report rendered asynchronously
+ */
+public final class ReportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED;
+        }
+    }
+
+    private final String id;
+    private final String reportPath;
+    private final OutputType outputType;
+    private final Instant submittedAt;
+    private Status status = Status.QUEUED;
+    private Instant startedAt;
+    private Instant completedAt;
+    private String outputFile;
+    private long size;
+    private String error;
+
+    public ReportJob(String id, String reportPath, OutputType outputType, Instant submittedAt) {
+        this.id = Objects.requireNonNull(id, "id");
+        this.reportPath = Objects.requireNonNull(reportPath, "reportPath");
+        this.outputType = Objects.requireNonNull(outputType, "outputType");
+        this.submittedAt = Objects.requireNonNull(submittedAt, "submittedAt");
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getReportPath() {
+        return reportPath;
+    }
+
+    public OutputType getOutputType() {
+        return outputType;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(Instant completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    /**
+     * Path of the file the report was rendered to, only set once the job has succeeded
+     *
+     * @return
+     */
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * Creates a copy so stores don't share mutable state with callers
+     *
+     * @return a copy of this job
+     */
+    public ReportJob copy() {
+        ReportJob job = new ReportJob(id, reportPath, outputType, submittedAt);
+        job.status = status;
+        job.startedAt = startedAt;
+        job.completedAt = completedAt;
+        job.outputFile = outputFile;
+        job.size = size;
+        job.error = error;
+        return job;
+    }
+}
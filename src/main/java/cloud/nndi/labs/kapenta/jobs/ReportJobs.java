@@ -0,0 +1,254 @@
+package cloud.nndi.labs.kapenta.jobs;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.Jobs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders reports in the background.
+ *
+ * Submitted jobs are queued and rendered by a fixed number of threads into files
+ * in the jobs directory. The queue is bounded, jobs submitted while it is full are
+ * rejected with a {@link RejectedExecutionException}. The state of each job is kept in a {@link JobStore} and
+ * finished jobs, together with their output, are removed once the retention period
+ * has passed.
+ */
+public final class ReportJobs {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportJobs.class);
+
+    /**
+     * Renders a report to the given output stream
+     */
+    @FunctionalInterface
+    public interface JobTask {
+        void render(OutputStream outputStream) throws Exception;
+    }
+
+    private final JobStore store;
+
+    private final Path directory;
+
+    private final long retentionSeconds;
+
+    private final int retryAfterSeconds;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService cleaner;
+
+    public ReportJobs(JobStore store, Path directory, int threads, long retentionSeconds) {
+        this(store, directory, threads, new Jobs().getMaxQueuedJobs(), new Jobs().getRetryAfterSeconds(), retentionSeconds);
+    }
+
+    public ReportJobs(JobStore store, Path directory, int threads, int maxQueuedJobs, int retryAfterSeconds, long retentionSeconds) {
+        this.store = Objects.requireNonNull(store, "store");
+        this.directory = Objects.requireNonNull(directory, "directory");
+        this.retentionSeconds = retentionSeconds;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(Math.max(1, maxQueuedJobs));
+        this.executor = new ThreadPoolExecutor(
+            Math.max(1, threads),
+            Math.max(1, threads),
+            60L, TimeUnit.SECONDS,
+            queue,
+            new ThreadFactoryBuilder()
+                .setNameFormat("kapenta-job-%d")
+                .setDaemon(true)
+                .build());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("kapenta-job-cleaner")
+            .setDaemon(true)
+            .build());
+        final long period = Math.max(1, Math.min(retentionSeconds, 60));
+        this.cleaner.scheduleAtFixedRate(this::purgeExpired, period, period, TimeUnit.SECONDS);
+
+        Gauge.builder("kapenta.jobs.queued", queue, BlockingQueue::size)
+            .description("Number of report jobs waiting to be rendered")
+            .register(Metrics.globalRegistry);
+        Gauge.builder("kapenta.jobs.running", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Number of report jobs being rendered")
+            .register(Metrics.globalRegistry);
+
+        failUnfinishedJobs();
+    }
+
+    /**
+     * Create ReportJobs from the configuration
+     *
+     * @param configuration jobs configuration
+     * @return a new ReportJobs
+     * @throws IOException if the jobs directory cannot be created
+     */
+    public static ReportJobs create(Jobs configuration) throws IOException {
+        Objects.requireNonNull(configuration, "configuration");
+        final Path directory = Objects.isNull(configuration.getDirectory())
+            ? Files.createTempDirectory("kapenta-jobs")
+            : Files.createDirectories(Paths.get(configuration.getDirectory()));
+
+        final JobStore store;
+        if (Jobs.SQLITE_STORE.equalsIgnoreCase(configuration.getStore())) {
+            store = new SqliteJobStore(Paths.get(configuration.getDatabaseFile()));
+        } else if (Jobs.MEMORY_STORE.equalsIgnoreCase(configuration.getStore())) {
+            store = new InMemoryJobStore();
+        } else {
+            throw new IllegalArgumentException("Unsupported job store: " + configuration.getStore());
+        }
+
+        return new ReportJobs(store, directory, configuration.getThreads(), configuration.getMaxQueuedJobs(),
+            configuration.getRetryAfterSeconds(), configuration.getRetentionSeconds());
+    }
+
+    /**
+     * Queue a report to be rendered
+     *
+     * @param reportPath path of the report resource
+     * @param outputType output type of the report
+     * @param task renders the report
+     * @return the queued job
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public ReportJob submit(String reportPath, OutputType outputType, JobTask task) {
+        final ReportJob job = new ReportJob(UUID.randomUUID().toString(), reportPath, outputType, Instant.now());
+        store.save(job);
+        try {
+            executor.execute(() -> run(job, task));
+        } catch (RejectedExecutionException e) {
+            store.delete(job.getId());
+            Counter.builder("kapenta.jobs.rejected")
+                .description("Number of report jobs rejected because the queue was full")
+                .register(Metrics.globalRegistry)
+                .increment();
+            LOGGER.warn("Rejected job for {}. Too many jobs queued", reportPath);
+            throw e;
+        }
+        LOGGER.info("Queued job {} for {}", job.getId(), reportPath);
+        return job.copy();
+    }
+
+    /**
+     * Number of seconds clients should wait before submitting a rejected job again
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public Optional<ReportJob> find(String id) {
+        return store.find(id);
+    }
+
+    /**
+     * Remove finished jobs, and their output, that are older than the retention period
+     */
+    public void purgeExpired() {
+        try {
+            final Instant expiry = Instant.now().minusSeconds(retentionSeconds);
+            for (ReportJob job: store.findFinishedBefore(expiry)) {
+                deleteOutput(job);
+                store.delete(job.getId());
+                LOGGER.debug("Removed expired job {}", job.getId());
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to remove expired jobs", e);
+        }
+    }
+
+    /**
+     * Stop rendering jobs, jobs being rendered are allowed to complete
+     */
+    public void shutdown() {
+        cleaner.shutdown();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    private void run(ReportJob job, JobTask task) {
+        job.setStatus(ReportJob.Status.RUNNING);
+        job.setStartedAt(Instant.now());
+        store.save(job);
+
+        final Path partFile = directory.resolve(job.getId() + ".part");
+        final Path outputFile = directory.resolve(job.getId() + "." + job.getOutputType().name().toLowerCase());
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(partFile))) {
+                task.render(os);
+            }
+            Files.move(partFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            job.setOutputFile(outputFile.toString());
+            job.setSize(Files.size(outputFile));
+            job.setStatus(ReportJob.Status.SUCCEEDED);
+            LOGGER.info("Completed job {} for {}", job.getId(), job.getReportPath());
+        } catch (Exception e) {
+            LOGGER.error("Failed to render job {} for {}", job.getId(), job.getReportPath(), e);
+            deleteQuietly(partFile);
+            job.setStatus(ReportJob.Status.FAILED);
+            job.setError("Failed to generate report. Please contact the System Administrator.");
+        } finally {
+            job.setCompletedAt(Instant.now());
+            store.save(job);
+            Counter.builder("kapenta.jobs.completed")
+                .description("Number of report jobs completed")
+                .tag("status", job.getStatus().name().toLowerCase())
+                .register(Metrics.globalRegistry)
+                .increment();
+        }
+    }
+
+    /**
+     * Jobs that were queued or running when the server stopped can't be resumed
+     */
+    private void failUnfinishedJobs() {
+        for (ReportJob job: store.findUnfinished()) {
+            job.setStatus(ReportJob.Status.FAILED);
+            job.setCompletedAt(Instant.now());
+            job.setError("The server stopped before the report was generated. Please submit the job again.");
+            store.save(job);
+            LOGGER.warn("Marked unfinished job {} for {} as failed", job.getId(), job.getReportPath());
+        }
+    }
+
+    private void deleteOutput(ReportJob job) {
+        if (job.getOutputFile() != null) {
+            deleteQuietly(Paths.get(job.getOutputFile()));
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete job output {}", file, e);
+        }
+    }
+}
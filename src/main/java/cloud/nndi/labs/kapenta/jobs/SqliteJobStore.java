@@ -0,0 +1,149 @@
+package cloud.nndi.labs.kapenta.jobs;
+
+import cloud.nndi.labs.kapenta.OutputType;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * JobStore that keeps jobs in an embedded SQLite database so they survive a restart
+ */
+public final class SqliteJobStore implements JobStore {
+
+    private static final String COLUMNS = "id, report_path, output_type, status, submitted_at, started_at, completed_at, output_file, size, error";
+
+    private final Connection connection;
+
+    public SqliteJobStore(Path databaseFile) {
+        try {
+            this.connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.toAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS report_jobs (" +
+                    "id TEXT PRIMARY KEY, " +
+                    "report_path TEXT NOT NULL, " +
+                    "output_type TEXT NOT NULL, " +
+                    "status TEXT NOT NULL, " +
+                    "submitted_at INTEGER NOT NULL, " +
+                    "started_at INTEGER, " +
+                    "completed_at INTEGER, " +
+                    "output_file TEXT, " +
+                    "size INTEGER NOT NULL DEFAULT 0, " +
+                    "error TEXT)");
+            }
+        } catch (SQLException e) {
+            throw new JobStoreException("Failed to open job store " + databaseFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void save(ReportJob job) {
+        try (PreparedStatement statement = connection.prepareStatement(
+            "INSERT OR REPLACE INTO report_jobs (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            statement.setString(1, job.getId());
+            statement.setString(2, job.getReportPath());
+            statement.setString(3, job.getOutputType().name());
+            statement.setString(4, job.getStatus().name());
+            statement.setLong(5, job.getSubmittedAt().toEpochMilli());
+            setInstant(statement, 6, job.getStartedAt());
+            setInstant(statement, 7, job.getCompletedAt());
+            statement.setString(8, job.getOutputFile());
+            statement.setLong(9, job.getSize());
+            statement.setString(10, job.getError());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new JobStoreException("Failed to save job " + job.getId(), e);
+        }
+    }
+
+    @Override
+    public synchronized Optional<ReportJob> find(String id) {
+        List<ReportJob> jobs = query("SELECT " + COLUMNS + " FROM report_jobs WHERE id = ?", id);
+        return jobs.stream().findFirst();
+    }
+
+    @Override
+    public synchronized List<ReportJob> findUnfinished() {
+        return query("SELECT " + COLUMNS + " FROM report_jobs WHERE status IN (?, ?)",
+            ReportJob.Status.QUEUED.name(), ReportJob.Status.RUNNING.name());
+    }
+
+    @Override
+    public synchronized List<ReportJob> findFinishedBefore(Instant time) {
+        return query("SELECT " + COLUMNS + " FROM report_jobs WHERE status IN (?, ?) AND completed_at < ?",
+            ReportJob.Status.SUCCEEDED.name(), ReportJob.Status.FAILED.name(), time.toEpochMilli());
+    }
+
+    @Override
+    public synchronized void delete(String id) {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM report_jobs WHERE id = ?")) {
+            statement.setString(1, id);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new JobStoreException("Failed to delete job " + id, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new JobStoreException("Failed to close job store", e);
+        }
+    }
+
+    private List<ReportJob> query(String sql, Object... args) {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            final List<ReportJob> jobs = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    jobs.add(toJob(rs));
+                }
+            }
+            return jobs;
+        } catch (SQLException e) {
+            throw new JobStoreException("Failed to query jobs", e);
+        }
+    }
+
+    private static ReportJob toJob(ResultSet rs) throws SQLException {
+        ReportJob job = new ReportJob(
+            rs.getString("id"),
+            rs.getString("report_path"),
+            OutputType.valueOf(rs.getString("output_type")),
+            Instant.ofEpochMilli(rs.getLong("submitted_at")));
+        job.setStatus(ReportJob.Status.valueOf(rs.getString("status")));
+        job.setStartedAt(getInstant(rs, "started_at"));
+        job.setCompletedAt(getInstant(rs, "completed_at"));
+        job.setOutputFile(rs.getString("output_file"));
+        job.setSize(rs.getLong("size"));
+        job.setError(rs.getString("error"));
+        return job;
+    }
+
+    private static void setInstant(PreparedStatement statement, int index, Instant instant) throws SQLException {
+        if (instant == null) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setLong(index, instant.toEpochMilli());
+        }
+    }
+
+    private static Instant getInstant(ResultSet rs, String column) throws SQLException {
+        long millis = rs.getLong(column);
+        return rs.wasNull() ? null : Instant.ofEpochMilli(millis);
+    }
+}
@@ -83,7 +83,7 @@ public class OpenAPISchemaGenerator {
         reportConfig.outputTypes().forEach(outputType -> {
             MediaType mediaType = new MediaType();
             Schema schema = new Schema();
-            if (outputType == OutputType.PDF) {
+            if (outputType == OutputType.PDF || outputType == OutputType.XLSX) {
                 schema.setType("binary");
             } else {
                 schema.setType("string");
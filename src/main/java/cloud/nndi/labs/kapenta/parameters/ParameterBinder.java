@@ -0,0 +1,309 @@
+package cloud.nndi.labs.kapenta.parameters;
+
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+
+/**
+ * Maps the query parameters of a request to the parameters of a report.
+ *
+ * A binder is compiled once for a {@link ReportDefinition}: each parameter gets a
+ * converter for its type and parameters are looked up by name, ignoring case, in a
+ * hash map. Binding a request converts its query parameters and checks that the
+ * required parameters are present in a single pass, values that cannot be converted
+ * are reported as errors instead of throwing.
+ *
+ * Query parameters the report does not define are passed on as strings. Dates are
+ * given as <code>yyyy-MM-dd</code> and converted to the start of the day in the
+ * binder's time zone.
+ */
+public final class ParameterBinder {
+
+    /**
+     * Converts the value of a query parameter
+     */
+    @FunctionalInterface
+    interface Converter {
+        /**
+         * @param value the value of the query parameter
+         * @return the converted value, null if the value is not valid
+         */
+        Object convert(String value);
+    }
+
+    private static final ParameterBinder EMPTY = new ParameterBinder(Collections.emptyMap(), new Slot[0]);
+
+    private final Map<String, Slot> slots;
+
+    private final Slot[] required;
+
+    private ParameterBinder(Map<String, Slot> slots, Slot[] required) {
+        this.slots = slots;
+        this.required = required;
+    }
+
+    /**
+     * Compile a binder for the parameters of the report
+     *
+     * @param reportDefinition the report
+     * @param zoneId time zone dates are converted in
+     * @return the binder
+     */
+    public static ParameterBinder compile(ReportDefinition reportDefinition, ZoneId zoneId) {
+        Objects.requireNonNull(reportDefinition, "reportDefinition");
+        Objects.requireNonNull(zoneId, "zoneId");
+        if (!reportDefinition.hasParameters()) {
+            return EMPTY;
+        }
+
+        final Map<String, Slot> slots = new HashMap<>();
+        final List<Slot> required = new ArrayList<>();
+        for (ParameterDefinition parameter: reportDefinition.getParameters()) {
+            final Slot slot = new Slot(slots.size(), parameter, converterFor(parameter.getType(), zoneId));
+            // Like the linear lookup it replaces, the first definition of a name wins
+            if (Objects.isNull(slots.putIfAbsent(key(parameter.getName()), slot))) {
+                if (parameter.isMandatory()) {
+                    required.add(slot);
+                }
+            }
+        }
+        // Missing parameters are listed by name
+        required.sort(Comparator.comparing(slot -> slot.name));
+        return new ParameterBinder(Collections.unmodifiableMap(slots), required.toArray(new Slot[0]));
+    }
+
+    /**
+     * Bind the query parameters of a request
+     *
+     * @param queryParams the query parameters and their values, the first value of each is used
+     * @return the report parameters and any errors
+     */
+    public Binding bind(Map<String, List<String>> queryParams) {
+        if (slots.isEmpty()) {
+            return Binding.EMPTY;
+        }
+
+        final Map<String, Object> parameters = new HashMap<>(queryParams.size() * 2);
+        final boolean[] present = new boolean[slots.size()];
+        List<String> invalid = null;
+        for (Map.Entry<String, List<String>> entry: queryParams.entrySet()) {
+            final List<String> values = entry.getValue();
+            final String value = Objects.isNull(values) || values.isEmpty() ? null : values.get(0);
+            final Slot slot = slots.get(key(entry.getKey()));
+            if (Objects.isNull(slot)) {
+                parameters.put(entry.getKey(), value);
+                continue;
+            }
+            if (Objects.isNull(value)) {
+                continue;
+            }
+            present[slot.index] = true;
+            final Object converted = slot.converter.convert(value);
+            if (Objects.isNull(converted)) {
+                if (Objects.isNull(invalid)) {
+                    invalid = new ArrayList<>();
+                }
+                invalid.add(String.format("%s must be a %s but was '%s'", slot.name, slot.typeName, value));
+                continue;
+            }
+            parameters.put(slot.name, converted);
+        }
+
+        StringJoiner missing = null;
+        for (Slot slot: required) {
+            if (!present[slot.index]) {
+                if (Objects.isNull(missing)) {
+                    missing = new StringJoiner(",");
+                }
+                missing.add(slot.name);
+            }
+        }
+        return new Binding(parameters,
+            Objects.isNull(missing) ? null : missing.toString(),
+            Objects.isNull(invalid) ? Collections.emptyList() : invalid);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    static Converter converterFor(Class<?> type, ZoneId zoneId) {
+        if (type == Long.class) {
+            return ParameterBinder::toLong;
+        }
+        if (type == Integer.class || type == Number.class) {
+            return ParameterBinder::toInteger;
+        }
+        if (type == Boolean.class) {
+            return ParameterBinder::toBoolean;
+        }
+        if (type == Timestamp.class) {
+            return value -> {
+                LocalDate date = toLocalDate(value);
+                return Objects.isNull(date) ? null : Timestamp.from(date.atStartOfDay(zoneId).toInstant());
+            };
+        }
+        if (type == java.sql.Date.class) {
+            return value -> {
+                LocalDate date = toLocalDate(value);
+                return Objects.isNull(date) ? null : new java.sql.Date(date.atStartOfDay(zoneId).toInstant().toEpochMilli());
+            };
+        }
+        if (type == Date.class) {
+            return value -> {
+                LocalDate date = toLocalDate(value);
+                return Objects.isNull(date) ? null : Date.from(date.atStartOfDay(zoneId).toInstant());
+            };
+        }
+        return value -> value;
+    }
+
+    private static Long toLong(String value) {
+        final int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i = 1;
+        }
+        if (i == length) {
+            return null;
+        }
+        // Accumulated as a negative number so Long.MIN_VALUE fits
+        long result = 0;
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        for (; i < length; i++) {
+            final int digit = Character.digit(value.charAt(i), 10);
+            if (digit < 0 || result < (limit + digit) / 10) {
+                return null;
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static Integer toInteger(String value) {
+        final Long result = toLong(value);
+        if (Objects.isNull(result) || result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            return null;
+        }
+        return result.intValue();
+    }
+
+    private static Boolean toBoolean(String value) {
+        if ("true".equalsIgnoreCase(value)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Parse a yyyy-MM-dd date
+     */
+    private static LocalDate toLocalDate(String value) {
+        if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return null;
+        }
+        final int year = digits(value, 0, 4);
+        final int month = digits(value, 5, 7);
+        final int day = digits(value, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1) {
+            return null;
+        }
+        final LocalDate firstOfMonth = LocalDate.of(year, month, 1);
+        if (day > firstOfMonth.lengthOfMonth()) {
+            return null;
+        }
+        return firstOfMonth.withDayOfMonth(day);
+    }
+
+    private static int digits(String value, int from, int to) {
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static final class Slot {
+        final int index;
+        final String name;
+        final String typeName;
+        final Converter converter;
+
+        Slot(int index, ParameterDefinition parameter, Converter converter) {
+            this.index = index;
+            this.name = parameter.getName();
+            this.typeName = Objects.isNull(parameter.getType()) ? "value" : parameter.getType().getSimpleName();
+            this.converter = converter;
+        }
+    }
+
+    /**
+     * The report parameters bound from a request
+     */
+    public static final class Binding {
+        private static final Binding EMPTY = new Binding(Collections.emptyMap(), null, Collections.emptyList());
+
+        private final Map<String, Object> parameters;
+
+        private final String missingRequired;
+
+        private final List<String> invalid;
+
+        private Binding(Map<String, Object> parameters, String missingRequired, List<String> invalid) {
+            this.parameters = parameters;
+            this.missingRequired = missingRequired;
+            this.invalid = invalid;
+        }
+
+        /**
+         * The report parameters, keyed on the names the report defines them with
+         *
+         * @return
+         */
+        public Map<String, Object> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Describes the required parameters that are missing from the request, if any
+         *
+         * @return
+         */
+        public Optional<String> missingRequired() {
+            return Objects.isNull(missingRequired)
+                ? Optional.empty()
+                : Optional.of(String.format("The following required parameters not provided: %s", missingRequired));
+        }
+
+        /**
+         * Describes the parameters whose values could not be converted, if any
+         *
+         * @return
+         */
+        public Optional<String> invalid() {
+            return invalid.isEmpty() ? Optional.empty() : Optional.of(String.join("; ", invalid));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package cloud.nndi.labs.kapenta.parameters;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads sets of report parameters given as JSON objects, e.g. the lines of a newline
+ * delimited JSON file, so they can be bound like query parameters with a
+ * {@link ParameterBinder}.
+ */
+public final class ParameterSets {
+
+    private ParameterSets() {
+    }
+
+    /**
+     * Maps a JSON object of parameter names and values to query parameters. Values are
+     * used as strings, null values are left out.
+     *
+     * @param json the parameter set
+     * @return the parameters and their values
+     * @throws IllegalArgumentException if the JSON is not an object or a value is an object or array
+     */
+    public static Map<String, List<String>> toQueryParams(JsonNode json) {
+        if (!json.isObject()) {
+            throw new IllegalArgumentException("Item must be a JSON object of parameter names and values");
+        }
+
+        final Map<String, List<String>> queryParams = new LinkedHashMap<>();
+        final Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isNull()) {
+                continue;
+            }
+            if (!field.getValue().isValueNode()) {
+                throw new IllegalArgumentException(String.format("Invalid parameters. %s must be a single value", field.getKey()));
+            }
+            queryParams.put(field.getKey(), Collections.singletonList(field.getValue().asText()));
+        }
+        return queryParams;
+    }
+}
@@ -2,6 +2,11 @@ package cloud.nndi.labs.kapenta.pentaho;
 
 import cloud.nndi.labs.kapenta.OutputType;
 import cloud.nndi.labs.kapenta.config.Database;
+import cloud.nndi.labs.kapenta.config.TemplateCache;
+import cloud.nndi.labs.kapenta.pentaho.sql.QueryCacheVisitor;
+import cloud.nndi.labs.kapenta.pentaho.sql.QueryExport;
+import cloud.nndi.labs.kapenta.pentaho.sql.QueryPrefetcher;
+import cloud.nndi.labs.kapenta.pentaho.sql.QueryTimingVisitor;
 import cloud.nndi.labs.kapenta.pentaho.sql.SqlDataSourceVisitor;
 import org.apache.commons.io.FilenameUtils;
 import org.pentaho.reporting.engine.classic.core.MasterReport;
@@ -9,16 +14,19 @@ import org.pentaho.reporting.engine.classic.core.modules.output.pageable.pdf.Pdf
 import org.pentaho.reporting.engine.classic.core.modules.output.pageable.plaintext.PlainTextReportUtil;
 import org.pentaho.reporting.engine.classic.core.modules.output.table.html.HtmlReportUtil;
 import org.pentaho.reporting.engine.classic.core.util.ReportParameterValues;
-import org.pentaho.reporting.libraries.resourceloader.Resource;
 import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 
 /**
  * Pentaho Report Generator
@@ -30,9 +38,33 @@ public final class Generator {
 
     static final ResourceManager resourceManager;
 
+    private static volatile ReportTemplateCache templateCache;
+
     static {
         resourceManager = new ResourceManager();
         resourceManager.registerDefaults();
+        templateCache = new ReportTemplateCache(resourceManager, new TemplateCache());
+    }
+
+    /**
+     * Replaces the template cache used by the generator with one built from the given configuration
+     *
+     * @param configuration template cache configuration
+     */
+    public static void configureTemplateCache(TemplateCache configuration) {
+        Objects.requireNonNull(configuration, "configuration");
+        ReportTemplateCache previous = templateCache;
+        templateCache = new ReportTemplateCache(resourceManager, configuration);
+        previous.invalidateAll();
+    }
+
+    /**
+     * The cache of parsed report templates used when generating reports
+     *
+     * @return the template cache
+     */
+    public static ReportTemplateCache templateCache() {
+        return templateCache;
     }
 
     /**
@@ -41,7 +73,7 @@ public final class Generator {
      * @param reportFileName the path to the `.prpt` report file and it must not be in a zipped folder or
      * anything. Just something on the file system that you have read-permissions to.
      * @param parameters values for the parameters that the report accepts/requires
-     * @param outputType The output type of the report. Either HTML, PDF, TXT. Defaults to HTML
+     * @param outputType The output type of the report. Either HTML, PDF, TXT, or CSV, NDJSON and XLSX for the rows of the main query. Defaults to HTML
      * @param outputStream the output stream to write the generated report to
      * @throws GeneratorException Wraps exceptions thrown while trying to produce the report. Use {@linkplain Exception#getCause} to get actual exception
      */
@@ -49,76 +81,169 @@ public final class Generator {
                                       Map<String, Object> parameters,
                                       OutputType outputType,
                                       OutputStream outputStream) throws GeneratorException {
-        Path filePath = Paths.get(reportFileName);
-        try {
-            URL url = filePath.toUri().toURL();
-
-            final Resource resource = resourceManager.createDirectly(url, MasterReport.class);
-
-            LOGGER.debug("Loaded resource: {}", resource.getSource());
+        generate(reportFileName, Paths.get(reportFileName), parameters, outputType, outputStream, RenderOptions.defaults());
+    }
 
-            // We finally have the pentaho report instance
-            final MasterReport masterReport = (MasterReport) resource.getResource();
+    public static void generateReport(String reportFileName,
+                                      Map<String, Object> parameters,
+                                      OutputType outputType,
+                                      OutputStream outputStream,
+                                      Database database) throws GeneratorException {
+        generate(reportFileName, Paths.get(FilenameUtils.getName(reportFileName)), parameters, outputType, outputStream,
+            RenderOptions.defaults().withDatabase(database));
+    }
 
-            ReportParameterValues params = masterReport.getParameterValues();
+    /**
+     * Generates a report and outputs it to the given outputStream.
+     *
+     * @param reportFileName the path to the `.prpt` report file
+     * @param parameters values for the parameters that the report accepts/requires
+     * @param outputType The output type of the report. Either HTML, PDF, TXT, or CSV, NDJSON and XLSX for the rows of the main query. Defaults to HTML
+     * @param outputStream the output stream to write the generated report to
+     * @param options the database, query cache and prefetch settings to fetch the report's data with
+     * @throws GeneratorException Wraps exceptions thrown while trying to produce the report. Use {@linkplain Exception#getCause} to get actual exception
+     */
+    public static void generateReport(String reportFileName,
+                                      Map<String, Object> parameters,
+                                      OutputType outputType,
+                                      OutputStream outputStream,
+                                      RenderOptions options) throws GeneratorException {
+        generate(reportFileName, Paths.get(reportFileName), parameters, outputType, outputStream, options);
+    }
 
-            parameters.forEach(params::put);
+    /**
+     * Loads the report template and points its data sources at the database once, for
+     * rendering the report many times with different parameters.
+     *
+     * @param reportFileName the path to the `.prpt` report file
+     * @param options the database, query cache and prefetch settings to fetch the report's data with
+     * @return the prepared report
+     * @throws GeneratorException Wraps exceptions thrown while loading the report
+     */
+    public static PreparedReport prepare(String reportFileName, RenderOptions options) throws GeneratorException {
+        final Path filePath = Paths.get(reportFileName);
+        try {
+            final MasterReport masterReport = templateCache.get(filePath);
+            configureDataSources(masterReport, filePath, options);
+            return new PreparedReport(FilenameUtils.getBaseName(reportFileName), masterReport, options);
+        } catch (Exception e) {
+            throw new GeneratorException("Failed to prepare report", e);
+        }
+    }
 
-            // Defaults to HTML output
-            switch (outputType) {
-                case TXT:
-                    PlainTextReportUtil.createPlainText(masterReport, outputStream);
-                    break;
-                case PDF:
-                    PdfReportUtil.createPDF(masterReport, outputStream);
-                    break;
-                case HTML:
-                default:
-                    HtmlReportUtil.createStreamHTML(masterReport, outputStream);
-            }
+    private static void generate(String reportFileName,
+                                 Path filePath,
+                                 Map<String, Object> parameters,
+                                 OutputType outputType,
+                                 OutputStream outputStream,
+                                 RenderOptions options) throws GeneratorException {
+        final String reportName = FilenameUtils.getBaseName(reportFileName);
+        final RenderPhases phases = RenderPhases.start(reportName, outputType);
+        boolean failed = true;
+        try (RenderCancellation.Scope cancellation = RenderCancellation.enter(reportName, options.getTimeouts())) {
+            // We get our own copy of the pentaho report instance from the cache
+            long start = System.nanoTime();
+            final MasterReport masterReport = templateCache.get(filePath);
+            RenderPhases.record(RenderPhases.Phase.TEMPLATE_LOAD, System.nanoTime() - start);
+            checkCancelled();
+
+            start = System.nanoTime();
+            configureDataSources(masterReport, filePath, options);
+            RenderPhases.record(RenderPhases.Phase.DATASOURCE, System.nanoTime() - start);
+
+            write(masterReport, parameters, outputType, outputStream, options);
+            failed = false;
         } catch (Exception e) {
             throw new GeneratorException("Failed to generate report", e);
+        } finally {
+            phases.finish(failed);
         }
     }
 
-    public static void generateReport(String reportFileName,
-                                      Map<String, Object> parameters,
-                                      OutputType outputType,
-                                      OutputStream outputStream,
-                                      Database database) throws GeneratorException {
-        Path filePath = Paths.get(FilenameUtils.getName(reportFileName));
-        try {
-            URL url = filePath.toUri().toURL();
+    /**
+     * Points the report's SQL data sources at the configured database and wraps them
+     * to time queries and cache their results. The connection pools are owned by the options.
+     */
+    private static void configureDataSources(MasterReport masterReport, Path filePath, RenderOptions options) throws IOException {
+        if (options.getDatabase().isPresent()) {
+            SqlDataSourceVisitor sqlDataSourceVisitor = new SqlDataSourceVisitor(options.getDatabase().get(), options);
+
+            sqlDataSourceVisitor.visit(masterReport);
+        }
+        new QueryTimingVisitor().visit(masterReport);
+        if (options.getQueryCache().isPresent()) {
+            new QueryCacheVisitor(options.getQueryCache().get(), templateVersion(filePath)).visit(masterReport);
+        }
+    }
 
-            final Resource resource = resourceManager.createDirectly(url, MasterReport.class);
+    /**
+     * Sets the parameters of a report whose data sources are configured and writes it to the output stream
+     */
+    static void write(MasterReport masterReport,
+                      Map<String, Object> parameters,
+                      OutputType outputType,
+                      OutputStream outputStream,
+                      RenderOptions options) throws Exception {
+        ReportParameterValues params = masterReport.getParameterValues();
+
+        parameters.forEach(params::put);
+
+        // The render may have been cancelled while it waited for a slot
+        final RenderCancellation cancellation = RenderCancellation.current().orElse(null);
+        if (Objects.nonNull(cancellation)) {
+            cancellation.check();
+        }
 
-            LOGGER.debug("Loaded resource: {}", resource.getSource());
+        final OutputStream timedOutputStream = RenderPhases.timed(
+            Objects.isNull(cancellation) ? outputStream : cancellation.checked(outputStream),
+            RenderPhases.Phase.OUTPUT_WRITE);
+        if (QueryExport.supports(outputType)) {
+            // Data exports only run the main query, there is no layout to prefetch for
+            QueryExport.write(masterReport, parameters, outputType, timedOutputStream);
+            timedOutputStream.flush();
+            return;
+        }
 
-            // We finally have the pentaho report instance
-            final MasterReport masterReport = (MasterReport) resource.getResource();
+        if (options.getPrefetch().isPresent()) {
+            final long start = System.nanoTime();
+            QueryPrefetcher.prefetch(masterReport, parameters, options.getPrefetch().get().getMaxParallelQueries());
+            RenderPhases.record(RenderPhases.Phase.QUERY, System.nanoTime() - start);
+            checkCancelled();
+        }
 
-            SqlDataSourceVisitor sqlDataSourceVisitor = new SqlDataSourceVisitor(database.getUri());
+        render(masterReport, outputType, timedOutputStream);
+        timedOutputStream.flush();
+    }
 
-            sqlDataSourceVisitor.visit(masterReport);
+    /**
+     * Stop between the phases of a render that has been cancelled, or whose client has gone away
+     */
+    private static void checkCancelled() throws RenderCancelledException {
+        final Optional<RenderCancellation> cancellation = RenderCancellation.current();
+        if (cancellation.isPresent()) {
+            cancellation.get().check();
+        }
+    }
 
-            ReportParameterValues params = masterReport.getParameterValues();
-
-            parameters.forEach(params::put);
-
-            // Defaults to HTML output
-            switch (outputType) {
-                case TXT:
-                    PlainTextReportUtil.createPlainText(masterReport, outputStream);
-                    break;
-                case PDF:
-                    PdfReportUtil.createPDF(masterReport, outputStream);
-                    break;
-                case HTML:
-                default:
-                    HtmlReportUtil.createStreamHTML(masterReport, outputStream);
-            }
-        } catch (Exception e) {
-            throw new GeneratorException("Failed to generate report", e);
+    private static String templateVersion(Path filePath) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        return filePath.toAbsolutePath() + "@" + attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+    }
+
+    private static void render(MasterReport masterReport,
+                               OutputType outputType,
+                               OutputStream outputStream) throws Exception {
+        // Defaults to HTML output
+        switch (outputType) {
+            case TXT:
+                PlainTextReportUtil.createPlainText(masterReport, outputStream);
+                break;
+            case PDF:
+                PdfReportUtil.createPDF(masterReport, outputStream);
+                break;
+            case HTML:
+            default:
+                HtmlReportUtil.createStreamHTML(masterReport, outputStream);
         }
     }
 }
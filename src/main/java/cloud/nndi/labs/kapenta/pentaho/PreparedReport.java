@@ -0,0 +1,64 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A report template that has been loaded and had its data sources configured, ready to
+ * be rendered many times with different parameters.
+ *
+ * Each render works on its own copy of the template, so a prepared report may be
+ * rendered from several threads at a time. Connections come from the shared pools
+ * of the configured database.
+ *
+ * @see Generator#prepare(String, RenderOptions)
+ */
+public final class PreparedReport {
+
+    private final String name;
+
+    private final MasterReport template;
+
+    private final RenderOptions options;
+
+    PreparedReport(String name, MasterReport template, RenderOptions options) {
+        this.name = Objects.requireNonNull(name, "name");
+        this.template = Objects.requireNonNull(template, "template");
+        this.options = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Generates the report and outputs it to the given outputStream.
+     *
+     * @param parameters values for the parameters that the report accepts/requires
+     * @param outputType The output type of the report
+     * @param outputStream the output stream to write the generated report to
+     * @throws GeneratorException Wraps exceptions thrown while trying to produce the report. Use {@linkplain Exception#getCause} to get actual exception
+     */
+    public void generate(Map<String, Object> parameters,
+                         OutputType outputType,
+                         OutputStream outputStream) throws GeneratorException {
+        final RenderPhases phases = RenderPhases.start(name, outputType);
+        boolean failed = true;
+        try (RenderCancellation.Scope cancellation = RenderCancellation.enter(name, options.getTimeouts())) {
+            long start = System.nanoTime();
+            final MasterReport masterReport = (MasterReport) template.clone();
+            RenderPhases.record(RenderPhases.Phase.TEMPLATE_LOAD, System.nanoTime() - start);
+
+            Generator.write(masterReport, parameters, outputType, outputStream, options);
+            failed = false;
+        } catch (Exception e) {
+            throw new GeneratorException("Failed to generate report", e);
+        } finally {
+            phases.finish(failed);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+}
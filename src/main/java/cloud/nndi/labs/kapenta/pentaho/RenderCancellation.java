@@ -0,0 +1,403 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.config.Timeouts;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stops a render that is no longer wanted, because its client went away or it took
+ * longer than its deadline.
+ *
+ * Pentaho runs the queries, the layout and the writing of the output inside a single
+ * call that can't be interrupted, so a cancelled render is stopped where it reaches
+ * Kapenta's code: the statements it is running are cancelled with
+ * {@link Statement#cancel()}, and its next query, row fetch or write fails. Queries are
+ * given a timeout of the report's <code>queryTimeoutSeconds</code>, or the time left
+ * until the deadline if that is sooner.
+ *
+ * A client that disconnects is noticed when a write to it fails, see
+ * {@link #cancelOnWriteFailure(OutputStream)}, or when the connection is seen to be
+ * closed, see {@link #watchConnection(BooleanSupplier)}. The connection is checked
+ * whenever the render checks for cancellation, before each query, row fetch and write,
+ * and every {@link #CONNECTION_CHECK_MILLIS} milliseconds so that a render blocked in a
+ * long query has the query cancelled.
+ *
+ * Deadlines and connection checks run on a small pool of threads so that a statement
+ * that is slow to cancel doesn't hold up the cancellation of other renders.
+ *
+ * The cancellation is bound to the threads the render runs on with {@link #bind()}.
+ * Cancelled renders are counted in the <code>kapenta.render.cancelled</code> counter
+ * tagged with the report and the reason.
+ */
+public final class RenderCancellation implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RenderCancellation.class);
+
+    public enum Reason {
+        CLIENT_DISCONNECTED,
+        DEADLINE_EXCEEDED,
+        QUERY_TIMEOUT;
+
+        public String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final ThreadLocal<RenderCancellation> CURRENT = new ThreadLocal<>();
+
+    static final long CONNECTION_CHECK_MILLIS = 1000;
+
+    private static final ScheduledThreadPoolExecutor DEADLINES = deadlines();
+
+    private final String report;
+
+    private final int queryTimeoutSeconds;
+
+    /**
+     * {@link System#nanoTime()} at which the render is cancelled, 0 for no deadline
+     */
+    private final long deadlineNanos;
+
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+
+    private final AtomicReference<Reason> reason = new AtomicReference<>();
+
+    private final ScheduledFuture<?> deadline;
+
+    private volatile BooleanSupplier connected;
+
+    private volatile ScheduledFuture<?> connectionCheck;
+
+    private volatile boolean closed = false;
+
+    private RenderCancellation(String report, Timeouts timeouts) {
+        this.report = report;
+        this.queryTimeoutSeconds = Math.max(0, timeouts.getQueryTimeoutSeconds());
+        if (timeouts.getRenderTimeoutSeconds() > 0) {
+            this.deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeouts.getRenderTimeoutSeconds());
+            this.deadline = DEADLINES.schedule(() -> cancel(Reason.DEADLINE_EXCEEDED), timeouts.getRenderTimeoutSeconds(), TimeUnit.SECONDS);
+        } else {
+            this.deadlineNanos = 0;
+            this.deadline = null;
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor deadlines() {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+            new ThreadFactoryBuilder()
+                .setNameFormat("kapenta-render-deadline-%d")
+                .setDaemon(true)
+                .build());
+        // Renders that finish before their deadline don't leave it queued until it passes
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Start the deadline of a render, the render must {@link #close()} it when it is done
+     *
+     * @param report name of the report
+     * @param timeouts query and render timeouts of the report
+     * @return the cancellation of the render
+     */
+    public static RenderCancellation start(String report, Timeouts timeouts) {
+        return new RenderCancellation(Objects.requireNonNull(report, "report"), Objects.requireNonNull(timeouts, "timeouts"));
+    }
+
+    /**
+     * Start the deadline of a render on the current thread, unless a cancellation is already bound to it
+     *
+     * @param report name of the report
+     * @param timeouts query and render timeouts of the report
+     * @return a scope that ends the render when closed
+     */
+    static Scope enter(String report, Timeouts timeouts) {
+        if (current().isPresent()) {
+            return () -> { };
+        }
+        final RenderCancellation cancellation = start(report, timeouts);
+        final Scope scope = cancellation.bind();
+        return () -> {
+            scope.close();
+            cancellation.close();
+        };
+    }
+
+    /**
+     * The cancellation of the render in progress on the current thread
+     *
+     * @return the cancellation, empty if no render is in progress
+     */
+    public static Optional<RenderCancellation> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * Bind the cancellation to the current thread so the queries and writes of the render see it
+     *
+     * @return a scope that restores what was bound before when closed
+     */
+    public Scope bind() {
+        final RenderCancellation previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (Objects.isNull(previous)) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Cancel the render, the statements it is running are cancelled
+     *
+     * @param reason why the render is cancelled
+     * @return true if the render was cancelled by this call, false if it was already cancelled or is done
+     */
+    public boolean cancel(Reason reason) {
+        if (closed || !this.reason.compareAndSet(null, Objects.requireNonNull(reason, "reason"))) {
+            return false;
+        }
+        LOGGER.warn("Cancelling render of {}: {}", report, reason.tag());
+        Counter.builder("kapenta.render.cancelled")
+            .description("Number of renders stopped because the client disconnected or they took too long")
+            .tag("report", report)
+            .tag("reason", reason.tag())
+            .register(Metrics.globalRegistry)
+            .increment();
+        for (Statement statement: statements) {
+            try {
+                statement.cancel();
+            } catch (SQLException | RuntimeException e) {
+                LOGGER.debug("Failed to cancel a statement of {}", report, e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return why the render was cancelled, empty if it wasn't
+     */
+    public Optional<Reason> reason() {
+        return Optional.ofNullable(reason.get());
+    }
+
+    public boolean isCancelled() {
+        return Objects.nonNull(reason.get());
+    }
+
+    /**
+     * Cancel the render when the connection to its client is closed. Only renders whose
+     * output goes to a single client should watch its connection.
+     *
+     * @param connected whether the connection to the client is still open
+     */
+    public void watchConnection(BooleanSupplier connected) {
+        if (closed || Objects.nonNull(this.connected)) {
+            return;
+        }
+        this.connected = Objects.requireNonNull(connected, "connected");
+        this.connectionCheck = DEADLINES.scheduleWithFixedDelay(this::checkConnection,
+            CONNECTION_CHECK_MILLIS, CONNECTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        if (closed) {
+            connectionCheck.cancel(false);
+        }
+    }
+
+    private void checkConnection() {
+        final BooleanSupplier watched = connected;
+        if (Objects.nonNull(watched) && !closed && !isCancelled() && !watched.getAsBoolean()) {
+            cancel(Reason.CLIENT_DISCONNECTED);
+        }
+    }
+
+    /**
+     * @throws RenderCancelledException if the render was cancelled
+     */
+    public void check() throws RenderCancelledException {
+        checkConnection();
+        final Reason cancelled = reason.get();
+        if (Objects.nonNull(cancelled)) {
+            throw new RenderCancelledException(report, cancelled);
+        }
+    }
+
+    /**
+     * The timeout to give the next query of the render
+     *
+     * @return the timeout in seconds, 0 for no timeout
+     */
+    public int queryTimeoutSeconds() {
+        if (deadlineNanos == 0) {
+            return queryTimeoutSeconds;
+        }
+        // Rounded up so a query isn't given a timeout of 0, which is no timeout
+        final long remaining = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(deadlineNanos - System.nanoTime() + 999_999_999L));
+        return queryTimeoutSeconds == 0 ? (int) Math.min(remaining, Integer.MAX_VALUE) : (int) Math.min(remaining, queryTimeoutSeconds);
+    }
+
+    /**
+     * Time left until the deadline of the render
+     *
+     * @return the time left in nanoseconds, {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public long remainingNanos() {
+        return deadlineNanos == 0 ? Long.MAX_VALUE : Math.max(0, deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * A query of the render timed out, the render is cancelled because of the deadline
+     * if it has passed or because of the query timeout otherwise
+     */
+    public void queryTimedOut() {
+        cancel(deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0 ? Reason.DEADLINE_EXCEEDED : Reason.QUERY_TIMEOUT);
+    }
+
+    /**
+     * Register a statement of the render to be cancelled with it
+     *
+     * @param statement the statement
+     */
+    public void register(Statement statement) {
+        if (!closed) {
+            statements.add(statement);
+        }
+    }
+
+    /**
+     * @param statement a statement of the render that has been closed
+     */
+    public void unregister(Statement statement) {
+        statements.remove(statement);
+    }
+
+    /**
+     * Wrap an output stream so that writing to it fails once the render is cancelled
+     *
+     * @param outputStream the output stream
+     * @return the wrapped output stream
+     */
+    public OutputStream checked(OutputStream outputStream) {
+        return new CheckedOutputStream(outputStream, this);
+    }
+
+    /**
+     * Wrap the output stream to the client so that the render is cancelled when writing to it
+     * fails, which is how a client that has disconnected is noticed
+     *
+     * @param outputStream the output stream to the client
+     * @return the wrapped output stream
+     */
+    public OutputStream cancelOnWriteFailure(OutputStream outputStream) {
+        return new DisconnectAwareOutputStream(outputStream, this);
+    }
+
+    /**
+     * The render is done, cancelling it has no effect anymore
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (Objects.nonNull(deadline)) {
+            deadline.cancel(false);
+        }
+        if (Objects.nonNull(connectionCheck)) {
+            connectionCheck.cancel(false);
+        }
+        statements.clear();
+    }
+
+    /**
+     * The cancellation being bound to a thread
+     */
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class DisconnectAwareOutputStream extends FilterOutputStream {
+        private final RenderCancellation cancellation;
+
+        DisconnectAwareOutputStream(OutputStream out, RenderCancellation cancellation) {
+            super(Objects.requireNonNull(out, "out"));
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                cancellation.cancel(Reason.CLIENT_DISCONNECTED);
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                cancellation.cancel(Reason.CLIENT_DISCONNECTED);
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                cancellation.cancel(Reason.CLIENT_DISCONNECTED);
+                throw e;
+            }
+        }
+    }
+
+    private static final class CheckedOutputStream extends FilterOutputStream {
+        private final RenderCancellation cancellation;
+
+        CheckedOutputStream(OutputStream out, RenderCancellation cancellation) {
+            super(Objects.requireNonNull(out, "out"));
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            cancellation.check();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            cancellation.check();
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            cancellation.check();
+            out.flush();
+        }
+    }
+}
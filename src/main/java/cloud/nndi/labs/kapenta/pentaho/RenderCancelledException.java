@@ -0,0 +1,21 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import java.io.IOException;
+
+/**
+ * Thrown where a render reaches Kapenta's code after it has been cancelled.
+ * It is an {@link IOException} so it passes through the output streams Pentaho writes to.
+ */
+public class RenderCancelledException extends IOException {
+
+    private final RenderCancellation.Reason reason;
+
+    public RenderCancelledException(String report, RenderCancellation.Reason reason) {
+        super(String.format("Render of %s was cancelled: %s", report, reason.tag()));
+        this.reason = reason;
+    }
+
+    public RenderCancellation.Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,94 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.cache.QueryResultCache;
+import cloud.nndi.labs.kapenta.config.Database;
+import cloud.nndi.labs.kapenta.config.Prefetch;
+import cloud.nndi.labs.kapenta.config.Timeouts;
+
+import java.util.Optional;
+
+/**
+ * Settings of a report that apply to how its data is fetched when it is rendered.
+ * Instances are immutable, the <code>with</code> methods return a copy.
+ */
+public final class RenderOptions {
+    private static final RenderOptions DEFAULTS = new RenderOptions(null, null, null, null);
+
+    private final Database database;
+
+    private final QueryResultCache queryCache;
+
+    private final Prefetch prefetch;
+
+    private final Timeouts timeouts;
+
+    private RenderOptions(Database database, QueryResultCache queryCache, Prefetch prefetch, Timeouts timeouts) {
+        this.database = database;
+        this.queryCache = queryCache;
+        this.prefetch = prefetch;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Render with the data sources defined in the report and without caching query results
+     *
+     * @return the default options
+     */
+    public static RenderOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @param database database to point the report's SQL data sources at, null for the ones defined in the report
+     * @return a copy of the options with the database
+     */
+    public RenderOptions withDatabase(Database database) {
+        return new RenderOptions(database, queryCache, prefetch, timeouts);
+    }
+
+    /**
+     * @param queryCache cache to reuse the results of the report's queries from, null for no caching
+     * @return a copy of the options with the query cache
+     */
+    public RenderOptions withQueryCache(QueryResultCache queryCache) {
+        return new RenderOptions(database, queryCache, prefetch, timeouts);
+    }
+
+    /**
+     * @param prefetch settings for running the independent queries concurrently before layout, null to not prefetch
+     * @return a copy of the options with the prefetch settings
+     */
+    public RenderOptions withPrefetch(Prefetch prefetch) {
+        return new RenderOptions(database, queryCache, prefetch, timeouts);
+    }
+
+    /**
+     * @param timeouts query and render timeouts, null for no timeouts
+     * @return a copy of the options with the timeouts
+     */
+    public RenderOptions withTimeouts(Timeouts timeouts) {
+        return new RenderOptions(database, queryCache, prefetch, timeouts);
+    }
+
+    public Optional<Database> getDatabase() {
+        return Optional.ofNullable(database);
+    }
+
+    public Optional<QueryResultCache> getQueryCache() {
+        return Optional.ofNullable(queryCache);
+    }
+
+    /**
+     * @return the prefetch settings, empty if prefetching is disabled
+     */
+    public Optional<Prefetch> getPrefetch() {
+        return Optional.ofNullable(prefetch).filter(Prefetch::isEnabled);
+    }
+
+    /**
+     * @return the timeouts, the defaults of {@link Timeouts} if none are configured
+     */
+    public Timeouts getTimeouts() {
+        return Optional.ofNullable(timeouts).orElseGet(Timeouts::new);
+    }
+}
@@ -0,0 +1,203 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of rendering a report.
+ *
+ * Pentaho runs the queries, the layout and the writing of the output inside a single
+ * call so the phases are measured where they happen (the JDBC driver, the output
+ * streams) and added to the render in progress on the current thread. Layout and
+ * pagination is the time of the render that is not accounted for by any other phase.
+ *
+ * When the render finishes each phase is recorded to the <code>kapenta.render.phase</code>
+ * timer tagged with the report, output type and phase.
+ */
+public final class RenderPhases {
+
+    public enum Phase {
+        TEMPLATE_LOAD,
+        DATASOURCE,
+        QUERY,
+        LAYOUT,
+        OUTPUT_WRITE,
+        BACKUP_WRITE;
+
+        public String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final ThreadLocal<RenderPhases> CURRENT = new ThreadLocal<>();
+
+    private final String report;
+
+    private final OutputType outputType;
+
+    private final long startedAt = System.nanoTime();
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    private long bytesWritten = 0;
+
+    private RenderPhases(String report, OutputType outputType) {
+        this.report = report;
+        this.outputType = outputType;
+    }
+
+    /**
+     * Start measuring a render on the current thread
+     *
+     * @param report name of the report
+     * @param outputType output type of the report
+     * @return the render
+     */
+    static RenderPhases start(String report, OutputType outputType) {
+        RenderPhases phases = new RenderPhases(
+            Objects.requireNonNull(report, "report"),
+            Objects.requireNonNull(outputType, "outputType"));
+        CURRENT.set(phases);
+        return phases;
+    }
+
+    /**
+     * Add time spent in a phase to the render in progress on the current thread, if any
+     *
+     * @param phase the phase
+     * @param elapsedNanos time spent in nanoseconds
+     */
+    public static void record(Phase phase, long elapsedNanos) {
+        RenderPhases phases = CURRENT.get();
+        if (phases != null) {
+            phases.nanos[phase.ordinal()] += elapsedNanos;
+        }
+    }
+
+    /**
+     * Wrap an output stream so that time spent writing to it is added to the given phase
+     *
+     * @param outputStream the output stream
+     * @param phase the phase, either {@link Phase#OUTPUT_WRITE} or {@link Phase#BACKUP_WRITE}
+     * @return the wrapped output stream
+     */
+    public static OutputStream timed(OutputStream outputStream, Phase phase) {
+        return new TimedOutputStream(outputStream, phase);
+    }
+
+    /**
+     * Stop measuring the render and record the time spent in each phase
+     *
+     * @param failed whether the render failed
+     */
+    void finish(boolean failed) {
+        CURRENT.remove();
+        final long total = System.nanoTime() - startedAt;
+        final Tags tags = Tags.of("report", report, "output", outputType.name().toLowerCase());
+
+        // Backups are written from inside the writes to the output so they are taken out of the output time
+        final long output = nanos[Phase.OUTPUT_WRITE.ordinal()];
+        final long backup = nanos[Phase.BACKUP_WRITE.ordinal()];
+        nanos[Phase.OUTPUT_WRITE.ordinal()] = Math.max(0, output - backup);
+        nanos[Phase.LAYOUT.ordinal()] = Math.max(0, total
+            - nanos[Phase.TEMPLATE_LOAD.ordinal()]
+            - nanos[Phase.DATASOURCE.ordinal()]
+            - nanos[Phase.QUERY.ordinal()]
+            - output);
+
+        for (Phase phase: Phase.values()) {
+            Timer.builder("kapenta.render.phase")
+                .description("Time spent in each phase of rendering a report")
+                .tags(tags)
+                .tag("phase", phase.tag())
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry)
+                .record(nanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+        }
+
+        Timer.builder("kapenta.render")
+            .description("Time spent rendering a report")
+            .tags(tags)
+            .tag("outcome", failed ? "failure" : "success")
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry)
+            .record(total, TimeUnit.NANOSECONDS);
+
+        Counter.builder("kapenta.render.bytes")
+            .description("Number of bytes of generated reports")
+            .baseUnit("bytes")
+            .tags(tags)
+            .register(Metrics.globalRegistry)
+            .increment(bytesWritten);
+
+        if (failed) {
+            Counter.builder("kapenta.render.failures")
+                .description("Number of reports that failed to render")
+                .tags(tags)
+                .register(Metrics.globalRegistry)
+                .increment();
+        }
+    }
+
+    long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    private static final class TimedOutputStream extends FilterOutputStream {
+        private final Phase phase;
+
+        TimedOutputStream(OutputStream out, Phase phase) {
+            super(Objects.requireNonNull(out, "out"));
+            this.phase = phase;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                out.write(b);
+            } finally {
+                done(start, 1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                out.write(b, off, len);
+            } finally {
+                done(start, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            final long start = System.nanoTime();
+            try {
+                out.flush();
+            } finally {
+                done(start, 0);
+            }
+        }
+
+        private void done(long start, int len) {
+            RenderPhases phases = CURRENT.get();
+            if (phases != null) {
+                phases.nanos[phase.ordinal()] += System.nanoTime() - start;
+                if (phase == Phase.OUTPUT_WRITE) {
+                    phases.bytesWritten += len;
+                }
+            }
+        }
+    }
+}
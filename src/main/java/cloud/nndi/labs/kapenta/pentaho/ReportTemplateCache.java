@@ -0,0 +1,161 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.config.TemplateCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.libraries.resourceloader.Resource;
+import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cache of parsed Pentaho report templates.
+ *
+ * Loading a <code>.prpt</code> file unzips and parses the whole bundle so we
+ * keep one pristine {@link MasterReport} per report file and hand every caller
+ * a deep clone of it. Entries are keyed on the path of the file together with
+ * its size and last modified time, a report file that changes on disk is
+ * therefore loaded again on the next request and the older version is dropped.
+ */
+public final class ReportTemplateCache implements MeterBinder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportTemplateCache.class);
+
+    private final ResourceManager resourceManager;
+
+    private final Cache<TemplateKey, MasterReport> cache;
+
+    private final boolean enabled;
+
+    public ReportTemplateCache(ResourceManager resourceManager, TemplateCache configuration) {
+        Objects.requireNonNull(resourceManager, "resourceManager");
+        Objects.requireNonNull(configuration, "configuration");
+        this.resourceManager = resourceManager;
+        this.enabled = configuration.isEnabled();
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(configuration.getMaximumSize())
+            .expireAfterAccess(configuration.getExpireAfterSeconds(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Get a copy of the report template at the given path. The copy may be
+     * modified by the caller (e.g. parameter values, data sources) without
+     * affecting other callers.
+     *
+     * @param reportFile path to the .prpt file
+     * @return a deep copy of the parsed report template
+     * @throws Exception if the report file cannot be read or parsed
+     */
+    public MasterReport get(Path reportFile) throws Exception {
+        final TemplateKey key = TemplateKey.of(reportFile);
+        if (!enabled) {
+            return load(key);
+        }
+
+        final AtomicBoolean loaded = new AtomicBoolean(false);
+        final MasterReport pristine;
+        try {
+            pristine = cache.get(key, () -> {
+                loaded.set(true);
+                return load(key);
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+
+        if (loaded.get()) {
+            evictOtherVersions(key);
+        }
+        return (MasterReport) pristine.clone();
+    }
+
+    /**
+     * Drop the cached template(s) for the given report file
+     *
+     * @param reportFile path to the .prpt file
+     */
+    public void invalidate(Path reportFile) {
+        final Path path = reportFile.toAbsolutePath().normalize();
+        cache.asMap().keySet().removeIf(k -> k.path.equals(path));
+    }
+
+    /**
+     * Drop all cached templates
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        new GuavaCacheMetrics<>(cache, "kapenta.report.templates", Collections.emptyList())
+            .bindTo(registry);
+    }
+
+    private MasterReport load(TemplateKey key) throws Exception {
+        final Resource resource = resourceManager.createDirectly(key.path.toUri().toURL(), MasterReport.class);
+        LOGGER.debug("Loaded resource: {}", resource.getSource());
+        return (MasterReport) resource.getResource();
+    }
+
+    private void evictOtherVersions(TemplateKey current) {
+        cache.asMap().keySet().removeIf(k -> k.path.equals(current.path) && !k.equals(current));
+    }
+
+    /**
+     * Identifies a version of a report file on disk
+     */
+    static final class TemplateKey {
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        private TemplateKey(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static TemplateKey of(Path reportFile) throws IOException {
+            Path path = reportFile.toAbsolutePath().normalize();
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return new TemplateKey(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TemplateKey that = (TemplateKey) o;
+            return size == that.size &&
+                lastModified == that.lastModified &&
+                path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.config.Database;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived connection pools shared by all report renders.
+ *
+ * One pool is created per distinct database uri, credentials and pool settings, so a
+ * configuration that changes the pool settings gets a new pool. Pools are created
+ * outside the lock guarding their owners, only the bookkeeping of owners is locked. Pools handed
+ * out to an owner, such as the render options of a report, are closed when the last
+ * of their owners is {@linkplain #release(Object) released}. Other pools are kept
+ * until {@link #closeAll()} is called, typically when the server is stopped.
+ */
+public final class ConnectionPools {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPools.class);
+
+    private static final ConcurrentMap<PoolKey, HikariDataSource> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * Pools used by each owner, owners that are no longer referenced don't keep their pools open
+     */
+    private static final Map<Object, Set<PoolKey>> OWNERS = new WeakHashMap<>();
+
+    /**
+     * Pools handed out without an owner, they are kept until {@link #closeAll()}
+     */
+    private static final Set<PoolKey> UNOWNED = new HashSet<>();
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private ConnectionPools() {
+    }
+
+    /**
+     * Get the pooled DataSource for the given database configuration, creating it if necessary
+     *
+     * @param database the database configuration
+     * @return the shared DataSource
+     */
+    public static HikariDataSource getDataSource(Database database) {
+        return getDataSource(database, null);
+    }
+
+    /**
+     * Get the pooled DataSource for the given database configuration on behalf of an owner,
+     * creating it if necessary. The pool is kept open until all its owners are released.
+     *
+     * @param database the database configuration
+     * @param owner the owner of the pool, null to keep the pool until {@link #closeAll()}
+     * @return the shared DataSource
+     */
+    public static HikariDataSource getDataSource(Database database, Object owner) {
+        Objects.requireNonNull(database, "database");
+        Objects.requireNonNull(database.getUri(), "database uri");
+        final PoolKey poolKey = PoolKey.of(database);
+        while (true) {
+            final HikariDataSource dataSource = POOLS.computeIfAbsent(poolKey, key -> createDataSource(database));
+            synchronized (OWNERS) {
+                // The pool may have been released and closed since it was looked up
+                if (POOLS.get(poolKey) != dataSource) {
+                    continue;
+                }
+                if (Objects.isNull(owner)) {
+                    UNOWNED.add(poolKey);
+                } else {
+                    OWNERS.computeIfAbsent(owner, o -> new HashSet<>()).add(poolKey);
+                }
+                return dataSource;
+            }
+        }
+    }
+
+    /**
+     * Release the pools of an owner, the pools no other owner uses are closed
+     *
+     * @param owner the owner of the pools
+     */
+    public static void release(Object owner) {
+        Objects.requireNonNull(owner, "owner");
+        synchronized (OWNERS) {
+            final Set<PoolKey> released = OWNERS.remove(owner);
+            if (Objects.isNull(released)) {
+                return;
+            }
+            released.removeAll(UNOWNED);
+            OWNERS.values().forEach(released::removeAll);
+            released.forEach(key -> Optional.ofNullable(POOLS.remove(key)).ifPresent(ConnectionPools::close));
+        }
+    }
+
+    /**
+     * Close all the connection pools
+     */
+    public static void closeAll() {
+        synchronized (OWNERS) {
+            OWNERS.clear();
+            UNOWNED.clear();
+            POOLS.forEach((key, dataSource) -> {
+                if (POOLS.remove(key, dataSource)) {
+                    close(dataSource);
+                }
+            });
+        }
+    }
+
+    private static void close(HikariDataSource dataSource) {
+        LOGGER.info("Closing connection pool {}", dataSource.getPoolName());
+        dataSource.close();
+    }
+
+    private static HikariDataSource createDataSource(Database database) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("kapenta-pool-" + POOL_COUNTER.incrementAndGet());
+        hikariConfig.setJdbcUrl(database.getUri());
+        hikariConfig.setUsername(database.getUser());
+        hikariConfig.setPassword(database.getPassword());
+        hikariConfig.setMaximumPoolSize(database.getMaximumPoolSize());
+        hikariConfig.setMinimumIdle(Math.min(database.getMinimumIdle(), database.getMaximumPoolSize()));
+        hikariConfig.setConnectionTimeout(database.getConnectionTimeout());
+        hikariConfig.setMaxLifetime(database.getMaxLifetime());
+
+        LOGGER.info("Creating connection pool {} for {}", hikariConfig.getPoolName(), database.getUri());
+        return new HikariDataSource(hikariConfig);
+    }
+
+    private static final class PoolKey {
+        private final String uri;
+        private final String user;
+        private final String password;
+        private final int maximumPoolSize;
+        private final int minimumIdle;
+        private final long connectionTimeout;
+        private final long maxLifetime;
+
+        private PoolKey(Database database) {
+            this.uri = database.getUri();
+            this.user = database.getUser();
+            this.password = database.getPassword();
+            this.maximumPoolSize = database.getMaximumPoolSize();
+            this.minimumIdle = database.getMinimumIdle();
+            this.connectionTimeout = database.getConnectionTimeout();
+            this.maxLifetime = database.getMaxLifetime();
+        }
+
+        static PoolKey of(Database database) {
+            return new PoolKey(database);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PoolKey that = (PoolKey) o;
+            return Objects.equals(uri, that.uri) &&
+                Objects.equals(user, that.user) &&
+                Objects.equals(password, that.password) &&
+                maximumPoolSize == that.maximumPoolSize &&
+                minimumIdle == that.minimumIdle &&
+                connectionTimeout == that.connectionTimeout &&
+                maxLifetime == that.maxLifetime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, user, password, maximumPoolSize, minimumIdle, connectionTimeout, maxLifetime);
+        }
+    }
+}
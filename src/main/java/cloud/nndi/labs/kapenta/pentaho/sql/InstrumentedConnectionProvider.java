@@ -0,0 +1,160 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.pentaho.RenderCancellation;
+import cloud.nndi.labs.kapenta.pentaho.RenderCancelledException;
+import cloud.nndi.labs.kapenta.pentaho.RenderPhases;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Objects;
+
+/**
+ * ConnectionProvider that hands out connections which add the time spent executing
+ * statements and fetching their results to the {@link RenderPhases.Phase#QUERY} phase
+ * of the render in progress.
+ *
+ * The statements of a render are given its query timeout and are cancelled with it,
+ * see {@link RenderCancellation}.
+ */
+public final class InstrumentedConnectionProvider implements ConnectionProvider {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * SQLState of a statement that was cancelled or timed out, e.g. on PostgreSQL
+     */
+    private static final String QUERY_CANCELED = "57014";
+
+    private final ConnectionProvider delegate;
+
+    private InstrumentedConnectionProvider(ConnectionProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Wrap the connection provider, unless it is already instrumented
+     *
+     * @param connectionProvider the connection provider
+     * @return an instrumented connection provider
+     */
+    public static ConnectionProvider of(ConnectionProvider connectionProvider) {
+        Objects.requireNonNull(connectionProvider, "connectionProvider");
+        if (connectionProvider instanceof InstrumentedConnectionProvider) {
+            return connectionProvider;
+        }
+        return new InstrumentedConnectionProvider(connectionProvider);
+    }
+
+    @Override
+    public Connection createConnection(String user, String password) throws SQLException {
+        final long start = System.nanoTime();
+        final Connection connection;
+        try {
+            connection = delegate.createConnection(user, password);
+        } finally {
+            RenderPhases.record(RenderPhases.Phase.QUERY, System.nanoTime() - start);
+        }
+        return proxy(Connection.class, connection);
+    }
+
+    @Override
+    public Object getConnectionHash() {
+        return delegate.getConnectionHash();
+    }
+
+    /**
+     * Proxies a JDBC object so that the statements and result sets it creates are proxied too
+     * and calls that hit the database are timed.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, T target) {
+        return (T) Proxy.newProxyInstance(
+            InstrumentedConnectionProvider.class.getClassLoader(),
+            new Class<?>[] { type },
+            new TimingHandler(target));
+    }
+
+    private static final class TimingHandler implements InvocationHandler {
+        private final Object target;
+
+        TimingHandler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final boolean timed = isTimed(method);
+            final RenderCancellation cancellation = RenderCancellation.current().orElse(null);
+            if (timed && Objects.nonNull(cancellation)) {
+                beforeQuery(cancellation, method);
+            }
+            final long start = timed ? System.nanoTime() : 0;
+            final Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                final Throwable cause = e.getCause();
+                if (Objects.nonNull(cancellation) && isTimeout(cause)) {
+                    cancellation.queryTimedOut();
+                }
+                throw cause;
+            } finally {
+                if (timed) {
+                    RenderPhases.record(RenderPhases.Phase.QUERY, System.nanoTime() - start);
+                }
+            }
+
+            if (target instanceof Statement && method.getName().equals("close") && Objects.nonNull(cancellation)) {
+                cancellation.unregister((Statement) target);
+            }
+            if (result == null || method.getName().equals("unwrap")) {
+                return result;
+            }
+            final Class<?> returnType = method.getReturnType();
+            if (returnType.isInterface() && (Statement.class.isAssignableFrom(returnType) || returnType == ResultSet.class)) {
+                if (target instanceof Connection && result instanceof Statement && Objects.nonNull(cancellation)) {
+                    cancellation.register((Statement) result);
+                }
+                return proxy((Class<Object>) returnType, result);
+            }
+            return result;
+        }
+
+        /**
+         * Fails the call if the render has been cancelled and gives statements the time left for the query
+         */
+        private void beforeQuery(RenderCancellation cancellation, Method method) throws SQLException {
+            try {
+                cancellation.check();
+            } catch (RenderCancelledException e) {
+                throw new SQLException(e.getMessage(), QUERY_CANCELED, e);
+            }
+            if (target instanceof Statement && method.getName().startsWith("execute")) {
+                final int queryTimeoutSeconds = cancellation.queryTimeoutSeconds();
+                if (queryTimeoutSeconds > 0) {
+                    ((Statement) target).setQueryTimeout(queryTimeoutSeconds);
+                }
+            }
+        }
+
+        private static boolean isTimeout(Throwable e) {
+            return e instanceof SQLTimeoutException
+                || e instanceof SQLException && QUERY_CANCELED.equals(((SQLException) e).getSQLState());
+        }
+
+        private boolean isTimed(Method method) {
+            final String name = method.getName();
+            if (target instanceof ResultSet) {
+                return name.equals("next");
+            }
+            return name.startsWith("execute") || name.equals("getResultSet");
+        }
+    }
+}
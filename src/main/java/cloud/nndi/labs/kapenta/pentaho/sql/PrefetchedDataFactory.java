@@ -0,0 +1,82 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.cache.QueryKey;
+import org.pentaho.reporting.engine.classic.core.AbstractDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactoryContext;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+
+import javax.swing.table.TableModel;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * DataFactory that answers queries from the results fetched by {@link QueryPrefetcher}
+ * when the query is run with the parameter values it was prefetched with, and from
+ * the data factory it wraps otherwise.
+ */
+final class PrefetchedDataFactory extends AbstractDataFactory {
+    private static final long serialVersionUID = 1L;
+
+    static final String SOURCE = "prefetch";
+
+    private DataFactory delegate;
+
+    private final transient Map<QueryKey, TableModel> results;
+
+    PrefetchedDataFactory(DataFactory delegate, Map<QueryKey, TableModel> results) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.results = Objects.requireNonNull(results, "results");
+    }
+
+    @Override
+    public TableModel queryData(String query, DataRow parameters) throws ReportDataFactoryException {
+        final TableModel result = results.get(QueryKey.of(SOURCE, query, QueryParameters.referencedValues(delegate, query, parameters)));
+        if (Objects.nonNull(result)) {
+            return result;
+        }
+        return delegate.queryData(query, parameters);
+    }
+
+    @Override
+    public String[] getReferencedFields(String query, DataRow parameters) throws ReportDataFactoryException {
+        return QueryParameters.referencedFields(delegate, query, parameters);
+    }
+
+    @Override
+    public void initialize(DataFactoryContext dataFactoryContext) throws ReportDataFactoryException {
+        super.initialize(dataFactoryContext);
+        delegate.initialize(dataFactoryContext);
+    }
+
+    @Override
+    public boolean isQueryExecutable(String query, DataRow parameters) {
+        return delegate.isQueryExecutable(query, parameters);
+    }
+
+    @Override
+    public String[] getQueryNames() {
+        return delegate.getQueryNames();
+    }
+
+    @Override
+    public void cancelRunningQuery() {
+        delegate.cancelRunningQuery();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public DataFactory derive() {
+        return new PrefetchedDataFactory(delegate.derive(), results);
+    }
+
+    @Override
+    public PrefetchedDataFactory clone() {
+        return new PrefetchedDataFactory((DataFactory) delegate.clone(), results);
+    }
+}
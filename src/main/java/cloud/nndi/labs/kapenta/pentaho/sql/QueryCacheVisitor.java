@@ -0,0 +1,64 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.cache.QueryResultCache;
+import org.pentaho.reporting.engine.classic.core.AbstractReportDefinition;
+import org.pentaho.reporting.engine.classic.core.CompoundDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.util.AbstractStructureVisitor;
+
+import java.util.Objects;
+
+/**
+ * Wraps the data sources of a report, and its sub-reports, so the results of their
+ * queries are reused from a {@link QueryResultCache}.
+ *
+ * Data sources are identified by the version of the report template and the order in
+ * which they are visited, which is the same for every copy of the same template.
+ *
+ * @see QueryCachingDataFactory
+ */
+public class QueryCacheVisitor extends AbstractStructureVisitor {
+    private final QueryResultCache cache;
+
+    private final String templateVersion;
+
+    private int dataSources = 0;
+
+    /**
+     * @param cache the cache of the report
+     * @param templateVersion identifies the version of the report template, so results of an older version are not used
+     */
+    public QueryCacheVisitor(QueryResultCache cache, String templateVersion) {
+        this.cache = Objects.requireNonNull(cache, "cache");
+        this.templateVersion = Objects.requireNonNull(templateVersion, "templateVersion");
+    }
+
+    public void visit(AbstractReportDefinition reportDefinition) {
+        inspect(reportDefinition);
+    }
+
+    @Override
+    protected void inspect(AbstractReportDefinition reportDefinition) {
+        cacheDataSources(reportDefinition);
+        super.inspect(reportDefinition);
+    }
+
+    protected void cacheDataSources(AbstractReportDefinition report) {
+        CompoundDataFactory dataFactory = CompoundDataFactory.normalize(report.getDataFactory());
+
+        final int size = dataFactory.size();
+
+        for(int i = 0; i < size; i++) {
+            dataFactory.set(i, cacheDataSource(dataFactory.getReference(i)));
+        }
+        report.setDataFactory(dataFactory);
+    }
+
+    protected DataFactory cacheDataSource(DataFactory dataFactory) {
+        final String source = templateVersion + "#" + dataSources++;
+        if (dataFactory instanceof QueryCachingDataFactory) {
+            return dataFactory;
+        }
+        return new QueryCachingDataFactory(dataFactory, cache, source);
+    }
+}
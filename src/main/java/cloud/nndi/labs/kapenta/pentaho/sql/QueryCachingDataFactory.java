@@ -0,0 +1,102 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.cache.QueryKey;
+import cloud.nndi.labs.kapenta.cache.QueryResultCache;
+import org.pentaho.reporting.engine.classic.core.AbstractDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactoryContext;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+import org.pentaho.reporting.engine.classic.core.util.CloseableTableModel;
+
+import javax.swing.table.TableModel;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * DataFactory that reuses the results of the queries of the data factory it wraps
+ * from a {@link QueryResultCache}. Results are keyed on the data source, the query
+ * and the values of the parameters the query references.
+ */
+final class QueryCachingDataFactory extends AbstractDataFactory {
+    private static final long serialVersionUID = 1L;
+
+    private DataFactory delegate;
+
+    private final transient QueryResultCache cache;
+
+    private final String source;
+
+    QueryCachingDataFactory(DataFactory delegate, QueryResultCache cache, String source) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.cache = Objects.requireNonNull(cache, "cache");
+        this.source = Objects.requireNonNull(source, "source");
+    }
+
+    /**
+     * @return the data factory whose results are cached
+     */
+    DataFactory getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public TableModel queryData(String query, DataRow parameters) throws ReportDataFactoryException {
+        final QueryKey key = QueryKey.of(source, query, QueryParameters.referencedValues(delegate, query, parameters));
+        final Optional<TableModel> cached = cache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        final TableModel result = delegate.queryData(query, parameters);
+        if (Objects.isNull(result)) {
+            return null;
+        }
+        final TableModel copy = cache.put(key, result);
+        if (copy != result && result instanceof CloseableTableModel) {
+            ((CloseableTableModel) result).close();
+        }
+        return copy;
+    }
+
+    @Override
+    public String[] getReferencedFields(String query, DataRow parameters) throws ReportDataFactoryException {
+        return QueryParameters.referencedFields(delegate, query, parameters);
+    }
+
+    @Override
+    public void initialize(DataFactoryContext dataFactoryContext) throws ReportDataFactoryException {
+        super.initialize(dataFactoryContext);
+        delegate.initialize(dataFactoryContext);
+    }
+
+    @Override
+    public boolean isQueryExecutable(String query, DataRow parameters) {
+        return delegate.isQueryExecutable(query, parameters);
+    }
+
+    @Override
+    public String[] getQueryNames() {
+        return delegate.getQueryNames();
+    }
+
+    @Override
+    public void cancelRunningQuery() {
+        delegate.cancelRunningQuery();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public DataFactory derive() {
+        return new QueryCachingDataFactory(delegate.derive(), cache, source);
+    }
+
+    @Override
+    public QueryCachingDataFactory clone() {
+        return new QueryCachingDataFactory((DataFactory) delegate.clone(), cache, source);
+    }
+}
@@ -0,0 +1,559 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.Server;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.pentaho.reporting.engine.classic.core.CompoundDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.DesignTimeDataFactoryContext;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.SQLReportDataFactory;
+import org.pentaho.reporting.engine.classic.core.util.CloseableTableModel;
+
+import javax.swing.table.TableModel;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the rows of the main query of a report as CSV, newline delimited JSON or an
+ * Excel workbook without laying out the report.
+ *
+ * A main query of a SQL data source whose parameters are plain <code>${name}</code>
+ * references is run on a forward-only result set fetching {@link #FETCH_SIZE} rows at a time,
+ * and each row is written out as it is read, so the result is never held in memory. The
+ * connection comes from the data source, so the configured database, query timing, timeouts
+ * and cancellation apply. Other queries are run through the report's data sources, which
+ * read the whole result before it is written. Exports don't use the query cache.
+ *
+ * Parameters without a value are given their default, as when the report is rendered.
+ * Dates are written as ISO-8601 strings, except in workbooks where they are date cells.
+ *
+ * Workbooks are written with a streaming writer that keeps the last {@link #XLSX_ROW_WINDOW}
+ * rows in memory and flushes older rows to a temporary file. The workbook is sent once
+ * all rows are written, the rows of a query that isn't streamed are all in memory meanwhile.
+ * Rows beyond the limit of a sheet continue on a new sheet.
+ */
+public final class QueryExport {
+
+    /**
+     * Number of rows of a workbook kept in memory
+     */
+    static final int XLSX_ROW_WINDOW = 100;
+
+    private static final int XLSX_MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    /**
+     * Number of rows fetched from the database at a time when the query is streamed
+     */
+    static final int FETCH_SIZE = 1000;
+
+    private static final Pattern PARAMETER = Pattern.compile("\\$\\{([^}]*)}");
+
+    private QueryExport() {
+    }
+
+    /**
+     * Whether the output type is written by exporting the rows of the main query
+     *
+     * @param outputType the output type
+     * @return true for CSV, NDJSON and XLSX
+     */
+    public static boolean supports(OutputType outputType) {
+        return outputType == OutputType.CSV || outputType == OutputType.NDJSON || outputType == OutputType.XLSX;
+    }
+
+    /**
+     * Run the main query of the report and write its rows to the output stream, the stream is not closed
+     *
+     * @param report the report
+     * @param parameters values of the parameters of the report
+     * @param outputType CSV, NDJSON or XLSX
+     * @param outputStream the stream to write the rows to
+     * @return the number of rows written
+     * @throws ReportDataFactoryException if the query fails
+     * @throws IOException if the rows cannot be written
+     */
+    public static long write(MasterReport report,
+                             Map<String, Object> parameters,
+                             OutputType outputType,
+                             OutputStream outputStream) throws ReportDataFactoryException, IOException {
+        Objects.requireNonNull(report, "report");
+        Objects.requireNonNull(parameters, "parameters");
+        if (!supports(outputType)) {
+            throw new IllegalArgumentException("Cannot export query results as " + outputType);
+        }
+        final String query = report.getQuery();
+        if (Objects.isNull(query) || Objects.isNull(report.getDataFactory())) {
+            throw new ReportDataFactoryException("Report " + report.getTitle() + " has no main query");
+        }
+
+        final DataRow dataRow = QueryParameters.dataRow(report, QueryParameters.withDefaults(report, parameters));
+        final Optional<SQLReportDataFactory> sqlDataFactory = sqlDataFactoryFor(report.getDataFactory(), query);
+        final Optional<ParsedQuery> parsedQuery = sqlDataFactory.flatMap(factory -> ParsedQuery.parse(factory.getQuery(query), dataRow));
+        if (parsedQuery.isPresent()) {
+            try (Rows rows = ResultSetRows.open(sqlDataFactory.get(), parsedQuery.get(), dataRow, report)) {
+                return write(rows, outputType, outputStream);
+            }
+        }
+
+        final DataFactory dataFactory = uncached(report.getDataFactory()).derive();
+        try {
+            dataFactory.initialize(new DesignTimeDataFactoryContext(report));
+            try (Rows rows = new TableModelRows(dataFactory.queryData(query, dataRow))) {
+                return write(rows, outputType, outputStream);
+            }
+        } finally {
+            dataFactory.close();
+        }
+    }
+
+    private static long write(Rows rows, OutputType outputType, OutputStream outputStream) throws ReportDataFactoryException, IOException {
+        switch (outputType) {
+            case CSV:
+                return writeCsv(rows, outputStream);
+            case XLSX:
+                return writeXlsx(rows, outputStream);
+            default:
+                return writeNdjson(rows, outputStream);
+        }
+    }
+
+    /**
+     * The SQL data source with the named query, the query cache is bypassed
+     */
+    private static Optional<SQLReportDataFactory> sqlDataFactoryFor(DataFactory dataFactory, String query) {
+        final CompoundDataFactory compound = CompoundDataFactory.normalize(dataFactory);
+        for (int i = 0; i < compound.size(); i++) {
+            final DataFactory candidate = unwrap(compound.getReference(i));
+            if (candidate instanceof SQLReportDataFactory
+                && Arrays.asList(candidate.getQueryNames()).contains(query)
+                && Objects.nonNull(((SQLReportDataFactory) candidate).getConnectionProvider())) {
+                return Optional.of((SQLReportDataFactory) candidate);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The data sources of the report without the query cache, the data sources of the report are left as they are
+     */
+    private static DataFactory uncached(DataFactory dataFactory) {
+        final CompoundDataFactory compound = CompoundDataFactory.normalize(dataFactory);
+        final CompoundDataFactory uncached = new CompoundDataFactory();
+        for (int i = 0; i < compound.size(); i++) {
+            uncached.add(unwrap(compound.getReference(i)));
+        }
+        return uncached;
+    }
+
+    private static DataFactory unwrap(DataFactory dataFactory) {
+        return dataFactory instanceof QueryCachingDataFactory
+            ? ((QueryCachingDataFactory) dataFactory).getDelegate()
+            : dataFactory;
+    }
+
+    /**
+     * Writes a header with the column names followed by the rows as described in RFC 4180
+     */
+    private static long writeCsv(Rows rows, OutputStream outputStream) throws ReportDataFactoryException, IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        final int columns = rows.getColumnCount();
+        for (int column = 0; column < columns; column++) {
+            if (column > 0) {
+                writer.write(',');
+            }
+            writeCsvField(writer, rows.getColumnName(column));
+        }
+        writer.write("\r\n");
+
+        long count = 0;
+        while (rows.next()) {
+            for (int column = 0; column < columns; column++) {
+                if (column > 0) {
+                    writer.write(',');
+                }
+                Object value = format(rows.getValue(column));
+                if (Objects.nonNull(value)) {
+                    writeCsvField(writer, value.toString());
+                }
+            }
+            writer.write("\r\n");
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+
+    private static void writeCsvField(Writer writer, String field) throws IOException {
+        boolean quoted = false;
+        for (int i = 0; i < field.length() && !quoted; i++) {
+            char c = field.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quoted) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        writer.write(field.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Writes each row as a JSON object keyed on the column names, one object per line
+     */
+    private static long writeNdjson(Rows rows, OutputStream outputStream) throws ReportDataFactoryException, IOException {
+        final int columns = rows.getColumnCount();
+        final String[] names = new String[columns];
+        for (int column = 0; column < columns; column++) {
+            names[column] = rows.getColumnName(column);
+        }
+
+        long count = 0;
+        try (JsonGenerator generator = Server.OBJECT_MAPPER.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Rows are separated by the new lines instead of the default space
+            generator.setRootValueSeparator(null);
+            while (rows.next()) {
+                generator.writeStartObject();
+                for (int column = 0; column < columns; column++) {
+                    generator.writeFieldName(names[column]);
+                    generator.writeObject(format(rows.getValue(column)));
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes a sheet with a header row of the column names followed by the rows
+     */
+    private static long writeXlsx(Rows rows, OutputStream outputStream) throws ReportDataFactoryException, IOException {
+        final SXSSFWorkbook workbook = new SXSSFWorkbook(XLSX_ROW_WINDOW);
+        try {
+            workbook.setCompressTempFiles(true);
+            final CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+
+            final int columns = rows.getColumnCount();
+            long count = 0;
+            Sheet sheet = null;
+            int sheetRow = XLSX_MAX_ROWS;
+            while (rows.next()) {
+                if (sheetRow == XLSX_MAX_ROWS) {
+                    sheet = newSheet(workbook, rows);
+                    sheetRow = 1;
+                }
+                final Row cells = sheet.createRow(sheetRow++);
+                for (int column = 0; column < columns; column++) {
+                    setCellValue(cells.createCell(column), rows.getValue(column), dateStyle);
+                }
+                count++;
+            }
+            if (Objects.isNull(sheet)) {
+                newSheet(workbook, rows);
+            }
+            workbook.write(outputStream);
+            return count;
+        } finally {
+            // Deletes the temporary files of the sheets
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private static Sheet newSheet(SXSSFWorkbook workbook, Rows rows) throws ReportDataFactoryException {
+        final Sheet sheet = workbook.createSheet();
+        final Row header = sheet.createRow(0);
+        for (int column = 0; column < rows.getColumnCount(); column++) {
+            header.createCell(column).setCellValue(rows.getColumnName(column));
+        }
+        return sheet;
+    }
+
+    private static void setCellValue(Cell cell, Object value, CellStyle dateStyle) {
+        if (Objects.isNull(value)) {
+            return;
+        }
+        if (value instanceof Number) {
+            cell.setCellValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+        } else if (value instanceof Date) {
+            cell.setCellValue((Date) value);
+            cell.setCellStyle(dateStyle);
+        } else {
+            cell.setCellValue(value.toString());
+        }
+    }
+
+    private static Object format(Object value) {
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate().toString();
+        }
+        if (value instanceof java.sql.Time) {
+            return ((java.sql.Time) value).toLocalTime().toString();
+        }
+        if (value instanceof Date) {
+            return ((Date) value).toInstant().toString();
+        }
+        return value;
+    }
+
+    /**
+     * A query whose <code>${name}</code> parameter references are replaced with JDBC placeholders,
+     * a parameter with an array value is expanded to a placeholder for each element
+     */
+    static final class ParsedQuery {
+        final String sql;
+        final List<Object> values;
+
+        private ParsedQuery(String sql, List<Object> values) {
+            this.sql = sql;
+            this.values = values;
+        }
+
+        /**
+         * @return the parsed query, empty if the query is missing or references parameters
+         * with options, e.g. <code>${name,string}</code>, which only the data source can apply
+         */
+        static Optional<ParsedQuery> parse(String query, DataRow parameters) {
+            if (Objects.isNull(query)) {
+                return Optional.empty();
+            }
+            final StringBuilder sql = new StringBuilder();
+            final List<Object> values = new ArrayList<>();
+            final Matcher matcher = PARAMETER.matcher(query);
+            int end = 0;
+            while (matcher.find()) {
+                final String name = matcher.group(1).trim();
+                if (name.isEmpty() || name.contains(",")) {
+                    return Optional.empty();
+                }
+                sql.append(query, end, matcher.start());
+                final Object value = parameters.get(name);
+                if (value instanceof Object[] && ((Object[]) value).length > 0) {
+                    final Object[] elements = (Object[]) value;
+                    for (int i = 0; i < elements.length; i++) {
+                        sql.append(i == 0 ? "?" : ", ?");
+                        values.add(elements[i]);
+                    }
+                } else {
+                    sql.append('?');
+                    values.add(value instanceof Object[] ? null : value);
+                }
+                end = matcher.end();
+            }
+            sql.append(query, end, query.length());
+            return Optional.of(new ParsedQuery(sql.toString(), values));
+        }
+    }
+
+    /**
+     * The rows of a query result, read one at a time
+     */
+    private interface Rows extends AutoCloseable {
+        int getColumnCount() throws ReportDataFactoryException;
+
+        String getColumnName(int column) throws ReportDataFactoryException;
+
+        /**
+         * Move to the next row
+         *
+         * @return false if there are no more rows
+         */
+        boolean next() throws ReportDataFactoryException;
+
+        Object getValue(int column) throws ReportDataFactoryException;
+
+        @Override
+        void close() throws ReportDataFactoryException;
+    }
+
+    /**
+     * The rows of a result the data source has read
+     */
+    private static final class TableModelRows implements Rows {
+        private final TableModel tableModel;
+
+        private int row = -1;
+
+        TableModelRows(TableModel tableModel) {
+            this.tableModel = Objects.requireNonNull(tableModel, "tableModel");
+        }
+
+        @Override
+        public int getColumnCount() {
+            return tableModel.getColumnCount();
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return tableModel.getColumnName(column);
+        }
+
+        @Override
+        public boolean next() {
+            return ++row < tableModel.getRowCount();
+        }
+
+        @Override
+        public Object getValue(int column) {
+            return tableModel.getValueAt(row, column);
+        }
+
+        @Override
+        public void close() {
+            if (tableModel instanceof CloseableTableModel) {
+                ((CloseableTableModel) tableModel).close();
+            }
+        }
+    }
+
+    /**
+     * The rows of a forward-only result set, fetched from the database as they are read
+     */
+    private static final class ResultSetRows implements Rows {
+        private final Connection connection;
+
+        private final PreparedStatement statement;
+
+        private final ResultSet resultSet;
+
+        private final ResultSetMetaData metaData;
+
+        private ResultSetRows(Connection connection, PreparedStatement statement, ResultSet resultSet) throws SQLException {
+            this.connection = connection;
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.metaData = resultSet.getMetaData();
+        }
+
+        static ResultSetRows open(SQLReportDataFactory dataFactory, ParsedQuery query, DataRow parameters, MasterReport report) throws ReportDataFactoryException {
+            Connection connection = null;
+            PreparedStatement statement = null;
+            try {
+                connection = dataFactory.getConnectionProvider().createConnection(
+                    field(parameters, dataFactory.getUserField()),
+                    field(parameters, dataFactory.getPasswordField()));
+                // Drivers such as PostgreSQL's only fetch in batches outside auto-commit
+                connection.setAutoCommit(false);
+                statement = connection.prepareStatement(query.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(FETCH_SIZE);
+                if (report.getQueryLimit() > 0) {
+                    statement.setMaxRows(report.getQueryLimit());
+                }
+                if (report.getQueryTimeout() > 0) {
+                    statement.setQueryTimeout(report.getQueryTimeout());
+                }
+                for (int i = 0; i < query.values.size(); i++) {
+                    statement.setObject(i + 1, jdbcValue(query.values.get(i)));
+                }
+                return new ResultSetRows(connection, statement, statement.executeQuery());
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                closeQuietly(connection);
+                throw new ReportDataFactoryException("Failed to run query", e);
+            }
+        }
+
+        private static String field(DataRow parameters, String name) {
+            if (Objects.isNull(name)) {
+                return null;
+            }
+            final Object value = parameters.get(name);
+            return Objects.isNull(value) ? null : value.toString();
+        }
+
+        private static Object jdbcValue(Object value) {
+            if (value instanceof Date && !(value instanceof java.sql.Date || value instanceof java.sql.Time || value instanceof Timestamp)) {
+                return new Timestamp(((Date) value).getTime());
+            }
+            return value;
+        }
+
+        private static void closeQuietly(AutoCloseable closeable) {
+            if (Objects.isNull(closeable)) {
+                return;
+            }
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // The original failure is reported
+            }
+        }
+
+        @Override
+        public int getColumnCount() throws ReportDataFactoryException {
+            try {
+                return metaData.getColumnCount();
+            } catch (SQLException e) {
+                throw new ReportDataFactoryException("Failed to read the columns of the query", e);
+            }
+        }
+
+        @Override
+        public String getColumnName(int column) throws ReportDataFactoryException {
+            try {
+                return metaData.getColumnLabel(column + 1);
+            } catch (SQLException e) {
+                throw new ReportDataFactoryException("Failed to read the columns of the query", e);
+            }
+        }
+
+        @Override
+        public boolean next() throws ReportDataFactoryException {
+            try {
+                return resultSet.next();
+            } catch (SQLException e) {
+                throw new ReportDataFactoryException("Failed to read the rows of the query", e);
+            }
+        }
+
+        @Override
+        public Object getValue(int column) throws ReportDataFactoryException {
+            try {
+                return resultSet.getObject(column + 1);
+            } catch (SQLException e) {
+                throw new ReportDataFactoryException("Failed to read the rows of the query", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(resultSet);
+            closeQuietly(statement);
+            closeQuietly(connection);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import org.pentaho.reporting.engine.classic.core.AbstractDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+import org.pentaho.reporting.engine.classic.core.ReportProcessingException;
+import org.pentaho.reporting.engine.classic.core.StaticDataRow;
+import org.pentaho.reporting.engine.classic.core.parameters.DefaultParameterContext;
+import org.pentaho.reporting.engine.classic.core.parameters.ParameterDefinitionEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The parameters a query of a data factory depends on
+ */
+final class QueryParameters {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryParameters.class);
+
+    private QueryParameters() {
+    }
+
+    /**
+     * The data row the master report's queries are run with, the engine passes the query
+     * limit and timeout of the report along with the parameters
+     */
+    static DataRow dataRow(MasterReport report, Map<String, Object> parameters) {
+        final Map<String, Object> values = new LinkedHashMap<>(parameters);
+        values.put(DataFactory.QUERY_LIMIT, report.getQueryLimit());
+        values.put(DataFactory.QUERY_TIMEOUT, report.getQueryTimeout());
+        return new StaticDataRow(
+            values.keySet().toArray(new String[0]),
+            values.values().toArray());
+    }
+
+    /**
+     * The parameters with the defaults of the report's parameters that have no value, as the
+     * engine applies them when the report is rendered. A default that can't be computed, e.g.
+     * because its query fails, is left out.
+     */
+    static Map<String, Object> withDefaults(MasterReport report, Map<String, Object> parameters) {
+        final ParameterDefinitionEntry[] entries = Objects.isNull(report.getParameterDefinition())
+            ? new ParameterDefinitionEntry[0]
+            : report.getParameterDefinition().getParameterDefinitions();
+        final List<ParameterDefinitionEntry> missing = new ArrayList<>();
+        for (ParameterDefinitionEntry entry: entries) {
+            if (Objects.isNull(parameters.get(entry.getName()))) {
+                missing.add(entry);
+            }
+        }
+        if (missing.isEmpty()) {
+            return parameters;
+        }
+
+        final Map<String, Object> values = new LinkedHashMap<>(parameters);
+        DefaultParameterContext context = null;
+        try {
+            context = new DefaultParameterContext(report);
+            for (ParameterDefinitionEntry entry: missing) {
+                try {
+                    values.put(entry.getName(), entry.getDefaultValue(context));
+                } catch (ReportDataFactoryException e) {
+                    LOGGER.warn("Failed to get the default value of parameter {}", entry.getName(), e);
+                }
+            }
+        } catch (ReportProcessingException e) {
+            LOGGER.warn("Failed to get the default values of the parameters of {}", report.getTitle(), e);
+        } finally {
+            if (Objects.nonNull(context)) {
+                try {
+                    context.close();
+                } catch (ReportDataFactoryException e) {
+                    LOGGER.debug("Failed to close the parameter context", e);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Names of the fields the query references
+     *
+     * @return the names, null if the data factory cannot tell
+     */
+    static String[] referencedFields(DataFactory dataFactory, String query, DataRow parameters) throws ReportDataFactoryException {
+        if (dataFactory instanceof AbstractDataFactory) {
+            return ((AbstractDataFactory) dataFactory).getReferencedFields(query, parameters);
+        }
+        return null;
+    }
+
+    /**
+     * Values of the parameters the query uses, all the parameters if the data factory cannot tell
+     */
+    static Map<String, Object> referencedValues(DataFactory dataFactory, String query, DataRow parameters) throws ReportDataFactoryException {
+        final Map<String, Object> values = new HashMap<>();
+        if (Objects.isNull(parameters)) {
+            return values;
+        }
+        String[] fields = referencedFields(dataFactory, query, parameters);
+        if (Objects.isNull(fields)) {
+            fields = parameters.getColumnNames();
+        }
+        for (String field: fields) {
+            values.put(field, parameters.get(field));
+        }
+        return values;
+    }
+}
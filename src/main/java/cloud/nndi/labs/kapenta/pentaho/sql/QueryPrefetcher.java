@@ -0,0 +1,158 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.cache.CachedTableModel;
+import cloud.nndi.labs.kapenta.cache.QueryKey;
+import cloud.nndi.labs.kapenta.pentaho.RenderCancellation;
+import org.pentaho.reporting.engine.classic.core.CompoundDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.DesignTimeDataFactoryContext;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+import org.pentaho.reporting.engine.classic.core.util.CloseableTableModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.table.TableModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the independent queries of a report concurrently before it is laid out.
+ *
+ * Pentaho runs the queries of a report one after the other while laying it out. Queries
+ * that only reference the parameters of the report do not depend on each other, so they
+ * are run up front on virtual threads, at most <code>maxParallelQueries</code> at a time,
+ * with connections from the shared pool. The report's data sources are then wrapped so
+ * the layout reads the results from memory. A query that fails to prefetch, or that the
+ * layout runs with other parameter values, is run by the layout as usual.
+ */
+public final class QueryPrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryPrefetcher.class);
+
+    private QueryPrefetcher() {
+    }
+
+    /**
+     * Prefetch the independent queries of the report
+     *
+     * @param report the report, its parameter values must be set
+     * @param parameters values of the parameters of the report
+     * @param maxParallelQueries maximum number of queries to run at a time
+     * @return the number of queries that were prefetched
+     * @throws InterruptedException if interrupted while waiting for the queries
+     */
+    public static int prefetch(MasterReport report, Map<String, Object> parameters, int maxParallelQueries) throws InterruptedException {
+        Objects.requireNonNull(report, "report");
+        Objects.requireNonNull(parameters, "parameters");
+
+        final CompoundDataFactory dataFactory = CompoundDataFactory.normalize(report.getDataFactory());
+        final DataRow dataRow = QueryParameters.dataRow(report, parameters);
+
+        final List<String> queries = independentQueries(dataFactory, dataRow, parameters);
+        if (queries.size() < 2) {
+            // Nothing to gain from running a single query early
+            return 0;
+        }
+
+        final Map<QueryKey, TableModel> results = new ConcurrentHashMap<>();
+        final Semaphore permits = new Semaphore(Math.max(1, maxParallelQueries));
+        final List<Future<?>> futures = new ArrayList<>();
+        // The queries are cancelled and timed out with the render
+        final Optional<RenderCancellation> cancellation = RenderCancellation.current();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String query: queries) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try (RenderCancellation.Scope scope = cancellation.map(RenderCancellation::bind).orElse(() -> { })) {
+                        run(report, dataFactory.getDataFactoryForQuery(query), query, dataRow, results);
+                    } finally {
+                        permits.release();
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    LOGGER.debug("Failed to prefetch query {}, it runs during layout", queries.get(i), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+
+        final int size = dataFactory.size();
+        for (int i = 0; i < size; i++) {
+            dataFactory.set(i, new PrefetchedDataFactory(dataFactory.getReference(i), results));
+        }
+        report.setDataFactory(dataFactory);
+        return results.size();
+    }
+
+    /**
+     * Queries whose referenced fields are all parameters of the report
+     */
+    private static List<String> independentQueries(CompoundDataFactory dataFactory, DataRow dataRow, Map<String, Object> parameters) {
+        final List<String> queries = new ArrayList<>();
+        final String[] queryNames = dataFactory.getQueryNames();
+        if (Objects.isNull(queryNames)) {
+            return queries;
+        }
+        for (String query: queryNames) {
+            try {
+                String[] fields = QueryParameters.referencedFields(dataFactory.getDataFactoryForQuery(query), query, dataRow);
+                if (Objects.isNull(fields)) {
+                    continue;
+                }
+                boolean independent = true;
+                for (String field: fields) {
+                    // Fields starting with :: are settings of the engine, e.g. the query limit
+                    independent &= parameters.containsKey(field) || field.startsWith("::");
+                }
+                if (independent) {
+                    queries.add(query);
+                }
+            } catch (ReportDataFactoryException e) {
+                LOGGER.debug("Cannot tell which fields query {} references, it is not prefetched", query, e);
+            }
+        }
+        return queries;
+    }
+
+    private static void run(MasterReport report,
+                            DataFactory dataFactory,
+                            String query,
+                            DataRow dataRow,
+                            Map<QueryKey, TableModel> results) throws ReportDataFactoryException {
+        if (Objects.isNull(dataFactory)) {
+            return;
+        }
+        final DataFactory derived = dataFactory.derive();
+        try {
+            derived.initialize(new DesignTimeDataFactoryContext(report));
+            final TableModel result = derived.queryData(query, dataRow);
+            if (Objects.isNull(result)) {
+                return;
+            }
+            final TableModel copy = result instanceof CachedTableModel ? result : CachedTableModel.copyOf(result);
+            if (copy != result && result instanceof CloseableTableModel) {
+                ((CloseableTableModel) result).close();
+            }
+            results.put(QueryKey.of(PrefetchedDataFactory.SOURCE, query, QueryParameters.referencedValues(dataFactory, query, dataRow)), copy);
+        } finally {
+            derived.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import org.pentaho.reporting.engine.classic.core.AbstractReportDefinition;
+import org.pentaho.reporting.engine.classic.core.CompoundDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.SimpleSQLReportDataFactory;
+import org.pentaho.reporting.engine.classic.core.util.AbstractStructureVisitor;
+
+import java.util.Objects;
+
+/**
+ * Wraps the connection providers of the SQL data sources in a report, and its
+ * sub-reports, so the time spent on queries is measured.
+ *
+ * @see InstrumentedConnectionProvider
+ */
+public class QueryTimingVisitor extends AbstractStructureVisitor {
+
+    public void visit(AbstractReportDefinition reportDefinition) {
+        inspect(reportDefinition);
+    }
+
+    @Override
+    protected void inspect(AbstractReportDefinition reportDefinition) {
+        instrumentDataSources(reportDefinition);
+        super.inspect(reportDefinition);
+    }
+
+    protected void instrumentDataSources(AbstractReportDefinition report) {
+        CompoundDataFactory dataFactory = CompoundDataFactory.normalize(report.getDataFactory());
+
+        final int size = dataFactory.size();
+
+        for(int i = 0; i < size; i++) {
+            instrumentDataSource(dataFactory.getReference(i));
+        }
+        report.setDataFactory(dataFactory);
+    }
+
+    protected void instrumentDataSource(DataFactory dataFactory) {
+        // We are only concerned with SQL Data Factories at the moment
+        if(dataFactory instanceof SimpleSQLReportDataFactory) {
+            SimpleSQLReportDataFactory sqlDataFactory = (SimpleSQLReportDataFactory) dataFactory;
+            ConnectionProvider connectionProvider = sqlDataFactory.getConnectionProvider();
+            if (Objects.nonNull(connectionProvider)) {
+                sqlDataFactory.setConnectionProvider(InstrumentedConnectionProvider.of(connectionProvider));
+            }
+        }
+    }
+}
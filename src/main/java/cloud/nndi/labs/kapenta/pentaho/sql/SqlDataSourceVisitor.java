@@ -1,6 +1,7 @@
 package cloud.nndi.labs.kapenta.pentaho.sql;
 
-import com.zaxxer.hikari.HikariConfig;
+import cloud.nndi.labs.kapenta.config.Database;
+import com.zaxxer.hikari.HikariDataSource;
 import org.pentaho.reporting.engine.classic.core.AbstractReportDefinition;
 import org.pentaho.reporting.engine.classic.core.CompoundDataFactory;
 import org.pentaho.reporting.engine.classic.core.DataFactory;
@@ -29,7 +30,22 @@ public class SqlDataSourceVisitor extends AbstractStructureVisitor {
     private final AtomicReference<ConnectionProvider> connectionProvider;
 
     public SqlDataSourceVisitor(String databaseUrl) {
-        this.connectionProvider = new AtomicReference<>(new ConnectionProviderImpl(databaseUrl));
+        Database database = new Database();
+        database.setUri(databaseUrl);
+        this.connectionProvider = new AtomicReference<>(new ConnectionProviderImpl(database, null));
+    }
+
+    public SqlDataSourceVisitor(Database database) {
+        this(database, null);
+    }
+
+    /**
+     * @param database the database to connect to
+     * @param owner owner of the connection pools used, see {@link ConnectionPools#release(Object)}
+     */
+    public SqlDataSourceVisitor(Database database, Object owner) {
+        Objects.requireNonNull(database, "database");
+        this.connectionProvider = new AtomicReference<>(new ConnectionProviderImpl(database, owner));
     }
 
     public void visit(AbstractReportDefinition reportDefinition) {
@@ -66,27 +82,61 @@ public class SqlDataSourceVisitor extends AbstractStructureVisitor {
         return dataFactory;
     }
     
+    /**
+     * Hands out connections from the shared pool for the configured database.
+     * If the configuration has no credentials the pool is created for the
+     * credentials defined in the report. The pool is looked up once and reused
+     * for the following connections with the same credentials.
+     */
     private static final class ConnectionProviderImpl implements ConnectionProvider {
         private static final long serialVersionUID = 1L;
 
-        private transient HikariConfig hikariConfig;
+        private transient Database database;
+
+        private transient Object owner;
+
+        private transient volatile ResolvedPool resolved;
 
-        ConnectionProviderImpl(String databaseUrl) {
-            this.hikariConfig = new HikariConfig();
-            this.hikariConfig.setJdbcUrl(databaseUrl);
+        ConnectionProviderImpl(Database database, Object owner) {
+            this.database = database;
+            this.owner = owner;
         }
 
         @Override
         public Object getConnectionHash() {
-            return Objects.hash(hikariConfig.getDataSourceClassName());
+            return Objects.hash(database.getUri(), database.getUser());
         }
         
         @Override
         public Connection createConnection(String user, String password)
                 throws SQLException {
-            hikariConfig.setUsername(user);
-            hikariConfig.setPassword(password);
-            return hikariConfig.getDataSource().getConnection();
+            Database effective = Objects.isNull(database.getUser())
+                ? database.withCredentials(user, password)
+                : database;
+            ResolvedPool current = resolved;
+            if (Objects.isNull(current) || !current.isFor(effective)) {
+                current = new ResolvedPool(effective, ConnectionPools.getDataSource(effective, owner));
+                resolved = current;
+            }
+            return current.dataSource.getConnection();
+        }
+    }
+
+    private static final class ResolvedPool {
+        private final String user;
+        private final String password;
+        private final HikariDataSource dataSource;
+
+        ResolvedPool(Database database, HikariDataSource dataSource) {
+            this.user = database.getUser();
+            this.password = database.getPassword();
+            this.dataSource = dataSource;
+        }
+
+        boolean isFor(Database database) {
+            return !dataSource.isClosed() &&
+                Objects.equals(user, database.getUser()) &&
+                Objects.equals(password, database.getPassword());
         }
     }
 }
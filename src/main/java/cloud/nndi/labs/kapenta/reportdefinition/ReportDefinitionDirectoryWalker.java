@@ -1,9 +1,11 @@
 package cloud.nndi.labs.kapenta.reportdefinition;
 
 import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -11,13 +13,31 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Finds the Pentaho report files in a directory and reads their report definitions.
+ *
+ * The report files are parsed in parallel on a fork-join pool. If an index file is given,
+ * the report definitions are saved to it and report files that have not changed since the
+ * last walk are read from the index instead of being parsed again.
+ */
 public class ReportDefinitionDirectoryWalker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportDefinitionDirectoryWalker.class);
+
     private List<ReportDefinition> reportDefinitions;
     private int maximumDepth;
     private final Path directory;
+    private final Path indexFile;
+    private final int parallelism;
     private ReportDefinitionFileReader parser;
     private boolean directoryWalked = false;
 
@@ -25,62 +45,114 @@ public class ReportDefinitionDirectoryWalker {
      *
      * @param directory
      * @param maximumDepth The depth of recursion on the directory in case of
-     *                     directory with report definitions in subdirectories
+     *                     directory with report definitions in subdirectories,
+     *                     0 for only the directory itself and negative for no limit
      * @param resourceManager
      */
     public ReportDefinitionDirectoryWalker(Path directory, int maximumDepth, ResourceManager resourceManager) {
+        this(directory, maximumDepth, resourceManager, null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     *
+     * @param directory
+     * @param maximumDepth The depth of recursion on the directory in case of
+     *                     directory with report definitions in subdirectories,
+     *                     0 for only the directory itself and negative for no limit
+     * @param resourceManager
+     * @param indexFile file to keep the index of parsed report definitions in, null for no index
+     * @param parallelism number of report files to parse at a time
+     */
+    public ReportDefinitionDirectoryWalker(Path directory,
+                                           int maximumDepth,
+                                           ResourceManager resourceManager,
+                                           Path indexFile,
+                                           int parallelism) {
         assert Files.isDirectory(directory);
         this.directory = directory;
         this.maximumDepth = maximumDepth;
+        this.indexFile = indexFile;
+        this.parallelism = Math.max(1, parallelism);
         this.parser = new ReportDefinitionFileReader(resourceManager);
         this.reportDefinitions = new ArrayList<>();
     }
 
     /**
-     * Search for pentaho report files in the given directory
-     *
-
-     * @return a list of the absolute paths to the Pentaho files
+     * Search for pentaho report files in the given directory and read their report definitions
      */
     private void walkDirectory() {
+        final List<ReportFile> reportFiles = findReportFiles();
+        final Optional<ReportDefinitionIndex> index = Optional.ofNullable(indexFile).map(ReportDefinitionIndex::load);
+        final AtomicInteger parsed = new AtomicInteger();
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
         try {
-            Files.walkFileTree(this.directory, new SimpleFileVisitor<Path>() {
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    return innerVisitFile(file, attrs);
+            this.reportDefinitions = pool.submit(() -> reportFiles.parallelStream()
+                    .map(reportFile -> read(reportFile, index, parsed))
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .collect(Collectors.toList()))
+                .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing report files in " + directory, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to parse report files in " + directory, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        index.ifPresent(ReportDefinitionIndex::save);
+        this.directoryWalked = true;
+        LOGGER.info("Found {} reports in {}, parsed {} report files", reportDefinitions.size(), directory, parsed.get());
+    }
+
+    private List<ReportFile> findReportFiles() {
+        final List<ReportFile> reportFiles = new ArrayList<>();
+        // Files in the directory itself are at depth 1
+        final int depth = maximumDepth < 0 ? Integer.MAX_VALUE : maximumDepth + 1;
+        try {
+            Files.walkFileTree(this.directory, EnumSet.noneOf(FileVisitOption.class), depth, new SimpleFileVisitor<Path>() {
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Path filePath = file.getFileName();
+                    if (Objects.nonNull(filePath) && attrs.isRegularFile() && filePath.toString().endsWith(".prpt")) {
+                        reportFiles.add(new ReportFile(file, attrs));
+                    }
+                    return FileVisitResult.CONTINUE;
                 }
             });
-            this.directoryWalked = true;
         } catch(IOException ioe) {
-            LoggerFactory.getLogger(getClass())
-                .error("Failed to search for prpts in : {}", directory, ioe);
+            LOGGER.error("Failed to search for prpts in : {}", directory, ioe);
             throw new RuntimeException(ioe);
         }
+        return reportFiles;
     }
 
-    private FileVisitResult innerVisitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        if (file == null)
-            return FileVisitResult.CONTINUE;
-
-        Path filePath = file.getFileName();
-        
-        if (filePath == null)
-            return FileVisitResult.CONTINUE;
-
-        String fileName = filePath.toString();
-        if (fileName.endsWith(".prpt")) {
-            try {
-                ReportDefinition reportDefinition = parser.createFromFile(
-                    this.directory,
-                    file,
-                    true
-                );
-                reportDefinitions.add(reportDefinition);
-            } catch(Exception ex) {
-                LoggerFactory.getLogger(getClass())
-                        .error("Failed to parse report file: " + file, ex);
+    private Optional<ReportDefinition> read(ReportFile reportFile,
+                                            Optional<ReportDefinitionIndex> index,
+                                            AtomicInteger parsed) {
+        try {
+            if (index.isPresent()) {
+                Optional<ReportDefinition> indexed = index.get().get(reportFile.path, reportFile.attrs);
+                if (indexed.isPresent()) {
+                    return indexed;
+                }
+            }
+
+            ReportDefinition reportDefinition = parser.createFromFile(
+                this.directory,
+                reportFile.path,
+                true
+            );
+            parsed.incrementAndGet();
+            if (index.isPresent()) {
+                index.get().put(reportFile.path, reportFile.attrs, reportDefinition);
             }
+            return Optional.of(reportDefinition);
+        } catch(Exception ex) {
+            LOGGER.error("Failed to parse report file: " + reportFile.path, ex);
+            return Optional.empty();
         }
-        return FileVisitResult.CONTINUE;
     }
 
     public int getMaximumDepth() {
@@ -105,4 +177,14 @@ public class ReportDefinitionDirectoryWalker {
         }
         return Collections.unmodifiableList(reportDefinitions);
     }
+
+    private static final class ReportFile {
+        final Path path;
+        final BasicFileAttributes attrs;
+
+        ReportFile(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
 }
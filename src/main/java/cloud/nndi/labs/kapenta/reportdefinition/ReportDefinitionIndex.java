@@ -0,0 +1,184 @@
+package cloud.nndi.labs.kapenta.reportdefinition;
+
+import cloud.nndi.labs.kapenta.Server;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of report definitions parsed from report files, saved to a file so that
+ * walking the same directory again only parses the report files that changed.
+ *
+ * Entries are keyed on the path of the report file and remember its size, last modified
+ * time and a SHA-256 hash of its contents. A file with the same size and last modified
+ * time is assumed unchanged, otherwise it is hashed and only parsed again if the hash is
+ * different, so files that are copied or touched without changing are not parsed again.
+ */
+final class ReportDefinitionIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportDefinitionIndex.class);
+
+    private static final ObjectMapper objectMapper = Server.OBJECT_MAPPER;
+
+    private static final int VERSION = 1;
+
+    private final Path indexFile;
+
+    private final Map<String, Entry> entries;
+
+    private final Map<String, Entry> seen = new ConcurrentHashMap<>();
+
+    private ReportDefinitionIndex(Path indexFile, Map<String, Entry> entries) {
+        this.indexFile = indexFile;
+        this.entries = entries;
+    }
+
+    /**
+     * Read the index from the given file, an index that is missing or cannot be read is empty
+     *
+     * @param indexFile the index file
+     * @return the index
+     */
+    static ReportDefinitionIndex load(Path indexFile) {
+        Objects.requireNonNull(indexFile, "indexFile");
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (Files.exists(indexFile)) {
+            try {
+                IndexFile file = objectMapper.readValue(indexFile.toFile(), IndexFile.class);
+                if (file.version == VERSION && Objects.nonNull(file.entries)) {
+                    file.entries.forEach(entry -> entries.put(entry.path, entry));
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read report index {}, all reports will be parsed", indexFile, e);
+            }
+        }
+        return new ReportDefinitionIndex(indexFile, entries);
+    }
+
+    /**
+     * Get the report definition of an unchanged report file
+     *
+     * @param reportFile the report file
+     * @param attrs attributes of the report file
+     * @return the report definition if the file has not changed since it was indexed
+     * @throws IOException if the file cannot be hashed
+     */
+    Optional<ReportDefinition> get(Path reportFile, BasicFileAttributes attrs) throws IOException {
+        final String path = key(reportFile);
+        final Entry entry = entries.get(path);
+        if (Objects.isNull(entry)) {
+            return Optional.empty();
+        }
+
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        if (entry.size == attrs.size() && entry.lastModified == lastModified) {
+            seen.put(path, entry);
+            return Optional.of(entry.reportDefinition);
+        }
+
+        if (entry.hash.equals(hash(reportFile))) {
+            seen.put(path, new Entry(path, attrs.size(), lastModified, entry.hash, entry.reportDefinition));
+            return Optional.of(entry.reportDefinition);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Add the report definition parsed from a report file
+     *
+     * @param reportFile the report file
+     * @param attrs attributes of the report file
+     * @param reportDefinition the report definition
+     * @throws IOException if the file cannot be hashed
+     */
+    void put(Path reportFile, BasicFileAttributes attrs, ReportDefinition reportDefinition) throws IOException {
+        final String path = key(reportFile);
+        seen.put(path, new Entry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), hash(reportFile), reportDefinition));
+    }
+
+    /**
+     * Write the entries of the report files that were looked up or added to the index file,
+     * report files that no longer exist or failed to parse are dropped
+     */
+    void save() {
+        final IndexFile file = new IndexFile();
+        file.version = VERSION;
+        file.entries = new ArrayList<>(seen.values());
+        file.entries.sort((a, b) -> a.path.compareTo(b.path));
+        try {
+            Path parent = indexFile.toAbsolutePath().getParent();
+            if (Objects.nonNull(parent)) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), file);
+            try {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write report index {}", indexFile, e);
+        }
+    }
+
+    private static String key(Path reportFile) {
+        return reportFile.toAbsolutePath().normalize().toString();
+    }
+
+    @SuppressWarnings("UnstableApiUsage")
+    private static String hash(Path reportFile) throws IOException {
+        return MoreFiles.asByteSource(reportFile).hash(Hashing.sha256()).toString();
+    }
+
+    private static final class IndexFile {
+        @JsonProperty("version")
+        int version;
+
+        @JsonProperty("entries")
+        List<Entry> entries;
+    }
+
+    private static final class Entry {
+        @JsonProperty("path")
+        String path;
+
+        @JsonProperty("size")
+        long size;
+
+        @JsonProperty("lastModified")
+        long lastModified;
+
+        @JsonProperty("hash")
+        String hash;
+
+        @JsonProperty("definition")
+        ReportDefinition reportDefinition;
+
+        Entry() {
+        }
+
+        Entry(String path, long size, long lastModified, String hash, ReportDefinition reportDefinition) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.reportDefinition = reportDefinition;
+        }
+    }
+}
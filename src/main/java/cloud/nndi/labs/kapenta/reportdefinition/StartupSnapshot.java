@@ -0,0 +1,225 @@
+package cloud.nndi.labs.kapenta.reportdefinition;
+
+import cloud.nndi.labs.kapenta.Server;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Snapshot of the metadata of the validated reports (<code>/reports.json</code>) and the
+ * generated OpenAPI document, saved so that the next start of the server can serve them
+ * without building them again.
+ *
+ * The snapshot records the sources it was built from: the version of the application,
+ * the configuration file with a hash of its contents and the size and last modified time
+ * of every report file. It is only current while all of them are unchanged, so a server
+ * upgraded to another version builds the documents again.
+ */
+public final class StartupSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupSnapshot.class);
+
+    private static final ObjectMapper objectMapper = Server.OBJECT_MAPPER;
+
+    private static final int VERSION = 2;
+
+    /**
+     * Version of the application from the build, or the manifest of its jar
+     */
+    static final String APPLICATION_VERSION = applicationVersion();
+
+    @JsonProperty("version")
+    private int version;
+
+    @JsonProperty("applicationVersion")
+    private String applicationVersion;
+
+    @JsonProperty("sources")
+    private List<Source> sources;
+
+    @JsonProperty("reports")
+    private JsonNode reports;
+
+    @JsonProperty("openapi")
+    private JsonNode openApi;
+
+    private StartupSnapshot() {
+    }
+
+    /**
+     * Read the snapshot from the given file
+     *
+     * @param file the snapshot file
+     * @return the snapshot, empty if there is none or it cannot be read
+     */
+    public static Optional<StartupSnapshot> load(Path file) {
+        Objects.requireNonNull(file, "file");
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            StartupSnapshot snapshot = objectMapper.readValue(file.toFile(), StartupSnapshot.class);
+            if (snapshot.version != VERSION || Objects.isNull(snapshot.sources)) {
+                return Optional.empty();
+            }
+            return Optional.of(snapshot);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read startup snapshot {}", file, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Describe the current state of the sources of a snapshot
+     *
+     * @param configurationFile the configuration file
+     * @param reportFiles the report files of the configured reports
+     * @return the sources, files that cannot be read are left out
+     */
+    public static List<Source> sources(Path configurationFile, Collection<Path> reportFiles) {
+        final List<Source> sources = new ArrayList<>();
+        source(configurationFile, true).ifPresent(sources::add);
+        reportFiles.forEach(reportFile -> source(reportFile, false).ifPresent(sources::add));
+        return sources;
+    }
+
+    private static String applicationVersion() {
+        try (InputStream is = StartupSnapshot.class.getResourceAsStream("/kapenta.properties")) {
+            if (Objects.nonNull(is)) {
+                Properties properties = new Properties();
+                properties.load(is);
+                String version = properties.getProperty("version");
+                if (Objects.nonNull(version) && !version.startsWith("${")) {
+                    return version;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read the application version", e);
+        }
+        return StartupSnapshot.class.getPackage().getImplementationVersion();
+    }
+
+    private static Optional<Source> source(Path file, boolean hashed) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            String hash = hashed ? MoreFiles.asByteSource(file).hash(Hashing.sha256()).toString() : null;
+            return Optional.of(new Source(file.toAbsolutePath().normalize().toString(),
+                attrs.size(), attrs.lastModifiedTime().toMillis(), hash));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Write a snapshot, the file is replaced in one go so a server starting at the same time
+     * never reads a partial snapshot
+     *
+     * @param file the snapshot file
+     * @param sources the sources the documents were built from
+     * @param reports the <code>/reports.json</code> document
+     * @param openApi the OpenAPI document
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(Path file, List<Source> sources, JsonNode reports, JsonNode openApi) throws IOException {
+        write(file, APPLICATION_VERSION, sources, reports, openApi);
+    }
+
+    static void write(Path file, String applicationVersion, List<Source> sources, JsonNode reports, JsonNode openApi) throws IOException {
+        final StartupSnapshot snapshot = new StartupSnapshot();
+        snapshot.version = VERSION;
+        snapshot.applicationVersion = applicationVersion;
+        snapshot.sources = sources;
+        snapshot.reports = reports;
+        snapshot.openApi = openApi;
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (Objects.nonNull(parent)) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writeValue(tmp.toFile(), snapshot);
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Whether the snapshot was built by this version of the application from the given sources
+     *
+     * @param current the current state of the sources
+     * @return true if neither the application nor any of the sources changed
+     */
+    public boolean isCurrent(List<Source> current) {
+        return Objects.equals(applicationVersion, APPLICATION_VERSION) && sources.equals(current);
+    }
+
+    public JsonNode getReports() {
+        return reports;
+    }
+
+    public JsonNode getOpenApi() {
+        return openApi;
+    }
+
+    /**
+     * A file the snapshot was built from
+     */
+    public static final class Source {
+        @JsonProperty("path")
+        private String path;
+
+        @JsonProperty("size")
+        private long size;
+
+        @JsonProperty("lastModified")
+        private long lastModified;
+
+        @JsonProperty("hash")
+        private String hash;
+
+        private Source() {
+        }
+
+        Source(String path, long size, long lastModified, String hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Source that = (Source) o;
+            return size == that.size &&
+                lastModified == that.lastModified &&
+                Objects.equals(path, that.path) &&
+                Objects.equals(hash, that.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified, hash);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package cloud.nndi.labs.kapenta.schedule;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * A cron expression of five fields: minute, hour, day of month, month and day of week.
+ *
+ * Fields may be <code>*</code>, a value, a range <code>1-5</code>, a step <code>*&#47;15</code>
+ * or <code>0-30/10</code>, or a list of these, e.g. <code>0 6,18 * * MON-FRI</code>. Months
+ * and days of the week may be given by their first three letters, Sunday is 0 or 7. When
+ * both the day of month and the day of week are restricted a day matching either of them
+ * matches. <code>@hourly</code>, <code>@daily</code>, <code>@weekly</code> and
+ * <code>@monthly</code> are accepted as well.
+ */
+public final class CronExpression {
+
+    private static final String[] MONTHS = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+
+    private static final String[] DAYS = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+    /**
+     * Longest time to look ahead for a matching minute, e.g. for the 29th of February
+     */
+    private static final int MAX_YEARS = 8;
+
+    private final String expression;
+
+    private final BitSet minutes;
+
+    private final BitSet hours;
+
+    private final BitSet daysOfMonth;
+
+    private final BitSet months;
+
+    private final BitSet daysOfWeek;
+
+    private final boolean anyDayOfMonth;
+
+    private final boolean anyDayOfWeek;
+
+    private CronExpression(String expression, String[] fields) {
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59, null);
+        this.hours = parseField(fields[1], 0, 23, null);
+        this.daysOfMonth = parseField(fields[2], 1, 31, null);
+        this.months = parseField(fields[3], 1, 12, MONTHS);
+        final BitSet days = parseField(fields[4], 0, 7, DAYS);
+        if (days.get(7)) {
+            days.set(0);
+        }
+        this.daysOfWeek = days;
+        this.anyDayOfMonth = fields[2].startsWith("*");
+        this.anyDayOfWeek = fields[4].startsWith("*");
+    }
+
+    /**
+     * Parse a cron expression
+     *
+     * @param expression the expression
+     * @return the parsed expression
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public static CronExpression parse(String expression) {
+        Objects.requireNonNull(expression, "expression");
+        final String trimmed = expression.trim();
+        final String expanded;
+        switch (trimmed.toLowerCase(Locale.ROOT)) {
+            case "@hourly":
+                expanded = "0 * * * *";
+                break;
+            case "@daily":
+            case "@midnight":
+                expanded = "0 0 * * *";
+                break;
+            case "@weekly":
+                expanded = "0 0 * * 0";
+                break;
+            case "@monthly":
+                expanded = "0 0 1 * *";
+                break;
+            default:
+                expanded = trimmed;
+        }
+
+        final String[] fields = expanded.split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException(String.format("Cron expression '%s' must have 5 fields: minute hour day-of-month month day-of-week", expression));
+        }
+        try {
+            return new CronExpression(expression, fields);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid cron expression '%s'. %s", expression, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * The first time after the given time that matches the expression
+     *
+     * @param after the time to start from, the result is at least a minute later
+     * @return the next matching time, in the time zone of <code>after</code>
+     * @throws IllegalStateException if no time matches, e.g. for the 31st of February
+     */
+    public ZonedDateTime next(ZonedDateTime after) {
+        ZonedDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        final ZonedDateTime limit = time.plusYears(MAX_YEARS);
+        while (time.isBefore(limit)) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+            } else {
+                return time;
+            }
+        }
+        throw new IllegalStateException(String.format("Cron expression '%s' does not match any time", expression));
+    }
+
+    private boolean matchesDay(ZonedDateTime time) {
+        final boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        final boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonth && dayOfWeek;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    private static BitSet parseField(String field, int min, int max, String[] names) {
+        final BitSet values = new BitSet(max + 1);
+        for (String part: field.split(",")) {
+            int step = 1;
+            String range = part;
+            final int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseValue(part.substring(slash + 1), 1, max, null);
+                range = part.substring(0, slash);
+            }
+
+            int from;
+            int to;
+            if (range.equals("*")) {
+                from = min;
+                to = max;
+            } else {
+                final int dash = range.indexOf('-');
+                if (dash >= 0) {
+                    from = parseValue(range.substring(0, dash), min, max, names);
+                    to = parseValue(range.substring(dash + 1), min, max, names);
+                } else {
+                    from = parseValue(range, min, max, names);
+                    // A value with a step runs to the end of the range, e.g. 5/15
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from > to) {
+                throw new IllegalArgumentException(String.format("'%s' is not a valid range", part));
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private static int parseValue(String value, int min, int max, String[] names) {
+        if (Objects.nonNull(names)) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase(value)) {
+                    return i + (min == 1 ? 1 : 0);
+                }
+            }
+        }
+        final int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("'%s' is not a number", value));
+        }
+        if (parsed < min || parsed > max) {
+            throw new IllegalArgumentException(String.format("%d is not between %d and %d", parsed, min, max));
+        }
+        return parsed;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,84 @@
+package cloud.nndi.labs.kapenta.schedule;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expands the dates in the parameters of a schedule. Values may contain
+ * <code>${today}</code>, <code>${yesterday}</code>, <code>${tomorrow}</code>,
+ * <code>${today-7}</code> or <code>${today+1}</code> for a number of days from today,
+ * <code>${startOfMonth}</code>, <code>${startOfLastMonth}</code> and
+ * <code>${endOfLastMonth}</code>. Dates are given as <code>yyyy-MM-dd</code>.
+ */
+public final class ParameterTemplates {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([^}]*)}");
+
+    private static final Pattern DAYS_FROM_TODAY = Pattern.compile("today([+-])(\\d{1,5})");
+
+    private ParameterTemplates() {
+    }
+
+    /**
+     * Expand the templates in the values of the parameters
+     *
+     * @param parameters parameter names and values
+     * @param today the date the templates are relative to
+     * @return the parameters with the templates replaced, in the same order
+     * @throws IllegalArgumentException if a value has a template that is not known
+     */
+    public static Map<String, String> expand(Map<String, String> parameters, LocalDate today) {
+        final Map<String, String> expanded = new LinkedHashMap<>();
+        parameters.forEach((name, value) -> expanded.put(name, expand(value, today)));
+        return expanded;
+    }
+
+    /**
+     * Expand the templates in a value
+     *
+     * @param value the value
+     * @param today the date the templates are relative to
+     * @return the value with the templates replaced
+     * @throws IllegalArgumentException if the value has a template that is not known
+     */
+    public static String expand(String value, LocalDate today) {
+        if (Objects.isNull(value) || !value.contains("${")) {
+            return value;
+        }
+        final Matcher matcher = VARIABLE.matcher(value);
+        final StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(resolve(matcher.group(1).trim(), today).toString()));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static LocalDate resolve(String variable, LocalDate today) {
+        switch (variable) {
+            case "today":
+                return today;
+            case "yesterday":
+                return today.minusDays(1);
+            case "tomorrow":
+                return today.plusDays(1);
+            case "startOfMonth":
+                return today.withDayOfMonth(1);
+            case "startOfLastMonth":
+                return today.withDayOfMonth(1).minusMonths(1);
+            case "endOfLastMonth":
+                return today.withDayOfMonth(1).minusDays(1);
+            default:
+                final Matcher matcher = DAYS_FROM_TODAY.matcher(variable);
+                if (matcher.matches()) {
+                    final long days = Long.parseLong(matcher.group(2));
+                    return "+".equals(matcher.group(1)) ? today.plusDays(days) : today.minusDays(days);
+                }
+                throw new IllegalArgumentException(String.format("Unknown parameter template ${%s}", variable));
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package cloud.nndi.labs.kapenta.schedule;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.Schedule;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders reports ahead of the requests for them on the schedules in their configuration.
+ *
+ * Each schedule renders the report for each of its sets of parameters and output types
+ * when its cron expression matches, in the time zone of the report. At most
+ * <code>maxConcurrentRenders</code> of them are rendered at a time so pre-rendering
+ * doesn't saturate the database, and a run that is still in progress when the schedule
+ * matches again is not started twice.
+ */
+public final class ReportScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportScheduler.class);
+
+    /**
+     * Renders a report into the output cache
+     */
+    @FunctionalInterface
+    public interface Prerenderer {
+        /**
+         * @param outputType output type of the report
+         * @param parameters the parameters as they would be given in the query string of a request
+         * @param ttl how long the rendered report is served from the output cache
+         * @throws Exception if the report cannot be rendered
+         */
+        void prerender(OutputType outputType, Map<String, List<String>> parameters, Duration ttl) throws Exception;
+    }
+
+    private final Clock clock;
+
+    private final ScheduledExecutorService timer;
+
+    private final Map<String, List<ScheduledReport>> scheduled = new HashMap<>();
+
+    public ReportScheduler() {
+        this(Clock.systemUTC());
+    }
+
+    ReportScheduler(Clock clock) {
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("kapenta-scheduler-%d")
+            .setDaemon(true)
+            .build());
+    }
+
+    /**
+     * Schedule the pre-rendering of a report, replacing the schedules it had before
+     *
+     * @param reportPath path of the report resource
+     * @param schedules the schedules of the report
+     * @param outputTypes output types the report supports
+     * @param zoneId time zone the schedules and the dates in their parameters are in
+     * @param prerenderer renders the report
+     * @throws IllegalArgumentException if a schedule is not valid, the report keeps the schedules it had
+     */
+    public synchronized void schedule(String reportPath,
+                                      List<Schedule> schedules,
+                                      EnumSet<OutputType> outputTypes,
+                                      ZoneId zoneId,
+                                      Prerenderer prerenderer) {
+        final List<ScheduledReport> next = new ArrayList<>();
+        for (Schedule schedule: schedules) {
+            next.add(new ScheduledReport(reportPath, schedule, outputTypes, zoneId, prerenderer));
+        }
+        unschedule(reportPath);
+        scheduled.put(reportPath, next);
+        next.forEach(ScheduledReport::start);
+        LOGGER.info("Scheduled {} pre-render(s) of {}", next.size(), reportPath);
+    }
+
+    /**
+     * Stop pre-rendering a report, renders in progress are interrupted
+     *
+     * @param reportPath path of the report resource
+     */
+    public synchronized void unschedule(String reportPath) {
+        Optional.ofNullable(scheduled.remove(reportPath))
+            .ifPresent(previous -> previous.forEach(ScheduledReport::cancel));
+    }
+
+    /**
+     * Stop pre-rendering all reports
+     */
+    public synchronized void shutdown() {
+        scheduled.values().forEach(reports -> reports.forEach(ScheduledReport::cancel));
+        scheduled.clear();
+        timer.shutdownNow();
+    }
+
+    /**
+     * A schedule of a report
+     */
+    private final class ScheduledReport {
+        private final String reportPath;
+        private final CronExpression cron;
+        private final List<OutputType> outputTypes = new ArrayList<>();
+        private final List<Map<String, String>> parameterSets;
+        private final ZoneId zoneId;
+        private final Duration ttl;
+        private final boolean runOnStartup;
+        private final Prerenderer prerenderer;
+        private final ThreadPoolExecutor renderPool;
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private final Counter succeededCounter;
+        private final Counter failedCounter;
+        private volatile ScheduledFuture<?> nextRun;
+        private volatile boolean cancelled = false;
+
+        ScheduledReport(String reportPath, Schedule schedule, EnumSet<OutputType> supported, ZoneId zoneId, Prerenderer prerenderer) {
+            this.reportPath = reportPath;
+            if (Objects.isNull(schedule.getCron())) {
+                throw new IllegalArgumentException("A schedule of " + reportPath + " has no cron expression");
+            }
+            this.cron = CronExpression.parse(schedule.getCron());
+            for (String extension: schedule.getExtensions()) {
+                final OutputType outputType;
+                try {
+                    outputType = OutputType.valueOf(extension.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(String.format("Unknown output type %s in a schedule of %s", extension, reportPath));
+                }
+                if (!supported.contains(outputType)) {
+                    throw new IllegalArgumentException(String.format("Report %s does not support the %s output type of its schedule", reportPath, outputType));
+                }
+                outputTypes.add(outputType);
+            }
+            this.parameterSets = Objects.isNull(schedule.getParameters())
+                ? Collections.singletonList(Collections.emptyMap())
+                : schedule.getParameters();
+            this.zoneId = zoneId;
+            // The templates are checked now instead of failing when the schedule runs
+            parameterSets.forEach(parameters -> ParameterTemplates.expand(parameters, LocalDate.now(clock.withZone(zoneId))));
+            this.ttl = Duration.ofSeconds(schedule.getTtlSeconds());
+            this.runOnStartup = schedule.isRunOnStartup();
+            this.prerenderer = prerenderer;
+
+            final int maxConcurrentRenders = Math.max(1, schedule.getMaxConcurrentRenders());
+            this.renderPool = new ThreadPoolExecutor(
+                maxConcurrentRenders,
+                maxConcurrentRenders,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("kapenta-prerender-" + reportPath.replaceFirst("/", "") + "-%d")
+                    .setDaemon(true)
+                    .build());
+            this.renderPool.allowCoreThreadTimeOut(true);
+            this.succeededCounter = renderCounter("succeeded");
+            this.failedCounter = renderCounter("failed");
+        }
+
+        private Counter renderCounter(String outcome) {
+            return Counter.builder("kapenta.schedule.renders")
+                .description("Number of reports rendered ahead of requests on a schedule")
+                .tag("report", reportPath)
+                .tag("outcome", outcome)
+                .register(Metrics.globalRegistry);
+        }
+
+        void start() {
+            if (runOnStartup) {
+                timer.execute(this::run);
+            }
+            arm();
+        }
+
+        /**
+         * Schedule the next run
+         */
+        private void arm() {
+            if (cancelled) {
+                return;
+            }
+            final ZonedDateTime now = ZonedDateTime.now(clock.withZone(zoneId));
+            final ZonedDateTime next = cron.next(now);
+            try {
+                nextRun = timer.schedule(() -> {
+                    try {
+                        run();
+                    } finally {
+                        arm();
+                    }
+                }, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+                LOGGER.debug("Next pre-render of {} ({}) at {}", reportPath, cron, next);
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Scheduler is shut down, not scheduling {}", reportPath);
+            }
+        }
+
+        /**
+         * Render the report for each set of parameters and output type on the render pool
+         */
+        private void run() {
+            if (cancelled) {
+                return;
+            }
+            if (!running.compareAndSet(false, true)) {
+                LOGGER.warn("Skipping pre-render of {} ({}), the previous run is still in progress", reportPath, cron);
+                return;
+            }
+
+            final LocalDate today = LocalDate.now(clock.withZone(zoneId));
+            final AtomicInteger remaining = new AtomicInteger(parameterSets.size() * outputTypes.size());
+            final AtomicInteger failed = new AtomicInteger();
+            final long start = System.nanoTime();
+            if (remaining.get() == 0) {
+                running.set(false);
+                return;
+            }
+            for (Map<String, String> parameterSet: parameterSets) {
+                final Map<String, List<String>> parameters = new LinkedHashMap<>();
+                ParameterTemplates.expand(parameterSet, today)
+                    .forEach((name, value) -> parameters.put(name, Collections.singletonList(value)));
+                for (OutputType outputType: outputTypes) {
+                    try {
+                        renderPool.execute(() -> {
+                            try {
+                                prerenderer.prerender(outputType, parameters, ttl);
+                                succeededCounter.increment();
+                            } catch (Exception e) {
+                                failed.incrementAndGet();
+                                failedCounter.increment();
+                                LOGGER.error("Failed to pre-render {} as {} for {}. Error: {}", reportPath, outputType, parameters, e.getMessage(), e);
+                            } finally {
+                                if (remaining.decrementAndGet() == 0) {
+                                    running.set(false);
+                                    LOGGER.info("Pre-rendered {} ({} failed) in {} ms",
+                                        reportPath, failed.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                                }
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // The schedule was cancelled
+                        running.set(false);
+                        return;
+                    }
+                }
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (Objects.nonNull(nextRun)) {
+                nextRun.cancel(false);
+            }
+            renderPool.shutdownNow();
+        }
+    }
+}
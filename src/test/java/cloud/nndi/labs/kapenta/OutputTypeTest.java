@@ -0,0 +1,17 @@
+package cloud.nndi.labs.kapenta;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link OutputType} tests
+ */
+public class OutputTypeTest {
+
+    @Test
+    public void testWorkbookResponsesHaveNoCharset() {
+        assertEquals("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", OutputType.XLSX.getResponseContentType());
+        assertEquals("text/csv;charset=utf-8", OutputType.CSV.getResponseContentType());
+    }
+}
@@ -0,0 +1,68 @@
+package cloud.nndi.labs.kapenta.benchmark;
+
+import cloud.nndi.labs.kapenta.config.BasicAuth;
+import cloud.nndi.labs.kapenta.http.filter.BasicAuthenticationFilter;
+import io.javalin.http.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BasicAuthenticationFilter} checking the credentials of a request,
+ * for a single configured user and for a long list of users where the matching user
+ * is the last one. Rejected requests are not measured as they are dominated by logging.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BasicAuthenticationFilterBenchmark {
+
+    @Param({"1", "100"})
+    public int users;
+
+    private BasicAuthenticationFilter filter;
+
+    private Context authorized;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final List<BasicAuth.User> userList = new ArrayList<>();
+        for (int i = 1; i <= users; i++) {
+            userList.add(new BasicAuth.User("user" + i, "password" + i));
+        }
+        filter = new BasicAuthenticationFilter(userList);
+        authorized = context("user" + users, "password" + users);
+    }
+
+    @Benchmark
+    public void authorized() throws Exception {
+        filter.handle(authorized);
+    }
+
+    private static Context context(String username, String password) {
+        final String credentials = Base64.getEncoder()
+            .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        return BenchmarkContexts.of(
+            Collections.emptyMap(),
+            Collections.singletonMap("Authorization", "Basic " + credentials));
+    }
+}
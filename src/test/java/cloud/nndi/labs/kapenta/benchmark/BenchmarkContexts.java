@@ -0,0 +1,72 @@
+package cloud.nndi.labs.kapenta.benchmark;
+
+import io.javalin.http.Context;
+import io.javalin.validation.Validation;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Minimal Javalin {@link Context}s for benchmarking handlers without a server.
+ *
+ * The contexts answer the query parameter, header and validation methods from
+ * fixed maps, responses are discarded. Other methods use Javalin's default
+ * implementations or throw {@link UnsupportedOperationException}.
+ */
+public final class BenchmarkContexts {
+
+    private static final Validation VALIDATION = new Validation();
+
+    private BenchmarkContexts() {
+    }
+
+    public static Context of(Map<String, String> queryParams, Map<String, String> headers) {
+        final Map<String, List<String>> queryParamMap = queryParams.entrySet().stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> Collections.singletonList(e.getValue())));
+
+        final InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "queryParamMap":
+                    return queryParamMap;
+                case "queryParam":
+                    return queryParams.get((String) args[0]);
+                case "headerMap":
+                    return headers;
+                case "header":
+                    if (args.length == 1) {
+                        return headers.get((String) args[0]);
+                    }
+                    return proxy;
+                case "appData":
+                    if (args[0] == Validation.ValidationKey) {
+                        return VALIDATION;
+                    }
+                    throw new UnsupportedOperationException("appData " + args[0]);
+                case "status":
+                case "json":
+                case "result":
+                    return args == null || args.length == 0 ? null : proxy;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "BenchmarkContext" + queryParams;
+                default:
+                    if (method.isDefault()) {
+                        return InvocationHandler.invokeDefault(proxy, method, args);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        };
+
+        return (Context) Proxy.newProxyInstance(
+            BenchmarkContexts.class.getClassLoader(),
+            new Class<?>[] { Context.class },
+            handler);
+    }
+}
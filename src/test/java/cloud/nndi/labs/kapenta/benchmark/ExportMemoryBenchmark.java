@@ -0,0 +1,104 @@
+package cloud.nndi.labs.kapenta.benchmark;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.pentaho.Generator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap needed to generate a report with many rows as XLSX, which writes
+ * the rows of its main query to a workbook, and as HTML through the layout engine.
+ *
+ * The <code>gc</code> profiler reports the allocations of each render. The heap
+ * high-water mark of each iteration, the sum of the peak usage of the heap memory
+ * pools, is printed after the iteration. The in-memory database keeps its tables on
+ * the same heap, so the high-water mark grows with the rows for both output types; the
+ * difference between them is what the render itself holds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ExportMemoryBenchmark {
+
+    private static final String JDBC_URL = "jdbc:hsqldb:mem:kapenta_export_benchmark";
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"HTML", "XLSX"})
+    public OutputType outputType;
+
+    private Path workDir;
+
+    private String reportFile;
+
+    private Map<String, Object> parameters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ClassicEngineBoot.getInstance().start();
+
+        // Only the rows of the main query, the exports don't include sub-reports
+        parameters = new HashMap<>();
+        parameters.put("report_id", "1");
+        parameters.put("show_subreport1", "false");
+        parameters.put("show_subreport2", "false");
+
+        workDir = Files.createTempDirectory("kapenta-benchmark");
+        reportFile = GeneratorBenchmark.createDatabaseReport(workDir.resolve("test_report_export.prpt"), JDBC_URL, rows).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(workDir.toFile());
+    }
+
+    @Setup(Level.Iteration)
+    public void resetHeapPeak() {
+        System.gc();
+        ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printHeapPeak() {
+        long peak = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .mapToLong(pool -> pool.getPeakUsage().getUsed())
+            .sum();
+        System.out.printf("%n%s %,d rows heap high-water mark: %,.1f MB%n", outputType, rows, peak / 1048576.0);
+    }
+
+    @Benchmark
+    public void generateReport(Blackhole blackhole) throws Exception {
+        Generator.generateReport(reportFile, parameters, outputType,
+            new GeneratorBenchmark.BlackholeOutputStream(blackhole));
+    }
+}
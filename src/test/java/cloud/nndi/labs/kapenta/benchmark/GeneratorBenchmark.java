@@ -0,0 +1,150 @@
+package cloud.nndi.labs.kapenta.benchmark;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.pentaho.Generator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.DriverConnectionProvider;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.SQLReportDataFactory;
+import org.pentaho.reporting.engine.classic.core.modules.parser.bundle.writer.BundleWriter;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Generator#generateReport} rendering the example report to each output type.
+ *
+ * The <code>inline</code> report is <code>example/test_report.prpt</code> as is, with its
+ * inline data source. The <code>hsqldb</code> report is the same layout reading
+ * {@link #ROWS} rows from an in-memory HSQLDB database so the JDBC path is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    private static final String EXAMPLE_REPORT = "./example/test_report.prpt";
+
+    private static final String JDBC_URL = "jdbc:hsqldb:mem:kapenta_benchmark";
+
+    private static final int ROWS = 1000;
+
+    @Param({"inline", "hsqldb"})
+    public String report;
+
+    @Param({"HTML", "PDF", "TXT"})
+    public OutputType outputType;
+
+    private Path workDir;
+
+    private String reportFile;
+
+    private Map<String, Object> parameters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ClassicEngineBoot.getInstance().start();
+
+        parameters = new HashMap<>();
+        parameters.put("report_id", "1");
+        parameters.put("show_subreport1", "true");
+        parameters.put("show_subreport2", "true");
+
+        if ("hsqldb".equals(report)) {
+            workDir = Files.createTempDirectory("kapenta-benchmark");
+            reportFile = createDatabaseReport(workDir.resolve("test_report_hsqldb.prpt"), JDBC_URL, ROWS).toString();
+        } else {
+            reportFile = EXAMPLE_REPORT;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (workDir != null) {
+            FileUtils.deleteDirectory(workDir.toFile());
+        }
+    }
+
+    @Benchmark
+    public void generateReport(Blackhole blackhole) throws Exception {
+        Generator.generateReport(reportFile, parameters, outputType, new BlackholeOutputStream(blackhole));
+    }
+
+    /**
+     * Seeds the database with the given number of rows and writes a copy of the example report that queries it
+     */
+    static Path createDatabaseReport(Path target, String jdbcUrl, int rows) throws Exception {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, "SA", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE staff IF EXISTS");
+            statement.execute("CREATE TABLE staff (ID VARCHAR(64), \"Value\" VARCHAR(128))");
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO staff VALUES (?, ?)")) {
+                for (int i = 0; i < rows; i++) {
+                    insert.setString(1, "Employee " + i);
+                    insert.setString(2, "IT/Department " + (i % 10));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        final DriverConnectionProvider connectionProvider = new DriverConnectionProvider();
+        connectionProvider.setDriver("org.hsqldb.jdbc.JDBCDriver");
+        connectionProvider.setUrl(jdbcUrl);
+        connectionProvider.setProperty("user", "SA");
+        connectionProvider.setProperty("password", "");
+
+        final SQLReportDataFactory dataFactory = new SQLReportDataFactory(connectionProvider);
+        dataFactory.setQuery("it", "SELECT ID, \"Value\" FROM staff ORDER BY ID");
+
+        final MasterReport masterReport = Generator.templateCache().get(Paths.get(EXAMPLE_REPORT));
+        masterReport.setDataFactory(dataFactory);
+        BundleWriter.writeReportToZipFile(masterReport, target.toFile());
+        return target;
+    }
+
+    static final class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
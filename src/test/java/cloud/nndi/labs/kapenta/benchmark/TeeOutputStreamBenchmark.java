@@ -0,0 +1,103 @@
+package cloud.nndi.labs.kapenta.benchmark;
+
+import cloud.nndi.labs.kapenta.io.BufferedTeeOutputStream;
+import cloud.nndi.labs.kapenta.io.MultiplexOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link MultiplexOutputStream} with {@link BufferedTeeOutputStream} writing
+ * a 1MB report to two sinks in writes of the size the report processors tend to make.
+ *
+ * The sinks charge a fixed cost per call to stand in for the Jetty response and the
+ * backup file, where every call is a trip through the servlet or file channel layers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TeeOutputStreamBenchmark {
+
+    private static final int REPORT_SIZE = 1024 * 1024;
+
+    @Param({"1", "16", "256"})
+    public int writeSize;
+
+    private byte[] report;
+
+    private SinkOutputStream response;
+
+    private SinkOutputStream backup;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        report = new byte[REPORT_SIZE];
+        new Random(42).nextBytes(report);
+        response = new SinkOutputStream(blackhole);
+        backup = new SinkOutputStream(blackhole);
+    }
+
+    @Benchmark
+    public void multiplex() throws IOException {
+        try (OutputStream os = new MultiplexOutputStream(response, backup)) {
+            writeReport(os);
+        }
+    }
+
+    @Benchmark
+    public void bufferedTee() throws IOException {
+        try (OutputStream os = new BufferedTeeOutputStream(response, backup)) {
+            writeReport(os);
+        }
+    }
+
+    private void writeReport(OutputStream os) throws IOException {
+        if (writeSize == 1) {
+            for (byte b: report) {
+                os.write(b);
+            }
+            return;
+        }
+        for (int off = 0; off < report.length; off += writeSize) {
+            os.write(report, off, Math.min(writeSize, report.length - off));
+        }
+    }
+
+    private static final class SinkOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        SinkOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            Blackhole.consumeCPU(8);
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            Blackhole.consumeCPU(8);
+            blackhole.consume(b[off + len - 1]);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package cloud.nndi.labs.kapenta.bulk;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.parameters.ParameterBinder;
+import cloud.nndi.labs.kapenta.parameters.ParameterDefinition;
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link BulkRenderer} tests
+ */
+public class BulkRendererTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRendersEachParameterSet() throws Exception {
+        final ParameterBinder parameterBinder = ParameterBinder.compile(
+            new ReportDefinition("Statement", "statement.prpt",
+                Collections.singletonList(new ParameterDefinition("customer_id", true, Long.class))),
+            ZoneId.of("UTC"));
+        final Path outputDirectory = temporaryFolder.getRoot().toPath().resolve("statements");
+        final BulkRenderer bulkRenderer = new BulkRenderer(
+            (parameters, os) -> {
+                if (parameters.get("customer_id").equals(3L)) {
+                    throw new IllegalStateException("Database is down");
+                }
+                os.write(("Statement for customer " + parameters.get("customer_id")).getBytes(StandardCharsets.UTF_8));
+            },
+            parameterBinder,
+            OutputType.TXT,
+            outputDirectory,
+            2);
+
+        RenderStatistics statistics = bulkRenderer.render(new BufferedReader(new StringReader(
+            "{\"customer_id\": 1}\n{\"customer_id\": \"abc\"}\n\n{\"customer_id\": 3}\n{\"customer_id\": 4}\n")));
+
+        assertEquals(2, statistics.getSucceeded());
+        assertEquals(2, statistics.getFailed());
+        assertEquals(48, statistics.getBytes());
+        assertEquals("Statement for customer 1", Files.readString(outputDirectory.resolve("000001.txt")));
+        assertEquals("Statement for customer 4", Files.readString(outputDirectory.resolve("000004.txt")));
+        assertFalse(Files.exists(outputDirectory.resolve("000002.txt")));
+        assertFalse(Files.exists(outputDirectory.resolve("000003.txt")));
+
+        List<String> results = Files.readAllLines(outputDirectory.resolve(BulkRenderer.RESULTS_FILE));
+        assertEquals(4, results.size());
+        assertTrue(results.stream().anyMatch(result -> result.contains("customer_id must be a Long but was 'abc'")));
+        assertTrue(results.stream().anyMatch(result -> result.contains("\"error\":\"Database is down\"")));
+    }
+
+    @Test
+    public void testReportsLatencyPercentiles() {
+        RenderStatistics statistics = new RenderStatistics(4, 0, 0, 2_000_000_000L,
+            new long[] { 4_000_000, 1_000_000, 3_000_000, 2_000_000 });
+
+        assertEquals(2.0, statistics.throughput(), 0.001);
+        assertEquals(2.0, statistics.latencyMillis(50), 0.001);
+        assertEquals(4.0, statistics.latencyMillis(99), 0.001);
+        assertEquals(4.0, statistics.latencyMillis(100), 0.001);
+    }
+}
@@ -0,0 +1,182 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.OutputCache;
+import cloud.nndi.labs.kapenta.io.SpoolingOutputStream;
+import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.Metrics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ReportOutputCache} tests
+ */
+public class ReportOutputCacheTest {
+
+    private ReportOutputCache outputCache;
+
+    @Before
+    public void setUp() throws Exception {
+        OutputCache config = new OutputCache();
+        config.setEnabled(true);
+        config.setMaxInMemoryBytes(16);
+        config.setDirectory(Files.createTempDirectory("kapenta-test").toString());
+        outputCache = new ReportOutputCache("/hello", config);
+    }
+
+    @Test
+    public void testCloseRemovesTheMetricsOfTheCache() {
+        assertTrue(cacheMeters() > 0);
+
+        outputCache.close();
+
+        assertEquals(0, cacheMeters());
+    }
+
+    private static long cacheMeters() {
+        return Metrics.globalRegistry.getMeters().stream()
+            .filter(meter -> "/hello".equals(meter.getId().getTag("report")))
+            .filter(meter -> "kapenta.report.outputs".equals(meter.getId().getTag("cache"))
+                || "kapenta.report.prerendered".equals(meter.getId().getTag("cache")))
+            .count();
+    }
+
+    @Test
+    public void testRenderKeyComparesDatesByTheirTime() {
+        RenderKey first = RenderKey.of("/hello", ImmutableMap.of("from", new Date(1000)), OutputType.PDF);
+        RenderKey second = RenderKey.of("/hello", ImmutableMap.of("from", new Timestamp(1000)), OutputType.PDF);
+        RenderKey later = RenderKey.of("/hello", ImmutableMap.of("from", new Date(1001)), OutputType.PDF);
+
+        assertEquals(first, second);
+        assertNotEquals(first, later);
+    }
+
+    @Test
+    public void testRenderKeyIgnoresParameterOrder() {
+        RenderKey first = RenderKey.of("/hello", ImmutableMap.of("a", "1", "b", "2"), OutputType.PDF);
+        RenderKey second = RenderKey.of("/hello", ImmutableMap.of("b", "2", "a", "1"), OutputType.PDF);
+        RenderKey html = RenderKey.of("/hello", ImmutableMap.of("b", "2", "a", "1"), OutputType.HTML);
+
+        assertEquals(first, second);
+        assertNotEquals(first, html);
+    }
+
+    @Test
+    public void testCachesSmallOutputInMemory() throws Exception {
+        RenderKey key = RenderKey.of("/hello", ImmutableMap.of("report_id", "1"), OutputType.TXT);
+        CachedOutput output = render(key, "hello");
+
+        assertTrue(output.isInMemory());
+        assertEquals(Optional.of(output), outputCache.get(key));
+        assertTrue(output.matches(output.getEtag()));
+        assertTrue(output.matches("W/" + output.getEtag()));
+        assertFalse(output.matches("\"something-else\""));
+    }
+
+    @Test
+    public void testSpillsLargeOutputToDisk() throws Exception {
+        RenderKey key = RenderKey.of("/hello", ImmutableMap.of("report_id", "2"), OutputType.TXT);
+        String content = "a report that does not fit in sixteen bytes";
+        CachedOutput output = render(key, content);
+
+        assertFalse(output.isInMemory());
+        assertEquals(content.length(), output.getLength());
+        try (InputStream is = output.openStream()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            is.transferTo(bos);
+            assertEquals(content, bos.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testServesPrerenderedOutputUntilItExpires() throws Exception {
+        RenderKey key = RenderKey.of("/hello", ImmutableMap.of("report_id", "3"), OutputType.TXT);
+        SpoolingOutputStream spool = outputCache.newSpool();
+        spool.write("hello".getBytes(StandardCharsets.UTF_8));
+        CachedOutput output = outputCache.putPrerendered(key, spool, Duration.ofHours(1)).get();
+        assertEquals(Optional.of(output), outputCache.get(key));
+
+        RenderKey expiredKey = RenderKey.of("/hello", ImmutableMap.of("report_id", "4"), OutputType.TXT);
+        spool = outputCache.newSpool();
+        spool.write("hello".getBytes(StandardCharsets.UTF_8));
+        outputCache.putPrerendered(expiredKey, spool, Duration.ZERO);
+        assertEquals(Optional.empty(), outputCache.get(expiredKey));
+    }
+
+    @Test
+    public void testRemovesExpiredPrerenderedOutput() throws Exception {
+        RenderKey key = RenderKey.of("/hello", ImmutableMap.of("report_id", "6"), OutputType.TXT);
+        SpoolingOutputStream spool = outputCache.newSpool();
+        spool.write("a report that does not fit in sixteen bytes".getBytes(StandardCharsets.UTF_8));
+        CachedOutput output = outputCache.putPrerendered(key, spool, Duration.ZERO).get();
+        assertTrue(Files.exists(output.getFile()));
+
+        outputCache.removeExpired();
+
+        assertFalse(Files.exists(output.getFile()));
+    }
+
+    @Test
+    public void testEvictsPrerenderedOutputBeyondMaxBytes() throws Exception {
+        OutputCache config = new OutputCache();
+        config.setEnabled(true);
+        config.setMaxBytes(8);
+        config.setMaxInMemoryBytes(16);
+        config.setDirectory(Files.createTempDirectory("kapenta-test").toString());
+        ReportOutputCache smallCache = new ReportOutputCache("/small", config);
+        try {
+            RenderKey first = RenderKey.of("/small", ImmutableMap.of("report_id", "1"), OutputType.TXT);
+            RenderKey second = RenderKey.of("/small", ImmutableMap.of("report_id", "2"), OutputType.TXT);
+            for (RenderKey key : new RenderKey[] { first, second }) {
+                SpoolingOutputStream spool = smallCache.newSpool();
+                spool.write("hello".getBytes(StandardCharsets.UTF_8));
+                smallCache.putPrerendered(key, spool, Duration.ofHours(1));
+            }
+
+            assertEquals(Optional.empty(), smallCache.get(first));
+            assertTrue(smallCache.get(second).isPresent());
+        } finally {
+            smallCache.close();
+        }
+    }
+
+    @Test
+    public void testDeletesEvictedFileOnceItIsRead() throws Exception {
+        RenderKey key = RenderKey.of("/hello", ImmutableMap.of("report_id", "5"), OutputType.TXT);
+        String content = "a report that does not fit in sixteen bytes";
+        CachedOutput output = render(key, content);
+
+        try (InputStream is = output.openStream()) {
+            outputCache.invalidateAll();
+            assertTrue(Files.exists(output.getFile()));
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            is.transferTo(bos);
+            assertEquals(content, bos.toString("UTF-8"));
+        }
+        assertFalse(Files.exists(output.getFile()));
+        try {
+            output.openStream();
+            fail("Deleted output should not be readable");
+        } catch (NoSuchFileException e) {
+            // Treated as a cache miss
+        }
+    }
+
+    private CachedOutput render(RenderKey key, String content) throws Exception {
+        SpoolingOutputStream spool = outputCache.newSpool();
+        spool.write(content.getBytes(StandardCharsets.UTF_8));
+        return outputCache.put(key, spool).get();
+    }
+}
@@ -0,0 +1,141 @@
+package cloud.nndi.labs.kapenta.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link SingleFlight} tests
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareOneResult() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger releases = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final int callers = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            results.add(executor.submit(() -> join(singleFlight, calls, releases, started, finish)));
+            started.await(5, TimeUnit.SECONDS);
+            for (int i = 1; i < callers; i++) {
+                results.add(executor.submit(() -> join(singleFlight, calls, releases, started, finish)));
+            }
+            // Give the followers time to join the flight before the leader completes
+            Thread.sleep(200);
+            finish.countDown();
+
+            int leaders = 0;
+            for (Future<Boolean> result: results) {
+                if (result.get(5, TimeUnit.SECONDS)) leaders++;
+            }
+            assertEquals(1, leaders);
+            assertEquals(1, calls.get());
+            assertEquals(1, releases.get());
+            assertEquals(0, singleFlight.inFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsNotRemembered() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("key", () -> { throw new IllegalStateException("boom"); }, null);
+            fail("Expected the exception from the call");
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+
+        try (SingleFlight.Ticket<String> ticket = singleFlight.execute("key", () -> "value", null)) {
+            assertTrue(ticket.isLeader());
+            assertEquals("value", ticket.value());
+        }
+    }
+
+    @Test
+    public void testSequentialCallsAreNotShared() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final AtomicInteger releases = new AtomicInteger();
+
+        try (SingleFlight.Ticket<String> ticket = singleFlight.execute("key", () -> "first", v -> releases.incrementAndGet())) {
+            assertEquals("first", ticket.value());
+        }
+        try (SingleFlight.Ticket<String> ticket = singleFlight.execute("key", () -> "second", v -> releases.incrementAndGet())) {
+            assertEquals("second", ticket.value());
+        }
+        assertEquals(2, releases.get());
+    }
+
+    @Test
+    public void testFollowersStopWaitingAfterTheirTimeout() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final AtomicInteger releases = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> {
+                try (SingleFlight.Ticket<String> ticket = singleFlight.execute("key", () -> {
+                    started.countDown();
+                    finish.await(5, TimeUnit.SECONDS);
+                    return "value";
+                }, v -> releases.incrementAndGet())) {
+                    return ticket.value();
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            try {
+                singleFlight.execute("key", () -> "follower", v -> releases.incrementAndGet(), 50, TimeUnit.MILLISECONDS);
+                fail("Expected the follower to time out");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            finish.countDown();
+            assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+            // The follower gave up its share so the value is still released once
+            assertEquals(1, releases.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean join(SingleFlight<String, String> singleFlight,
+                                AtomicInteger calls,
+                                AtomicInteger releases,
+                                CountDownLatch started,
+                                CountDownLatch finish) throws Exception {
+        try (SingleFlight.Ticket<String> ticket = singleFlight.execute("report", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            finish.await(5, TimeUnit.SECONDS);
+            return "output";
+        }, v -> releases.incrementAndGet())) {
+            assertEquals("output", ticket.value());
+            assertFalse(releases.get() > 0);
+            return ticket.isLeader();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cloud.nndi.labs.kapenta.http;
+
+import cloud.nndi.labs.kapenta.config.Concurrency;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RenderExecutor} tests
+ */
+public class RenderExecutorTest {
+
+    @Test
+    public void testRejectsRendersBeyondTheQueue() throws Exception {
+        assertRejectsBeyondLimits(RenderExecutor.create("platform-test", new Concurrency(1, 1, 5)));
+    }
+
+    @Test
+    public void testRejectsRendersWhenNoMoreCallersMayWait() throws Exception {
+        final Semaphore callers = new Semaphore(1);
+        final RenderExecutor renderExecutor = RenderExecutor.create("callers-test", new Concurrency(4, 4, 5), callers);
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        Thread first = Thread.ofVirtual().start(() -> run(renderExecutor, () -> {
+            rendering.countDown();
+            finish.await(5, TimeUnit.SECONDS);
+        }));
+        assertTrue(rendering.await(5, TimeUnit.SECONDS));
+        assertTrue(renderExecutor.isSaturated());
+
+        try {
+            renderExecutor.run(() -> { });
+            fail("Expected the render to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        finish.countDown();
+        first.join(5000);
+        assertEquals(1, callers.availablePermits());
+        assertFalse(renderExecutor.isSaturated());
+        renderExecutor.shutdown();
+    }
+
+    private static void assertRejectsBeyondLimits(RenderExecutor renderExecutor) throws Exception {
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final AtomicInteger rendered = new AtomicInteger();
+        assertFalse(renderExecutor.isSaturated());
+
+        Thread first = Thread.ofVirtual().start(() -> run(renderExecutor, () -> {
+            rendering.countDown();
+            finish.await(5, TimeUnit.SECONDS);
+            rendered.incrementAndGet();
+        }));
+        assertTrue(rendering.await(5, TimeUnit.SECONDS));
+
+        // Waits for the first render to complete
+        Thread second = Thread.ofVirtual().start(() -> run(renderExecutor, rendered::incrementAndGet));
+        Thread.sleep(100);
+        assertTrue(renderExecutor.isSaturated());
+
+        try {
+            renderExecutor.run(rendered::incrementAndGet);
+            fail("Expected the render to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        finish.countDown();
+        first.join(5000);
+        second.join(5000);
+        assertEquals(2, rendered.get());
+        renderExecutor.shutdown();
+    }
+
+    private static void run(RenderExecutor renderExecutor, RenderExecutor.RenderTask task) {
+        try {
+            renderExecutor.run(task);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
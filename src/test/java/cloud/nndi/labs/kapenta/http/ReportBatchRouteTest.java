@@ -0,0 +1,132 @@
+package cloud.nndi.labs.kapenta.http;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.Batch;
+import cloud.nndi.labs.kapenta.config.Concurrency;
+import cloud.nndi.labs.kapenta.parameters.ParameterDefinition;
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ReportBatchRoute} tests
+ */
+public class ReportBatchRouteTest {
+
+    private ReportBatchRoute batchRoute;
+
+    @Before
+    public void setUp() {
+        final ReportDefinition reportDefinition = new ReportDefinition("Statement", "statement.prpt",
+            Collections.singletonList(new ParameterDefinition("customer_id", true, Long.class)));
+        final ReportResource reportResource = new ReportResourceImpl("/statement", new String[] { "GET" },
+            EnumSet.of(OutputType.TXT), reportDefinition);
+        final ReportRoute reportRoute = new ReportRoute(reportResource,
+            RenderExecutor.create("batch-test", new Concurrency(1, 1, 5)));
+        batchRoute = new ReportBatchRoute(reportResource, reportRoute, new Batch(true, 2, 4, 16, null));
+    }
+
+    @Test
+    public void testWritesItemsInOrderWithTheirOutcome() throws Exception {
+        final String request = "{\"customer_id\": 1}\n" +
+            "{\"customer_id\": \"abc\"}\n" +
+            "\n" +
+            "{\"customer_id\": 3}\n" +
+            "{\"customer_id\": 4}\n";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        ReportBatchRoute.BatchResult result = batchRoute.writeBatch(
+            new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)),
+            output,
+            OutputType.TXT,
+            (parameters, os) -> {
+                if (parameters.get("customer_id").equals(4L)) {
+                    throw new IllegalStateException("Database is down");
+                }
+                // Longer than the in-memory limit so the item is spooled to a file
+                os.write(("Statement for customer " + parameters.get("customer_id")).getBytes(StandardCharsets.UTF_8));
+            });
+
+        assertEquals(4, result.items);
+        assertEquals(2, result.failed);
+
+        Map<String, String> entries = unzip(output.toByteArray());
+        assertEquals("[000001.txt, 000002.error.json, 000003.txt, 000004.error.json, results.ndjson]",
+            entries.keySet().toString());
+        assertEquals("Statement for customer 1", entries.get("000001.txt"));
+        assertEquals("Statement for customer 3", entries.get("000003.txt"));
+        assertTrue(entries.get("000002.error.json").contains("customer_id must be a Long but was 'abc'"));
+        assertTrue(entries.get("000004.error.json").contains("Please contact the System Administrator"));
+
+        String[] results = entries.get(ReportBatchRoute.RESULTS_ENTRY).split("\n");
+        assertEquals(4, results.length);
+        assertEquals("{\"item\":1,\"parameters\":{\"customer_id\":1},\"status\":\"SUCCEEDED\",\"file\":\"000001.txt\",\"size\":24}", results[0]);
+        assertTrue(results[1].contains("\"status\":\"FAILED\""));
+    }
+
+    @Test
+    public void testFailsItemsBeyondTheLimit() throws Exception {
+        final StringBuilder request = new StringBuilder();
+        for (int i = 1; i <= 6; i++) {
+            request.append("{\"customer_id\": ").append(i).append("}\n");
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        ReportBatchRoute.BatchResult result = batchRoute.writeBatch(
+            new ByteArrayInputStream(request.toString().getBytes(StandardCharsets.UTF_8)),
+            output,
+            OutputType.TXT,
+            (parameters, os) -> os.write('x'));
+
+        assertEquals(5, result.items);
+        assertEquals(1, result.failed);
+        assertTrue(unzip(output.toByteArray()).get("000005.error.json").contains("more than 4 items"));
+    }
+
+    @Test
+    public void testFailsItemsTheRenderExecutorRejects() throws Exception {
+        final String request = "{\"customer_id\": 1}\n" +
+            "{\"customer_id\": 2}\n";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        ReportBatchRoute.BatchResult result = batchRoute.writeBatch(
+            new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)),
+            output,
+            OutputType.TXT,
+            (parameters, os) -> {
+                if (parameters.get("customer_id").equals(2L)) {
+                    throw new RejectedExecutionException("Render queue is full");
+                }
+                os.write('x');
+            });
+
+        assertEquals(2, result.items);
+        assertEquals(1, result.failed);
+        assertTrue(unzip(output.toByteArray()).get("000002.error.json").contains("Please try again later"));
+    }
+
+    private static Map<String, String> unzip(byte[] archive) throws Exception {
+        final Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+}
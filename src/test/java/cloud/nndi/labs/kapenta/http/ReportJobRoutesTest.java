@@ -0,0 +1,98 @@
+package cloud.nndi.labs.kapenta.http;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.config.Concurrency;
+import cloud.nndi.labs.kapenta.jobs.InMemoryJobStore;
+import cloud.nndi.labs.kapenta.jobs.ReportJob;
+import cloud.nndi.labs.kapenta.jobs.ReportJobs;
+import cloud.nndi.labs.kapenta.parameters.ParameterDefinition;
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import io.javalin.Javalin;
+import io.javalin.http.HandlerType;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * {@link ReportJobRoutes} tests
+ */
+public class ReportJobRoutesTest {
+
+    private Path directory;
+
+    private ReportJobs reportJobs;
+
+    private Javalin app;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("kapenta-job-routes");
+        reportJobs = new ReportJobs(new InMemoryJobStore(), directory, 1, 60);
+
+        final ReportDefinition reportDefinition = new ReportDefinition("Statement", "statement.prpt",
+            Collections.singletonList(new ParameterDefinition("customer_id", true, Long.class)));
+        final ReportResource reportResource = new ReportResourceImpl("/statement", new String[] { "GET" },
+            EnumSet.of(OutputType.TXT), reportDefinition);
+        final ReportRoute reportRoute = new ReportRoute(reportResource,
+            RenderExecutor.create("jobs-test", new Concurrency(1, 1, 5)));
+        final ReportJobRoutes jobRoutes = new ReportJobRoutes("/statement/jobs", reportResource, reportRoute, reportJobs);
+        final RouteTable routeTable = RouteTable.builder()
+            .add(HandlerType.GET, "/statement/jobs/{id}/download", jobRoutes.download())
+            .build();
+
+        app = Javalin.create(config -> config.http.gzipOnlyCompression())
+            .get("/*", context -> routeTable.match(HandlerType.GET, context.path()).orElseThrow().handle(context))
+            .start(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        app.stop();
+        reportJobs.shutdown();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testDownloadIsSentUncompressedWithItsLength() throws Exception {
+        // Large and repetitive enough to be compressed if it went through Javalin's compression
+        final byte[] report = "Statement for customer 1\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        final ReportJob job = reportJobs.submit("/statement", OutputType.TXT, os -> os.write(report));
+        awaitSuccess(job.getId());
+
+        final HttpResponse<byte[]> response = HttpClient.newHttpClient().send(
+            HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + "/statement/jobs/" + job.getId() + "/download"))
+                .header("Accept-Encoding", "gzip")
+                .build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        assertEquals(String.valueOf(report.length), response.headers().firstValue("Content-Length").orElseThrow());
+        assertArrayEquals(report, response.body());
+    }
+
+    private void awaitSuccess(String id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (reportJobs.find(id).get().getStatus() == ReportJob.Status.SUCCEEDED) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Job did not succeed: " + id);
+    }
+}
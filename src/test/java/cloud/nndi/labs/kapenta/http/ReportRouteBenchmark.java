@@ -0,0 +1,90 @@
+package cloud.nndi.labs.kapenta.http;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.benchmark.BenchmarkContexts;
+import cloud.nndi.labs.kapenta.config.Concurrency;
+import cloud.nndi.labs.kapenta.parameters.ParameterBinder;
+import cloud.nndi.labs.kapenta.parameters.ParameterDefinition;
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import io.javalin.http.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mapping the query parameters of a request to report parameters with the
+ * {@link ParameterBinder} compiled for the route, for a report with a parameter of each
+ * of the supported types. <code>bindInvalidParameters</code> binds a request with a value
+ * that cannot be converted and a missing required parameter.
+ *
+ * Lives in the http package as {@link ReportRoute} is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportRouteBenchmark {
+
+    private ReportRoute reportRoute;
+
+    private Context context;
+
+    private Context invalidContext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final ReportDefinition reportDefinition = new ReportDefinition("parameters", "./example/test_report.prpt", Arrays.asList(
+            new ParameterDefinition("report_id", true, String.class),
+            new ParameterDefinition("customer_id", false, Long.class),
+            new ParameterDefinition("limit", false, Integer.class),
+            new ParameterDefinition("active", false, Boolean.class),
+            new ParameterDefinition("from", false, java.util.Date.class)
+        ));
+
+        final Map<String, String> query = new LinkedHashMap<>();
+        query.put("report_id", "1");
+        query.put("customer_id", "123456789");
+        query.put("limit", "500");
+        query.put("active", "true");
+        query.put("from", "2024-01-31");
+        context = BenchmarkContexts.of(query, Collections.emptyMap());
+
+        final Map<String, String> invalidQuery = new LinkedHashMap<>(query);
+        invalidQuery.remove("report_id");
+        invalidQuery.put("customer_id", "not-a-number");
+        invalidContext = BenchmarkContexts.of(invalidQuery, Collections.emptyMap());
+
+        reportRoute = new ReportRoute(
+            new ReportResourceImpl("/parameters", new String[] { "GET" }, EnumSet.of(OutputType.HTML), reportDefinition),
+            RenderExecutor.create("benchmark", new Concurrency()),
+            Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    @Benchmark
+    public ParameterBinder.Binding bindParameters() {
+        return reportRoute.bindParameters(context);
+    }
+
+    @Benchmark
+    public ParameterBinder.Binding bindInvalidParameters() {
+        return reportRoute.bindParameters(invalidContext);
+    }
+}
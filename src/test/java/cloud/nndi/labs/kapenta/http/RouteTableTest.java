@@ -0,0 +1,43 @@
+package cloud.nndi.labs.kapenta.http;
+
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RouteTable} tests
+ */
+public class RouteTableTest {
+
+    private final Handler report = context -> {};
+
+    private final Handler download = context -> {};
+
+    private final RouteTable routeTable = RouteTable.builder()
+        .add(HandlerType.GET, "/report", report)
+        .add(HandlerType.GET, "/report/jobs/{id}/download", download)
+        .build();
+
+    @Test
+    public void testMatchesExactPaths() {
+        assertSame(report, routeTable.match(HandlerType.GET, "/report").orElseThrow());
+        assertFalse(routeTable.match(HandlerType.POST, "/report").isPresent());
+        assertFalse(routeTable.match(HandlerType.GET, "/report.pdf").isPresent());
+    }
+
+    @Test
+    public void testMatchesPathsWithASegment() {
+        assertTrue(routeTable.match(HandlerType.GET, "/report/jobs/1234/download").isPresent());
+        assertFalse(routeTable.match(HandlerType.GET, "/report/jobs//download").isPresent());
+        assertFalse(routeTable.match(HandlerType.GET, "/report/jobs/12/34/download").isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsPathsWithSeveralSegments() {
+        RouteTable.builder().add(HandlerType.GET, "/{report}/jobs/{id}", report);
+    }
+}
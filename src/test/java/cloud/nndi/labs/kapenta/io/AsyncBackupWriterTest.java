@@ -0,0 +1,84 @@
+package cloud.nndi.labs.kapenta.io;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * {@link AsyncBackupWriter} tests
+ */
+public class AsyncBackupWriterTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("kapenta-backup-test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testWritesBackupInTheBackground() throws Exception {
+        final byte[] content = new byte[AsyncBackupWriter.CHUNK_SIZE * 3 + 17];
+        Arrays.fill(content, (byte) 'k');
+        final Path file = directory.resolve("2024-01-01").resolve("report.pdf");
+
+        try (AsyncBackupWriter writer = new AsyncBackupWriter(1024 * 1024, AsyncBackupWriter.OverflowPolicy.BLOCK, 10)) {
+            try (OutputStream os = writer.open(file)) {
+                os.write(content, 0, 100);
+                os.write(content, 100, content.length - 100);
+            }
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testWritesSingleBytesAcrossChunks() throws Exception {
+        final byte[] content = new byte[AsyncBackupWriter.CHUNK_SIZE * 2 + 5];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        final Path file = directory.resolve("report.txt");
+
+        try (AsyncBackupWriter writer = new AsyncBackupWriter(0, AsyncBackupWriter.OverflowPolicy.BLOCK, 0)) {
+            try (OutputStream os = writer.open(file)) {
+                for (byte b : content) {
+                    os.write(b);
+                }
+            }
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testDropsBackupWhenBufferIsFull() throws Exception {
+        final byte[] content = new byte[AsyncBackupWriter.CHUNK_SIZE * 64];
+        final Path file = directory.resolve("report.pdf");
+
+        try (AsyncBackupWriter writer = new AsyncBackupWriter(0, AsyncBackupWriter.OverflowPolicy.DROP, 0)) {
+            // Fill the buffer faster than it can be written, writes never fail the caller
+            try (OutputStream os = writer.open(file)) {
+                for (int i = 0; i < 16; i++) {
+                    os.write(content);
+                }
+            }
+        }
+
+        assertFalse(Files.exists(file));
+    }
+}
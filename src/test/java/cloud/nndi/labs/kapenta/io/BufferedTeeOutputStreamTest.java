@@ -0,0 +1,69 @@
+package cloud.nndi.labs.kapenta.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link BufferedTeeOutputStream} tests
+ */
+public class BufferedTeeOutputStreamTest {
+
+    @Test
+    public void testWritesSameBytesToAllStreams() throws Exception {
+        final BufferPool pool = new BufferPool(8, 2);
+        final ByteArrayOutputStream primary = new ByteArrayOutputStream();
+        final ByteArrayOutputStream secondary = new ByteArrayOutputStream();
+        final byte[] expected = "Hello, this is a report".getBytes(StandardCharsets.UTF_8);
+
+        try (OutputStream os = new BufferedTeeOutputStream(pool, primary, secondary)) {
+            os.write(expected[0]);
+            os.write(expected, 1, 4);
+            os.write(expected, 5, expected.length - 5);
+        }
+
+        assertArrayEquals(expected, primary.toByteArray());
+        assertArrayEquals(expected, secondary.toByteArray());
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    public void testFailingSecondaryDoesNotFailPrimary() throws Exception {
+        final ByteArrayOutputStream primary = new ByteArrayOutputStream();
+        final OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        final byte[] expected = new byte[100_000];
+
+        final BufferedTeeOutputStream os = new BufferedTeeOutputStream(primary, failing);
+        os.write(expected);
+        os.close();
+
+        assertTrue(os.hasFailed(0));
+        assertEquals(expected.length, primary.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailingPrimaryFails() throws Exception {
+        final OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+
+        try (OutputStream os = new BufferedTeeOutputStream(failing, new ByteArrayOutputStream())) {
+            os.write(new byte[100_000]);
+        }
+    }
+}
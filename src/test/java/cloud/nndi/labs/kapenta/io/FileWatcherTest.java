@@ -0,0 +1,45 @@
+package cloud.nndi.labs.kapenta.io;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link FileWatcher} tests
+ */
+public class FileWatcherTest {
+
+    @Test
+    public void testNotifiesOnceForChangesToWatchedFiles() throws Exception {
+        final Path directory = Files.createTempDirectory("kapenta-watch");
+        final Path watched = Files.writeString(directory.resolve("kapenta.yml"), "reports: []");
+        final Path ignored = Files.writeString(directory.resolve("other.txt"), "");
+        final LinkedBlockingQueue<Set<Path>> changes = new LinkedBlockingQueue<>();
+
+        try (FileWatcher fileWatcher = new FileWatcher(200, changes::add)) {
+            fileWatcher.watch(Collections.singletonList(watched));
+
+            Files.writeString(ignored, "ignored");
+            Files.writeString(watched, "reports:");
+            Files.writeString(watched, "reports: []");
+
+            Set<Path> changed = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(changed);
+            assertEquals(Collections.singleton(watched.toAbsolutePath()), changed);
+            assertNull(changes.poll(1, TimeUnit.SECONDS));
+        } finally {
+            Files.deleteIfExists(watched);
+            Files.deleteIfExists(ignored);
+            Files.deleteIfExists(directory);
+        }
+    }
+}
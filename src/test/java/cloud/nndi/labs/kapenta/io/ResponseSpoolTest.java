@@ -0,0 +1,105 @@
+package cloud.nndi.labs.kapenta.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ResponseSpool} tests
+ */
+public class ResponseSpoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testKeepsSmallResponsesInPooledBuffers() throws Exception {
+        final DirectBufferPool pool = new DirectBufferPool(8, 4);
+        final byte[] expected = "Hello, this is a report".getBytes(StandardCharsets.UTF_8);
+
+        final ResponseSpool spool = new ResponseSpool(pool, 1024, temporaryFolder.getRoot().toPath());
+        spool.write(expected[0]);
+        spool.write(expected, 1, expected.length - 1);
+        spool.close();
+
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        spool.transferTo(Channels.newChannel(target));
+
+        assertTrue(spool.isInMemory());
+        assertEquals(expected.length, spool.size());
+        assertArrayEquals(expected, target.toByteArray());
+
+        spool.delete();
+        assertEquals(3, pool.available());
+
+        // The buffers are reused by the next response
+        final ResponseSpool next = new ResponseSpool(pool, 1024, temporaryFolder.getRoot().toPath());
+        next.write(expected);
+        assertEquals(0, pool.available());
+        next.delete();
+    }
+
+    @Test
+    public void testAllocatesHeapBuffersBeyondThePoolSize() {
+        final DirectBufferPool pool = new DirectBufferPool(8, 2);
+
+        final ByteBuffer first = pool.acquire();
+        final ByteBuffer second = pool.acquire();
+        final ByteBuffer third = pool.acquire();
+
+        assertTrue(first.isDirect());
+        assertTrue(second.isDirect());
+        assertFalse(third.isDirect());
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.available());
+        assertTrue(pool.acquire().isDirect());
+    }
+
+    @Test
+    public void testSpoolsLargeResponsesToAFile() throws Exception {
+        final DirectBufferPool pool = new DirectBufferPool(1024, 4);
+        final byte[] expected = new byte[10_000];
+        new Random(42).nextBytes(expected);
+
+        final ResponseSpool spool = new ResponseSpool(pool, 4096, temporaryFolder.getRoot().toPath());
+        spool.write(expected, 0, 3000);
+        spool.write(expected, 3000, expected.length - 3000);
+        spool.close();
+
+        // The buffers of the first 3000 bytes are released when the spool spills to the file
+        assertFalse(spool.isInMemory());
+        assertEquals(3, pool.available());
+
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        spool.transferTo(Channels.newChannel(target));
+        assertArrayEquals(expected, target.toByteArray());
+
+        final Path copy = temporaryFolder.getRoot().toPath().resolve("copy");
+        try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            spool.transferTo(channel);
+        }
+        assertArrayEquals(expected, Files.readAllBytes(copy));
+
+        final Path file = spool.getFile();
+        spool.delete();
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,163 @@
+package cloud.nndi.labs.kapenta.jobs;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ReportJobs} tests
+ */
+public class ReportJobsTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("kapenta-jobs-test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testRendersJobToFile() throws Exception {
+        ReportJobs reportJobs = new ReportJobs(new InMemoryJobStore(), directory, 1, 60);
+        try {
+            ReportJob job = reportJobs.submit("/report", OutputType.TXT,
+                os -> os.write("report".getBytes(StandardCharsets.UTF_8)));
+
+            ReportJob completed = awaitCompletion(reportJobs, job.getId());
+            assertEquals(ReportJob.Status.SUCCEEDED, completed.getStatus());
+            assertEquals(6, completed.getSize());
+            assertEquals("report", new String(Files.readAllBytes(Paths.get(completed.getOutputFile())), StandardCharsets.UTF_8));
+        } finally {
+            reportJobs.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedJobLeavesNoOutput() throws Exception {
+        ReportJobs reportJobs = new ReportJobs(new InMemoryJobStore(), directory, 1, 60);
+        try {
+            ReportJob job = reportJobs.submit("/report", OutputType.PDF, os -> {
+                os.write(1);
+                throw new IllegalStateException("boom");
+            });
+
+            ReportJob completed = awaitCompletion(reportJobs, job.getId());
+            assertEquals(ReportJob.Status.FAILED, completed.getStatus());
+            try (var files = Files.list(directory)) {
+                assertEquals(0, files.count());
+            }
+        } finally {
+            reportJobs.shutdown();
+        }
+    }
+
+    @Test
+    public void testPurgesExpiredJobs() throws Exception {
+        ReportJobs reportJobs = new ReportJobs(new InMemoryJobStore(), directory, 1, 0);
+        try {
+            ReportJob job = reportJobs.submit("/report", OutputType.TXT, os -> os.write(1));
+            ReportJob completed = awaitCompletion(reportJobs, job.getId());
+
+            Thread.sleep(10);
+            reportJobs.purgeExpired();
+
+            assertFalse(reportJobs.find(job.getId()).isPresent());
+            assertFalse(Files.exists(Paths.get(completed.getOutputFile())));
+        } finally {
+            reportJobs.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectsJobsBeyondTheQueue() throws Exception {
+        ReportJobs reportJobs = new ReportJobs(new InMemoryJobStore(), directory, 1, 1, 5, 60);
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        try {
+            ReportJob running = reportJobs.submit("/report", OutputType.TXT, os -> {
+                rendering.countDown();
+                finish.await(5, TimeUnit.SECONDS);
+            });
+            assertTrue(rendering.await(5, TimeUnit.SECONDS));
+            ReportJob queued = reportJobs.submit("/report", OutputType.TXT, os -> os.write(1));
+
+            try {
+                reportJobs.submit("/report", OutputType.TXT, os -> os.write(1));
+                fail("Expected the job to be rejected");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            assertEquals(5, reportJobs.getRetryAfterSeconds());
+
+            finish.countDown();
+            assertEquals(ReportJob.Status.SUCCEEDED, awaitCompletion(reportJobs, running.getId()).getStatus());
+            assertEquals(ReportJob.Status.SUCCEEDED, awaitCompletion(reportJobs, queued.getId()).getStatus());
+        } finally {
+            finish.countDown();
+            reportJobs.shutdown();
+        }
+    }
+
+    @Test
+    public void testSqliteStoreSurvivesRestart() throws Exception {
+        Path databaseFile = directory.resolve("jobs.db");
+
+        ReportJob running = new ReportJob("running", "/report", OutputType.PDF, Instant.now());
+        running.setStatus(ReportJob.Status.RUNNING);
+        ReportJob succeeded = new ReportJob("succeeded", "/report", OutputType.HTML, Instant.now());
+        succeeded.setStatus(ReportJob.Status.SUCCEEDED);
+        succeeded.setCompletedAt(Instant.now());
+        succeeded.setSize(42);
+
+        try (JobStore store = new SqliteJobStore(databaseFile)) {
+            store.save(running);
+            store.save(succeeded);
+        }
+
+        ReportJobs reportJobs = new ReportJobs(new SqliteJobStore(databaseFile), directory, 1, 3600);
+        try {
+            ReportJob interrupted = reportJobs.find("running").get();
+            assertEquals(ReportJob.Status.FAILED, interrupted.getStatus());
+            assertTrue(interrupted.getCompletedAt() != null);
+
+            ReportJob restored = reportJobs.find("succeeded").get();
+            assertEquals(ReportJob.Status.SUCCEEDED, restored.getStatus());
+            assertEquals(OutputType.HTML, restored.getOutputType());
+            assertEquals(42, restored.getSize());
+        } finally {
+            reportJobs.shutdown();
+        }
+    }
+
+    private static ReportJob awaitCompletion(ReportJobs reportJobs, String id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            ReportJob job = reportJobs.find(id).get();
+            if (job.getStatus().isFinished()) {
+                return job;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Job did not complete: " + id);
+    }
+}
@@ -0,0 +1,101 @@
+package cloud.nndi.labs.kapenta.loadtest;
+
+import cloud.nndi.labs.kapenta.pentaho.Generator;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.DriverConnectionProvider;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.SQLReportDataFactory;
+import org.pentaho.reporting.engine.classic.core.modules.parser.bundle.writer.BundleWriter;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Seeds an HSQLDB database for load tests and writes a report that queries it.
+ *
+ * Rows are spread evenly over <code>departments</code>, the report renders the rows of
+ * the department given in its <code>report_id</code> parameter. The tables are disk
+ * backed (<code>CACHED</code>) so large datasets don't count towards the heap of the
+ * server under test.
+ */
+final class Dataset {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    private final String jdbcUrl;
+
+    private final long rows;
+
+    private final int departments;
+
+    Dataset(Path directory, long rows, int departments) {
+        this.jdbcUrl = "jdbc:hsqldb:file:" + directory.resolve("loadtest").toAbsolutePath()
+            + ";hsqldb.default_table_type=cached;hsqldb.tx=mvcc";
+        this.rows = rows;
+        this.departments = Math.max(1, departments);
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    int departments() {
+        return departments;
+    }
+
+    /**
+     * Creates the table and inserts the rows
+     */
+    void seed() throws Exception {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, "SA", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE staff IF EXISTS");
+            statement.execute("CREATE TABLE staff (ID VARCHAR(64), \"Value\" VARCHAR(128), DEPT VARCHAR(16))");
+            statement.execute("CREATE INDEX staff_dept ON staff (DEPT)");
+
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO staff VALUES (?, ?, ?)")) {
+                for (long i = 0; i < rows; i++) {
+                    final int department = (int) (i % departments);
+                    insert.setString(1, "Employee " + i);
+                    insert.setString(2, "IT/Department " + department + "/Team " + (i % 97));
+                    insert.setString(3, String.valueOf(department));
+                    insert.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                        connection.commit();
+                    }
+                    if ((i + 1) % 1_000_000 == 0) {
+                        System.out.printf("Seeded %,d of %,d rows%n", i + 1, rows);
+                    }
+                }
+                insert.executeBatch();
+                connection.commit();
+            }
+            statement.execute("CHECKPOINT");
+        }
+    }
+
+    /**
+     * Writes a copy of the template report that reads the rows of one department
+     *
+     * @param template the report the layout is taken from, it must query <code>it</code> for <code>ID</code> and <code>Value</code>
+     * @param target where to write the report
+     */
+    void writeReport(Path template, Path target) throws Exception {
+        final DriverConnectionProvider connectionProvider = new DriverConnectionProvider();
+        connectionProvider.setDriver("org.hsqldb.jdbc.JDBCDriver");
+        connectionProvider.setUrl(jdbcUrl);
+        connectionProvider.setProperty("user", "SA");
+        connectionProvider.setProperty("password", "");
+
+        final SQLReportDataFactory dataFactory = new SQLReportDataFactory(connectionProvider);
+        dataFactory.setQuery("it", "SELECT ID, \"Value\" FROM staff WHERE DEPT = ${report_id} ORDER BY ID");
+
+        final MasterReport masterReport = Generator.templateCache().get(template);
+        masterReport.setDataFactory(dataFactory);
+        BundleWriter.writeReportToZipFile(masterReport, target.toFile());
+    }
+}
@@ -0,0 +1,163 @@
+package cloud.nndi.labs.kapenta.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies and outcomes of the requests made during a load test, per output type.
+ *
+ * Every client records into its own {@link Recorder}, the recorders are merged once the
+ * clients have stopped so recording doesn't contend on a shared structure.
+ */
+final class LoadResults {
+
+    /**
+     * Requests made by one client
+     */
+    static final class Recorder {
+        private final Map<String, Samples> samples = new TreeMap<>();
+
+        void success(String outputType, long latencyNanos, long bytes) {
+            Samples s = samples.computeIfAbsent(outputType, k -> new Samples());
+            s.add(latencyNanos);
+            s.bytes += bytes;
+        }
+
+        void rejected(String outputType) {
+            samples.computeIfAbsent(outputType, k -> new Samples()).rejected++;
+        }
+
+        void error(String outputType) {
+            samples.computeIfAbsent(outputType, k -> new Samples()).errors++;
+        }
+    }
+
+    /**
+     * Summary of the requests for one output type, or all of them
+     */
+    static final class Summary {
+        @JsonProperty
+        long requests;
+        @JsonProperty
+        long errors;
+        @JsonProperty
+        long rejected;
+        @JsonProperty
+        double errorRate;
+        @JsonProperty
+        double throughputPerSecond;
+        @JsonProperty
+        double megabytesPerSecond;
+        @JsonProperty
+        double p50Millis;
+        @JsonProperty
+        double p95Millis;
+        @JsonProperty
+        double p99Millis;
+        @JsonProperty
+        double maxMillis;
+    }
+
+    @JsonProperty
+    final Map<String, Object> settings = new TreeMap<>();
+
+    @JsonProperty
+    final Map<String, Summary> outputs = new TreeMap<>();
+
+    @JsonProperty
+    Summary total;
+
+    @JsonProperty
+    long heapHighWaterMarkBytes;
+
+    @JsonProperty
+    long heapMaxBytes;
+
+    static LoadResults of(Iterable<Recorder> recorders, double seconds) {
+        final Map<String, Samples> merged = new TreeMap<>();
+        final Samples all = new Samples();
+        for (Recorder recorder: recorders) {
+            recorder.samples.forEach((outputType, s) -> {
+                merged.computeIfAbsent(outputType, k -> new Samples()).addAll(s);
+                all.addAll(s);
+            });
+        }
+
+        final LoadResults results = new LoadResults();
+        merged.forEach((outputType, s) -> results.outputs.put(outputType, s.summarize(seconds)));
+        results.total = all.summarize(seconds);
+        return results;
+    }
+
+    void print() {
+        System.out.println();
+        settings.forEach((k, v) -> System.out.printf("%-22s %s%n", k, v));
+        System.out.println();
+        System.out.printf("%-8s %10s %8s %8s %8s %10s %9s %9s %9s %9s %9s%n",
+            "output", "requests", "errors", "rejected", "err %", "req/s", "MB/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        outputs.forEach(this::printRow);
+        printRow("total", total);
+        System.out.println();
+        System.out.printf("Heap high-water mark   %,.1f MB of %,.1f MB%n",
+            heapHighWaterMarkBytes / 1048576.0, heapMaxBytes / 1048576.0);
+    }
+
+    private void printRow(String name, Summary s) {
+        System.out.printf("%-8s %,10d %,8d %,8d %8.2f %,10.1f %9.2f %9.1f %9.1f %9.1f %9.1f%n",
+            name, s.requests, s.errors, s.rejected, s.errorRate * 100, s.throughputPerSecond, s.megabytesPerSecond,
+            s.p50Millis, s.p95Millis, s.p99Millis, s.maxMillis);
+    }
+
+    private static final class Samples {
+        long[] latencies = new long[1024];
+        int count = 0;
+        long bytes = 0;
+        long errors = 0;
+        long rejected = 0;
+
+        void add(long latencyNanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.latencies[i]);
+            }
+            bytes += other.bytes;
+            errors += other.errors;
+            rejected += other.rejected;
+        }
+
+        Summary summarize(double seconds) {
+            final long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+
+            final Summary summary = new Summary();
+            summary.requests = count + errors + rejected;
+            summary.errors = errors;
+            summary.rejected = rejected;
+            summary.errorRate = summary.requests == 0 ? 0 : (double) (errors + rejected) / summary.requests;
+            summary.throughputPerSecond = count / seconds;
+            summary.megabytesPerSecond = bytes / 1048576.0 / seconds;
+            summary.p50Millis = percentile(sorted, 0.50);
+            summary.p95Millis = percentile(sorted, 0.95);
+            summary.p99Millis = percentile(sorted, 0.99);
+            summary.maxMillis = sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6;
+            return summary;
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+        }
+    }
+}
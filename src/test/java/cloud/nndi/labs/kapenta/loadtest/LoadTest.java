@@ -0,0 +1,282 @@
+package cloud.nndi.labs.kapenta.loadtest;
+
+import cloud.nndi.labs.kapenta.Server;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.apache.commons.io.FileUtils;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for a Kapenta server, runs without any external services.
+ *
+ * Seeds an HSQLDB database, writes a report that queries it together with a YAML
+ * configuration for it, starts the {@link Server} from that configuration and has
+ * concurrent clients request the report in random output types. After a warm up the
+ * throughput, latency percentiles, error rates and heap high-water mark are printed
+ * and optionally written as JSON.
+ *
+ * <pre>
+ * mvn -Ploadtest verify -Dloadtest.args="--rows 1000000 --clients 32 --duration 120"
+ * </pre>
+ */
+@Command(name = "loadtest", mixinStandardHelpOptions = true,
+    description = "Runs a load test against a Kapenta server backed by an embedded HSQLDB database")
+public class LoadTest implements Callable<Integer> {
+
+    @Option(names = "--rows", description = "Number of rows to seed the database with (default: ${DEFAULT-VALUE})")
+    long rows = 10_000;
+
+    @Option(names = "--rows-per-report", description = "Approximate number of rows in each generated report (default: ${DEFAULT-VALUE})")
+    int rowsPerReport = 500;
+
+    @Option(names = "--clients", description = "Number of concurrent clients (default: ${DEFAULT-VALUE})")
+    int clients = 16;
+
+    @Option(names = "--warmup", description = "Seconds to warm up before measuring (default: ${DEFAULT-VALUE})")
+    int warmupSeconds = 15;
+
+    @Option(names = "--duration", description = "Seconds to measure for (default: ${DEFAULT-VALUE})")
+    int durationSeconds = 60;
+
+    @Option(names = "--outputs", split = ",", description = "Output types requested at random (default: ${DEFAULT-VALUE})")
+    List<String> outputs = Arrays.asList("html", "pdf", "txt");
+
+    @Option(names = "--port", description = "Port the server listens on (default: ${DEFAULT-VALUE})")
+    int port = 18080;
+
+    @Option(names = "--request-threads", description = "Threads the server handles requests on, defaults to the server's default")
+    Integer requestThreads;
+
+    @Option(names = "--max-concurrent-renders", description = "Renders allowed at the same time, defaults to the server's default")
+    Integer maxConcurrentRenders;
+
+    @Option(names = "--template", description = "Report whose layout is used (default: ${DEFAULT-VALUE})")
+    Path template = Paths.get("example/test_report.prpt");
+
+    @Option(names = "--work-dir", description = "Directory for the database, report and configuration, defaults to a temporary directory that is deleted afterwards")
+    Path workDir;
+
+    @Option(names = "--results", description = "Write the results as JSON to this file")
+    Path resultsFile;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final AtomicLong heapHighWaterMark = new AtomicLong();
+
+    public static void main(String... args) {
+        System.exit(new CommandLine(new LoadTest()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        final boolean temporary = workDir == null;
+        final Path directory = temporary ? Files.createTempDirectory("kapenta-loadtest") : Files.createDirectories(workDir);
+        try {
+            return run(directory);
+        } finally {
+            if (temporary) {
+                FileUtils.deleteQuietly(directory.toFile());
+            }
+        }
+    }
+
+    private int run(Path directory) throws Exception {
+        ClassicEngineBoot.getInstance().start();
+
+        final Dataset dataset = new Dataset(directory, rows, (int) Math.max(1, rows / Math.max(1, rowsPerReport)));
+        System.out.printf("Seeding %,d rows in %,d departments%n", dataset.rows(), dataset.departments());
+        dataset.seed();
+        dataset.writeReport(template.toAbsolutePath(), directory.resolve("loadtest.prpt"));
+
+        final Path configuration = writeConfiguration(directory);
+        final Thread serverThread = new Thread(
+            () -> Server.kapenta("127.0.0.1", port, configuration.toAbsolutePath().toString()),
+            "kapenta-loadtest-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+        awaitServer(httpClient);
+
+        System.out.printf("Warming up for %d seconds with %d clients%n", warmupSeconds, clients);
+        drive(httpClient, dataset, warmupSeconds);
+
+        System.gc();
+        heapHighWaterMark.set(memory.getHeapMemoryUsage().getUsed());
+        final Thread heapSampler = new Thread(this::sampleHeap, "kapenta-loadtest-heap");
+        heapSampler.setDaemon(true);
+        heapSampler.start();
+
+        System.out.printf("Measuring for %d seconds with %d clients%n", durationSeconds, clients);
+        final LoadResults results = drive(httpClient, dataset, durationSeconds);
+        heapSampler.interrupt();
+
+        results.heapHighWaterMarkBytes = heapHighWaterMark.get();
+        results.heapMaxBytes = memory.getHeapMemoryUsage().getMax();
+        results.settings.put("rows", rows);
+        results.settings.put("rowsPerReport", rows / dataset.departments());
+        results.settings.put("clients", clients);
+        results.settings.put("durationSeconds", durationSeconds);
+        results.settings.put("requestThreads", requestThreads == null ? "default" : requestThreads);
+        results.settings.put("maxConcurrentRenders", maxConcurrentRenders == null ? "default" : maxConcurrentRenders);
+        results.settings.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        results.print();
+
+        if (resultsFile != null) {
+            new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(resultsFile.toFile(), results);
+            System.out.println("Wrote results to " + resultsFile.toAbsolutePath());
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the clients for the given number of seconds
+     */
+    private LoadResults drive(HttpClient httpClient, Dataset dataset, int seconds) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final List<LoadResults.Recorder> recorders = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            final LoadResults.Recorder recorder = new LoadResults.Recorder();
+            recorders.add(recorder);
+            final Thread thread = new Thread(() -> client(httpClient, dataset, deadline, recorder), "kapenta-loadtest-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        return LoadResults.of(recorders, seconds);
+    }
+
+    private void client(HttpClient httpClient, Dataset dataset, long deadline, LoadResults.Recorder recorder) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            final String outputType = outputs.get(random.nextInt(outputs.size())).toLowerCase();
+            final HttpRequest request = HttpRequest.newBuilder(URI.create(String.format(
+                    "http://127.0.0.1:%d/api/loadtest.%s?report_id=%d",
+                    port, outputType, random.nextInt(dataset.departments()))))
+                .timeout(Duration.ofMinutes(2))
+                .GET()
+                .build();
+
+            final long start = System.nanoTime();
+            try {
+                final HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                final long latency = System.nanoTime() - start;
+                if (response.statusCode() == 200) {
+                    recorder.success(outputType, latency, response.body().length);
+                } else if (response.statusCode() == 503) {
+                    recorder.rejected(outputType);
+                } else {
+                    recorder.error(outputType);
+                }
+            } catch (IOException e) {
+                recorder.error(outputType);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void sampleHeap() {
+        while (!Thread.currentThread().isInterrupted()) {
+            heapHighWaterMark.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void awaitServer(HttpClient httpClient) throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(
+            String.format("http://127.0.0.1:%d/api/reports.json", port))).build();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (System.nanoTime() < deadline) {
+            try {
+                if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(250);
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    /**
+     * Writes the server configuration, the server reads the host and port from it
+     */
+    private Path writeConfiguration(Path directory) throws IOException {
+        final Map<String, Object> parameter = new LinkedHashMap<>();
+        parameter.put("name", "report_id");
+        parameter.put("type", "String");
+        parameter.put("required", true);
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("name", "Load Test");
+        report.put("path", "/loadtest");
+        report.put("file", "./loadtest.prpt");
+        report.put("methods", Collections.singletonMap("get", true));
+        report.put("ext", Arrays.asList("PDF", "HTML", "TXT"));
+        report.put("parameters", Arrays.asList(parameter));
+
+        final Map<String, Object> logging = new LinkedHashMap<>();
+        logging.put("rootLevel", "WARN");
+        logging.put("directory", directory.resolve("logs").toString());
+
+        final Map<String, Object> config = new LinkedHashMap<>();
+        config.put("host", "127.0.0.1");
+        config.put("port", port);
+        config.put("apiRoot", "/api");
+        config.put("logging", logging);
+        if (requestThreads != null) {
+            config.put("execution", Map.of("requestThreads", requestThreads));
+        }
+        if (maxConcurrentRenders != null) {
+            final Map<String, Object> concurrency = new LinkedHashMap<>();
+            concurrency.put("maxConcurrentRenders", maxConcurrentRenders);
+            concurrency.put("queueSize", clients);
+            config.put("concurrency", concurrency);
+        }
+        config.put("reports", Arrays.asList(report));
+
+        final Path file = directory.resolve("application.yaml");
+        new ObjectMapper(new YAMLFactory()).writeValue(file.toFile(), config);
+        return file;
+    }
+}
@@ -0,0 +1,100 @@
+package cloud.nndi.labs.kapenta.parameters;
+
+import cloud.nndi.labs.kapenta.reportdefinition.ReportDefinition;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ParameterBinder} tests
+ */
+public class ParameterBinderTest {
+
+    private final ReportDefinition reportDefinition = new ReportDefinition("customers", "customers.prpt", Arrays.asList(
+        new ParameterDefinition("customer_id", true, Long.class),
+        new ParameterDefinition("active", false, Boolean.class),
+        new ParameterDefinition("from_date", false, Timestamp.class),
+        new ParameterDefinition("branch", true, String.class)
+    ));
+
+    @Test
+    public void testConvertsParameters() {
+        ParameterBinder binder = ParameterBinder.compile(reportDefinition, ZoneId.of("UTC"));
+
+        ParameterBinder.Binding binding = binder.bind(query(
+            "Customer_ID", "42",
+            "active", "TRUE",
+            "branch", "Lilongwe",
+            "format", "pdf"));
+
+        Map<String, Object> parameters = binding.getParameters();
+        assertEquals(42L, parameters.get("customer_id"));
+        assertEquals(Boolean.TRUE, parameters.get("active"));
+        assertEquals("Lilongwe", parameters.get("branch"));
+        assertEquals("pdf", parameters.get("format"));
+        assertFalse(parameters.containsKey("Customer_ID"));
+        assertEquals(Optional.empty(), binding.missingRequired());
+        assertEquals(Optional.empty(), binding.invalid());
+    }
+
+    @Test
+    public void testReportsMissingRequiredParameters() {
+        ParameterBinder binder = ParameterBinder.compile(reportDefinition, ZoneId.of("UTC"));
+
+        ParameterBinder.Binding binding = binder.bind(query("active", "false"));
+
+        assertEquals(Optional.of("The following required parameters not provided: branch,customer_id"),
+            binding.missingRequired());
+    }
+
+    @Test
+    public void testReportsInvalidValues() {
+        ParameterBinder binder = ParameterBinder.compile(reportDefinition, ZoneId.of("UTC"));
+
+        ParameterBinder.Binding binding = binder.bind(query(
+            "customer_id", "92233720368547758070",
+            "active", "yes",
+            "from_date", "2024-02-30",
+            "branch", "Blantyre"));
+
+        // Invalid values count as provided
+        assertFalse(binding.missingRequired().isPresent());
+        assertTrue(binding.invalid().isPresent());
+        assertEquals("customer_id must be a Long but was '92233720368547758070'; " +
+                "active must be a Boolean but was 'yes'; " +
+                "from_date must be a Timestamp but was '2024-02-30'",
+            binding.invalid().get());
+        assertFalse(binding.getParameters().containsKey("customer_id"));
+    }
+
+    @Test
+    public void testConvertsDatesInTimeZone() {
+        ZoneId zoneId = ZoneId.of("Africa/Blantyre");
+        ParameterBinder binder = ParameterBinder.compile(reportDefinition, zoneId);
+
+        ParameterBinder.Binding binding = binder.bind(query("from_date", "2024-02-29"));
+
+        Timestamp expected = Timestamp.from(ZonedDateTime.of(2024, 2, 29, 0, 0, 0, 0, zoneId).toInstant());
+        assertEquals(expected, binding.getParameters().get("from_date"));
+    }
+
+    private static Map<String, List<String>> query(String... namesAndValues) {
+        Map<String, List<String>> query = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            query.put(namesAndValues[i], Collections.singletonList(namesAndValues[i + 1]));
+        }
+        return query;
+    }
+}
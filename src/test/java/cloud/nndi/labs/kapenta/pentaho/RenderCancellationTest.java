@@ -0,0 +1,172 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.config.Timeouts;
+import cloud.nndi.labs.kapenta.pentaho.sql.InstrumentedConnectionProvider;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link RenderCancellation} tests
+ */
+public class RenderCancellationTest {
+
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.removeRegistry(registry);
+        registry.close();
+    }
+
+    @Test
+    public void testCancelledRenderFailsQueriesAndWrites() throws Exception {
+        ConnectionProvider sqlite = new ConnectionProvider() {
+            @Override
+            public Connection createConnection(String user, String password) throws SQLException {
+                return DriverManager.getConnection("jdbc:sqlite::memory:");
+            }
+
+            @Override
+            public Object getConnectionHash() {
+                return "sqlite";
+            }
+        };
+
+        try (RenderCancellation cancellation = RenderCancellation.start("cancel-test", new Timeouts());
+             RenderCancellation.Scope scope = cancellation.bind();
+             Connection connection = InstrumentedConnectionProvider.of(sqlite).createConnection(null, null);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id INTEGER)");
+
+            assertTrue(cancellation.cancel(RenderCancellation.Reason.CLIENT_DISCONNECTED));
+            assertFalse(cancellation.cancel(RenderCancellation.Reason.DEADLINE_EXCEEDED));
+            assertEquals(Optional.of(RenderCancellation.Reason.CLIENT_DISCONNECTED), cancellation.reason());
+
+            try {
+                statement.executeQuery("SELECT id FROM t");
+                fail("Query of a cancelled render should fail");
+            } catch (SQLException e) {
+                assertTrue(e.getCause() instanceof RenderCancelledException);
+            }
+            try {
+                cancellation.checked(new ByteArrayOutputStream()).write(1);
+                fail("Write of a cancelled render should fail");
+            } catch (RenderCancelledException e) {
+                assertEquals(RenderCancellation.Reason.CLIENT_DISCONNECTED, e.getReason());
+            }
+        }
+        assertFalse(RenderCancellation.current().isPresent());
+        assertEquals(1.0, registry.get("kapenta.render.cancelled")
+            .tags("report", "cancel-test", "reason", "client_disconnected")
+            .counter().count(), 0.0);
+    }
+
+    @Test
+    public void testQueriesGetTheTimeLeftUntilTheDeadline() {
+        try (RenderCancellation cancellation = RenderCancellation.start("timeout-test", new Timeouts(60, 10))) {
+            assertTrue(cancellation.queryTimeoutSeconds() <= 10 && cancellation.queryTimeoutSeconds() >= 9);
+        }
+        try (RenderCancellation cancellation = RenderCancellation.start("timeout-test", new Timeouts(5, 10))) {
+            assertEquals(5, cancellation.queryTimeoutSeconds());
+        }
+        try (RenderCancellation cancellation = RenderCancellation.start("timeout-test", new Timeouts())) {
+            assertEquals(0, cancellation.queryTimeoutSeconds());
+        }
+    }
+
+    @Test
+    public void testDeadlineCancelsRender() throws Exception {
+        try (RenderCancellation cancellation = RenderCancellation.start("deadline-test", new Timeouts(0, 1))) {
+            for (int i = 0; i < 50 && !cancellation.isCancelled(); i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(Optional.of(RenderCancellation.Reason.DEADLINE_EXCEEDED), cancellation.reason());
+        }
+    }
+
+    @Test
+    public void testClosedConnectionCancelsRender() throws Exception {
+        final AtomicBoolean connected = new AtomicBoolean(true);
+
+        try (RenderCancellation cancellation = RenderCancellation.start("connection-test", new Timeouts())) {
+            cancellation.watchConnection(connected::get);
+            cancellation.check();
+
+            connected.set(false);
+            for (int i = 0; i < 50 && !cancellation.isCancelled(); i++) {
+                Thread.sleep(100);
+            }
+
+            assertEquals(Optional.of(RenderCancellation.Reason.CLIENT_DISCONNECTED), cancellation.reason());
+        }
+    }
+
+    @Test
+    public void testCheckNoticesClosedConnection() throws Exception {
+        final AtomicBoolean connected = new AtomicBoolean(true);
+
+        try (RenderCancellation cancellation = RenderCancellation.start("connection-check-test", new Timeouts())) {
+            cancellation.watchConnection(connected::get);
+            connected.set(false);
+            try {
+                cancellation.check();
+                fail("Render of a client that has disconnected should be cancelled");
+            } catch (RenderCancelledException e) {
+                assertEquals(RenderCancellation.Reason.CLIENT_DISCONNECTED, e.getReason());
+            }
+        }
+    }
+
+    @Test
+    public void testFinishedRenderIsNotCancelled() {
+        RenderCancellation cancellation = RenderCancellation.start("finished-test", new Timeouts());
+        cancellation.close();
+
+        assertFalse(cancellation.cancel(RenderCancellation.Reason.CLIENT_DISCONNECTED));
+        assertFalse(cancellation.isCancelled());
+    }
+
+    @Test
+    public void testFailedWriteToClientCancelsRender() throws Exception {
+        final OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        try (RenderCancellation cancellation = RenderCancellation.start("disconnect-test", new Timeouts())) {
+            final OutputStream outputStream = cancellation.checked(cancellation.cancelOnWriteFailure(disconnected));
+            try {
+                outputStream.write(1);
+                fail("Write to a disconnected client should fail");
+            } catch (IOException e) {
+                assertEquals("Broken pipe", e.getMessage());
+            }
+
+            assertEquals(Optional.of(RenderCancellation.Reason.CLIENT_DISCONNECTED), cancellation.reason());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import cloud.nndi.labs.kapenta.pentaho.sql.InstrumentedConnectionProvider;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RenderPhases} tests
+ */
+public class RenderPhasesTest {
+
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.removeRegistry(registry);
+        registry.close();
+    }
+
+    @Test
+    public void testRecordsPhasesAndBytesWhenRenderFinishes() throws Exception {
+        RenderPhases phases = RenderPhases.start("phases-test", OutputType.PDF);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (OutputStream os = RenderPhases.timed(target, RenderPhases.Phase.OUTPUT_WRITE)) {
+            os.write(new byte[128]);
+            os.write(1);
+        }
+        RenderPhases.record(RenderPhases.Phase.QUERY, 5_000_000);
+        phases.finish(false);
+
+        assertEquals(5_000_000, phases.nanos(RenderPhases.Phase.QUERY));
+        assertTrue(phases.nanos(RenderPhases.Phase.OUTPUT_WRITE) > 0);
+
+        Timer query = registry.find("kapenta.render.phase")
+            .tags("report", "phases-test", "output", "pdf", "phase", "query")
+            .timer();
+        assertNotNull(query);
+        assertEquals(1, query.count());
+        assertEquals(129.0, registry.get("kapenta.render.bytes").tags("report", "phases-test").counter().count(), 0.0);
+        assertEquals(1, registry.get("kapenta.render").tags("report", "phases-test", "outcome", "success").timer().count());
+    }
+
+    @Test
+    public void testTimesQueriesThroughInstrumentedConnections() throws Exception {
+        ConnectionProvider sqlite = new ConnectionProvider() {
+            @Override
+            public Connection createConnection(String user, String password) throws java.sql.SQLException {
+                return DriverManager.getConnection("jdbc:sqlite::memory:");
+            }
+
+            @Override
+            public Object getConnectionHash() {
+                return "sqlite";
+            }
+        };
+
+        RenderPhases phases = RenderPhases.start("query-test", OutputType.HTML);
+        try (Connection connection = InstrumentedConnectionProvider.of(sqlite).createConnection(null, null);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id INTEGER)");
+            statement.execute("INSERT INTO t VALUES (1), (2)");
+            int rows = 0;
+            try (ResultSet rs = statement.executeQuery("SELECT id FROM t")) {
+                while (rs.next()) rows++;
+            }
+            assertEquals(2, rows);
+        } finally {
+            phases.finish(false);
+        }
+
+        assertTrue(phases.nanos(RenderPhases.Phase.QUERY) > 0);
+    }
+
+    @Test
+    public void testCountsFailedRenders() {
+        RenderPhases.start("failure-test", OutputType.TXT).finish(true);
+
+        assertEquals(1.0, registry.get("kapenta.render.failures").tags("report", "failure-test").counter().count(), 0.0);
+        assertEquals(1, registry.get("kapenta.render").tags("report", "failure-test", "outcome", "failure").timer().count());
+    }
+}
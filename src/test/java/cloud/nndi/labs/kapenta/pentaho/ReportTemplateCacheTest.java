@@ -0,0 +1,65 @@
+package cloud.nndi.labs.kapenta.pentaho;
+
+import cloud.nndi.labs.kapenta.config.TemplateCache;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * {@link ReportTemplateCache} tests
+ */
+public class ReportTemplateCacheTest {
+
+    private ReportTemplateCache templateCache;
+
+    @BeforeClass
+    public static void beforeClass() {
+        ClassicEngineBoot.getInstance().start();
+    }
+
+    @Before
+    public void setUp() {
+        ResourceManager resourceManager = new ResourceManager();
+        resourceManager.registerDefaults();
+        templateCache = new ReportTemplateCache(resourceManager, new TemplateCache(true, 10, 60));
+    }
+
+    @Test
+    public void testReturnsCopiesOfTheSameTemplate() throws Exception {
+        Path report = Paths.get("./src/test/resources/test_report.prpt");
+
+        MasterReport first = templateCache.get(report);
+        MasterReport second = templateCache.get(report);
+
+        assertNotSame(first, second);
+        assertEquals(1, templateCache.size());
+    }
+
+    @Test
+    public void testReloadsTemplateWhenFileChanges() throws Exception {
+        Path report = Files.createTempFile("kapenta", ".prpt");
+        Files.copy(Paths.get("./src/test/resources/test_report.prpt"), report, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            templateCache.get(report);
+
+            Files.setLastModifiedTime(report, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+            templateCache.get(report);
+
+            assertEquals(1, templateCache.size());
+        } finally {
+            Files.deleteIfExists(report);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.config.Database;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ConnectionPools} tests
+ */
+public class ConnectionPoolsTest {
+
+    @After
+    public void tearDown() {
+        ConnectionPools.closeAll();
+    }
+
+    private static Database database(String name, String user) {
+        final Database database = new Database();
+        database.setUri("jdbc:hsqldb:mem:" + name);
+        database.setUser(user);
+        database.setPassword("");
+        return database;
+    }
+
+    @Test
+    public void testReturnsTheSamePoolForTheSameDatabase() {
+        final HikariDataSource dataSource = ConnectionPools.getDataSource(database("pools", "SA"));
+
+        assertSame(dataSource, ConnectionPools.getDataSource(database("pools", "SA")));
+        assertNotSame(dataSource, ConnectionPools.getDataSource(database("other", "SA")));
+    }
+
+    @Test
+    public void testCreatesANewPoolWhenThePoolSettingsChange() {
+        final HikariDataSource dataSource = ConnectionPools.getDataSource(database("pools", "SA"));
+        final Database resized = database("pools", "SA");
+        resized.setMaximumPoolSize(20);
+
+        final HikariDataSource replacement = ConnectionPools.getDataSource(resized);
+
+        assertNotSame(dataSource, replacement);
+        assertEquals(20, replacement.getMaximumPoolSize());
+    }
+
+    @Test
+    public void testCloseAllClosesAndRemovesThePools() {
+        final HikariDataSource dataSource = ConnectionPools.getDataSource(database("pools", "SA"));
+
+        ConnectionPools.closeAll();
+
+        assertTrue(dataSource.isClosed());
+        final HikariDataSource replacement = ConnectionPools.getDataSource(database("pools", "SA"));
+        assertNotSame(dataSource, replacement);
+        assertFalse(replacement.isClosed());
+    }
+
+    @Test
+    public void testReleaseClosesPoolsNoOtherOwnerUses() {
+        final Object owner = new Object();
+        final Object otherOwner = new Object();
+        final HikariDataSource released = ConnectionPools.getDataSource(database("released", "SA"), owner);
+        final HikariDataSource shared = ConnectionPools.getDataSource(database("shared", "SA"), owner);
+        ConnectionPools.getDataSource(database("shared", "SA"), otherOwner);
+        final HikariDataSource unowned = ConnectionPools.getDataSource(database("unowned", "SA"), owner);
+        ConnectionPools.getDataSource(database("unowned", "SA"));
+
+        ConnectionPools.release(owner);
+
+        assertTrue(released.isClosed());
+        assertFalse(shared.isClosed());
+        assertFalse(unowned.isClosed());
+        assertNotSame(released, ConnectionPools.getDataSource(database("released", "SA")));
+
+        ConnectionPools.release(otherOwner);
+
+        assertTrue(shared.isClosed());
+    }
+}
@@ -0,0 +1,100 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.cache.QueryResultCache;
+import cloud.nndi.labs.kapenta.config.QueryCache;
+import org.junit.After;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.AbstractDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.StaticDataRow;
+
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link QueryCachingDataFactory} tests
+ */
+public class QueryCachingDataFactoryTest {
+
+    private final QueryResultCache cache = new QueryResultCache("/query-cache-test", new QueryCache(true, 60, 1024 * 1024, 10));
+
+    private final CountingDataFactory delegate = new CountingDataFactory();
+
+    private final QueryCachingDataFactory dataFactory = new QueryCachingDataFactory(delegate, cache, "test#0");
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void testReusesResultsForTheSameParameters() throws Exception {
+        TableModel first = dataFactory.queryData("query", parameters(1));
+        TableModel second = dataFactory.queryData("query", parameters(1));
+
+        assertEquals(1, delegate.queries.get());
+        assertEquals(first.getRowCount(), second.getRowCount());
+        assertEquals("row-1-0", second.getValueAt(0, 0));
+    }
+
+    @Test
+    public void testRunsQueryForDifferentParameters() throws Exception {
+        dataFactory.queryData("query", parameters(1));
+        TableModel result = dataFactory.queryData("query", parameters(2));
+
+        assertEquals(2, delegate.queries.get());
+        assertEquals("row-2-0", result.getValueAt(0, 0));
+    }
+
+    @Test
+    public void testDoesNotCacheResultsWithTooManyRows() throws Exception {
+        dataFactory.queryData("query", parameters(20));
+        dataFactory.queryData("query", parameters(20));
+
+        assertEquals(2, delegate.queries.get());
+        assertEquals(0, cache.size());
+    }
+
+    private static DataRow parameters(int id) {
+        return new StaticDataRow(new String[] { "id" }, new Object[] { id });
+    }
+
+    /**
+     * Returns as many rows as the value of the id parameter
+     */
+    private static final class CountingDataFactory extends AbstractDataFactory {
+        final AtomicInteger queries = new AtomicInteger();
+
+        @Override
+        public TableModel queryData(String query, DataRow parameters) {
+            queries.incrementAndGet();
+            int id = (Integer) parameters.get("id");
+            DefaultTableModel tableModel = new DefaultTableModel(new Object[] { "value" }, 0);
+            for (int row = 0; row < id; row++) {
+                tableModel.addRow(new Object[] { "row-" + id + "-" + row });
+            }
+            return tableModel;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isQueryExecutable(String query, DataRow parameters) {
+            return true;
+        }
+
+        @Override
+        public String[] getQueryNames() {
+            return new String[] { "query" };
+        }
+
+        @Override
+        public void cancelRunningQuery() {
+        }
+    }
+}
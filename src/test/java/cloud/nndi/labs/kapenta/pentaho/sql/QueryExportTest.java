@@ -0,0 +1,155 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import cloud.nndi.labs.kapenta.OutputType;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.AbstractDataFactory;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.StaticDataRow;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.SQLReportDataFactory;
+
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * {@link QueryExport} tests
+ */
+public class QueryExportTest {
+
+    private MasterReport report;
+
+    @BeforeClass
+    public static void beforeClass() {
+        ClassicEngineBoot.getInstance().start();
+    }
+
+    @Before
+    public void setUp() {
+        report = new MasterReport();
+        report.setQuery("customers");
+        report.setDataFactory(new CustomersDataFactory());
+    }
+
+    @Test
+    public void testWritesCsv() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long rows = QueryExport.write(report, Collections.singletonMap("region", "North"), OutputType.CSV, outputStream);
+
+        assertEquals(2, rows);
+        assertEquals("id,name,joined\r\n" +
+                "1,\"Banda, \"\"Jr\"\"\",2020-01-31\r\n" +
+                "2,North,\r\n",
+            outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWritesNdjson() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long rows = QueryExport.write(report, Collections.singletonMap("region", "North"), OutputType.NDJSON, outputStream);
+
+        assertEquals(2, rows);
+        assertEquals("{\"id\":1,\"name\":\"Banda, \\\"Jr\\\"\",\"joined\":\"2020-01-31\"}\n" +
+                "{\"id\":2,\"name\":\"North\",\"joined\":null}\n",
+            outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStreamsSqlQueryFromResultSet() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:exports", "SA", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE customers (id INTEGER, name VARCHAR(20), region VARCHAR(10))");
+            statement.execute("INSERT INTO customers VALUES (1, 'Banda', 'North'), (2, 'Phiri', 'North'), (3, 'Mwale', 'North'), (4, 'Banda', 'South')");
+        }
+        final SQLReportDataFactory dataFactory = new SQLReportDataFactory(new ConnectionProvider() {
+            @Override
+            public Connection createConnection(String user, String password) throws SQLException {
+                return DriverManager.getConnection("jdbc:hsqldb:mem:exports", "SA", "");
+            }
+
+            @Override
+            public Object getConnectionHash() {
+                return "exports";
+            }
+        });
+        dataFactory.setQuery("customers", "SELECT id, name AS customer FROM customers WHERE region = ${region} AND id IN (${ids}) ORDER BY id");
+        report.setDataFactory(dataFactory);
+
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("region", "North");
+        parameters.put("ids", new Object[] { 1, 3, 4 });
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long rows = QueryExport.write(report, parameters, OutputType.CSV, outputStream);
+
+        assertEquals(2, rows);
+        assertEquals("ID,CUSTOMER\r\n1,Banda\r\n3,Mwale\r\n", outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParsesParameterReferences() {
+        final StaticDataRow parameters = new StaticDataRow(new String[] { "region", "ids" }, new Object[] { "North", new Object[] { 1, 2 } });
+
+        QueryExport.ParsedQuery query = QueryExport.ParsedQuery.parse("SELECT * FROM t WHERE region = ${region} AND id IN (${ids}) AND x = ${missing}", parameters).get();
+
+        assertEquals("SELECT * FROM t WHERE region = ? AND id IN (?, ?) AND x = ?", query.sql);
+        assertEquals(Arrays.asList("North", 1, 2, null), query.values);
+        assertFalse(QueryExport.ParsedQuery.parse("SELECT * FROM t WHERE region = ${region,string}", parameters).isPresent());
+    }
+
+    /**
+     * Answers the customers query with a row that needs escaping and a row with the region parameter
+     */
+    private static final class CustomersDataFactory extends AbstractDataFactory {
+        @Override
+        public TableModel queryData(String query, DataRow parameters) {
+            DefaultTableModel tableModel = new DefaultTableModel(new Object[] { "id", "name", "joined" }, 0);
+            tableModel.addRow(new Object[] { 1, "Banda, \"Jr\"", java.sql.Date.valueOf(LocalDate.of(2020, 1, 31)) });
+            tableModel.addRow(new Object[] { 2, parameters.get("region"), null });
+            return tableModel;
+        }
+
+        @Override
+        public DataFactory derive() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isQueryExecutable(String query, DataRow parameters) {
+            return "customers".equals(query);
+        }
+
+        @Override
+        public String[] getQueryNames() {
+            return new String[] { "customers" };
+        }
+
+        @Override
+        public void cancelRunningQuery() {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cloud.nndi.labs.kapenta.pentaho.sql;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.AbstractDataFactory;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.engine.classic.core.CompoundDataFactory;
+import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.StaticDataRow;
+
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * {@link QueryPrefetcher} tests
+ */
+public class QueryPrefetcherTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        ClassicEngineBoot.getInstance().start();
+    }
+
+    @Test
+    public void testPrefetchesQueriesThatOnlyReferenceParameters() throws Exception {
+        final SlowDataFactory slowDataFactory = new SlowDataFactory();
+        final MasterReport report = new MasterReport();
+        report.setDataFactory(slowDataFactory);
+
+        int prefetched = QueryPrefetcher.prefetch(report, Collections.singletonMap("id", 1), 4);
+
+        assertEquals(2, prefetched);
+        assertEquals(2, slowDataFactory.maxConcurrentQueries.get());
+        assertFalse(slowDataFactory.queries.containsKey("details"));
+
+        final DataFactory dataFactory = CompoundDataFactory.normalize(report.getDataFactory()).getReference(0);
+        assertEquals("main-1", dataFactory.queryData("main", parameters(1)).getValueAt(0, 0));
+        assertEquals("totals-1", dataFactory.queryData("totals", parameters(1)).getValueAt(0, 0));
+        assertEquals(1, slowDataFactory.queries.get("main").get());
+
+        // Other parameter values are queried as usual
+        assertEquals("main-2", dataFactory.queryData("main", parameters(2)).getValueAt(0, 0));
+        assertEquals(2, slowDataFactory.queries.get("main").get());
+    }
+
+    private static DataRow parameters(int id) {
+        return new StaticDataRow(
+            new String[] { "id", DataFactory.QUERY_LIMIT, DataFactory.QUERY_TIMEOUT },
+            new Object[] { id, 0, 0 });
+    }
+
+    /**
+     * Takes a while to answer the "main" and "totals" queries that reference the id parameter
+     * and the "details" query that references a field of the rows of the main query
+     */
+    private static final class SlowDataFactory extends AbstractDataFactory {
+        final Map<String, AtomicInteger> queries = new ConcurrentHashMap<>();
+        final AtomicInteger concurrentQueries = new AtomicInteger();
+        final AtomicInteger maxConcurrentQueries = new AtomicInteger();
+
+        @Override
+        public TableModel queryData(String query, DataRow parameters) {
+            queries.computeIfAbsent(query, q -> new AtomicInteger()).incrementAndGet();
+            maxConcurrentQueries.accumulateAndGet(concurrentQueries.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrentQueries.decrementAndGet();
+            }
+            DefaultTableModel tableModel = new DefaultTableModel(new Object[] { "value" }, 0);
+            tableModel.addRow(new Object[] { query + "-" + parameters.get("id") });
+            return tableModel;
+        }
+
+        @Override
+        public String[] getReferencedFields(String query, DataRow parameters) {
+            return "details".equals(query)
+                ? new String[] { "main_id" }
+                : new String[] { "id", DataFactory.QUERY_LIMIT };
+        }
+
+        @Override
+        public DataFactory derive() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isQueryExecutable(String query, DataRow parameters) {
+            return true;
+        }
+
+        @Override
+        public String[] getQueryNames() {
+            return new String[] { "main", "totals", "details" };
+        }
+
+        @Override
+        public void cancelRunningQuery() {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cloud.nndi.labs.kapenta.reportdefinition;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Optional;
+
+import static cloud.nndi.labs.kapenta.parameters.ParameterDefinition.requiredParameter;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ReportDefinitionIndex} tests
+ */
+public class ReportDefinitionIndexTest {
+
+    private Path directory;
+
+    private Path reportFile;
+
+    private Path indexFile;
+
+    private ReportDefinition reportDefinition;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("kapenta-index");
+        reportFile = Files.writeString(directory.resolve("report.prpt"), "report");
+        indexFile = directory.resolve("index.json");
+        reportDefinition = new ReportDefinition("report", reportFile.toString(),
+            Collections.singletonList(requiredParameter("id", Integer.class)), "1.0.0", "Report");
+
+        ReportDefinitionIndex index = ReportDefinitionIndex.load(indexFile);
+        index.put(reportFile, attributes(), reportDefinition);
+        index.save();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(reportFile);
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testReadsUnchangedReportsFromTheIndex() throws Exception {
+        Optional<ReportDefinition> indexed = ReportDefinitionIndex.load(indexFile).get(reportFile, attributes());
+
+        assertTrue(indexed.isPresent());
+        assertEquals(reportDefinition, indexed.get());
+        assertEquals(reportDefinition.getParameters(), indexed.get().getParameters());
+    }
+
+    @Test
+    public void testReadsReportsWithTheSameContentsFromTheIndex() throws Exception {
+        Files.setLastModifiedTime(reportFile, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+        assertTrue(ReportDefinitionIndex.load(indexFile).get(reportFile, attributes()).isPresent());
+    }
+
+    @Test
+    public void testDoesNotReadChangedReportsFromTheIndex() throws Exception {
+        Files.writeString(reportFile, "changed report");
+
+        assertFalse(ReportDefinitionIndex.load(indexFile).get(reportFile, attributes()).isPresent());
+    }
+
+    @Test
+    public void testDropsReportsThatWereNotSeen() throws Exception {
+        ReportDefinitionIndex.load(indexFile).save();
+
+        assertFalse(ReportDefinitionIndex.load(indexFile).get(reportFile, attributes()).isPresent());
+    }
+
+    private BasicFileAttributes attributes() throws Exception {
+        return Files.readAttributes(reportFile, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,90 @@
+package cloud.nndi.labs.kapenta.reportdefinition;
+
+import cloud.nndi.labs.kapenta.Server;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link StartupSnapshot} tests
+ */
+public class StartupSnapshotTest {
+
+    private Path directory;
+
+    private Path configurationFile;
+
+    private Path reportFile;
+
+    private Path snapshotFile;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("kapenta-snapshot");
+        configurationFile = Files.writeString(directory.resolve("kapenta.yml"), "apiRoot: /api");
+        reportFile = Files.writeString(directory.resolve("report.prpt"), "report");
+        snapshotFile = directory.resolve("snapshot.json");
+
+        JsonNode reports = Server.OBJECT_MAPPER.readTree("[{\"path\":\"/report\"}]");
+        JsonNode openApi = Server.OBJECT_MAPPER.readTree("{\"openapi\":\"3.0.0\"}");
+        StartupSnapshot.write(snapshotFile, sources(), reports, openApi);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Path file: new Path[] { configurationFile, reportFile, snapshotFile, directory }) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSnapshotIsCurrentWhileSourcesAreUnchanged() {
+        StartupSnapshot snapshot = StartupSnapshot.load(snapshotFile).orElseThrow();
+
+        assertTrue(snapshot.isCurrent(sources()));
+        assertEquals("/report", snapshot.getReports().get(0).get("path").asText());
+        assertEquals("3.0.0", snapshot.getOpenApi().get("openapi").asText());
+    }
+
+    @Test
+    public void testSnapshotIsOutOfDateWhenConfigurationChanges() throws Exception {
+        Files.writeString(configurationFile, "apiRoot: /v2");
+
+        assertFalse(StartupSnapshot.load(snapshotFile).orElseThrow().isCurrent(sources()));
+    }
+
+    @Test
+    public void testSnapshotIsOutOfDateWhenReportFileChanges() throws Exception {
+        Files.setLastModifiedTime(reportFile, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+        assertFalse(StartupSnapshot.load(snapshotFile).orElseThrow().isCurrent(sources()));
+    }
+
+    @Test
+    public void testSnapshotIsOutOfDateWhenApplicationVersionChanges() throws Exception {
+        JsonNode reports = Server.OBJECT_MAPPER.readTree("[]");
+        StartupSnapshot.write(snapshotFile, "0.0.1-previous", sources(), reports, reports);
+
+        assertFalse(StartupSnapshot.load(snapshotFile).orElseThrow().isCurrent(sources()));
+    }
+
+    @Test
+    public void testMissingSnapshotIsEmpty() {
+        assertFalse(StartupSnapshot.load(directory.resolve("missing.json")).isPresent());
+    }
+
+    private List<StartupSnapshot.Source> sources() {
+        return StartupSnapshot.sources(configurationFile, Collections.singletonList(reportFile));
+    }
+}
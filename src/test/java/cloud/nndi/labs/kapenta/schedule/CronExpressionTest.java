@@ -0,0 +1,64 @@
+package cloud.nndi.labs.kapenta.schedule;
+
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CronExpression} tests
+ */
+public class CronExpressionTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Africa/Blantyre");
+
+    private static ZonedDateTime at(int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(2024, month, day, hour, minute, 0, 0, ZONE);
+    }
+
+    @Test
+    public void testNextDailyTime() {
+        CronExpression cron = CronExpression.parse("30 5 * * *");
+
+        assertEquals(at(3, 14, 5, 30), cron.next(at(3, 14, 1, 0)));
+        assertEquals(at(3, 15, 5, 30), cron.next(at(3, 14, 5, 30)));
+        assertEquals(at(1, 1, 0, 0).plusYears(1), CronExpression.parse("@daily").next(at(12, 31, 23, 59)));
+    }
+
+    @Test
+    public void testWeekdaysAndSteps() {
+        // The 16th of March 2024 is a Saturday
+        CronExpression weekdays = CronExpression.parse("0 6,18 * * MON-FRI");
+        assertEquals(at(3, 15, 18, 0), weekdays.next(at(3, 15, 6, 0)));
+        assertEquals(at(3, 18, 6, 0), weekdays.next(at(3, 15, 18, 0)));
+
+        CronExpression everyQuarterHour = CronExpression.parse("*/15 * * * *");
+        assertEquals(at(3, 14, 10, 15), everyQuarterHour.next(at(3, 14, 10, 1)));
+        assertEquals(at(3, 14, 11, 0), everyQuarterHour.next(at(3, 14, 10, 45)));
+    }
+
+    @Test
+    public void testDayOfMonthOrDayOfWeek() {
+        // The 1st of the month or any Sunday, the 17th of March 2024 is a Sunday
+        CronExpression cron = CronExpression.parse("0 0 1 * SUN");
+        assertEquals(at(3, 17, 0, 0), cron.next(at(3, 14, 0, 0)));
+        assertEquals(at(4, 1, 0, 0), cron.next(at(3, 31, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingField() {
+        CronExpression.parse("0 5 * *");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueOutOfRange() {
+        CronExpression.parse("60 5 * * *");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReversedRange() {
+        CronExpression.parse("0 10-5 * * *");
+    }
+}
@@ -0,0 +1,38 @@
+package cloud.nndi.labs.kapenta.schedule;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ParameterTemplates} tests
+ */
+public class ParameterTemplatesTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2024, 3, 14);
+
+    @Test
+    public void testExpandsDates() {
+        Map<String, String> expanded = ParameterTemplates.expand(ImmutableMap.of(
+            "from", "${startOfLastMonth}",
+            "to", "${endOfLastMonth}",
+            "day", "${yesterday}",
+            "week", "${today-7}..${today}",
+            "region", "north"), TODAY);
+
+        assertEquals("2024-02-01", expanded.get("from"));
+        assertEquals("2024-02-29", expanded.get("to"));
+        assertEquals("2024-03-13", expanded.get("day"));
+        assertEquals("2024-03-07..2024-03-14", expanded.get("week"));
+        assertEquals("north", expanded.get("region"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTemplate() {
+        ParameterTemplates.expand("${lastYear}", TODAY);
+    }
+}